@@ -19,8 +19,6 @@
  */
 package org.xwiki.contrib.oidc.auth.internal.store;
 
-import java.util.List;
-
 import javax.inject.Inject;
 import javax.inject.Provider;
 import javax.inject.Singleton;
@@ -28,12 +26,8 @@ import javax.inject.Singleton;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.contrib.oidc.auth.store.OIDCClientConfiguration;
 import org.xwiki.contrib.oidc.auth.store.OIDCClientConfigurationStore;
-import org.xwiki.model.reference.DocumentReferenceResolver;
-import org.xwiki.query.Query;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.query.QueryException;
-import org.xwiki.query.QueryManager;
-import org.xwiki.security.authorization.AuthorizationManager;
-import org.xwiki.security.authorization.Right;
 
 import com.xpn.xwiki.XWiki;
 import com.xpn.xwiki.XWikiContext;
@@ -50,55 +44,41 @@ import com.xpn.xwiki.doc.XWikiDocument;
 @Singleton
 public class DefaultOIDCClientConfigurationStore implements OIDCClientConfigurationStore
 {
-    @Inject
-    private QueryManager queryManager;
-
     @Inject
     private Provider<XWikiContext> contextProvider;
 
     @Inject
-    private DocumentReferenceResolver<String> documentReferenceResolver;
-
-    @Inject
-    private AuthorizationManager authorizationManager;
+    private OIDCClientConfigurationIndex index;
 
     @Override
-    public XWikiDocument getOIDCClientConfigurationDocument(String name) throws XWikiException, QueryException
+    public DocumentReference getOIDCClientConfigurationDocumentReference(String name)
+        throws XWikiException, QueryException
     {
         XWikiContext context = contextProvider.get();
-        XWiki xwiki = context.getWiki();
 
         // Search for a configuration in the current wiki and in the main wiki
-        List<String> results = getOIDCClientConfigurationDocumentQuery(name).execute();
-        if (!context.isMainWiki()) {
-            results.addAll(getOIDCClientConfigurationDocumentQuery(name).setWiki(XWiki.DEFAULT_MAIN_WIKI).execute());
+        DocumentReference reference = this.index.get(context.getWikiId(), name);
+        if (reference == null && !context.isMainWiki()) {
+            reference = this.index.get(XWiki.DEFAULT_MAIN_WIKI, name);
         }
 
-        if (results.size() > 0) {
-            for (String result : results) {
-                XWikiDocument document = xwiki.getDocument(documentReferenceResolver.resolve(result), context);
+        return reference;
+    }
+
+    @Override
+    public XWikiDocument getOIDCClientConfigurationDocument(String name) throws XWikiException, QueryException
+    {
+        DocumentReference reference = getOIDCClientConfigurationDocumentReference(name);
+
+        if (reference != null) {
+            XWikiContext context = contextProvider.get();
 
-                if (authorizationManager.hasAccess(Right.ADMIN, document.getAuthorReference(),
-                    document.getDocumentReference().getWikiReference())) {
-                    return document;
-                }
-            }
+            return context.getWiki().getDocument(reference, context);
         }
 
         return null;
     }
 
-    private Query getOIDCClientConfigurationDocumentQuery(String name) throws QueryException
-    {
-        return queryManager.createQuery(
-                "select obj.name from BaseObject obj, StringProperty configName "
-                    + "where obj.className = :className and obj.id = configName.id.id "
-                    + "and configName.id.name = :configFieldName and configName.value = :config", Query.HQL)
-            .bindValue("className", OIDCClientConfiguration.CLASS_FULLNAME)
-            .bindValue("configFieldName", OIDCClientConfiguration.FIELD_CONFIGURATION_NAME)
-            .bindValue("config", name);
-    }
-
     @Override
     public OIDCClientConfiguration getOIDCClientConfiguration(String name)
         throws XWikiException, QueryException
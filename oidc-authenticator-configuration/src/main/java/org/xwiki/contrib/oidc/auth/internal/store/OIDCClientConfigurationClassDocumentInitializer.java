@@ -68,6 +68,7 @@ public class OIDCClientConfigurationClassDocumentInitializer extends AbstractMan
         xclass.addTextAreaField(OIDCClientConfiguration.FIELD_USER_MAPPING, "User mapping", 50, 10,
             TextAreaClass.EditorType.PURE_TEXT, TextAreaClass.ContentType.PURE_TEXT);
         xclass.addTextField(OIDCClientConfiguration.FIELD_XWIKI_PROVIDER, "XWiki provider", 255);
+        xclass.addTextField(OIDCClientConfiguration.FIELD_ISSUER, "Issuer", 255);
         xclass.addTextField(OIDCClientConfiguration.FIELD_ENDPOINT_AUTHORIZATION, "Authorization OIDC endpoint", 255);
         xclass.addTextField(OIDCClientConfiguration.FIELD_ENDPOINT_TOKEN, "Token OIDC endpoint", 255);
         xclass.addTextField(OIDCClientConfiguration.FIELD_ENDPOINT_USERINFO, "User info OIDC endpoint", 255);
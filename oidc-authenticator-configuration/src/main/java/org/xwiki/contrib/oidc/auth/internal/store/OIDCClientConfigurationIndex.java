@@ -0,0 +1,153 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.auth.internal.store;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.oidc.auth.store.OIDCClientConfiguration;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+import org.xwiki.security.authorization.AuthorizationManager;
+import org.xwiki.security.authorization.Right;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Index, for each wiki, the document holding the configuration associated with each configuration name.
+ * <p>
+ * Only documents saved by a wiki administrator are taken into account and the index of a wiki is built the first
+ * time it's needed.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+@Component(roles = OIDCClientConfigurationIndex.class)
+@Singleton
+public class OIDCClientConfigurationIndex
+{
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Inject
+    private DocumentReferenceResolver<String> documentReferenceResolver;
+
+    @Inject
+    private AuthorizationManager authorizationManager;
+
+    private final Map<String, Map<String, DocumentReference>> wikis = new ConcurrentHashMap<>();
+
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * @param wiki the identifier of the wiki where to search
+     * @param name the name of the configuration
+     * @return the reference of the document holding the configuration, null if there is none
+     * @throws XWikiException when failing to load a configuration document
+     * @throws QueryException when failing to search for the configuration documents
+     */
+    public DocumentReference get(String wiki, String name) throws XWikiException, QueryException
+    {
+        Map<String, DocumentReference> index = this.wikis.get(wiki);
+
+        if (index == null) {
+            long currentGeneration = this.generation.get();
+
+            index = build(wiki);
+
+            this.wikis.put(wiki, index);
+
+            // Make sure to not keep an index built before a modification of the configurations
+            if (this.generation.get() != currentGeneration) {
+                this.wikis.remove(wiki, index);
+            }
+        }
+
+        return index.get(name);
+    }
+
+    /**
+     * Forget the index of the passed wiki.
+     * 
+     * @param wiki the identifier of the wiki
+     */
+    public void invalidate(String wiki)
+    {
+        this.generation.incrementAndGet();
+        this.wikis.remove(wiki);
+    }
+
+    /**
+     * Forget the index of all the wikis.
+     */
+    public void invalidateAll()
+    {
+        this.generation.incrementAndGet();
+        this.wikis.clear();
+    }
+
+    private Map<String, DocumentReference> build(String wiki) throws XWikiException, QueryException
+    {
+        XWikiContext context = this.contextProvider.get();
+        WikiReference wikiReference = new WikiReference(wiki);
+
+        List<Object[]> results = this.queryManager.createQuery(
+            "select obj.name, configName.value from BaseObject obj, StringProperty configName "
+                + "where obj.className = :className and obj.id = configName.id.id "
+                + "and configName.id.name = :configFieldName order by obj.name", Query.HQL)
+            .bindValue("className", OIDCClientConfiguration.CLASS_FULLNAME)
+            .bindValue("configFieldName", OIDCClientConfiguration.FIELD_CONFIGURATION_NAME).setWiki(wiki).execute();
+
+        Map<String, DocumentReference> index = new HashMap<>(results.size());
+        for (Object[] result : results) {
+            String name = (String) result[1];
+
+            // The first document saved by an administrator wins
+            if (name != null && !index.containsKey(name)) {
+                DocumentReference reference = this.documentReferenceResolver.resolve((String) result[0], wikiReference);
+                XWikiDocument document = context.getWiki().getDocument(reference, context);
+
+                if (this.authorizationManager.hasAccess(Right.ADMIN, document.getAuthorReference(), wikiReference)) {
+                    index.put(name, reference);
+                }
+            }
+        }
+
+        return Collections.unmodifiableMap(index);
+    }
+}
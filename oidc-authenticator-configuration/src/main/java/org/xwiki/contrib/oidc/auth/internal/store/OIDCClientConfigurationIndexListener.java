@@ -0,0 +1,109 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.auth.internal.store;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.bridge.event.WikiDeletedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.oidc.auth.store.OIDCClientConfiguration;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Update the index of the client configurations when a configuration or the rights are modified.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+@Component
+@Named(OIDCClientConfigurationIndexListener.NAME)
+@Singleton
+public class OIDCClientConfigurationIndexListener extends AbstractEventListener
+{
+    /**
+     * The name of the listener.
+     */
+    public static final String NAME = "org.xwiki.contrib.oidc.auth.internal.store.OIDCClientConfigurationIndexListener";
+
+    private static final List<LocalDocumentReference> RIGHTS_CLASSES =
+        Arrays.asList(new LocalDocumentReference(XWiki.SYSTEM_SPACE, "XWikiGlobalRights"),
+            new LocalDocumentReference(XWiki.SYSTEM_SPACE, "XWikiRights"),
+            new LocalDocumentReference(XWiki.SYSTEM_SPACE, "XWikiGroups"));
+
+    @Inject
+    private OIDCClientConfigurationIndex index;
+
+    /**
+     * Default constructor.
+     */
+    public OIDCClientConfigurationIndexListener()
+    {
+        super(NAME, new DocumentCreatedEvent(), new DocumentUpdatedEvent(), new DocumentDeletedEvent(),
+            new WikiDeletedEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        if (event instanceof WikiDeletedEvent) {
+            this.index.invalidate((String) source);
+        } else {
+            XWikiDocument document = (XWikiDocument) source;
+
+            if (hasRights(document) || hasRights(document.getOriginalDocument())) {
+                // The rights of the configuration authors may have changed, in any wiki
+                this.index.invalidateAll();
+            } else if (isConfiguration(document) || isConfiguration(document.getOriginalDocument())) {
+                this.index.invalidate(document.getDocumentReference().getWikiReference().getName());
+            }
+        }
+    }
+
+    private boolean isConfiguration(XWikiDocument document)
+    {
+        return document != null && document.getXObject(OIDCClientConfiguration.CLASS_REFERENCE) != null;
+    }
+
+    private boolean hasRights(XWikiDocument document)
+    {
+        if (document != null) {
+            for (LocalDocumentReference rightsClass : RIGHTS_CLASSES) {
+                if (document.getXObject(rightsClass) != null) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+}
@@ -101,6 +101,13 @@ public class OIDCClientConfiguration
      */
     public static final String FIELD_XWIKI_PROVIDER = "xwikiProvider";
 
+    /**
+     * Name of the property containing the issuer of the provider, used to discover its endpoints.
+     *
+     * @since 1.34.4
+     */
+    public static final String FIELD_ISSUER = "issuer";
+
     /**
      * Name of the property containing the authorization endpoint.
      */
@@ -330,6 +337,24 @@ public class OIDCClientConfiguration
         this.xobject.setStringValue(FIELD_XWIKI_PROVIDER, xwikiProvider);
     }
 
+    /**
+     * @return the issuer of the provider
+     * @since 1.34.4
+     */
+    public String getIssuer()
+    {
+        return this.xobject.getStringValue(FIELD_ISSUER);
+    }
+
+    /**
+     * @param issuer the issuer of the provider
+     * @since 1.34.4
+     */
+    public void setIssuer(String issuer)
+    {
+        this.xobject.setStringValue(FIELD_ISSUER, issuer);
+    }
+
     /**
      * @return the authorization endpoint
      */
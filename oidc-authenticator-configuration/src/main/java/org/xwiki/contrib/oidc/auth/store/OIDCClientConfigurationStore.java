@@ -20,6 +20,7 @@
 package org.xwiki.contrib.oidc.auth.store;
 
 import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.query.QueryException;
 
 import com.xpn.xwiki.XWikiException;
@@ -44,6 +45,24 @@ public interface OIDCClientConfigurationStore
      */
     XWikiDocument getOIDCClientConfigurationDocument(String name) throws XWikiException, QueryException;
 
+    /**
+     * Search for the reference of the document having an object corresponding to the given OIDC client configuration
+     * name, without loading it.
+     *
+     * @param name the name of the OIDC configuration to look for
+     * @return the reference of the document found. Null if no document exist.
+     * @throws XWikiException when failing the get the document
+     * @throws QueryException when failing to search for the document
+     * @since 1.34.4
+     */
+    default DocumentReference getOIDCClientConfigurationDocumentReference(String name)
+        throws XWikiException, QueryException
+    {
+        XWikiDocument document = getOIDCClientConfigurationDocument(name);
+
+        return document != null ? document.getDocumentReference() : null;
+    }
+
     /**
      * Loads the client configuration corresponding to the provided configuration name.
      *
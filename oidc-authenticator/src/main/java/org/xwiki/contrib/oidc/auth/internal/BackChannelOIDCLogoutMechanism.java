@@ -60,6 +60,9 @@ public class BackChannelOIDCLogoutMechanism implements OIDCLogoutMechanism
     @Inject
     private OIDCClientConfiguration configuration;
 
+    @Inject
+    private OIDCHTTPClient httpClient;
+
     private Endpoint logoutURI;
 
     private IDTokenClaimsSet idTokenClaimsSet;
@@ -103,7 +106,7 @@ public class BackChannelOIDCLogoutMechanism implements OIDCLogoutMechanism
         this.logoutURI.prepare(logoutHTTP);
         this.logger.debug("OIDC logout request ({}?{},{})", logoutHTTP.getURL(), logoutHTTP.getQuery(),
             logoutHTTP.getHeaderMap());
-        HTTPResponse httpResponse = logoutHTTP.send();
+        HTTPResponse httpResponse = this.httpClient.send(logoutHTTP);
         this.logger.debug("OIDC logout response ({})", httpResponse.getContent());
 
         return httpResponse.getStatusCode();
@@ -19,7 +19,6 @@
  */
 package org.xwiki.contrib.oidc.auth.internal;
 
-import java.lang.reflect.Type;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
@@ -43,6 +42,7 @@ import javax.servlet.http.HttpSession;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.collections4.SetUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.joda.time.LocalDateTime;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
@@ -54,8 +54,10 @@ import org.xwiki.contrib.oidc.OIDCIdToken;
 import org.xwiki.contrib.oidc.OIDCUserInfo;
 import org.xwiki.contrib.oidc.auth.store.OIDCClientConfigurationStore;
 import org.xwiki.contrib.oidc.internal.OIDCConfiguration;
+import org.xwiki.contrib.oidc.provider.internal.OIDCException;
 import org.xwiki.contrib.oidc.provider.internal.OIDCManager;
 import org.xwiki.contrib.oidc.provider.internal.endpoint.AuthorizationOIDCEndpoint;
+import org.xwiki.contrib.oidc.provider.internal.endpoint.JWKOIDCEndpoint;
 import org.xwiki.contrib.oidc.provider.internal.endpoint.LogoutOIDCEndpoint;
 import org.xwiki.contrib.oidc.provider.internal.endpoint.TokenOIDCEndpoint;
 import org.xwiki.contrib.oidc.provider.internal.endpoint.UserInfoOIDCEndpoint;
@@ -73,6 +75,7 @@ import com.nimbusds.openid.connect.sdk.OIDCClaimsRequest;
 import com.nimbusds.openid.connect.sdk.OIDCScopeValue;
 import com.nimbusds.openid.connect.sdk.claims.ClaimsSetRequest;
 import com.nimbusds.openid.connect.sdk.claims.IDTokenClaimsSet;
+import com.nimbusds.openid.connect.sdk.op.OIDCProviderMetadata;
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.web.XWikiServletRequest;
@@ -86,7 +89,7 @@ import com.xpn.xwiki.web.XWikiServletRequest;
 @Singleton
 public class OIDCClientConfiguration extends OIDCConfiguration
 {
-    public class GroupMapping
+    public static class GroupMapping
     {
         private final Map<String, Set<String>> xwikiMapping;
 
@@ -121,6 +124,12 @@ public class OIDCClientConfiguration extends OIDCConfiguration
 
     public static final String PROP_XWIKIPROVIDER = "oidc.xwikiprovider";
 
+    /**
+     * The issuer of the provider, used to discover the endpoints which are not explicitly configured.
+     * @since 1.34.4
+     */
+    public static final String PROP_ISSUER = "oidc.issuer";
+
     public static final String PROP_USER_NAMEFORMATER = "oidc.user.nameFormater";
 
     public static final String DEFAULT_USER_NAMEFORMATER =
@@ -154,6 +163,12 @@ public class OIDCClientConfiguration extends OIDCConfiguration
      */
     public static final String PROP_ENDPOINT_LOGOUT = PROPPREFIX_ENDPOINT + LogoutOIDCEndpoint.HINT;
 
+    /**
+     * The endpoint publishing the keys used to sign the ID tokens.
+     * @since 1.34.4
+     */
+    public static final String PROP_ENDPOINT_JWK = PROPPREFIX_ENDPOINT + JWKOIDCEndpoint.HINT;
+
     public static final String PROP_CLIENTID = "oidc.clientid";
 
     /**
@@ -247,6 +262,50 @@ public class OIDCClientConfiguration extends OIDCConfiguration
      */
     public static final String PROP_LOGOUT_MECHANISM = "oidc.logoutMechanism";
 
+    /**
+     * The maximum time to wait for a connection to a provider, in milliseconds.
+     * @since 1.34.4
+     */
+    public static final String PROP_HTTP_CONNECTTIMEOUT = "oidc.http.connectTimeout";
+
+    /**
+     * @since 1.34.4
+     */
+    public static final int DEFAULT_HTTP_CONNECTTIMEOUT = 10000;
+
+    /**
+     * The maximum time to wait for data from a provider, in milliseconds.
+     * @since 1.34.4
+     */
+    public static final String PROP_HTTP_READTIMEOUT = "oidc.http.readTimeout";
+
+    /**
+     * @since 1.34.4
+     */
+    public static final int DEFAULT_HTTP_READTIMEOUT = 30000;
+
+    /**
+     * The maximum number of connections opened to all the providers.
+     * @since 1.34.4
+     */
+    public static final String PROP_HTTP_MAXCONNECTIONS = "oidc.http.maxConnections";
+
+    /**
+     * @since 1.34.4
+     */
+    public static final int DEFAULT_HTTP_MAXCONNECTIONS = 100;
+
+    /**
+     * The maximum number of connections opened to a single provider.
+     * @since 1.34.4
+     */
+    public static final String PROP_HTTP_MAXCONNECTIONSPERPROVIDER = "oidc.http.maxConnectionsPerProvider";
+
+    /**
+     * @since 1.34.4
+     */
+    public static final int DEFAULT_HTTP_MAXCONNECTIONSPERPROVIDER = 20;
+
     private static final String XWIKI_GROUP_PREFIX = "XWiki.";
 
     private static final Set<String> SAFE_PROPERTIES = SetUtils.hashSet(PROP_SKIPPED);
@@ -304,6 +363,12 @@ public class OIDCClientConfiguration extends OIDCConfiguration
     @Inject
     private OIDCClientConfigurationStore oidcClientConfigurationStore;
 
+    @Inject
+    private OIDCClientConfigurationCache snapshots;
+
+    @Inject
+    private OIDCProviderMetadataCache metadataCache;
+
     private HttpSession getHttpSession()
     {
         Session session = this.container.getSession();
@@ -362,8 +427,11 @@ public class OIDCClientConfiguration extends OIDCConfiguration
 
     public Map<String, String> getMap(String key)
     {
-        List<String> list = getProperty(key, List.class);
+        return toMap(getProperty(key, List.class));
+    }
 
+    static Map<String, String> toMap(List<String> list)
+    {
         Map<String, String> mapping;
 
         if (list != null && !list.isEmpty()) {
@@ -400,17 +468,8 @@ public class OIDCClientConfiguration extends OIDCConfiguration
             return sessionValue;
         }
 
-        // Get the property form the wiki configuration
-        org.xwiki.contrib.oidc.auth.store.OIDCClientConfiguration wikiClientConfiguration = getWikiClientConfiguration();
-        if (wikiClientConfiguration != null) {
-            T wikiValue = getWikiConfigurationAttribute(wikiClientConfiguration, key, valueClass);
-            if (wikiValue != null) {
-                return wikiValue;
-            }
-        }
-
-        // Get property from configuration
-        return this.configuration.getProperty(key, valueClass);
+        // Get the property from the wiki configuration or the configuration
+        return getSnapshot().getProperty(key, valueClass);
     }
 
     @Override
@@ -430,17 +489,8 @@ public class OIDCClientConfiguration extends OIDCConfiguration
             return sessionValue;
         }
 
-        // Get the property form the wiki configuration
-        org.xwiki.contrib.oidc.auth.store.OIDCClientConfiguration wikiClientConfiguration = getWikiClientConfiguration();
-        if (wikiClientConfiguration != null) {
-            T wikiValue = getWikiConfigurationAttribute(wikiClientConfiguration, key, def.getClass());
-            if (wikiValue != null) {
-                return wikiValue;
-            }
-        }
-
-        // Get property from configuration
-        return this.configuration.getProperty(key, def);
+        // Get the property from the wiki configuration or the configuration
+        return getSnapshot().getProperty(key, def);
     }
 
     /**
@@ -474,7 +524,11 @@ public class OIDCClientConfiguration extends OIDCConfiguration
      */
     public Map<String, String> getUserMapping()
     {
-        return getMap(PROP_USER_MAPPING);
+        if (isOverridden(PROP_USER_MAPPING)) {
+            return getMap(PROP_USER_MAPPING);
+        }
+
+        return getSnapshot().getUserMapping();
     }
 
     public URL getXWikiProvider()
@@ -482,7 +536,89 @@ public class OIDCClientConfiguration extends OIDCConfiguration
         return getProperty(PROP_XWIKIPROVIDER, URL.class);
     }
 
+    /**
+     * @return the issuer of the provider
+     * @since 1.34.4
+     */
+    public String getIssuer()
+    {
+        return getProperty(PROP_ISSUER, String.class);
+    }
+
+    /**
+     * @return the discovered metadata of the provider, null if no issuer is configured or if the discovery failed
+     * @since 1.34.4
+     */
+    public OIDCProviderMetadata getProviderMetadata()
+    {
+        String issuer = getIssuer();
+
+        if (issuer != null) {
+            try {
+                return this.metadataCache.get(issuer);
+            } catch (OIDCException e) {
+                this.logger.warn("Failed to discover the OIDC provider metadata: {}",
+                    ExceptionUtils.getRootCauseMessage(e));
+            }
+        }
+
+        return null;
+    }
+
     private Endpoint getEndPoint(String hint) throws URISyntaxException
+    {
+        if (isOverridden(PROPPREFIX_ENDPOINT + hint, PROPPREFIX_ENDPOINT + hint + ".headers", PROP_XWIKIPROVIDER)) {
+            return createEndPoint(hint);
+        }
+
+        Endpoint endpoint = getSnapshot().getEndpoint(hint);
+
+        // Ask the provider metadata
+        if (endpoint == null) {
+            endpoint = getDiscoveredEndPoint(hint);
+        }
+
+        if (endpoint == null) {
+            endpoint = createEndPoint(hint);
+        }
+
+        return endpoint;
+    }
+
+    private Endpoint getDiscoveredEndPoint(String hint)
+    {
+        OIDCProviderMetadata metadata = getProviderMetadata();
+
+        if (metadata == null) {
+            return null;
+        }
+
+        URI uri;
+        switch (hint) {
+            case AuthorizationOIDCEndpoint.HINT:
+                uri = metadata.getAuthorizationEndpointURI();
+                break;
+            case TokenOIDCEndpoint.HINT:
+                uri = metadata.getTokenEndpointURI();
+                break;
+            case UserInfoOIDCEndpoint.HINT:
+                uri = metadata.getUserInfoEndpointURI();
+                break;
+            case LogoutOIDCEndpoint.HINT:
+                uri = metadata.getEndSessionEndpointURI();
+                break;
+            case JWKOIDCEndpoint.HINT:
+                uri = metadata.getJWKSetURI();
+                break;
+            default:
+                uri = null;
+        }
+
+        return uri != null
+            ? new Endpoint(uri, toHeaders(getProperty(PROPPREFIX_ENDPOINT + hint + ".headers", List.class))) : null;
+    }
+
+    private Endpoint createEndPoint(String hint) throws URISyntaxException
     {
         // TODO: use URI directly when upgrading to a version of XWiki providing a URI converter
         String uriString = getProperty(PROPPREFIX_ENDPOINT + hint, String.class);
@@ -515,9 +651,15 @@ public class OIDCClientConfiguration extends OIDCConfiguration
         }
 
         // Find custom headers
+        Map<String, List<String>> headers = toHeaders(getProperty(PROPPREFIX_ENDPOINT + hint + ".headers", List.class));
+
+        return new Endpoint(uri, headers);
+    }
+
+    static Map<String, List<String>> toHeaders(List<String> entries)
+    {
         Map<String, List<String>> headers = new LinkedHashMap<>();
 
-        List<String> entries = getProperty(PROPPREFIX_ENDPOINT + hint + ".headers", List.class);
         if (entries != null) {
             for (String entry : entries) {
                 int index = entry.indexOf(':');
@@ -529,7 +671,7 @@ public class OIDCClientConfiguration extends OIDCConfiguration
             }
         }
 
-        return new Endpoint(uri, headers);
+        return headers;
     }
 
     public Endpoint getAuthorizationOIDCEndpoint() throws URISyntaxException
@@ -555,6 +697,34 @@ public class OIDCClientConfiguration extends OIDCConfiguration
         return getEndPoint(LogoutOIDCEndpoint.HINT);
     }
 
+    /**
+     * @return the endpoint publishing the keys used to sign the ID tokens, null if it's neither configured nor
+     *         discovered
+     * @since 1.34.4
+     */
+    public Endpoint getJWKOIDCEndpoint()
+    {
+        // Never take it from the request or the session: whoever chooses the keys can forge ID tokens, and the server
+        // would request any URI it's given
+        Endpoint endpoint = getSnapshot().getEndpoint(JWKOIDCEndpoint.HINT);
+
+        if (endpoint == null) {
+            endpoint = getDiscoveredEndPoint(JWKOIDCEndpoint.HINT);
+        }
+
+        return endpoint;
+    }
+
+    /**
+     * @return true if the ID tokens must be signed with one of the keys of the provider, false if unsigned ID tokens
+     *         are accepted (for compatibility with providers which don't sign them)
+     * @since 1.34.4
+     */
+    public boolean isIDTokenSignatureRequired()
+    {
+        return getIssuer() != null || getProperty(PROP_ENDPOINT_JWK, String.class) != null;
+    }
+
     public ClientID getClientID()
     {
         String clientId = getProperty(PROP_CLIENTID, String.class);
@@ -627,12 +797,20 @@ public class OIDCClientConfiguration extends OIDCConfiguration
      * @since 1.2
      */
     public OIDCClaimsRequest getClaimsRequest()
+    {
+        if (isOverridden(PROP_IDTOKENCLAIMS, PROP_USERINFOCLAIMS)) {
+            return toClaimsRequest(getIDTokenClaims(), getUserInfoClaims());
+        }
+
+        return getSnapshot().getClaimsRequest();
+    }
+
+    static OIDCClaimsRequest toClaimsRequest(List<String> idtokenclaims, List<String> userinfoclaims)
     {
         // TODO: allow passing the complete JSON as configuration
         OIDCClaimsRequest claimsRequest = new OIDCClaimsRequest();
 
         // ID Token claims
-        List<String> idtokenclaims = getIDTokenClaims();
         if (idtokenclaims != null && !idtokenclaims.isEmpty()) {
             ClaimsSetRequest idtokenclaimsRequest = new ClaimsSetRequest();
 
@@ -644,7 +822,6 @@ public class OIDCClientConfiguration extends OIDCConfiguration
         }
 
         // UserInfo claims
-        List<String> userinfoclaims = getUserInfoClaims();
         if (userinfoclaims != null && !userinfoclaims.isEmpty()) {
             ClaimsSetRequest userinfoclaimsRequest = new ClaimsSetRequest();
 
@@ -665,13 +842,16 @@ public class OIDCClientConfiguration extends OIDCConfiguration
 
     private List<String> getListProperty(String key, List<String> def)
     {
-        List<String> claims = def != null ? getProperty(key, def) : getProperty(key, List.class);
+        return toList(def != null ? getProperty(key, def) : getProperty(key, List.class));
+    }
 
-        if (claims != null && claims.size() == 1 && claims.get(0).equals("")) {
-            claims = Collections.emptyList();
+    static List<String> toList(List<String> list)
+    {
+        if (list != null && list.size() == 1 && list.get(0).equals("")) {
+            return Collections.emptyList();
         }
 
-        return claims;
+        return list;
     }
 
     /**
@@ -718,8 +898,15 @@ public class OIDCClientConfiguration extends OIDCConfiguration
      */
     public GroupMapping getGroupMapping()
     {
-        List<String> groupsMapping = getProperty(PROP_GROUPS_MAPPING, List.class);
+        if (isOverridden(PROP_GROUPS_MAPPING)) {
+            return toGroupMapping(getProperty(PROP_GROUPS_MAPPING, List.class));
+        }
+
+        return getSnapshot().getGroupMapping();
+    }
 
+    static GroupMapping toGroupMapping(List<String> groupsMapping)
+    {
         GroupMapping groups;
 
         if (groupsMapping != null && !groupsMapping.isEmpty()) {
@@ -729,7 +916,7 @@ public class OIDCClientConfiguration extends OIDCConfiguration
                 int index = groupMapping.indexOf('=');
 
                 if (index != -1) {
-                    String xwikiGroup = toXWikiGroup(groupMapping.substring(0, index));
+                    String xwikiGroup = toXWikiGroupName(groupMapping.substring(0, index));
                     String providerGroup = groupMapping.substring(index + 1);
 
                     // Add to XWiki mapping
@@ -753,6 +940,11 @@ public class OIDCClientConfiguration extends OIDCConfiguration
      * @since 1.10
      */
     public String toXWikiGroup(String group)
+    {
+        return toXWikiGroupName(group);
+    }
+
+    static String toXWikiGroupName(String group)
     {
         return group.startsWith(XWIKI_GROUP_PREFIX) ? group : XWIKI_GROUP_PREFIX + group;
     }
@@ -794,6 +986,45 @@ public class OIDCClientConfiguration extends OIDCConfiguration
         return getProperty(PROP_GROUPS_SEPARATOR, String.class);
     }
 
+    // Instance only
+
+    /**
+     * @return the maximum time to wait for a connection to a provider, in milliseconds
+     * @since 1.34.4
+     */
+    public int getHTTPConnectTimeout()
+    {
+        return this.configuration.getProperty(PROP_HTTP_CONNECTTIMEOUT, DEFAULT_HTTP_CONNECTTIMEOUT);
+    }
+
+    /**
+     * @return the maximum time to wait for data from a provider, in milliseconds
+     * @since 1.34.4
+     */
+    public int getHTTPReadTimeout()
+    {
+        return this.configuration.getProperty(PROP_HTTP_READTIMEOUT, DEFAULT_HTTP_READTIMEOUT);
+    }
+
+    /**
+     * @return the maximum number of connections opened to all the providers
+     * @since 1.34.4
+     */
+    public int getHTTPMaxConnections()
+    {
+        return this.configuration.getProperty(PROP_HTTP_MAXCONNECTIONS, DEFAULT_HTTP_MAXCONNECTIONS);
+    }
+
+    /**
+     * @return the maximum number of connections opened to a single provider
+     * @since 1.34.4
+     */
+    public int getHTTPMaxConnectionsPerProvider()
+    {
+        return this.configuration.getProperty(PROP_HTTP_MAXCONNECTIONSPERPROVIDER,
+            DEFAULT_HTTP_MAXCONNECTIONSPERPROVIDER);
+    }
+
     // Session only
 
     /**
@@ -922,120 +1153,53 @@ public class OIDCClientConfiguration extends OIDCConfiguration
         return fallbackProviderName;
     }
 
-    private org.xwiki.contrib.oidc.auth.store.OIDCClientConfiguration getWikiClientConfiguration()
+    private boolean isOverridden(String... keys)
     {
-        String configName = getOIDCProviderName();
-
-        this.logger.debug("Wiki configuration name is [{}]", configName);
-
-        try {
-            return oidcClientConfigurationStore.getOIDCClientConfiguration(configName);
-        } catch (XWikiException | QueryException e) {
-            this.logger.error("Failed to load the wiki OIDC client configuration with name [{}]", configName, e);
+        HttpSession session = getHttpSession();
+        if (session != null) {
+            for (String key : keys) {
+                if (session.getAttribute(key) != null) {
+                    return true;
+                }
+            }
         }
 
-        return null;
+        return false;
     }
 
-    /**
-     * Bridge to allow the conversion to the wiki client configuration.
-     *
-     * @param clientConfiguration the client configuration to use
-     * @param key the key to look for
-     * @param returnType the return type
-     * @return the configuration. Null if the configuration key is invalid
-     */
-    private <T> T getWikiConfigurationAttribute(
-        org.xwiki.contrib.oidc.auth.store.OIDCClientConfiguration clientConfiguration,
-        String key,
-        Type returnType)
+    private OIDCClientConfigurationSnapshot getSnapshot()
     {
-        Object returnValue = null;
-        switch (key) {
-            case PROP_GROUPS_CLAIM:
-                returnValue = clientConfiguration.getGroupClaim();
-                break;
-            case PROP_GROUPS_MAPPING:
-                returnValue = clientConfiguration.getGroupMapping();
-                break;
-            case PROP_GROUPS_ALLOWED:
-                returnValue = clientConfiguration.getAllowedGroups();
-                break;
-            case PROP_GROUPS_FORBIDDEN:
-                returnValue = clientConfiguration.getForbiddenGroups();
-                break;
-            case PROP_USER_SUBJECTFORMATER:
-                returnValue = clientConfiguration.getUserSubjectFormatter();
-                break;
-            case PROP_USER_NAMEFORMATER:
-                returnValue = clientConfiguration.getUserNameFormatter();
-                break;
-            case PROP_USER_MAPPING:
-                returnValue = clientConfiguration.getUserMapping();
-                break;
-            case PROP_XWIKIPROVIDER:
-                returnValue = clientConfiguration.getXWikiProvider();
-                break;
-            case PROP_ENDPOINT_AUTHORIZATION:
-                returnValue = clientConfiguration.getAuthorizationEndpoint();
-                break;
-            case PROP_ENDPOINT_TOKEN:
-                returnValue = clientConfiguration.getTokenEndpoint();
-                break;
-            case PROP_ENDPOINT_USERINFO:
-                returnValue = clientConfiguration.getUserInfoEndpoint();
-                break;
-            case PROP_ENDPOINT_LOGOUT:
-                returnValue = clientConfiguration.getLogoutEndpoint();
-                break;
-            case PROP_CLIENTID:
-                returnValue = clientConfiguration.getClientId();
-                break;
-            case PROP_SECRET:
-                returnValue = clientConfiguration.getClientSecret();
-                break;
-            case PROP_ENDPOINT_TOKEN_AUTH_METHOD:
-                returnValue = clientConfiguration.getTokenEndpointMethod();
-                break;
-            case PROP_ENDPOINT_USERINFO_METHOD:
-                returnValue = clientConfiguration.getUserInfoEndpointMethod();
-                break;
-            case PROP_ENDPOINT_USERINFO_HEADERS:
-                returnValue = clientConfiguration.getUserInfoEndpointHeaders();
-                break;
-            case PROP_ENDPOINT_LOGOUT_METHOD:
-                returnValue = clientConfiguration.getLogoutEndpointMethod();
-                break;
-            case PROP_SKIPPED:
-                returnValue = clientConfiguration.isSkipped();
-                break;
-            case PROP_SCOPE:
-                returnValue = clientConfiguration.getScope();
-                break;
-            case PROP_IDTOKENCLAIMS:
-                returnValue = Arrays.asList(clientConfiguration.getIdTokenClaims().toArray());
-                break;
-            case PROP_USERINFOCLAIMS:
-                returnValue = Arrays.asList(clientConfiguration.getUserInfoClaims().toArray());
-                break;
-            case PROP_USERINFOREFRESHRATE:
-                returnValue = clientConfiguration.getUserInfoRefreshRate();
-                break;
-            case PROP_LOGOUT_MECHANISM:
-                returnValue = clientConfiguration.getLogoutMechanism();
-                break;
-        }
+        XWikiContext xcontext = this.contextProvider.get();
+        String wiki = xcontext != null ? xcontext.getWikiId() : null;
+        String configName = getOIDCProviderName();
+
+        OIDCClientConfigurationSnapshot snapshot = this.snapshots.get(wiki, configName);
 
-        this.logger.debug("The value of configuration property [{}] is [{}]", key, returnValue);
+        if (snapshot == null) {
+            long generation = this.snapshots.getGeneration();
 
-        if (returnValue != null && (!(returnValue instanceof String) || StringUtils.isNotBlank((String) returnValue))) {
-            T convertedValue = this.converter.convert(returnType, returnValue);
+            this.logger.debug("Wiki configuration name is [{}]", configName);
 
-            this.logger.debug("  Converted to [{}]", returnValue);
+            org.xwiki.contrib.oidc.auth.store.OIDCClientConfiguration wikiClientConfiguration;
+            boolean failed = false;
+            try {
+                wikiClientConfiguration = this.oidcClientConfigurationStore.getOIDCClientConfiguration(configName);
+            } catch (XWikiException | QueryException e) {
+                this.logger.error("Failed to load the wiki OIDC client configuration with name [{}]", configName, e);
 
-            return convertedValue;
+                wikiClientConfiguration = null;
+                failed = true;
+            }
+
+            snapshot = new OIDCClientConfigurationSnapshot(configName, wikiClientConfiguration, this.configuration,
+                this.converter, this.manager);
+
+            // Try again next time if the wiki configuration could not be loaded
+            if (!failed) {
+                this.snapshots.set(wiki, configName, snapshot, generation);
+            }
         }
 
-        return null;
+        return snapshot;
     }
 }
@@ -0,0 +1,123 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.auth.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+
+/**
+ * Keep the resolved configuration of each provider.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+@Component(roles = OIDCClientConfigurationCache.class)
+@Singleton
+public class OIDCClientConfigurationCache implements Initializable, Disposable
+{
+    // The name of the configuration comes from a cookie so the number of entries must be bounded
+    private static final int CACHE_SIZE = 100;
+
+    @Inject
+    private CacheManager cacheManager;
+
+    private Cache<OIDCClientConfigurationSnapshot> cache;
+
+    private final AtomicLong generation = new AtomicLong();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            this.cache = this.cacheManager
+                .createNewLocalCache(new LRUCacheConfiguration("oidc.client.configurations", CACHE_SIZE));
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to create the OIDC client configuration cache", e);
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.cache.dispose();
+    }
+
+    private String getKey(String wiki, String name)
+    {
+        return wiki + ':' + name;
+    }
+
+    /**
+     * @param wiki the identifier of the wiki
+     * @param name the name of the configuration
+     * @return the cached configuration, null if there is none
+     */
+    public OIDCClientConfigurationSnapshot get(String wiki, String name)
+    {
+        return this.cache.get(getKey(wiki, name));
+    }
+
+    /**
+     * @return the current generation, to pass to {@link #set(String, String, OIDCClientConfigurationSnapshot, long)}
+     */
+    public long getGeneration()
+    {
+        return this.generation.get();
+    }
+
+    /**
+     * @param wiki the identifier of the wiki
+     * @param name the name of the configuration
+     * @param snapshot the resolved configuration
+     * @param expectedGeneration the generation retrieved before starting to resolve the configuration
+     */
+    public void set(String wiki, String name, OIDCClientConfigurationSnapshot snapshot, long expectedGeneration)
+    {
+        String key = getKey(wiki, name);
+
+        this.cache.set(key, snapshot);
+
+        // Make sure to not keep a configuration resolved before a modification
+        if (this.generation.get() != expectedGeneration) {
+            this.cache.remove(key);
+        }
+    }
+
+    /**
+     * Forget all the resolved configurations.
+     */
+    public void invalidateAll()
+    {
+        this.generation.incrementAndGet();
+        this.cache.removeAll();
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.auth.internal;
+
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.contrib.oidc.auth.internal.OIDCClientConfiguration.GroupMapping;
+import org.xwiki.contrib.oidc.provider.internal.OIDCManager;
+import org.xwiki.contrib.oidc.provider.internal.endpoint.AuthorizationOIDCEndpoint;
+import org.xwiki.contrib.oidc.provider.internal.endpoint.JWKOIDCEndpoint;
+import org.xwiki.contrib.oidc.provider.internal.endpoint.LogoutOIDCEndpoint;
+import org.xwiki.contrib.oidc.provider.internal.endpoint.TokenOIDCEndpoint;
+import org.xwiki.contrib.oidc.provider.internal.endpoint.UserInfoOIDCEndpoint;
+import org.xwiki.properties.ConverterManager;
+
+import com.nimbusds.openid.connect.sdk.OIDCClaimsRequest;
+
+/**
+ * The configuration of a provider as defined in the wiki and in the configuration files, resolved once so that the
+ * authenticator does not have to search and parse it for each property.
+ * <p>
+ * The values stored in the session and in the request still take precedence and are handled by
+ * {@link OIDCClientConfiguration}.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+public class OIDCClientConfigurationSnapshot
+{
+    private static final List<String> WIKI_PROPERTIES = Arrays.asList(OIDCClientConfiguration.PROP_GROUPS_CLAIM,
+        OIDCClientConfiguration.PROP_GROUPS_MAPPING, OIDCClientConfiguration.PROP_GROUPS_ALLOWED,
+        OIDCClientConfiguration.PROP_GROUPS_FORBIDDEN, OIDCClientConfiguration.PROP_USER_SUBJECTFORMATER,
+        OIDCClientConfiguration.PROP_USER_NAMEFORMATER, OIDCClientConfiguration.PROP_USER_MAPPING,
+        OIDCClientConfiguration.PROP_XWIKIPROVIDER, OIDCClientConfiguration.PROP_ISSUER,
+        OIDCClientConfiguration.PROP_ENDPOINT_AUTHORIZATION,
+        OIDCClientConfiguration.PROP_ENDPOINT_TOKEN, OIDCClientConfiguration.PROP_ENDPOINT_USERINFO,
+        OIDCClientConfiguration.PROP_ENDPOINT_LOGOUT, OIDCClientConfiguration.PROP_CLIENTID,
+        OIDCClientConfiguration.PROP_SECRET, OIDCClientConfiguration.PROP_ENDPOINT_TOKEN_AUTH_METHOD,
+        OIDCClientConfiguration.PROP_ENDPOINT_USERINFO_METHOD, OIDCClientConfiguration.PROP_ENDPOINT_USERINFO_HEADERS,
+        OIDCClientConfiguration.PROP_ENDPOINT_LOGOUT_METHOD, OIDCClientConfiguration.PROP_SKIPPED,
+        OIDCClientConfiguration.PROP_SCOPE, OIDCClientConfiguration.PROP_IDTOKENCLAIMS,
+        OIDCClientConfiguration.PROP_USERINFOCLAIMS, OIDCClientConfiguration.PROP_USERINFOREFRESHRATE,
+        OIDCClientConfiguration.PROP_LOGOUT_MECHANISM);
+
+    private static final List<String> ENDPOINTS = Arrays.asList(AuthorizationOIDCEndpoint.HINT,
+        TokenOIDCEndpoint.HINT, UserInfoOIDCEndpoint.HINT, LogoutOIDCEndpoint.HINT, JWKOIDCEndpoint.HINT);
+
+    private final String name;
+
+    private final Map<String, Object> wikiValues;
+
+    private final ConfigurationSource configuration;
+
+    private final ConverterManager converter;
+
+    private final Map<String, Endpoint> endpoints;
+
+    private final GroupMapping groupMapping;
+
+    private final Map<String, String> userMapping;
+
+    private final OIDCClaimsRequest claimsRequest;
+
+    /**
+     * @param name the name of the configuration
+     * @param wikiConfiguration the configuration stored in the wiki, null if there is none
+     * @param configuration the configuration source to fallback on
+     * @param converter the converter used to convert the wiki values to the expected types
+     * @param manager used to generate the endpoints of a XWiki provider
+     */
+    public OIDCClientConfigurationSnapshot(String name,
+        org.xwiki.contrib.oidc.auth.store.OIDCClientConfiguration wikiConfiguration,
+        ConfigurationSource configuration, ConverterManager converter, OIDCManager manager)
+    {
+        this.name = name;
+        this.configuration = configuration;
+        this.converter = converter;
+
+        // Extract the wiki values
+        if (wikiConfiguration != null) {
+            Map<String, Object> values = new HashMap<>(WIKI_PROPERTIES.size());
+            for (String key : WIKI_PROPERTIES) {
+                Object value = getWikiValue(wikiConfiguration, key);
+                if (value != null && (!(value instanceof String) || StringUtils.isNotBlank((String) value))) {
+                    values.put(key, value);
+                }
+            }
+            this.wikiValues = Collections.unmodifiableMap(values);
+        } else {
+            this.wikiValues = Collections.emptyMap();
+        }
+
+        // Parse the structured properties
+        Map<String, Endpoint> parsedEndpoints = new HashMap<>(ENDPOINTS.size());
+        for (String hint : ENDPOINTS) {
+            try {
+                Endpoint endpoint = createEndpoint(hint, manager);
+                if (endpoint != null) {
+                    parsedEndpoints.put(hint, endpoint);
+                }
+            } catch (URISyntaxException e) {
+                // The error is reported when the endpoint is actually requested
+            }
+        }
+        this.endpoints = Collections.unmodifiableMap(parsedEndpoints);
+
+        this.groupMapping = OIDCClientConfiguration
+            .toGroupMapping(getProperty(OIDCClientConfiguration.PROP_GROUPS_MAPPING, List.class));
+        Map<String, String> mapping =
+            OIDCClientConfiguration.toMap(getProperty(OIDCClientConfiguration.PROP_USER_MAPPING, List.class));
+        this.userMapping = mapping != null ? Collections.unmodifiableMap(mapping) : null;
+        this.claimsRequest = OIDCClientConfiguration.toClaimsRequest(
+            OIDCClientConfiguration.toList(getProperty(OIDCClientConfiguration.PROP_IDTOKENCLAIMS,
+                OIDCClientConfiguration.DEFAULT_IDTOKENCLAIMS)),
+            OIDCClientConfiguration.toList(getProperty(OIDCClientConfiguration.PROP_USERINFOCLAIMS,
+                OIDCClientConfiguration.DEFAULT_USERINFOCLAIMS)));
+    }
+
+    private Endpoint createEndpoint(String hint, OIDCManager manager) throws URISyntaxException
+    {
+        String uriString = getProperty(OIDCClientConfiguration.PROPPREFIX_ENDPOINT + hint, String.class);
+
+        URI uri;
+        if (uriString != null) {
+            uri = new URI(uriString);
+        } else if (getProperty(OIDCClientConfiguration.PROP_XWIKIPROVIDER, String.class) != null) {
+            uri = manager.createEndPointURI(
+                getProperty(OIDCClientConfiguration.PROP_XWIKIPROVIDER, URL.class).toString(), hint);
+        } else {
+            return null;
+        }
+
+        return new Endpoint(uri, Collections.unmodifiableMap(OIDCClientConfiguration.toHeaders(
+            getProperty(OIDCClientConfiguration.PROPPREFIX_ENDPOINT + hint + ".headers", List.class))));
+    }
+
+    /**
+     * @return the name of the configuration
+     */
+    public String getName()
+    {
+        return this.name;
+    }
+
+    /**
+     * @param key the name of the property
+     * @param valueClass the class of the property
+     * @param <T> the type of the property
+     * @return the value from the wiki configuration or, if not set, from the configuration source
+     */
+    public <T> T getProperty(String key, Class<T> valueClass)
+    {
+        T wikiValue = getWikiProperty(key, valueClass);
+        if (wikiValue != null) {
+            return wikiValue;
+        }
+
+        return this.configuration.getProperty(key, valueClass);
+    }
+
+    /**
+     * @param key the name of the property
+     * @param def the default value
+     * @param <T> the type of the property
+     * @return the value from the wiki configuration or, if not set, from the configuration source
+     */
+    public <T> T getProperty(String key, T def)
+    {
+        T wikiValue = getWikiProperty(key, def.getClass());
+        if (wikiValue != null) {
+            return wikiValue;
+        }
+
+        return this.configuration.getProperty(key, def);
+    }
+
+    private <T> T getWikiProperty(String key, Type returnType)
+    {
+        Object wikiValue = this.wikiValues.get(key);
+
+        return wikiValue != null ? this.converter.convert(returnType, wikiValue) : null;
+    }
+
+    /**
+     * @param hint the endpoint hint
+     * @return the configured endpoint, null if it is not configured
+     */
+    public Endpoint getEndpoint(String hint)
+    {
+        return this.endpoints.get(hint);
+    }
+
+    /**
+     * @return the group mapping, null if there is none
+     */
+    public GroupMapping getGroupMapping()
+    {
+        return this.groupMapping;
+    }
+
+    /**
+     * @return the user mapping, null if there is none
+     */
+    public Map<String, String> getUserMapping()
+    {
+        return this.userMapping;
+    }
+
+    /**
+     * @return the claims to request
+     */
+    public OIDCClaimsRequest getClaimsRequest()
+    {
+        return this.claimsRequest;
+    }
+
+    private static Object getWikiValue(org.xwiki.contrib.oidc.auth.store.OIDCClientConfiguration clientConfiguration,
+        String key)
+    {
+        switch (key) {
+            case OIDCClientConfiguration.PROP_GROUPS_CLAIM:
+                return clientConfiguration.getGroupClaim();
+            case OIDCClientConfiguration.PROP_GROUPS_MAPPING:
+                return clientConfiguration.getGroupMapping();
+            case OIDCClientConfiguration.PROP_GROUPS_ALLOWED:
+                return clientConfiguration.getAllowedGroups();
+            case OIDCClientConfiguration.PROP_GROUPS_FORBIDDEN:
+                return clientConfiguration.getForbiddenGroups();
+            case OIDCClientConfiguration.PROP_USER_SUBJECTFORMATER:
+                return clientConfiguration.getUserSubjectFormatter();
+            case OIDCClientConfiguration.PROP_USER_NAMEFORMATER:
+                return clientConfiguration.getUserNameFormatter();
+            case OIDCClientConfiguration.PROP_USER_MAPPING:
+                return clientConfiguration.getUserMapping();
+            case OIDCClientConfiguration.PROP_XWIKIPROVIDER:
+                return clientConfiguration.getXWikiProvider();
+            case OIDCClientConfiguration.PROP_ISSUER:
+                return clientConfiguration.getIssuer();
+            case OIDCClientConfiguration.PROP_ENDPOINT_AUTHORIZATION:
+                return clientConfiguration.getAuthorizationEndpoint();
+            case OIDCClientConfiguration.PROP_ENDPOINT_TOKEN:
+                return clientConfiguration.getTokenEndpoint();
+            case OIDCClientConfiguration.PROP_ENDPOINT_USERINFO:
+                return clientConfiguration.getUserInfoEndpoint();
+            case OIDCClientConfiguration.PROP_ENDPOINT_LOGOUT:
+                return clientConfiguration.getLogoutEndpoint();
+            case OIDCClientConfiguration.PROP_CLIENTID:
+                return clientConfiguration.getClientId();
+            case OIDCClientConfiguration.PROP_SECRET:
+                return clientConfiguration.getClientSecret();
+            case OIDCClientConfiguration.PROP_ENDPOINT_TOKEN_AUTH_METHOD:
+                return clientConfiguration.getTokenEndpointMethod();
+            case OIDCClientConfiguration.PROP_ENDPOINT_USERINFO_METHOD:
+                return clientConfiguration.getUserInfoEndpointMethod();
+            case OIDCClientConfiguration.PROP_ENDPOINT_USERINFO_HEADERS:
+                return clientConfiguration.getUserInfoEndpointHeaders();
+            case OIDCClientConfiguration.PROP_ENDPOINT_LOGOUT_METHOD:
+                return clientConfiguration.getLogoutEndpointMethod();
+            case OIDCClientConfiguration.PROP_SKIPPED:
+                return clientConfiguration.isSkipped();
+            case OIDCClientConfiguration.PROP_SCOPE:
+                return clientConfiguration.getScope();
+            case OIDCClientConfiguration.PROP_IDTOKENCLAIMS:
+                return toArrayList(clientConfiguration.getIdTokenClaims());
+            case OIDCClientConfiguration.PROP_USERINFOCLAIMS:
+                return toArrayList(clientConfiguration.getUserInfoClaims());
+            case OIDCClientConfiguration.PROP_USERINFOREFRESHRATE:
+                return clientConfiguration.getUserInfoRefreshRate();
+            case OIDCClientConfiguration.PROP_LOGOUT_MECHANISM:
+                return clientConfiguration.getLogoutMechanism();
+            default:
+                return null;
+        }
+    }
+
+    private static List<Object> toArrayList(List<String> list)
+    {
+        return list != null ? Arrays.asList(list.toArray()) : null;
+    }
+}
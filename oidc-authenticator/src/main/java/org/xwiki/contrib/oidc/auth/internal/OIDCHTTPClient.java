@@ -0,0 +1,264 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.auth.internal;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+
+import com.nimbusds.oauth2.sdk.ParseException;
+import com.nimbusds.oauth2.sdk.http.HTTPRequest;
+import com.nimbusds.oauth2.sdk.http.HTTPResponse;
+
+/**
+ * Send the requests to the providers through a shared pool of persistent connections.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+@Component(roles = OIDCHTTPClient.class)
+@Singleton
+public class OIDCHTTPClient implements Disposable
+{
+    private static final long IDLE_TIMEOUT = 30;
+
+    private static final Pattern MAX_AGE = Pattern.compile("(?:^|[,\\s])max-age\\s*=\\s*\"?(\\d{1,9})");
+
+    private static final Pattern NO_CACHE = Pattern.compile("no-cache|no-store");
+
+    @Inject
+    private OIDCClientConfiguration configuration;
+
+    private volatile CloseableHttpClient client;
+
+    private CloseableHttpClient getClient()
+    {
+        if (this.client == null) {
+            synchronized (this) {
+                if (this.client == null) {
+                    this.client = createClient();
+                }
+            }
+        }
+
+        return this.client;
+    }
+
+    private CloseableHttpClient createClient()
+    {
+        // Like the JDK HTTP client used before, rely on the JVM trust store, proxy and credentials settings
+        Registry<ConnectionSocketFactory> socketFactories = RegistryBuilder.<ConnectionSocketFactory>create()
+            .register("http", PlainConnectionSocketFactory.getSocketFactory())
+            .register("https", SSLConnectionSocketFactory.getSystemSocketFactory()).build();
+
+        // Each provider is a different route so the limit per route is the limit per provider
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(socketFactories);
+        connectionManager.setMaxTotal(this.configuration.getHTTPMaxConnections());
+        connectionManager.setDefaultMaxPerRoute(this.configuration.getHTTPMaxConnectionsPerProvider());
+
+        return HttpClients.custom().useSystemProperties().setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(createRequestConfig().build())
+            .setUserAgent(getClass().getPackage().getImplementationTitle() + '/'
+                + getClass().getPackage().getImplementationVersion())
+            .evictExpiredConnections().evictIdleConnections(IDLE_TIMEOUT, TimeUnit.SECONDS).build();
+    }
+
+    private RequestConfig.Builder createRequestConfig()
+    {
+        int connectTimeout = this.configuration.getHTTPConnectTimeout();
+
+        return RequestConfig.custom().setConnectTimeout(connectTimeout).setConnectionRequestTimeout(connectTimeout)
+            .setSocketTimeout(this.configuration.getHTTPReadTimeout());
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        if (this.client != null) {
+            try {
+                this.client.close();
+            } catch (IOException e) {
+                throw new ComponentLifecycleException("Failed to close the OIDC HTTP client", e);
+            }
+        }
+    }
+
+    /**
+     * @param response the response
+     * @param def the value to return when the response does not indicate how long it can be cached
+     * @return the number of seconds the response can be cached, as indicated by its {@code Cache-Control} header
+     */
+    public static long getMaxAge(HTTPResponse response, long def)
+    {
+        String cacheControl = response.getCacheControl();
+
+        if (cacheControl != null) {
+            // no-store and no-cache win over any max-age sent along with them
+            if (NO_CACHE.matcher(cacheControl).find()) {
+                return 0;
+            }
+
+            Matcher matcher = MAX_AGE.matcher(cacheControl);
+            if (matcher.find()) {
+                return Long.parseLong(matcher.group(1));
+            }
+        }
+
+        return def;
+    }
+
+    /**
+     * @param request the request to send
+     * @return the response
+     * @throws IOException when failing to send the request
+     */
+    public HTTPResponse send(HTTPRequest request) throws IOException
+    {
+        try (CloseableHttpResponse response = execute(toHttpUriRequest(request))) {
+            return toHTTPResponse(response);
+        }
+    }
+
+    /**
+     * @param request the request to send
+     * @return the response, to close once consumed
+     * @throws IOException when failing to send the request
+     */
+    public CloseableHttpResponse execute(HttpUriRequest request) throws IOException
+    {
+        return getClient().execute(request);
+    }
+
+    private HttpUriRequest toHttpUriRequest(HTTPRequest request) throws IOException
+    {
+        HTTPRequest.Method method = request.getMethod();
+
+        RequestBuilder builder = RequestBuilder.create(method.name());
+
+        // Same as HTTPRequest#send(): the query is in the URL or in the body depending on the method
+        String query = request.getQuery();
+        if (StringUtils.isNotEmpty(query)
+            && (method == HTTPRequest.Method.POST || method == HTTPRequest.Method.PUT)) {
+            builder.setUri(toURI(request.getURL().toString()));
+            builder.setEntity(new StringEntity(query, StandardCharsets.UTF_8));
+        } else if (StringUtils.isNotEmpty(query)) {
+            builder.setUri(toURI(request.getURL().toString() + '?' + query));
+        } else {
+            builder.setUri(toURI(request.getURL().toString()));
+        }
+
+        for (Map.Entry<String, List<String>> header : request.getHeaderMap().entrySet()) {
+            for (String value : header.getValue()) {
+                builder.addHeader(header.getKey(), value);
+            }
+        }
+
+        // A request configuration replaces the client default one so start from it
+        if (request.getConnectTimeout() > 0 || request.getReadTimeout() > 0) {
+            RequestConfig.Builder requestConfig = createRequestConfig();
+            if (request.getConnectTimeout() > 0) {
+                requestConfig.setConnectTimeout(request.getConnectTimeout());
+                requestConfig.setConnectionRequestTimeout(request.getConnectTimeout());
+            }
+            if (request.getReadTimeout() > 0) {
+                requestConfig.setSocketTimeout(request.getReadTimeout());
+            }
+            builder.setConfig(requestConfig.build());
+        }
+
+        return builder.build();
+    }
+
+    private URI toURI(String uri) throws IOException
+    {
+        try {
+            return new URI(uri);
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid URI [" + uri + "]", e);
+        }
+    }
+
+    private HTTPResponse toHTTPResponse(CloseableHttpResponse response) throws IOException
+    {
+        HTTPResponse httpResponse = new HTTPResponse(response.getStatusLine().getStatusCode());
+        httpResponse.setStatusMessage(response.getStatusLine().getReasonPhrase());
+
+        for (Header header : response.getAllHeaders()) {
+            List<String> values = httpResponse.getHeaderValues(header.getName());
+            if (values == null || values.isEmpty()) {
+                httpResponse.setHeader(header.getName(), header.getValue());
+            } else {
+                String[] allValues = values.toArray(new String[values.size() + 1]);
+                allValues[values.size()] = header.getValue();
+                httpResponse.setHeader(header.getName(), allValues);
+            }
+        }
+
+        Header contentType = response.getFirstHeader(HttpHeaders.CONTENT_TYPE);
+        if (contentType != null) {
+            try {
+                httpResponse.setContentType(contentType.getValue());
+            } catch (ParseException e) {
+                // Keep the raw header, as HTTPRequest#send() does
+            }
+        }
+
+        HttpEntity entity = response.getEntity();
+        if (entity != null) {
+            String content = EntityUtils.toString(entity, StandardCharsets.UTF_8);
+            if (StringUtils.isNotEmpty(content)) {
+                httpResponse.setContent(content);
+            }
+        }
+
+        return httpResponse;
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.auth.internal;
+
+import java.net.URI;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.contrib.oidc.provider.internal.OIDCException;
+import org.xwiki.contrib.oidc.provider.internal.util.StoreUtils;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.proc.BadJOSEException;
+import com.nimbusds.jose.proc.JWSVerificationKeySelector;
+import com.nimbusds.jwt.JWT;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.PlainJWT;
+import com.nimbusds.oauth2.sdk.auth.Secret;
+import com.nimbusds.oauth2.sdk.id.ClientID;
+import com.nimbusds.oauth2.sdk.id.Issuer;
+import com.nimbusds.openid.connect.sdk.claims.IDTokenClaimsSet;
+import com.nimbusds.openid.connect.sdk.op.OIDCProviderMetadata;
+import com.nimbusds.openid.connect.sdk.validators.IDTokenClaimsVerifier;
+import com.nimbusds.openid.connect.sdk.validators.IDTokenValidator;
+
+/**
+ * Validate the ID tokens received from the provider.
+ * <p>
+ * The validators are reused across requests and the keys come from {@link OIDCJWKSetCache}, so validating a token
+ * usually does not involve any call to the provider. The claims of the token (issuer, audience, expiration and issue
+ * dates) are always verified, even when the signature cannot be.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+@Component(roles = OIDCIDTokenValidator.class)
+@Singleton
+public class OIDCIDTokenValidator implements Initializable, Disposable
+{
+    // The validators depend on the configuration so there is usually only a few of them
+    private static final int CACHE_SIZE = 100;
+
+    private static final char KEY_SEPARATOR = '\n';
+
+    @Inject
+    private OIDCClientConfiguration configuration;
+
+    @Inject
+    private OIDCJWKSetCache jwkSetCache;
+
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    private Logger logger;
+
+    private Cache<IDTokenValidator> validators;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            this.validators =
+                this.cacheManager.createNewLocalCache(new LRUCacheConfiguration("oidc.idtoken.validators", CACHE_SIZE));
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to create the OIDC ID token validators cache", e);
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.validators.dispose();
+    }
+
+    /**
+     * @param idToken the ID token to validate
+     * @return the claims of the validated ID token
+     * @throws OIDCException when the ID token is not valid
+     */
+    public IDTokenClaimsSet validate(JWT idToken) throws OIDCException
+    {
+        try {
+            ClientID clientID = this.configuration.getClientID();
+            Issuer issuer = getIssuer(idToken);
+
+            IDTokenValidator validator = getValidator(idToken, issuer, clientID);
+
+            if (validator == null) {
+                // Nothing to check the signature against, but the token must still be meant for this client
+                JWTClaimsSet claims = idToken.getJWTClaimsSet();
+                new IDTokenClaimsVerifier(issuer, clientID, null, IDTokenValidator.DEFAULT_MAX_CLOCK_SKEW)
+                    .verify(claims, null);
+
+                return new IDTokenClaimsSet(claims);
+            }
+
+            return validator.validate(idToken, null);
+        } catch (BadJOSEException | JOSEException e) {
+            throw new OIDCException("Invalid ID token", e);
+        } catch (java.text.ParseException | com.nimbusds.oauth2.sdk.ParseException e) {
+            throw new OIDCException("Failed to validate the ID token", e);
+        }
+    }
+
+    private Issuer getIssuer(JWT idToken) throws java.text.ParseException, OIDCException
+    {
+        // The configured issuer or, when the token cannot be checked against it, the one claimed by the token
+        String issuer = this.configuration.getIssuer();
+        if (issuer == null) {
+            issuer = idToken.getJWTClaimsSet().getIssuer();
+            if (issuer == null) {
+                throw new OIDCException("The ID token does not indicate its issuer");
+            }
+        }
+
+        return new Issuer(issuer);
+    }
+
+    private IDTokenValidator getValidator(JWT idToken, Issuer issuer, ClientID clientID) throws OIDCException
+    {
+        if (idToken instanceof PlainJWT) {
+            if (this.configuration.isIDTokenSignatureRequired()) {
+                throw new OIDCException("The ID token is not signed");
+            }
+
+            this.logger.debug("Accepting unsigned ID token from provider [{}]", issuer);
+
+            return null;
+        }
+
+        JWSAlgorithm algorithm = (JWSAlgorithm) idToken.getHeader().getAlgorithm();
+
+        // Tokens signed with the client secret
+        if (JWSAlgorithm.Family.HMAC_SHA.contains(algorithm)) {
+            Secret secret = this.configuration.getSecret();
+            if (secret == null) {
+                throw new OIDCException("The ID token is signed with the client secret but no secret is configured");
+            }
+
+            // Don't keep the secret itself in the key
+            String key = getKey(issuer, clientID, algorithm.getName(), StoreUtils.digest(secret.getValue()));
+            IDTokenValidator validator = this.validators.get(key);
+            if (validator == null) {
+                validator = new IDTokenValidator(issuer, clientID, algorithm, secret);
+                this.validators.set(key, validator);
+            }
+
+            return validator;
+        }
+
+        Endpoint jwkEndpoint = this.configuration.getJWKOIDCEndpoint();
+        if (jwkEndpoint == null) {
+            if (this.configuration.isIDTokenSignatureRequired()) {
+                throw new OIDCException("Cannot find the keys of the provider to validate the ID token");
+            }
+
+            this.logger.debug("No keys to validate the signature of the ID token from provider [{}]", issuer);
+
+            return null;
+        }
+
+        URI jwkURI = jwkEndpoint.getURI();
+        String key = getKey(issuer, clientID, jwkURI.toString());
+        IDTokenValidator validator = this.validators.get(key);
+        if (validator == null) {
+            validator = new IDTokenValidator(issuer, clientID,
+                new JWSVerificationKeySelector<>(getAlgorithms(), this.jwkSetCache.getJWKSource(jwkURI)), null);
+            this.validators.set(key, validator);
+        }
+
+        return validator;
+    }
+
+    private String getKey(Issuer issuer, ClientID clientID, String... elements)
+    {
+        StringBuilder key = new StringBuilder();
+        key.append(issuer).append(KEY_SEPARATOR).append(clientID);
+        for (String element : elements) {
+            key.append(KEY_SEPARATOR).append(element);
+        }
+
+        return key.toString();
+    }
+
+    private Set<JWSAlgorithm> getAlgorithms()
+    {
+        Set<JWSAlgorithm> algorithms = new HashSet<>(JWSAlgorithm.Family.SIGNATURE);
+
+        // Restrict to the algorithms announced by the provider
+        OIDCProviderMetadata metadata = this.configuration.getProviderMetadata();
+        if (metadata != null) {
+            List<JWSAlgorithm> supported = metadata.getIDTokenJWSAlgs();
+            if (supported != null && !supported.isEmpty()) {
+                algorithms.retainAll(supported);
+            }
+        }
+
+        return algorithms;
+    }
+}
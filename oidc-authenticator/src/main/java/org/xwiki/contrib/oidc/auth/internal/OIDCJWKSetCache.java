@@ -0,0 +1,266 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.auth.internal;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+
+import com.nimbusds.jose.KeySourceException;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSelector;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.source.JWKSource;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.oauth2.sdk.ParseException;
+import com.nimbusds.oauth2.sdk.http.HTTPRequest;
+import com.nimbusds.oauth2.sdk.http.HTTPResponse;
+
+/**
+ * Keep in memory the public keys of the providers, refreshed in the background ahead of their expiration.
+ * <p>
+ * When a key is not found (usually because the provider rotated its keys), the key set is fetched again right away,
+ * but not more than once every 30 seconds.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+@Component(roles = OIDCJWKSetCache.class)
+@Singleton
+public class OIDCJWKSetCache implements Initializable, Disposable
+{
+    // In seconds
+    private static final long DEFAULT_LIFESPAN = 3600;
+
+    private static final long MIN_LIFESPAN = 60;
+
+    private static final long MIN_FETCH_INTERVAL = 30;
+
+    private static final long RETRY_DELAY = 60;
+
+    // Refresh when this percentage of the lifespan is elapsed
+    private static final long REFRESH_AHEAD = 80;
+
+    private static final long PERCENT = 100;
+
+    // The key sets come from the configuration so there is usually only a few of them
+    private static final int CACHE_SIZE = 100;
+
+    private final class CachedJWKSource implements JWKSource<SecurityContext>
+    {
+        private final URI uri;
+
+        private volatile JWKSet jwkSet;
+
+        private volatile long fetchDate;
+
+        // The date of the last fetch, successful or not
+        private volatile long attemptDate;
+
+        private volatile boolean used;
+
+        private volatile ScheduledFuture<?> nextRefresh;
+
+        CachedJWKSource(URI uri)
+        {
+            this.uri = uri;
+        }
+
+        @Override
+        public List<JWK> get(JWKSelector selector, SecurityContext context) throws KeySourceException
+        {
+            this.used = true;
+
+            JWKSet current = this.jwkSet;
+            if (current == null) {
+                current = load(Long.MAX_VALUE);
+            } else if (this.nextRefresh == null) {
+                // The refresh was stopped because the keys were not used
+                scheduleRefresh(0);
+            }
+
+            List<JWK> keys = selector.select(current);
+
+            // The provider may have rotated its keys
+            if (keys.isEmpty()) {
+                keys = selector.select(load(TimeUnit.SECONDS.toMillis(MIN_FETCH_INTERVAL)));
+            }
+
+            return keys;
+        }
+
+        /**
+         * @param maxAge the maximum age of the current key set, in milliseconds, before fetching a new one
+         */
+        private synchronized JWKSet load(long maxAge) throws KeySourceException
+        {
+            // Another thread might already have fetched the keys
+            long now = System.currentTimeMillis();
+            if (this.jwkSet != null && now - this.fetchDate < maxAge) {
+                return this.jwkSet;
+            }
+
+            // Don't hammer the provider when it's failing (the scheduled refresh has its own retry delay)
+            if (now - this.attemptDate < Math.min(maxAge, TimeUnit.SECONDS.toMillis(MIN_FETCH_INTERVAL))) {
+                if (this.jwkSet != null) {
+                    return this.jwkSet;
+                }
+
+                throw new KeySourceException("Failed to fetch the OIDC provider keys from [" + this.uri
+                    + "] less than " + MIN_FETCH_INTERVAL + " seconds ago");
+            }
+
+            logger.debug("Fetching the OIDC provider keys from [{}]", this.uri);
+
+            this.attemptDate = now;
+
+            long lifespan;
+            try {
+                HTTPResponse response = httpClient.send(new HTTPRequest(HTTPRequest.Method.GET, this.uri));
+                response.ensureStatusCode(HTTPResponse.SC_OK);
+
+                this.jwkSet = JWKSet.parse(response.getContent());
+                this.fetchDate = System.currentTimeMillis();
+
+                lifespan = Math.max(MIN_LIFESPAN, OIDCHTTPClient.getMaxAge(response, DEFAULT_LIFESPAN));
+            } catch (IOException | java.text.ParseException | ParseException e) {
+                throw new KeySourceException("Failed to fetch the OIDC provider keys from [" + this.uri + "]", e);
+            }
+
+            scheduleRefresh(lifespan * REFRESH_AHEAD / PERCENT);
+
+            return this.jwkSet;
+        }
+
+        private synchronized void scheduleRefresh(long delay)
+        {
+            if (this.nextRefresh != null) {
+                this.nextRefresh.cancel(false);
+            }
+
+            this.nextRefresh = refresher.schedule(this::refresh, delay, TimeUnit.SECONDS);
+        }
+
+        private void refresh()
+        {
+            synchronized (this) {
+                // Stop refreshing keys which are not used anymore
+                if (!this.used) {
+                    this.nextRefresh = null;
+
+                    return;
+                }
+
+                this.used = false;
+            }
+
+            try {
+                load(0);
+            } catch (Exception e) {
+                logger.warn("Failed to refresh the OIDC provider keys from [{}], retrying in {} seconds: {}", this.uri,
+                    RETRY_DELAY, ExceptionUtils.getRootCauseMessage(e));
+
+                // Don't stop retrying if the keys are not used in the meantime
+                this.used = true;
+                scheduleRefresh(RETRY_DELAY);
+            }
+        }
+    }
+
+    @Inject
+    private OIDCHTTPClient httpClient;
+
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    private Logger logger;
+
+    private Cache<CachedJWKSource> sources;
+
+    private ScheduledExecutorService refresher;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            this.sources =
+                this.cacheManager.createNewLocalCache(new LRUCacheConfiguration("oidc.provider.keys", CACHE_SIZE));
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to create the OIDC provider keys cache", e);
+        }
+
+        this.refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "OIDC provider keys refresher");
+            thread.setDaemon(true);
+
+            return thread;
+        });
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.refresher.shutdownNow();
+        this.sources.dispose();
+    }
+
+    /**
+     * @param uri the URI of the key set
+     * @return the source of the keys published at the passed URI
+     */
+    public JWKSource<SecurityContext> getJWKSource(URI uri)
+    {
+        String key = uri.toString();
+
+        // The refresh of an evicted source stops by itself since it's not used anymore
+        CachedJWKSource source = this.sources.get(key);
+        if (source == null) {
+            synchronized (this) {
+                source = this.sources.get(key);
+                if (source == null) {
+                    source = new CachedJWKSource(uri);
+                    this.sources.set(key, source);
+                }
+            }
+        }
+
+        return source;
+    }
+}
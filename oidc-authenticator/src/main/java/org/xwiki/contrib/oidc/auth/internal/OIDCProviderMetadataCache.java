@@ -0,0 +1,272 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.auth.internal;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.contrib.oidc.provider.internal.OIDCException;
+
+import com.nimbusds.oauth2.sdk.ParseException;
+import com.nimbusds.oauth2.sdk.http.HTTPResponse;
+import com.nimbusds.oauth2.sdk.id.Issuer;
+import com.nimbusds.openid.connect.sdk.op.OIDCProviderConfigurationRequest;
+import com.nimbusds.openid.connect.sdk.op.OIDCProviderMetadata;
+
+/**
+ * Discover the metadata of the providers and keep it up to date in the background.
+ * <p>
+ * The metadata of an issuer is fetched synchronously only the first time it's requested, and only once whatever the
+ * number of requests waiting for it. It's then refreshed ahead of its expiration (as indicated by the
+ * {@code Cache-Control} header of the provider) and the current version is always returned right away, even when the
+ * refresh failed. A failed discovery is remembered for a while so that an unavailable provider is not requested for
+ * each authentication.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+@Component(roles = OIDCProviderMetadataCache.class)
+@Singleton
+public class OIDCProviderMetadataCache implements Initializable, Disposable
+{
+    // In seconds
+    private static final long DEFAULT_LIFESPAN = 86400;
+
+    private static final long MIN_LIFESPAN = 60;
+
+    private static final long RETRY_DELAY = 60;
+
+    // Refresh when this percentage of the lifespan is elapsed
+    private static final long REFRESH_AHEAD = 80;
+
+    private static final long PERCENT = 100;
+
+    // Forget the metadata of a provider which could not be refreshed for that many times in a row
+    private static final int MAX_REFRESH_FAILURES = 10;
+
+    private static final class Entry
+    {
+        private final OIDCProviderMetadata metadata;
+
+        private final long lifespan;
+
+        private final OIDCException failure;
+
+        private volatile boolean used;
+
+        Entry(OIDCProviderMetadata metadata, long lifespan)
+        {
+            this.metadata = metadata;
+            this.lifespan = lifespan;
+            this.failure = null;
+        }
+
+        Entry(OIDCException failure)
+        {
+            this.metadata = null;
+            this.lifespan = RETRY_DELAY;
+            this.failure = failure;
+        }
+    }
+
+    @Inject
+    private OIDCHTTPClient httpClient;
+
+    @Inject
+    private Logger logger;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final Map<String, FutureTask<Entry>> loading = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService refresher;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "OIDC provider metadata refresher");
+            thread.setDaemon(true);
+
+            return thread;
+        });
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.refresher.shutdownNow();
+    }
+
+    /**
+     * @param issuer the issuer of the provider
+     * @return the metadata of the provider
+     * @throws OIDCException when failing to discover the metadata of the provider for the first time
+     */
+    public OIDCProviderMetadata get(String issuer) throws OIDCException
+    {
+        Entry entry = this.entries.get(issuer);
+
+        if (entry == null) {
+            entry = load(issuer);
+        }
+
+        if (entry.failure != null) {
+            throw new OIDCException("The metadata of OIDC provider [" + issuer + "] is not available",
+                entry.failure);
+        }
+
+        entry.used = true;
+
+        return entry.metadata;
+    }
+
+    private Entry load(String issuer) throws OIDCException
+    {
+        // Only wait for the discovery of the same issuer
+        FutureTask<Entry> task = new FutureTask<>(() -> discover(issuer));
+        FutureTask<Entry> currentTask = this.loading.putIfAbsent(issuer, task);
+        if (currentTask == null) {
+            currentTask = task;
+
+            try {
+                task.run();
+            } finally {
+                this.loading.remove(issuer, task);
+            }
+        }
+
+        try {
+            return currentTask.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new OIDCException("Interrupted while discovering the metadata of OIDC provider [" + issuer + "]", e);
+        } catch (ExecutionException e) {
+            throw new OIDCException("Failed to discover the metadata of OIDC provider [" + issuer + "]", e.getCause());
+        }
+    }
+
+    private Entry discover(String issuer)
+    {
+        Entry entry = this.entries.get(issuer);
+        if (entry != null) {
+            // Discovered by another thread in the meantime
+            return entry;
+        }
+
+        try {
+            entry = fetch(issuer);
+        } catch (OIDCException e) {
+            entry = new Entry(e);
+        }
+
+        this.entries.put(issuer, entry);
+
+        // Forget the failure after a while or start refreshing the metadata
+        scheduleRefresh(issuer, entry, 0);
+
+        return entry;
+    }
+
+    private void scheduleRefresh(String issuer, Entry entry, int failures)
+    {
+        long delay;
+        if (failures > 0) {
+            delay = RETRY_DELAY;
+        } else if (entry.failure != null) {
+            delay = entry.lifespan;
+        } else {
+            delay = entry.lifespan * REFRESH_AHEAD / PERCENT;
+        }
+
+        this.refresher.schedule(() -> refresh(issuer, entry, failures), delay, TimeUnit.SECONDS);
+    }
+
+    private void refresh(String issuer, Entry previous, int failures)
+    {
+        // Stop refreshing the metadata of a provider which is not used anymore
+        if (previous.failure != null || !previous.used) {
+            this.entries.remove(issuer, previous);
+
+            return;
+        }
+
+        try {
+            Entry entry = fetch(issuer);
+
+            if (this.entries.replace(issuer, previous, entry)) {
+                scheduleRefresh(issuer, entry, 0);
+            }
+        } catch (Exception e) {
+            if (failures + 1 < MAX_REFRESH_FAILURES) {
+                this.logger.warn("Failed to refresh the metadata of OIDC provider [{}], retrying in {} seconds: {}",
+                    issuer, RETRY_DELAY, ExceptionUtils.getRootCauseMessage(e));
+
+                scheduleRefresh(issuer, previous, failures + 1);
+            } else {
+                this.logger.warn("Failed to refresh the metadata of OIDC provider [{}] {} times in a row,"
+                    + " it will be discovered again when needed: {}", issuer, MAX_REFRESH_FAILURES,
+                    ExceptionUtils.getRootCauseMessage(e));
+
+                this.entries.remove(issuer, previous);
+            }
+        }
+    }
+    private Entry fetch(String issuer) throws OIDCException
+    {
+        this.logger.debug("Discovering the metadata of OIDC provider [{}]", issuer);
+
+        try {
+            HTTPResponse response =
+                this.httpClient.send(new OIDCProviderConfigurationRequest(new Issuer(issuer)).toHTTPRequest());
+            response.ensureStatusCode(HTTPResponse.SC_OK);
+
+            OIDCProviderMetadata metadata = OIDCProviderMetadata.parse(response.getContentAsJSONObject());
+
+            // The metadata must be about the requested issuer
+            if (!issuer.equals(metadata.getIssuer().getValue())) {
+                throw new OIDCException("The metadata of OIDC provider [" + issuer + "] is for a different issuer ["
+                    + metadata.getIssuer() + "]");
+            }
+
+            return new Entry(metadata,
+                Math.max(MIN_LIFESPAN, OIDCHTTPClient.getMaxAge(response, DEFAULT_LIFESPAN)));
+        } catch (IOException | ParseException e) {
+            throw new OIDCException("Failed to discover the metadata of OIDC provider [" + issuer + "]", e);
+        }
+    }
+}
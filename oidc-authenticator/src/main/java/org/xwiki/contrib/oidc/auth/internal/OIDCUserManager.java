@@ -24,7 +24,6 @@ import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.net.URLConnection;
 import java.security.Principal;
 import java.util.Arrays;
 import java.util.Collection;
@@ -49,6 +48,9 @@ import org.apache.commons.lang3.RegExUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.commons.text.StringSubstitutor;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
 import org.securityfilter.realm.SimplePrincipal;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
@@ -108,6 +110,9 @@ public class OIDCUserManager
     @Inject
     private OIDCUserStore store;
 
+    @Inject
+    private OIDCHTTPClient httpClient;
+
     @Inject
     private ObservationManager observation;
 
@@ -185,7 +190,7 @@ public class OIDCUserManager
         userInfoEndpoint.prepare(userinfoHTTP);
         this.logger.debug("OIDC user info request ({}?{},{})", userinfoHTTP.getURL(), userinfoHTTP.getQuery(),
             userinfoHTTP.getHeaderMap());
-        HTTPResponse httpResponse = userinfoHTTP.send();
+        HTTPResponse httpResponse = this.httpClient.send(userinfoHTTP);
         this.logger.debug("OIDC user info response ({})", httpResponse.getContent());
         UserInfoResponse userinfoResponse = UserInfoResponse.parse(httpResponse);
 
@@ -364,11 +369,13 @@ public class OIDCUserManager
         if (userInfo.getPicture() != null) {
             try {
                 String filename = FilenameUtils.getName(userInfo.getPicture().toString());
-                URLConnection connection = userInfo.getPicture().toURL().openConnection();
-                connection.setRequestProperty("User-Agent", this.getClass().getPackage().getImplementationTitle() + '/'
-                    + this.getClass().getPackage().getImplementationVersion());
-                try (InputStream content = connection.getInputStream()) {
-                    modifiableDocument.setAttachment(filename, content, xcontext);
+                try (CloseableHttpResponse response = this.httpClient.execute(new HttpGet(userInfo.getPicture()))) {
+                    if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+                        throw new IOException("Unexpected response status " + response.getStatusLine());
+                    }
+                    try (InputStream content = response.getEntity().getContent()) {
+                        modifiableDocument.setAttachment(filename, content, xcontext);
+                    }
                 }
                 userObject.set("avatar", filename, xcontext);
             } catch (IOException e) {
@@ -35,6 +35,8 @@ import org.xwiki.container.Container;
 import org.xwiki.container.servlet.ServletSession;
 import org.xwiki.contrib.oidc.auth.internal.Endpoint;
 import org.xwiki.contrib.oidc.auth.internal.OIDCClientConfiguration;
+import org.xwiki.contrib.oidc.auth.internal.OIDCHTTPClient;
+import org.xwiki.contrib.oidc.auth.internal.OIDCIDTokenValidator;
 import org.xwiki.contrib.oidc.auth.internal.OIDCUserManager;
 import org.xwiki.contrib.oidc.provider.internal.OIDCException;
 import org.xwiki.contrib.oidc.provider.internal.OIDCManager;
@@ -91,6 +93,12 @@ public class CallbackOIDCEndpoint implements OIDCEndpoint
     @Inject
     private OIDCUserManager users;
 
+    @Inject
+    private OIDCHTTPClient httpClient;
+
+    @Inject
+    private OIDCIDTokenValidator idTokenValidator;
+
     @Inject
     private Logger logger;
 
@@ -165,12 +173,12 @@ public class CallbackOIDCEndpoint implements OIDCEndpoint
         }
 
         HTTPRequest tokenHTTP = tokeRequest.toHTTPRequest();
-        tokenEndpoint.prepare(httpRequest);
+        tokenEndpoint.prepare(tokenHTTP);
 
         this.logger.debug("OIDC Token request ({}?{},{},{})", tokenHTTP.getURL(), tokenHTTP.getQuery(),
             tokenHTTP.getAuthorization(), tokenHTTP.getHeaderMap());
 
-        HTTPResponse httpResponse = tokenHTTP.send();
+        HTTPResponse httpResponse = this.httpClient.send(tokenHTTP);
         this.logger.debug("OIDC Token response ({})", httpResponse.getContent());
 
         if (httpResponse.getStatusCode() != HTTPResponse.SC_OK) {
@@ -188,9 +196,7 @@ public class CallbackOIDCEndpoint implements OIDCEndpoint
 
         OIDCTokenResponse tokenResponse = OIDCTokenResponse.parse(httpResponse);
 
-        // TODO: validate the signature of the id token
-
-        IDTokenClaimsSet idToken = new IDTokenClaimsSet(tokenResponse.getOIDCTokens().getIDToken().getJWTClaimsSet());
+        IDTokenClaimsSet idToken = this.idTokenValidator.validate(tokenResponse.getOIDCTokens().getIDToken());
         BearerAccessToken accessToken = tokenResponse.getTokens().getBearerAccessToken();
 
         HttpSession session = ((ServletSession) this.container.getSession()).getHttpSession();
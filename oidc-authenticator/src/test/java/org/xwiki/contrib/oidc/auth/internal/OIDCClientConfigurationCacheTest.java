@@ -0,0 +1,108 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.auth.internal;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate {@link OIDCClientConfigurationCache}.
+ * 
+ * @version $Id$
+ */
+@ComponentTest
+class OIDCClientConfigurationCacheTest
+{
+    @MockComponent
+    CacheManager cacheManager;
+
+    @InjectMockComponents
+    OIDCClientConfigurationCache cache;
+
+    @BeforeComponent
+    void beforeComponent() throws Exception
+    {
+        Map<String, OIDCClientConfigurationSnapshot> entries = new ConcurrentHashMap<>();
+        Cache<OIDCClientConfigurationSnapshot> storage = mock(Cache.class);
+        when(storage.get(any())).then(invocation -> entries.get(invocation.<String>getArgument(0)));
+        doAnswer(invocation -> entries.put(invocation.getArgument(0), invocation.getArgument(1))).when(storage)
+            .set(any(), any());
+        doAnswer(invocation -> entries.remove(invocation.<String>getArgument(0))).when(storage).remove(any());
+        doAnswer(invocation -> {
+            entries.clear();
+            return null;
+        }).when(storage).removeAll();
+        when(this.cacheManager.<OIDCClientConfigurationSnapshot>createNewLocalCache(any())).thenReturn(storage);
+    }
+
+    @Test
+    void setAndGet()
+    {
+        OIDCClientConfigurationSnapshot snapshot = mock(OIDCClientConfigurationSnapshot.class);
+
+        assertNull(this.cache.get("wiki", "name"));
+
+        this.cache.set("wiki", "name", snapshot, this.cache.getGeneration());
+
+        assertSame(snapshot, this.cache.get("wiki", "name"));
+        assertNull(this.cache.get("otherwiki", "name"));
+        assertNull(this.cache.get("wiki", "other"));
+    }
+
+    @Test
+    void invalidateAll()
+    {
+        long generation = this.cache.getGeneration();
+        this.cache.set("wiki", "name", mock(OIDCClientConfigurationSnapshot.class), generation);
+
+        this.cache.invalidateAll();
+
+        assertNull(this.cache.get("wiki", "name"));
+        assertNotEquals(generation, this.cache.getGeneration());
+    }
+
+    @Test
+    void setResolvedBeforeInvalidation()
+    {
+        // The configuration was modified while the snapshot was being resolved
+        long generation = this.cache.getGeneration();
+        this.cache.invalidateAll();
+
+        this.cache.set("wiki", "name", mock(OIDCClientConfigurationSnapshot.class), generation);
+
+        assertNull(this.cache.get("wiki", "name"));
+    }
+}
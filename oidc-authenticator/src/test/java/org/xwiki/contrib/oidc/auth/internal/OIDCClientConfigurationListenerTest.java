@@ -0,0 +1,129 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.auth.internal;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate {@link OIDCClientConfigurationListener}.
+ * 
+ * @version $Id$
+ */
+@ComponentTest
+class OIDCClientConfigurationListenerTest
+{
+    @MockComponent
+    OIDCClientConfigurationCache cache;
+
+    @InjectMockComponents
+    OIDCClientConfigurationListener listener;
+
+    private XWikiDocument mockDocument(String name, EntityReference xclass)
+    {
+        XWikiDocument document = mock(XWikiDocument.class);
+        when(document.getDocumentReference()).thenReturn(new DocumentReference("wiki", "Space", name));
+        if (xclass != null) {
+            when(document.getXObject(eq(xclass))).thenReturn(mock(BaseObject.class));
+        }
+
+        return document;
+    }
+
+    private void update(XWikiDocument document)
+    {
+        EventListener eventListener = this.listener;
+
+        eventListener.onEvent(new DocumentUpdatedEvent(), document, null);
+    }
+
+    @Test
+    void onConfigurationUpdated()
+    {
+        update(mockDocument("Configuration",
+            org.xwiki.contrib.oidc.auth.store.OIDCClientConfiguration.CLASS_REFERENCE));
+
+        verify(this.cache).invalidateAll();
+    }
+
+    @Test
+    void onConfigurationRemoved()
+    {
+        XWikiDocument document = mockDocument("Configuration", null);
+        XWikiDocument originalDocument = mockDocument("Configuration",
+            org.xwiki.contrib.oidc.auth.store.OIDCClientConfiguration.CLASS_REFERENCE);
+        when(document.getOriginalDocument()).thenReturn(originalDocument);
+
+        update(document);
+
+        verify(this.cache).invalidateAll();
+    }
+
+    @Test
+    void onPreferencesUpdated()
+    {
+        update(mockDocument("XWikiPreferences", null));
+        update(mockDocument("WebPreferences", null));
+
+        verify(this.cache, times(2)).invalidateAll();
+    }
+
+    @Test
+    void onRightsUpdated()
+    {
+        update(mockDocument("Page", new LocalDocumentReference(XWiki.SYSTEM_SPACE, "XWikiRights")));
+
+        verify(this.cache).invalidateAll();
+    }
+
+    @Test
+    void onGroupUpdated()
+    {
+        update(mockDocument("Group", new LocalDocumentReference(XWiki.SYSTEM_SPACE, "XWikiGroups")));
+
+        verify(this.cache).invalidateAll();
+    }
+
+    @Test
+    void onOtherDocumentUpdated()
+    {
+        update(mockDocument("Page", null));
+
+        verify(this.cache, never()).invalidateAll();
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.auth.internal;
+
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.contrib.oidc.provider.internal.OIDCManager;
+import org.xwiki.contrib.oidc.provider.internal.endpoint.TokenOIDCEndpoint;
+import org.xwiki.contrib.oidc.provider.internal.endpoint.UserInfoOIDCEndpoint;
+import org.xwiki.properties.ConverterManager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate {@link OIDCClientConfigurationSnapshot}.
+ * 
+ * @version $Id$
+ */
+class OIDCClientConfigurationSnapshotTest
+{
+    private static final String TOKEN_ENDPOINT =
+        OIDCClientConfiguration.PROPPREFIX_ENDPOINT + TokenOIDCEndpoint.HINT;
+
+    private ConfigurationSource configuration;
+
+    private ConverterManager converter;
+
+    private OIDCManager manager;
+
+    private org.xwiki.contrib.oidc.auth.store.OIDCClientConfiguration wikiConfiguration;
+
+    @BeforeEach
+    void beforeEach()
+    {
+        this.configuration = mock(ConfigurationSource.class);
+        this.converter = mock(ConverterManager.class);
+        this.manager = mock(OIDCManager.class);
+        this.wikiConfiguration = mock(org.xwiki.contrib.oidc.auth.store.OIDCClientConfiguration.class);
+
+        when(this.converter.convert(any(Type.class), any())).then(invocation -> invocation.getArgument(1));
+    }
+
+    private OIDCClientConfigurationSnapshot createSnapshot()
+    {
+        return new OIDCClientConfigurationSnapshot("name", this.wikiConfiguration, this.configuration,
+            this.converter, this.manager);
+    }
+
+    @Test
+    void getPropertyFromWiki()
+    {
+        when(this.wikiConfiguration.getClientId()).thenReturn("wikiclient");
+        when(this.configuration.getProperty(OIDCClientConfiguration.PROP_CLIENTID, String.class))
+            .thenReturn("fileclient");
+
+        OIDCClientConfigurationSnapshot snapshot = createSnapshot();
+
+        assertEquals("name", snapshot.getName());
+        assertEquals("wikiclient", snapshot.getProperty(OIDCClientConfiguration.PROP_CLIENTID, String.class));
+        assertEquals("wikiclient", snapshot.getProperty(OIDCClientConfiguration.PROP_CLIENTID, "default"));
+    }
+
+    @Test
+    void getPropertyFallsBackOnConfiguration()
+    {
+        // Blank wiki values are not set
+        when(this.wikiConfiguration.getClientSecret()).thenReturn(" ");
+        when(this.configuration.getProperty(OIDCClientConfiguration.PROP_SECRET, String.class)).thenReturn("secret");
+
+        OIDCClientConfigurationSnapshot snapshot = createSnapshot();
+
+        assertEquals("secret", snapshot.getProperty(OIDCClientConfiguration.PROP_SECRET, String.class));
+
+        snapshot = new OIDCClientConfigurationSnapshot("name", null, this.configuration, this.converter, this.manager);
+
+        assertEquals("secret", snapshot.getProperty(OIDCClientConfiguration.PROP_SECRET, String.class));
+    }
+
+    @Test
+    void getWikiValuesResolvedOnce()
+    {
+        when(this.wikiConfiguration.getClientId()).thenReturn("wikiclient");
+
+        OIDCClientConfigurationSnapshot snapshot = createSnapshot();
+        when(this.wikiConfiguration.getClientId()).thenReturn("modified");
+
+        // The snapshot does not depend on the wiki configuration object anymore
+        assertEquals("wikiclient", snapshot.getProperty(OIDCClientConfiguration.PROP_CLIENTID, String.class));
+        verify(this.wikiConfiguration).getClientId();
+    }
+
+    @Test
+    void getEndpoint() throws Exception
+    {
+        when(this.configuration.getProperty(TOKEN_ENDPOINT, String.class)).thenReturn("https://provider/token");
+        when(this.configuration.getProperty(TOKEN_ENDPOINT + ".headers", List.class))
+            .thenReturn(Arrays.asList("key:value"));
+
+        Endpoint endpoint = createSnapshot().getEndpoint(TokenOIDCEndpoint.HINT);
+
+        assertEquals(new URI("https://provider/token"), endpoint.getURI());
+        assertEquals(Collections.singletonMap("key", Arrays.asList("value")), endpoint.getHeaders());
+        assertThrows(UnsupportedOperationException.class, () -> endpoint.getHeaders().clear());
+    }
+
+    @Test
+    void getEndpointFromXWikiProvider() throws Exception
+    {
+        URI userInfoURI = new URI("https://wiki/oidc/userinfo");
+        when(this.configuration.getProperty(OIDCClientConfiguration.PROP_XWIKIPROVIDER, String.class))
+            .thenReturn("https://wiki/oidc");
+        when(this.configuration.getProperty(OIDCClientConfiguration.PROP_XWIKIPROVIDER, URL.class))
+            .thenReturn(new URL("https://wiki/oidc"));
+        when(this.manager.createEndPointURI("https://wiki/oidc", UserInfoOIDCEndpoint.HINT)).thenReturn(userInfoURI);
+
+        assertEquals(userInfoURI, createSnapshot().getEndpoint(UserInfoOIDCEndpoint.HINT).getURI());
+    }
+
+    @Test
+    void getInvalidEndpoint()
+    {
+        when(this.configuration.getProperty(TOKEN_ENDPOINT, String.class)).thenReturn("not a valid uri");
+
+        assertNull(createSnapshot().getEndpoint(TokenOIDCEndpoint.HINT));
+    }
+
+    @Test
+    void getMappings()
+    {
+        when(this.wikiConfiguration.getGroupMapping()).thenReturn(Arrays.asList("XWiki.group=providergroup"));
+        when(this.configuration.getProperty(OIDCClientConfiguration.PROP_USER_MAPPING, List.class))
+            .thenReturn(Arrays.asList("property=${oidc.user.claim}"));
+
+        OIDCClientConfigurationSnapshot snapshot = createSnapshot();
+
+        assertEquals(Collections.singleton("providergroup"), snapshot.getGroupMapping().fromXWiki("XWiki.group"));
+        assertEquals(Collections.singletonMap("property", "${oidc.user.claim}"), snapshot.getUserMapping());
+        assertNull(new OIDCClientConfigurationSnapshot("name", null, mock(ConfigurationSource.class), this.converter,
+            this.manager).getGroupMapping());
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.auth.internal;
+
+import java.net.URL;
+
+import org.apache.http.Header;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.Configurable;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.message.BasicStatusLine;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.nimbusds.oauth2.sdk.http.HTTPRequest;
+import com.nimbusds.oauth2.sdk.http.HTTPResponse;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate {@link OIDCHTTPClient}.
+ * 
+ * @version $Id$
+ */
+@ComponentTest
+class OIDCHTTPClientTest
+{
+    @MockComponent
+    OIDCClientConfiguration configuration;
+
+    @InjectMockComponents
+    OIDCHTTPClient httpClient;
+
+    private HTTPResponse response(String cacheControl)
+    {
+        HTTPResponse response = new HTTPResponse(200);
+        response.setCacheControl(cacheControl);
+
+        return response;
+    }
+
+    private RequestConfig send(HTTPRequest request) throws Exception
+    {
+        when(this.configuration.getHTTPConnectTimeout()).thenReturn(1000);
+        when(this.configuration.getHTTPReadTimeout()).thenReturn(2000);
+
+        CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+        when(response.getStatusLine()).thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, 200, "OK"));
+        when(response.getAllHeaders()).thenReturn(new Header[0]);
+
+        OIDCHTTPClient client = spy(this.httpClient);
+        doReturn(response).when(client).execute(any());
+
+        client.send(request);
+
+        ArgumentCaptor<HttpUriRequest> captor = ArgumentCaptor.forClass(HttpUriRequest.class);
+        verify(client).execute(captor.capture());
+
+        return ((Configurable) captor.getValue()).getConfig();
+    }
+
+    @Test
+    void getMaxAge()
+    {
+        assertEquals(42, OIDCHTTPClient.getMaxAge(response(null), 42));
+        assertEquals(42, OIDCHTTPClient.getMaxAge(response("public"), 42));
+        assertEquals(60, OIDCHTTPClient.getMaxAge(response("public, max-age=60"), 42));
+        assertEquals(0, OIDCHTTPClient.getMaxAge(response("no-cache"), 42));
+    }
+
+    @Test
+    void getMaxAgeWithNoStoreOrNoCache()
+    {
+        assertEquals(0, OIDCHTTPClient.getMaxAge(response("max-age=3600, no-store"), 42));
+        assertEquals(0, OIDCHTTPClient.getMaxAge(response("max-age=3600, no-cache"), 42));
+        assertEquals(0, OIDCHTTPClient.getMaxAge(response("no-cache, max-age=3600"), 42));
+    }
+
+    @Test
+    void sendWithoutRequestTimeouts() throws Exception
+    {
+        // The client default configuration applies
+        assertNull(send(new HTTPRequest(HTTPRequest.Method.GET, new URL("https://issuer/jwks"))));
+    }
+
+    @Test
+    void sendWithRequestTimeouts() throws Exception
+    {
+        HTTPRequest request = new HTTPRequest(HTTPRequest.Method.GET, new URL("https://issuer/jwks"));
+        request.setConnectTimeout(100);
+        request.setReadTimeout(200);
+
+        RequestConfig config = send(request);
+
+        assertEquals(100, config.getConnectTimeout());
+        assertEquals(100, config.getConnectionRequestTimeout());
+        assertEquals(200, config.getSocketTimeout());
+    }
+
+    @Test
+    void sendWithRequestReadTimeout() throws Exception
+    {
+        HTTPRequest request = new HTTPRequest(HTTPRequest.Method.GET, new URL("https://issuer/jwks"));
+        request.setReadTimeout(200);
+
+        RequestConfig config = send(request);
+
+        // What the request does not set comes from the client configuration
+        assertEquals(1000, config.getConnectTimeout());
+        assertEquals(200, config.getSocketTimeout());
+    }
+}
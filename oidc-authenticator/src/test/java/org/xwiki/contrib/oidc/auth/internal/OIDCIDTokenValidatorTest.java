@@ -0,0 +1,223 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.auth.internal;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.contrib.oidc.provider.internal.OIDCException;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.MACSigner;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jose.jwk.source.ImmutableJWKSet;
+import com.nimbusds.jwt.JWT;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.PlainJWT;
+import com.nimbusds.jwt.SignedJWT;
+import com.nimbusds.oauth2.sdk.auth.Secret;
+import com.nimbusds.oauth2.sdk.id.ClientID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate {@link OIDCIDTokenValidator}.
+ * 
+ * @version $Id$
+ */
+@ComponentTest
+class OIDCIDTokenValidatorTest
+{
+    private static final String ISSUER = "https://issuer";
+
+    private static final ClientID CLIENT = new ClientID("client");
+
+    private static final Secret SECRET = new Secret("0123456789abcdef0123456789abcdef");
+
+    private static final long HOUR = 3600000;
+
+    private static RSAKey key;
+
+    private static RSAKey otherKey;
+
+    @MockComponent
+    OIDCClientConfiguration configuration;
+
+    @MockComponent
+    OIDCJWKSetCache jwkSetCache;
+
+    @MockComponent
+    CacheManager cacheManager;
+
+    @InjectMockComponents
+    OIDCIDTokenValidator validator;
+
+    private Cache<Object> validators;
+
+    @BeforeAll
+    static void beforeAll() throws Exception
+    {
+        key = new RSAKeyGenerator(2048).keyID("key").generate();
+        // Same identifier, different key
+        otherKey = new RSAKeyGenerator(2048).keyID("key").generate();
+    }
+
+    @BeforeComponent
+    void beforeComponent() throws Exception
+    {
+        Map<String, Object> entries = new ConcurrentHashMap<>();
+        this.validators = mock(Cache.class);
+        when(this.validators.get(any())).then(invocation -> entries.get(invocation.<String>getArgument(0)));
+        doAnswer(invocation -> entries.put(invocation.getArgument(0), invocation.getArgument(1)))
+            .when(this.validators).set(any(), any());
+        when(this.cacheManager.createNewLocalCache(any())).thenReturn(this.validators);
+    }
+
+    @BeforeEach
+    void beforeEach() throws Exception
+    {
+        URI jwkURI = new URI(ISSUER + "/jwks");
+
+        when(this.configuration.getClientID()).thenReturn(CLIENT);
+        when(this.configuration.getIssuer()).thenReturn(ISSUER);
+        when(this.configuration.isIDTokenSignatureRequired()).thenReturn(true);
+        when(this.configuration.getJWKOIDCEndpoint()).thenReturn(new Endpoint(jwkURI, Collections.emptyMap()));
+        when(this.jwkSetCache.getJWKSource(jwkURI)).thenReturn(new ImmutableJWKSet<>(new JWKSet(key.toPublicJWK())));
+    }
+
+    private static JWTClaimsSet createClaims(String audience, long expiration)
+    {
+        return new JWTClaimsSet.Builder().issuer(ISSUER).subject("subject").audience(audience)
+            .issueTime(new Date()).expirationTime(new Date(System.currentTimeMillis() + expiration)).build();
+    }
+
+    private static JWT sign(RSAKey signingKey, JWTClaimsSet claims) throws Exception
+    {
+        SignedJWT jwt =
+            new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(signingKey.getKeyID()).build(), claims);
+        jwt.sign(new RSASSASigner(signingKey));
+
+        return jwt;
+    }
+
+    @Test
+    void validate() throws Exception
+    {
+        assertEquals("subject",
+            this.validator.validate(sign(key, createClaims(CLIENT.getValue(), HOUR))).getSubject().getValue());
+    }
+
+    @Test
+    void validateWithBadSignature() throws Exception
+    {
+        JWT idToken = sign(otherKey, createClaims(CLIENT.getValue(), HOUR));
+
+        assertThrows(OIDCException.class, () -> this.validator.validate(idToken));
+    }
+
+    @Test
+    void validateWithWrongAudience() throws Exception
+    {
+        JWT idToken = sign(key, createClaims("other", HOUR));
+
+        assertThrows(OIDCException.class, () -> this.validator.validate(idToken));
+    }
+
+    @Test
+    void validateExpired() throws Exception
+    {
+        JWT idToken = sign(key, createClaims(CLIENT.getValue(), -HOUR));
+
+        assertThrows(OIDCException.class, () -> this.validator.validate(idToken));
+    }
+
+    @Test
+    void validateWithoutKeys() throws Exception
+    {
+        when(this.configuration.isIDTokenSignatureRequired()).thenReturn(false);
+        when(this.configuration.getJWKOIDCEndpoint()).thenReturn(null);
+
+        this.validator.validate(sign(key, createClaims(CLIENT.getValue(), HOUR)));
+
+        // The claims are checked even when the signature cannot be
+        JWT wrongAudience = sign(key, createClaims("other", HOUR));
+        assertThrows(OIDCException.class, () -> this.validator.validate(wrongAudience));
+        JWT expired = sign(key, createClaims(CLIENT.getValue(), -HOUR));
+        assertThrows(OIDCException.class, () -> this.validator.validate(expired));
+        JWT unsignedExpired = new PlainJWT(createClaims(CLIENT.getValue(), -HOUR));
+        assertThrows(OIDCException.class, () -> this.validator.validate(unsignedExpired));
+    }
+
+    @Test
+    void validateWithoutKeysWhenSignatureRequired() throws Exception
+    {
+        when(this.configuration.getJWKOIDCEndpoint()).thenReturn(null);
+
+        JWT idToken = sign(key, createClaims(CLIENT.getValue(), HOUR));
+
+        assertThrows(OIDCException.class, () -> this.validator.validate(idToken));
+    }
+
+    @Test
+    void validateUnsignedWhenSignatureRequired()
+    {
+        JWT idToken = new PlainJWT(createClaims(CLIENT.getValue(), HOUR));
+
+        assertThrows(OIDCException.class, () -> this.validator.validate(idToken));
+    }
+
+    @Test
+    void validateSignedWithSecret() throws Exception
+    {
+        when(this.configuration.getSecret()).thenReturn(SECRET);
+
+        SignedJWT idToken = new SignedJWT(new JWSHeader(JWSAlgorithm.HS256), createClaims(CLIENT.getValue(), HOUR));
+        idToken.sign(new MACSigner(SECRET.getValueBytes()));
+
+        this.validator.validate(idToken);
+        this.validator.validate(idToken);
+
+        // The validator is created once
+        verify(this.validators, times(1)).set(any(), any());
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.auth.internal;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.nimbusds.jose.KeySourceException;
+import com.nimbusds.jose.jwk.JWKMatcher;
+import com.nimbusds.jose.jwk.JWKSelector;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jose.jwk.source.JWKSource;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.oauth2.sdk.http.HTTPResponse;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate {@link OIDCJWKSetCache}.
+ * 
+ * @version $Id$
+ */
+@ComponentTest
+class OIDCJWKSetCacheTest
+{
+    private static final URI JWK_URI = URI.create("https://issuer/jwks");
+
+    @MockComponent
+    OIDCHTTPClient httpClient;
+
+    @MockComponent
+    CacheManager cacheManager;
+
+    @InjectMockComponents
+    OIDCJWKSetCache cache;
+
+    @BeforeComponent
+    void beforeComponent() throws Exception
+    {
+        Map<String, Object> entries = new ConcurrentHashMap<>();
+        Cache<Object> sources = mock(Cache.class);
+        when(sources.get(any())).then(invocation -> entries.get(invocation.<String>getArgument(0)));
+        doAnswer(invocation -> entries.put(invocation.getArgument(0), invocation.getArgument(1))).when(sources)
+            .set(any(), any());
+        when(this.cacheManager.createNewLocalCache(any())).thenReturn(sources);
+    }
+
+    private RSAKey publishKey() throws Exception
+    {
+        RSAKey key = new RSAKeyGenerator(2048).keyID("key").generate();
+
+        HTTPResponse response = new HTTPResponse(HTTPResponse.SC_OK);
+        response.setContentType("application/json");
+        response.setContent(new JWKSet(key.toPublicJWK()).toString());
+        when(this.httpClient.send(any())).thenReturn(response);
+
+        return key;
+    }
+
+    private static JWKSelector select(String keyID)
+    {
+        return new JWKSelector(new JWKMatcher.Builder().keyID(keyID).build());
+    }
+
+    @Test
+    void get() throws Exception
+    {
+        RSAKey key = publishKey();
+
+        JWKSource<SecurityContext> source = this.cache.getJWKSource(JWK_URI);
+
+        assertEquals(key.toPublicJWK(), source.get(select("key"), null).get(0));
+        assertEquals(key.toPublicJWK(), source.get(select("key"), null).get(0));
+        assertSame(source, this.cache.getJWKSource(JWK_URI));
+        verify(this.httpClient, times(1)).send(any());
+    }
+
+    @Test
+    void getUnknownKey() throws Exception
+    {
+        publishKey();
+
+        JWKSource<SecurityContext> source = this.cache.getJWKSource(JWK_URI);
+
+        // Tokens with an unknown key identifier don't make the provider keys fetched for each of them
+        for (int i = 0; i < 5; ++i) {
+            assertTrue(source.get(select("unknown"), null).isEmpty());
+        }
+        verify(this.httpClient, times(1)).send(any());
+    }
+
+    @Test
+    void getWhenUnavailable() throws Exception
+    {
+        when(this.httpClient.send(any())).thenThrow(new IOException("unavailable"));
+
+        JWKSource<SecurityContext> source = this.cache.getJWKSource(JWK_URI);
+
+        assertThrows(KeySourceException.class, () -> source.get(select("key"), null));
+    }
+
+    @Test
+    void getWhenUnavailableDoesNotRetryImmediately() throws Exception
+    {
+        when(this.httpClient.send(any())).thenThrow(new IOException("unavailable"));
+
+        JWKSource<SecurityContext> source = this.cache.getJWKSource(JWK_URI);
+
+        // A failing provider is not asked again for each token
+        for (int i = 0; i < 5; ++i) {
+            assertThrows(KeySourceException.class, () -> source.get(select("key"), null));
+        }
+        verify(this.httpClient, times(1)).send(any());
+    }
+}
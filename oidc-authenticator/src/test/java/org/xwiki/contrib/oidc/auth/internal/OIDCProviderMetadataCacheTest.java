@@ -0,0 +1,159 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.auth.internal;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.contrib.oidc.provider.internal.OIDCException;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.oauth2.sdk.ResponseType;
+import com.nimbusds.oauth2.sdk.http.HTTPRequest;
+import com.nimbusds.oauth2.sdk.http.HTTPResponse;
+import com.nimbusds.oauth2.sdk.id.Issuer;
+import com.nimbusds.openid.connect.sdk.SubjectType;
+import com.nimbusds.openid.connect.sdk.op.OIDCProviderMetadata;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate {@link OIDCProviderMetadataCache}.
+ * 
+ * @version $Id$
+ */
+@ComponentTest
+class OIDCProviderMetadataCacheTest
+{
+    private static final String ISSUER = "https://issuer";
+
+    @MockComponent
+    OIDCHTTPClient httpClient;
+
+    @InjectMockComponents
+    OIDCProviderMetadataCache cache;
+
+    private static HTTPResponse toResponse(String issuer) throws Exception
+    {
+        OIDCProviderMetadata metadata = new OIDCProviderMetadata(new Issuer(issuer),
+            Arrays.asList(SubjectType.PUBLIC), new URI(issuer + "/jwks"));
+        metadata.setAuthorizationEndpointURI(new URI(issuer + "/authorization"));
+        metadata.setTokenEndpointURI(new URI(issuer + "/token"));
+        metadata.setResponseTypes(Arrays.asList(ResponseType.CODE));
+        metadata.setIDTokenJWSAlgs(Arrays.asList(JWSAlgorithm.RS256));
+
+        HTTPResponse response = new HTTPResponse(HTTPResponse.SC_OK);
+        response.setContentType("application/json");
+        response.setContent(metadata.toJSONObject().toJSONString());
+        response.setCacheControl("max-age=3600");
+
+        return response;
+    }
+
+    private static String getIssuer(HTTPRequest request)
+    {
+        return "https://" + request.getURL().getHost();
+    }
+
+    @Test
+    void get() throws Exception
+    {
+        HTTPResponse response = toResponse(ISSUER);
+        when(this.httpClient.send(any())).thenReturn(response);
+
+        OIDCProviderMetadata metadata = this.cache.get(ISSUER);
+
+        assertEquals(new URI(ISSUER + "/token"), metadata.getTokenEndpointURI());
+        assertSame(metadata, this.cache.get(ISSUER));
+        verify(this.httpClient, times(1)).send(any());
+    }
+
+    @Test
+    void getForAnotherIssuer() throws Exception
+    {
+        HTTPResponse response = toResponse("https://other");
+        when(this.httpClient.send(any())).thenReturn(response);
+
+        assertThrows(OIDCException.class, () -> this.cache.get(ISSUER));
+    }
+
+    @Test
+    void getWhenUnavailable() throws Exception
+    {
+        when(this.httpClient.send(any())).thenThrow(new IOException("unavailable"));
+
+        assertThrows(OIDCException.class, () -> this.cache.get(ISSUER));
+        // The failure is remembered instead of requesting the provider for each authentication
+        assertThrows(OIDCException.class, () -> this.cache.get(ISSUER));
+        verify(this.httpClient, times(1)).send(any());
+    }
+
+    @Test
+    void getConcurrently() throws Exception
+    {
+        CountDownLatch fetching = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(this.httpClient.send(any())).then(invocation -> {
+            String issuer = getIssuer(invocation.getArgument(0));
+            if (issuer.equals(ISSUER)) {
+                fetching.countDown();
+                release.await(10, TimeUnit.SECONDS);
+            }
+
+            return toResponse(issuer);
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<OIDCProviderMetadata> first = executor.submit(() -> this.cache.get(ISSUER));
+            assertTrue(fetching.await(10, TimeUnit.SECONDS));
+            Future<OIDCProviderMetadata> second = executor.submit(() -> this.cache.get(ISSUER));
+
+            // The discovery of an issuer does not block the other issuers
+            assertEquals(new Issuer("https://other"), this.cache.get("https://other").getIssuer());
+
+            release.countDown();
+
+            assertSame(first.get(10, TimeUnit.SECONDS), second.get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Discovered once for each issuer
+        verify(this.httpClient, times(2)).send(any());
+    }
+}
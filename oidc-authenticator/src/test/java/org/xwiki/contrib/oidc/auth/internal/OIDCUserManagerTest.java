@@ -42,8 +42,10 @@ import org.xwiki.contrib.oidc.auth.internal.store.OIDCUserClassDocumentInitializ
 import org.xwiki.contrib.oidc.auth.store.OIDCClientConfigurationStore;
 import org.xwiki.contrib.oidc.auth.store.OIDCUser;
 import org.xwiki.contrib.oidc.provider.internal.OIDCException;
+import org.xwiki.contrib.oidc.provider.internal.OIDCKeyManager;
 import org.xwiki.contrib.oidc.provider.internal.OIDCManager;
 import org.xwiki.contrib.oidc.provider.internal.OIDCProviderConfiguration;
+import org.xwiki.contrib.oidc.provider.internal.store.OIDCClientRegistry;
 import org.xwiki.environment.Environment;
 import org.xwiki.instance.InstanceIdManager;
 import org.xwiki.localization.ContextualLocalizationManager;
@@ -116,6 +118,18 @@ class OIDCUserManagerTest
     @MockComponent
     OIDCClientConfigurationStore oidcClientConfigurationStore;
 
+    @MockComponent
+    OIDCClientConfigurationCache clientConfigurationCache;
+
+    @MockComponent
+    OIDCProviderMetadataCache metadataCache;
+
+    @MockComponent
+    OIDCKeyManager keyManager;
+
+    @MockComponent
+    OIDCClientRegistry clientRegistry;
+
     @MockComponent
     @Named("XWiki.XWikiRights")
     MandatoryDocumentInitializer rightsInitializer;
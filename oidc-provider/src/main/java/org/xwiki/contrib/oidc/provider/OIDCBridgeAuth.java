@@ -110,7 +110,7 @@ public class OIDCBridgeAuth implements XWikiAuthService
                 return user;
             }
         } catch (Exception e) {
-            LOGGER.debug("Failed to get OIDC user from token [" + authorization + "]", e);
+            LOGGER.debug("Failed to get OIDC user from token [{}]", authorization, e);
         }
 
         return this.authService.checkAuth(context);
@@ -0,0 +1,48 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal;
+
+import org.xwiki.model.reference.DocumentReference;
+
+import com.nimbusds.openid.connect.sdk.claims.UserInfo;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Extract the value of a claim from a user profile.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+@FunctionalInterface
+public interface OIDCClaimExtractor
+{
+    /**
+     * @param userInfo the user info to fill
+     * @param userReference the reference of the user
+     * @param userDocument the document of the user
+     * @param userObject the user object
+     * @param xcontext the XWiki context
+     * @throws Exception when failing to extract the claim
+     */
+    void extract(UserInfo userInfo, DocumentReference userReference, XWikiDocument userDocument, BaseObject userObject,
+        XWikiContext xcontext) throws Exception;
+}
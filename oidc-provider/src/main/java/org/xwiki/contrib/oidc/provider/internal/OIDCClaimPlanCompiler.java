@@ -0,0 +1,296 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.contrib.oidc.OIDCUserInfo;
+import org.xwiki.contrib.oidc.internal.OIDCConfiguration;
+import org.xwiki.contrib.oidc.provider.internal.store.OIDCStore;
+import org.xwiki.localization.LocaleUtils;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+
+import com.nimbusds.openid.connect.sdk.claims.Address;
+import com.nimbusds.openid.connect.sdk.claims.ClaimsSetRequest;
+import com.nimbusds.openid.connect.sdk.claims.ClaimsSetRequest.Entry;
+import com.nimbusds.openid.connect.sdk.claims.UserInfo;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.BaseProperty;
+import com.xpn.xwiki.objects.PropertyInterface;
+
+/**
+ * Convert a claims request into a cached plan: the list of functions extracting each requested claim from the user
+ * profile.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+@Component(roles = OIDCClaimPlanCompiler.class)
+@Singleton
+public class OIDCClaimPlanCompiler implements Initializable, Disposable
+{
+    private static final int CACHE_SIZE = 100;
+
+    private static final OIDCClaimExtractor NOOP = (userInfo, userReference, userDocument, userObject, xcontext) -> {
+    };
+
+    @Inject
+    private OIDCStore store;
+
+    @Inject
+    private OIDCGroupResolver groupResolver;
+
+    @Inject
+    private OIDCConfiguration configuration;
+
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    private Logger logger;
+
+    private Cache<Map<String, OIDCClaimExtractor>> cache;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            this.cache = this.cacheManager
+                .createNewLocalCache(new LRUCacheConfiguration("oidc.provider.claimPlans", CACHE_SIZE));
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to create the OIDC claim plan cache", e);
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.cache.dispose();
+    }
+
+    /**
+     * @param claims the requested claims
+     * @return the extractor of each requested claim, in the order they should be executed
+     */
+    public Map<String, OIDCClaimExtractor> getPlan(ClaimsSetRequest claims)
+    {
+        String groupClaim = this.configuration.getGroupClaim();
+
+        String key = groupClaim + '\n' + claims.toJSONObject().toJSONString();
+
+        Map<String, OIDCClaimExtractor> plan = this.cache.get(key);
+
+        if (plan == null) {
+            plan = compile(claims, groupClaim);
+
+            this.cache.set(key, plan);
+        }
+
+        return plan;
+    }
+
+    private Map<String, OIDCClaimExtractor> compile(ClaimsSetRequest claims, String groupClaim)
+    {
+        Map<String, OIDCClaimExtractor> plan = new LinkedHashMap<>();
+
+        for (Entry claim : claims.getEntries()) {
+            plan.put(claim.getClaimName(), compile(claim.getClaimName(), groupClaim));
+        }
+
+        return Collections.unmodifiableMap(plan);
+    }
+
+    private OIDCClaimExtractor compile(String claimName, String groupClaim)
+    {
+        switch (claimName) {
+            // OIDC core
+
+            case OIDCUserInfo.CLAIM_ADDRESS:
+                return (userInfo, userReference, userDocument, userObject, xcontext) -> {
+                    String addressString = userObject.getLargeStringValue("address");
+                    if (StringUtils.isNotEmpty(addressString)) {
+                        Address address = new Address();
+                        address.setFormatted(addressString);
+                        userInfo.setAddress(address);
+                    }
+                };
+            case OIDCUserInfo.CLAIM_EMAIL:
+                return (userInfo, userReference, userDocument, userObject, xcontext) -> {
+                    String email = userObject.getStringValue("email");
+                    if (StringUtils.isNotEmpty(email)) {
+                        userInfo.setEmailAddress(email);
+                    }
+                };
+            case OIDCUserInfo.CLAIM_EMAIL_VERIFIED:
+                return (userInfo, userReference, userDocument, userObject, xcontext) -> {
+                    if (userInfo.getEmailAddress() != null) {
+                        userInfo.setEmailVerified(true);
+                    }
+                };
+            case OIDCUserInfo.CLAIM_FAMILY_NAME:
+                return (userInfo, userReference, userDocument, userObject, xcontext) -> userInfo
+                    .setFamilyName(getStringValue(userObject, "last_name"));
+            case OIDCUserInfo.CLAIM_GIVEN_NAME:
+                return (userInfo, userReference, userDocument, userObject, xcontext) -> userInfo
+                    .setGivenName(getStringValue(userObject, "first_name"));
+            case OIDCUserInfo.CLAIM_PHONE_NUMBER:
+                return (userInfo, userReference, userDocument, userObject, xcontext) -> userInfo
+                    .setPhoneNumber(getStringValue(userObject, "phone"));
+            case OIDCUserInfo.CLAIM_PHONE_NUMBER_VERIFIED:
+                return (userInfo, userReference, userDocument, userObject, xcontext) -> {
+                    if (userInfo.getPhoneNumber() != null) {
+                        userInfo.setPhoneNumberVerified(true);
+                    }
+                };
+            case OIDCUserInfo.CLAIM_PICTURE:
+                return (userInfo, userReference, userDocument, userObject, xcontext) -> userInfo
+                    .setPicture(this.store.getUserAvatarURI(userDocument));
+            case OIDCUserInfo.CLAIM_PROFILE:
+                return (userInfo, userReference, userDocument, userObject, xcontext) -> userInfo
+                    .setProfile(this.store.getUserProfileURI(userDocument));
+            case OIDCUserInfo.CLAIM_UPDATED_AT:
+                return (userInfo, userReference, userDocument, userObject, xcontext) -> userInfo
+                    .setUpdatedTime(userDocument.getDate());
+            case OIDCUserInfo.CLAIM_WEBSITE:
+                return (userInfo, userReference, userDocument, userObject, xcontext) -> {
+                    String blog = userObject.getStringValue("blog");
+                    if (StringUtils.isNotEmpty(blog)) {
+                        userInfo.setWebsite(new URI(blog));
+                    }
+                };
+            case OIDCUserInfo.CLAIM_NAME:
+                return (userInfo, userReference, userDocument, userObject, xcontext) -> userInfo
+                    .setName(xcontext.getWiki().getPlainUserName(userReference, xcontext));
+            case OIDCUserInfo.CLAIM_PREFERRED_NAME:
+                return (userInfo, userReference, userDocument, userObject, xcontext) -> userInfo
+                    .setPreferredUsername(userReference.getName());
+            case OIDCUserInfo.CLAIM_ZONEINFO:
+                return (userInfo, userReference, userDocument, userObject, xcontext) -> {
+                    String timezone = userObject.getStringValue("timezone");
+                    if (StringUtils.isNotEmpty(timezone)) {
+                        userInfo.setZoneinfo(timezone);
+                    }
+                };
+            case OIDCUserInfo.CLAIM_LOCALE:
+                return (userInfo, userReference, userDocument, userObject, xcontext) -> {
+                    String locale = userObject.getStringValue("default_language");
+                    if (StringUtils.isNotEmpty(locale)) {
+                        userInfo.setLocale(LocaleUtils.toLocale(locale).toLanguageTag());
+                    }
+                };
+            case OIDCUserInfo.CLAIM_MIDDLE_NAME:
+            case OIDCUserInfo.CLAIM_NICKNAME:
+            case OIDCUserInfo.CLAIM_GENDER:
+            case OIDCUserInfo.CLAIM_BIRTHDATE:
+                // TODO
+                return NOOP;
+
+            // XWiki core
+
+            default:
+                return compileCustomClaim(claimName, groupClaim);
+        }
+    }
+
+    private OIDCClaimExtractor compileCustomClaim(String claimName, String groupClaim)
+    {
+        if (claimName.equals(groupClaim)) {
+            return (userInfo, userReference, userDocument, userObject, xcontext) -> userInfo.setClaim(groupClaim,
+                getUserGroups(userReference));
+        } else if (claimName.startsWith(OIDCUserInfo.CLAIMPREFIX_XWIKI_USER)) {
+            String userField = claimName.substring(OIDCUserInfo.CLAIMPREFIX_XWIKI_USER.length());
+
+            // The class holding the field when it's not in the user object, remembered the first time it's found
+            AtomicReference<EntityReference> fieldClass = new AtomicReference<>();
+
+            return (userInfo, userReference, userDocument, userObject, xcontext) -> {
+                // Try user object first
+                PropertyInterface property = userObject.safeget(userField);
+
+                if (property == null) {
+                    // Try the class which was holding the field last time
+                    BaseObject obj = fieldClass.get() != null ? userDocument.getXObject(fieldClass.get()) : null;
+                    property = obj != null ? obj.safeget(userField) : null;
+
+                    if (property == null) {
+                        // Try the whole document
+                        obj = userDocument.getFirstObject(userField, xcontext);
+                        if (obj != null) {
+                            property = obj.safeget(userField);
+                            fieldClass.set(obj.getRelativeXClassReference());
+                        }
+                    }
+                }
+
+                if (property != null) {
+                    userInfo.setClaim(claimName, ((BaseProperty) property).getValue());
+                }
+            };
+        } else {
+            this.logger.debug("OIDC provider: Unknown claim [{}]", claimName);
+
+            return NOOP;
+        }
+    }
+
+    private String getStringValue(BaseObject obj, String key)
+    {
+        String value = obj.getStringValue(key);
+
+        return StringUtils.isEmpty(value) ? null : value;
+    }
+
+    private Collection<String> getUserGroups(DocumentReference userReference) throws XWikiException
+    {
+        // Get all the groups of the user, including groups of groups, in user wiki
+        List<DocumentReference> references = this.groupResolver.getGroups(userReference);
+
+        // Convert reference into Strings
+        List<String> names = new ArrayList<>(references.size());
+        for (DocumentReference reference : references) {
+            names.add(reference.getName());
+        }
+
+        return names;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal;
+
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.oidc.provider.internal.endpoint.TokenOIDCEndpoint;
+import org.xwiki.contrib.oidc.provider.internal.store.OIDCGrantStore;
+import org.xwiki.contrib.oidc.provider.internal.store.OIDCRegisteredClient;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.source.ImmutableJWKSet;
+import com.nimbusds.jose.proc.BadJOSEException;
+import com.nimbusds.jose.proc.JWSVerificationKeySelector;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jwt.JWTClaimNames;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.nimbusds.jwt.proc.DefaultJWTClaimsVerifier;
+import com.nimbusds.jwt.proc.DefaultJWTProcessor;
+import com.nimbusds.oauth2.sdk.auth.ClientAuthentication;
+import com.nimbusds.oauth2.sdk.auth.PlainClientSecret;
+import com.nimbusds.oauth2.sdk.auth.PrivateKeyJWT;
+import com.xpn.xwiki.XWikiException;
+
+/**
+ * Authenticate the registered clients on the token endpoint, with a secret ({@code client_secret_basic} and
+ * {@code client_secret_post}) or an assertion signed with one of their keys ({@code private_key_jwt}).
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+@Component(roles = OIDCClientAuthenticator.class)
+@Singleton
+public class OIDCClientAuthenticator
+{
+    /**
+     * The maximum number of milliseconds an assertion can be valid, to limit the number of assertion identifiers to
+     * remember.
+     */
+    private static final long ASSERTION_MAX_LIFESPAN = TimeUnit.HOURS.toMillis(1);
+
+    @Inject
+    private OIDCManager manager;
+
+    @Inject
+    private OIDCGrantStore grantStore;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * @param client the registered client
+     * @param authentication the authentication sent by the client
+     * @return true if the client was successfully authenticated
+     * @throws MalformedURLException when failing to get the token endpoint URI
+     * @throws URISyntaxException when failing to get the token endpoint URI
+     */
+    public boolean authenticate(OIDCRegisteredClient client, ClientAuthentication authentication)
+        throws MalformedURLException, URISyntaxException
+    {
+        if (!client.getClientID().equals(authentication.getClientID())) {
+            return false;
+        }
+
+        if (authentication instanceof PlainClientSecret) {
+            return client.matches(((PlainClientSecret) authentication).getClientSecret());
+        }
+
+        if (authentication instanceof PrivateKeyJWT) {
+            // The client authenticates itself: the assertion is issued by the client and about the client
+            JWTClaimsSet exactMatchClaims = new JWTClaimsSet.Builder().issuer(client.getClientID().getValue())
+                .subject(client.getClientID().getValue()).build();
+
+            return verifyAssertion(client, ((PrivateKeyJWT) authentication).getClientAssertion(),
+                exactMatchClaims) != null;
+        }
+
+        // Other authentication methods (client_secret_jwt, tls_client_auth, etc.) are not supported
+        return false;
+    }
+
+    /**
+     * Verify an assertion signed by the passed client and make sure it cannot be used twice (the assertion must have an
+     * identifier).
+     * 
+     * @param client the client which signed the assertion
+     * @param assertion the assertion
+     * @param exactMatchClaims the claims the assertion must contain
+     * @return the claims of the assertion or null if the assertion is invalid
+     * @throws MalformedURLException when failing to get the token endpoint URI
+     * @throws URISyntaxException when failing to get the token endpoint URI
+     */
+    public JWTClaimsSet verifyAssertion(OIDCRegisteredClient client, SignedJWT assertion,
+        JWTClaimsSet exactMatchClaims) throws MalformedURLException, URISyntaxException
+    {
+        if (client.getJWKSet() == null || assertion == null) {
+            return null;
+        }
+
+        // The assertion must be meant for this provider
+        Set<String> audience = new HashSet<>();
+        audience.add(this.manager.getIssuer().getValue());
+        audience.add(this.manager.createEndPointURI(TokenOIDCEndpoint.HINT).toString());
+
+        // Without identifier, a replayed assertion cannot be detected
+        Set<String> requiredClaims = new HashSet<>();
+        requiredClaims.add(JWTClaimNames.EXPIRATION_TIME);
+        requiredClaims.add(JWTClaimNames.JWT_ID);
+
+        DefaultJWTProcessor<SecurityContext> processor = new DefaultJWTProcessor<>();
+        processor.setJWSKeySelector(new JWSVerificationKeySelector<>(JWSAlgorithm.Family.SIGNATURE,
+            new ImmutableJWKSet<>(client.getJWKSet())));
+        processor.setJWTClaimsSetVerifier(
+            new DefaultJWTClaimsVerifier<>(audience, exactMatchClaims, requiredClaims, null));
+
+        JWTClaimsSet claims;
+        try {
+            claims = processor.process(assertion, null);
+        } catch (BadJOSEException | JOSEException e) {
+            this.logger.debug("Invalid assertion for OIDC client [{}]: {}", client.getClientID(),
+                ExceptionUtils.getRootCauseMessage(e));
+
+            return null;
+        }
+
+        return markUsed(client, claims) ? claims : null;
+    }
+
+    private boolean markUsed(OIDCRegisteredClient client, JWTClaimsSet claims)
+    {
+        long now = System.currentTimeMillis();
+        Date expiration = claims.getExpirationTime();
+
+        if (expiration.getTime() - now > ASSERTION_MAX_LIFESPAN) {
+            this.logger.debug("Rejected assertion for OIDC client [{}] valid for too long", client.getClientID());
+
+            return false;
+        }
+
+        // The used assertions are shared with the other members of the cluster
+        try {
+            return this.grantStore.useAssertion(client.getClientID(), claims.getJWTID(), expiration);
+        } catch (XWikiException e) {
+            this.logger.warn("Failed to remember the assertion used by OIDC client [{}]: {}", client.getClientID(),
+                ExceptionUtils.getRootCauseMessage(e));
+
+            return false;
+        }
+    }
+}
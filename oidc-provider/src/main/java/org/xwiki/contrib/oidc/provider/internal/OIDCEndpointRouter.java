@@ -0,0 +1,119 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.descriptor.ComponentDescriptor;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.contrib.oidc.provider.internal.endpoint.OIDCEndpoint;
+
+/**
+ * Find the endpoint in charge of an OpenID Connect request.
+ * <p>
+ * The endpoints are indexed by hint in an immutable table which is rebuilt only when an endpoint is registered or
+ * unregistered.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+@Component(roles = OIDCEndpointRouter.class)
+@Singleton
+public class OIDCEndpointRouter
+{
+    @Inject
+    private ComponentManager componentManager;
+
+    @Inject
+    private OIDCEndpoint unknown;
+
+    @Inject
+    private Logger logger;
+
+    private volatile Map<String, OIDCEndpoint> endpoints;
+
+    /**
+     * @param reference the reference generated from the request
+     * @return the endpoint in charge of the request
+     */
+    public OIDCEndpoint getEndpoint(OIDCResourceReference reference)
+    {
+        Map<String, OIDCEndpoint> table = getEndpoints();
+
+        OIDCEndpoint endpoint = table.get(reference.getEndpoint());
+        if (endpoint == null) {
+            endpoint = table.get(reference.getPath());
+        }
+
+        return endpoint != null ? endpoint : this.unknown;
+    }
+
+    /**
+     * Force the table to be rebuilt at next request.
+     */
+    public synchronized void invalidate()
+    {
+        this.endpoints = null;
+    }
+
+    private Map<String, OIDCEndpoint> getEndpoints()
+    {
+        Map<String, OIDCEndpoint> table = this.endpoints;
+
+        if (table == null) {
+            synchronized (this) {
+                table = this.endpoints;
+                if (table == null) {
+                    table = buildEndpoints();
+                    this.endpoints = table;
+                }
+            }
+        }
+
+        return table;
+    }
+
+    private Map<String, OIDCEndpoint> buildEndpoints()
+    {
+        Map<String, OIDCEndpoint> table = new HashMap<>();
+
+        for (ComponentDescriptor<OIDCEndpoint> descriptor : this.componentManager
+            .<OIDCEndpoint>getComponentDescriptorList(OIDCEndpoint.class)) {
+            try {
+                table.put(descriptor.getRoleHint(),
+                    this.componentManager.getInstance(OIDCEndpoint.class, descriptor.getRoleHint()));
+            } catch (ComponentLookupException e) {
+                this.logger.warn("Failed to lookup OIDC endpoint [{}]: {}", descriptor.getRoleHint(),
+                    ExceptionUtils.getRootCauseMessage(e));
+            }
+        }
+
+        return Collections.unmodifiableMap(table);
+    }
+}
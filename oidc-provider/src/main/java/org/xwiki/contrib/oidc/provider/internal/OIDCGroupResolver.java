@@ -0,0 +1,169 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.model.reference.WikiReference;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.user.api.XWikiGroupService;
+
+/**
+ * Resolve and cache all the groups a user is member of, including the groups of the groups.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+@Component(roles = OIDCGroupResolver.class)
+@Singleton
+public class OIDCGroupResolver implements Initializable, Disposable
+{
+    /**
+     * The reference of the class holding the members of a group.
+     */
+    public static final LocalDocumentReference GROUP_CLASS = new LocalDocumentReference("XWiki", "XWikiGroups");
+
+    private static final int CACHE_SIZE = 1000;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    private Cache<List<DocumentReference>> cache;
+
+    private final AtomicLong generation = new AtomicLong();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            this.cache =
+                this.cacheManager.createNewLocalCache(new LRUCacheConfiguration("oidc.provider.groups", CACHE_SIZE));
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to create the OIDC group cache", e);
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.cache.dispose();
+    }
+
+    /**
+     * @param userReference the reference of the user
+     * @return the groups the user is member of, directly or through other groups, in the wiki of the user
+     * @throws XWikiException when failing to get the groups
+     */
+    public List<DocumentReference> getGroups(DocumentReference userReference) throws XWikiException
+    {
+        String key = this.serializer.serialize(userReference);
+
+        List<DocumentReference> groups = this.cache.get(key);
+
+        if (groups == null) {
+            long currentGeneration = this.generation.get();
+
+            groups = resolveGroups(userReference);
+
+            this.cache.set(key, groups);
+
+            // Make sure to not keep a value computed before a modification of the groups
+            if (this.generation.get() != currentGeneration) {
+                this.cache.remove(key);
+            }
+        }
+
+        return groups;
+    }
+
+    /**
+     * Forget all the resolved groups.
+     */
+    public void invalidateAll()
+    {
+        this.generation.incrementAndGet();
+        this.cache.removeAll();
+    }
+
+    private List<DocumentReference> resolveGroups(DocumentReference userReference) throws XWikiException
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+
+        WikiReference currentWikiReference = xcontext.getWikiReference();
+
+        try {
+            // Switch to user wiki
+            xcontext.setWikiReference(userReference.getWikiReference());
+
+            XWikiGroupService groupService = xcontext.getWiki().getGroupService(xcontext);
+
+            // Walk the groups of groups, protecting against cycles
+            Set<DocumentReference> groups = new LinkedHashSet<>();
+            Deque<DocumentReference> members = new ArrayDeque<>();
+            members.add(userReference);
+            while (!members.isEmpty()) {
+                Collection<DocumentReference> memberGroups =
+                    groupService.getAllGroupsReferencesForMember(members.poll(), 0, 0, xcontext);
+
+                for (DocumentReference group : memberGroups) {
+                    if (groups.add(group)) {
+                        members.add(group);
+                    }
+                }
+            }
+
+            return Collections.unmodifiableList(new ArrayList<>(groups));
+        } finally {
+            xcontext.setWikiReference(currentWikiReference);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Invalidate the resolved groups and the user info containing them when a group is modified.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+@Component
+@Named(OIDCGroupResolverListener.NAME)
+@Singleton
+public class OIDCGroupResolverListener extends AbstractEventListener
+{
+    /**
+     * The name of the listener.
+     */
+    public static final String NAME = "org.xwiki.contrib.oidc.provider.internal.OIDCGroupResolverListener";
+
+    @Inject
+    private OIDCGroupResolver groupResolver;
+
+    @Inject
+    private OIDCUserInfoCache userInfoCache;
+
+    /**
+     * Default constructor.
+     */
+    public OIDCGroupResolverListener()
+    {
+        super(NAME, new DocumentCreatedEvent(), new DocumentUpdatedEvent(), new DocumentDeletedEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        XWikiDocument document = (XWikiDocument) source;
+
+        if (isGroup(document) || isGroup(document.getOriginalDocument())) {
+            // Any group modification can impact the groups of any user
+            this.groupResolver.invalidateAll();
+            this.userInfoCache.invalidateAll();
+        }
+    }
+
+    private boolean isGroup(XWikiDocument document)
+    {
+        return document != null && document.getXObject(OIDCGroupResolver.GROUP_CLASS) != null;
+    }
+}
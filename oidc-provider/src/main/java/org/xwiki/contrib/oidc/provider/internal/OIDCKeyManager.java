@@ -0,0 +1,822 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.context.concurrent.ExecutionContextRunnable;
+import org.xwiki.contrib.oidc.provider.internal.store.OIDCAtomicUpdater;
+import org.xwiki.contrib.oidc.provider.internal.util.StoreUtils;
+import org.xwiki.environment.Environment;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.model.reference.WikiReference;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.OctetKeyPair;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import com.nimbusds.jose.jwk.gen.OctetKeyPairGenerator;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Manage the keys used to sign the tokens.
+ * <p>
+ * Keys are generated by a background thread and published in the JWK set some time before being used to sign tokens
+ * so that the clients have the opportunity to refresh their copy of the JWK set. A key which is not used anymore stays
+ * in the JWK set until all the tokens it signed are expired.
+ * <p>
+ * Each member of the cluster signs the tokens with its own keys, which never leave its permanent directory. Only their
+ * public part is shared, through a hidden document of the main wiki saved without history, so that each member can
+ * verify the tokens signed by the others and publish all the keys in its JWK set. Each member regularly reloads this
+ * document and locks it (directly in the database) before publishing or retiring its own keys. The identifier of a key
+ * is its RFC 7638 thumbprint.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+@Component(roles = OIDCKeyManager.class)
+@Singleton
+public class OIDCKeyManager implements Initializable, Disposable
+{
+    /**
+     * The String reference of the class holding the signing keys.
+     */
+    public static final String KEYS_REFERENCE_STRING = "XWiki.OIDC.SigningKeysClass";
+
+    /**
+     * The local reference of the class holding the signing keys.
+     */
+    public static final LocalDocumentReference KEYS_REFERENCE =
+        new LocalDocumentReference(Arrays.asList(XWiki.SYSTEM_SPACE, "OIDC"), "SigningKeysClass");
+
+    /**
+     * The name of the field holding the JWK set of the public part of the signing keys of all the members of the
+     * cluster.
+     */
+    public static final String FIELD_KEYS = "keys";
+
+    /**
+     * The name of the field holding the revision of the keys (or the lock of a member of the cluster currently
+     * modifying them).
+     */
+    public static final String FIELD_REVISION = "revision";
+
+    private static final LocalDocumentReference KEYS_DOCUMENT =
+        new LocalDocumentReference(Arrays.asList(XWiki.SYSTEM_SPACE, "OIDC"), "SigningKeys");
+
+    private static final LocalDocumentReference RIGHTS_REFERENCE =
+        new LocalDocumentReference(XWiki.SYSTEM_SPACE, "XWikiRights");
+
+    private static final LocalDocumentReference GLOBAL_RIGHTS_REFERENCE =
+        new LocalDocumentReference(XWiki.SYSTEM_SPACE, "XWikiGlobalRights");
+
+    /**
+     * The custom member of the stored JWK sets containing the activation date of each key.
+     */
+    private static final String MEMBER_ACTIVATION = "xwiki_activation";
+
+    /**
+     * The custom member of the shared JWK set containing the date from which each key is not used anymore to sign new
+     * tokens.
+     */
+    private static final String MEMBER_RETIREMENT = "xwiki_retirement";
+
+    private static final String LOCK_PREFIX = "lock:";
+
+    private static final long LOCK_TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+
+    private static final long CHECK_PERIOD = TimeUnit.MINUTES.toMillis(1);
+
+    private static final long RETRY_DELAY = TimeUnit.SECONDS.toMillis(5);
+
+    /**
+     * The minimum time between two reloads triggered by a token signed with an unknown key.
+     */
+    private static final long MIN_UNKNOWN_KEY_RELOAD_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+
+    private static final List<JWSAlgorithm> EC_ALGORITHMS =
+        Arrays.asList(JWSAlgorithm.ES256, JWSAlgorithm.ES384, JWSAlgorithm.ES512);
+
+    @Inject
+    private OIDCProviderConfiguration configuration;
+
+    @Inject
+    private Environment environment;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private OIDCAtomicUpdater atomicUpdater;
+
+    @Inject
+    private ComponentManager componentManager;
+
+    @Inject
+    private Logger logger;
+
+    private File jwkSetFile;
+
+    /**
+     * The keys of this member of the cluster, sorted by activation date.
+     */
+    private volatile List<OIDCSigningKey> keys = Collections.emptyList();
+
+    /**
+     * The public part of the keys of the other members of the cluster.
+     */
+    private volatile List<OIDCSigningKey> sharedKeys = Collections.emptyList();
+
+    /**
+     * All the published keys, indexed by identifier.
+     */
+    private volatile Map<String, OIDCSigningKey> publishedKeys = Collections.emptyMap();
+
+    private volatile JWKSet publicJWKSet = new JWKSet();
+
+    /**
+     * The revision of the shared document the keys of the other members of the cluster come from.
+     */
+    private volatile String revision;
+
+    private ScheduledExecutorService rotator;
+
+    private ScheduledFuture<?> reload;
+
+    private long nextReload;
+
+    private volatile long nextUnknownKeyReload;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        File permdir = this.environment.getPermanentDirectory();
+
+        if (permdir != null) {
+            this.jwkSetFile = new File(permdir, "oidc/jwkSet.json");
+
+            if (this.jwkSetFile.exists()) {
+                try {
+                    setKeys(parseKeys(JWKSet.load(this.jwkSetFile), true), this.sharedKeys, this.revision);
+                } catch (Exception e) {
+                    this.logger.warn("Failed to load the signing keys, generating a new one: {}",
+                        ExceptionUtils.getRootCauseMessage(e));
+                }
+            }
+        }
+
+        // Make sure the tokens can be signed right away without making the requests wait for the background thread
+        if (this.keys.isEmpty()) {
+            try {
+                rotateKeys();
+            } catch (Exception e) {
+                this.logger.warn("Failed to generate a signing key, tokens won't be signed until one is: {}",
+                    ExceptionUtils.getRootCauseMessage(e));
+            }
+        }
+
+        // Never block the initialization with the loading of the keys of the other members of the cluster
+        this.rotator = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "OIDC signing key rotation");
+            thread.setDaemon(true);
+
+            return thread;
+        });
+        this.rotator.scheduleWithFixedDelay(this::rotate, 0, CHECK_PERIOD, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.rotator.shutdownNow();
+    }
+
+    /**
+     * @param jwkSet the JWK set to parse
+     * @param own true for the keys of this member of the cluster (only their private part can be used to sign)
+     * @return the parsed keys
+     */
+    private List<OIDCSigningKey> parseKeys(JWKSet jwkSet, boolean own)
+    {
+        Map<String, Long> activations = getDates(jwkSet, MEMBER_ACTIVATION);
+
+        List<OIDCSigningKey> parsedKeys = new ArrayList<>();
+        for (JWK key : jwkSet.getKeys()) {
+            JWSAlgorithm algorithm = getAlgorithm(key);
+
+            if (algorithm != null && (!own || key.isPrivate())) {
+                // Keys without activation date were created before the rotation support
+                Long activation = activations.get(key.getKeyID());
+
+                try {
+                    parsedKeys.add(new OIDCSigningKey(own ? key : key.toPublicJWK(), algorithm,
+                        activation != null ? activation : 0));
+                } catch (Exception e) {
+                    this.logger.warn("Failed to load signing key [{}]: {}", key.getKeyID(),
+                        ExceptionUtils.getRootCauseMessage(e));
+                }
+            }
+        }
+
+        return parsedKeys;
+    }
+
+    private Map<String, Long> getDates(JWKSet jwkSet, String member)
+    {
+        Object dates = jwkSet.getAdditionalMembers().get(member);
+
+        Map<String, Long> parsedDates = new HashMap<>();
+        if (dates instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) dates).entrySet()) {
+                if (entry.getValue() instanceof Number) {
+                    parsedDates.put(String.valueOf(entry.getKey()), ((Number) entry.getValue()).longValue());
+                }
+            }
+        }
+
+        return parsedDates;
+    }
+
+    private JWSAlgorithm getAlgorithm(JWK key)
+    {
+        if (key.getAlgorithm() != null) {
+            return JWSAlgorithm.parse(key.getAlgorithm().getName());
+        }
+
+        // Keys generated before the algorithm was configurable
+        if (key instanceof RSAKey) {
+            return JWSAlgorithm.RS256;
+        } else if (key instanceof ECKey) {
+            for (JWSAlgorithm algorithm : EC_ALGORITHMS) {
+                if (Curve.forJWSAlgorithm(algorithm).contains(((ECKey) key).getCurve())) {
+                    return algorithm;
+                }
+            }
+        } else if (key instanceof OctetKeyPair && Curve.Ed25519.equals(((OctetKeyPair) key).getCurve())) {
+            return JWSAlgorithm.EdDSA;
+        }
+
+        return null;
+    }
+
+    private void setKeys(List<OIDCSigningKey> newKeys, List<OIDCSigningKey> newSharedKeys, String newRevision)
+    {
+        List<OIDCSigningKey> sortedKeys = new ArrayList<>(newKeys);
+        sortedKeys.sort(Comparator.comparingLong(OIDCSigningKey::getActivation));
+
+        Map<String, OIDCSigningKey> allKeys = new HashMap<>();
+        newSharedKeys.forEach(key -> allKeys.put(key.getKeyID(), key));
+        sortedKeys.forEach(key -> allKeys.put(key.getKeyID(), key));
+
+        List<OIDCSigningKey> sortedAllKeys = new ArrayList<>(allKeys.values());
+        sortedAllKeys.sort(Comparator.comparingLong(OIDCSigningKey::getActivation));
+
+        List<JWK> publicKeys = new ArrayList<>(sortedAllKeys.size());
+        for (OIDCSigningKey key : sortedAllKeys) {
+            publicKeys.add(key.getKey().toPublicJWK());
+        }
+
+        this.keys = Collections.unmodifiableList(sortedKeys);
+        this.sharedKeys = Collections.unmodifiableList(new ArrayList<>(newSharedKeys));
+        this.publishedKeys = Collections.unmodifiableMap(allKeys);
+        this.publicJWKSet = new JWKSet(publicKeys);
+        this.revision = newRevision;
+    }
+
+    private void saveKeys(List<OIDCSigningKey> newKeys)
+    {
+        if (this.jwkSetFile != null) {
+            List<JWK> jwks = new ArrayList<>(newKeys.size());
+            Map<String, Object> activations = new LinkedHashMap<>();
+            for (OIDCSigningKey key : newKeys) {
+                jwks.add(key.getKey());
+                activations.put(key.getKeyID(), key.getActivation());
+            }
+
+            String json = new JWKSet(jwks, Collections.singletonMap(MEMBER_ACTIVATION, activations)).toString(false);
+            try {
+                FileUtils.write(this.jwkSetFile, json, StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                this.logger.warn("Failed to save JWK set, it will be lost at next restart: {}",
+                    ExceptionUtils.getRootCauseMessage(e));
+            }
+        }
+    }
+
+    private void rotate()
+    {
+        // An exception would cancel the next executions
+        try {
+            rotateKeys();
+        } catch (Exception e) {
+            this.logger.error("Failed to rotate the signing keys", e);
+        }
+
+        try {
+            new ExecutionContextRunnable(this::publishKeys, this.componentManager).run();
+        } catch (Exception e) {
+            this.logger.error("Failed to publish the signing keys", e);
+        }
+    }
+
+    private synchronized void scheduleReload()
+    {
+        long now = System.currentTimeMillis();
+
+        // Only one reload can be pending at a time
+        if ((this.reload == null || this.reload.getDelay(TimeUnit.MILLISECONDS) <= 0) && !this.rotator.isShutdown()) {
+            this.reload =
+                this.rotator.schedule(this::rotate, Math.max(this.nextReload - now, 0), TimeUnit.MILLISECONDS);
+            this.nextReload = Math.max(this.nextReload, now) + RETRY_DELAY;
+        }
+    }
+
+    private void rotateKeys() throws JOSEException
+    {
+        long now = System.currentTimeMillis();
+
+        List<OIDCSigningKey> newKeys = new ArrayList<>(this.keys);
+
+        boolean modified = purge(newKeys, now);
+
+        JWSAlgorithm algorithm = getConfiguredAlgorithm();
+        Long activation =
+            getNextActivation(newKeys.isEmpty() ? null : newKeys.get(newKeys.size() - 1), algorithm, now);
+        if (activation != null) {
+            OIDCSigningKey key = new OIDCSigningKey(generateKey(algorithm), algorithm, activation);
+            newKeys.add(key);
+            modified = true;
+
+            this.logger.info("Generated new [{}] signing key [{}] which will be used from [{}]", algorithm,
+                key.getKeyID(), new Date(activation));
+        }
+
+        if (modified) {
+            saveKeys(newKeys);
+            setKeys(newKeys, this.sharedKeys, this.revision);
+        }
+    }
+
+    private void publishKeys()
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+        if (xcontext == null || xcontext.getWiki() == null) {
+            // XWiki is not ready yet: don't wait for the next check to share the keys
+            scheduleReload();
+
+            return;
+        }
+
+        try {
+            DocumentReference documentReference =
+                new DocumentReference(KEYS_DOCUMENT, new WikiReference(xcontext.getMainXWiki()));
+
+            XWikiDocument document = xcontext.getWiki().getDocument(documentReference, xcontext);
+            if (document.getXObject(KEYS_REFERENCE) == null) {
+                document = this.atomicUpdater.create(documentReference, KEYS_REFERENCE, FIELD_REVISION,
+                    UUID.randomUUID().toString(), "Create OIDC signing keys");
+            }
+
+            if (!publishKeys(document, xcontext)) {
+                // Another member of the cluster modified the keys first: don't wait for the next check to try again
+                scheduleReload();
+            }
+        } catch (Exception e) {
+            this.logger.error("Failed to publish the signing keys", e);
+        }
+    }
+
+    /**
+     * @return false if the keys could not be published because another member of the cluster modified them first
+     */
+    private boolean publishKeys(XWikiDocument document, XWikiContext xcontext) throws XWikiException
+    {
+        long now = System.currentTimeMillis();
+
+        List<OIDCSigningKey> ownKeys = this.keys;
+        Set<String> ownKeyIDs = new HashSet<>();
+        ownKeys.forEach(key -> ownKeyIDs.add(key.getKeyID()));
+
+        Map<String, Long> retirements = new HashMap<>();
+
+        // Keep the keys of the other members of the cluster as long as a token they signed can still be valid
+        JWKSet sharedJWKSet = getSharedJWKSet(document, xcontext);
+        Map<String, Long> sharedRetirements = getDates(sharedJWKSet, MEMBER_RETIREMENT);
+        long retention = getRetention();
+        List<OIDCSigningKey> newSharedKeys = new ArrayList<>();
+        for (OIDCSigningKey key : parseKeys(sharedJWKSet, false)) {
+            if (!ownKeyIDs.contains(key.getKeyID())) {
+                Long retirement = sharedRetirements.get(key.getKeyID());
+
+                if (retirement == null || retirement + retention >= now) {
+                    newSharedKeys.add(key);
+                    if (retirement != null) {
+                        retirements.put(key.getKeyID(), retirement);
+                    }
+                } else {
+                    this.logger.info("Removing expired signing key [{}]", key.getKeyID());
+                }
+            }
+        }
+
+        long rotationPeriod = TimeUnit.SECONDS.toMillis(this.configuration.getSigningRotationPeriod());
+        for (int i = 0; i < ownKeys.size(); ++i) {
+            OIDCSigningKey key = ownKeys.get(i);
+
+            if (i + 1 < ownKeys.size()) {
+                // A key stops being used when the next one is activated
+                retirements.put(key.getKeyID(), ownKeys.get(i + 1).getActivation());
+            } else if (rotationPeriod > 0) {
+                // Make sure the keys of a member of the cluster which stopped for good are eventually removed (the
+                // retirement is moved when the next key is published)
+                retirements.put(key.getKeyID(), key.getActivation() + rotationPeriod);
+            }
+        }
+
+        List<OIDCSigningKey> allKeys = new ArrayList<>(newSharedKeys);
+        allKeys.addAll(ownKeys);
+        String json = serializeSharedKeys(allKeys, retirements);
+
+        BaseObject keysObject = document.getXObject(KEYS_REFERENCE);
+        String currentRevision = keysObject.getStringValue(FIELD_REVISION);
+        if (json.equals(keysObject.getLargeStringValue(FIELD_KEYS)) && StoreUtils.isStoreAuthor(document, xcontext)) {
+            // Nothing to publish
+            if (!Objects.equals(currentRevision, this.revision)) {
+                setKeys(ownKeys, newSharedKeys, currentRevision);
+            }
+
+            return true;
+        }
+
+        String lock = LOCK_PREFIX + (now + LOCK_TIMEOUT) + ':' + UUID.randomUUID();
+        if (isLocked(currentRevision)
+            || !this.atomicUpdater.compareAndSet(keysObject, FIELD_REVISION, currentRevision, lock)) {
+            return false;
+        }
+
+        String newRevision = UUID.randomUUID().toString();
+        boolean saved = false;
+        try {
+            saveSharedKeys(document.clone(), json, newRevision, xcontext);
+            saved = true;
+        } finally {
+            if (!saved) {
+                // Release the document
+                this.atomicUpdater.compareAndSet(keysObject, FIELD_REVISION, lock, currentRevision);
+            }
+        }
+
+        setKeys(ownKeys, newSharedKeys, newRevision);
+
+        return true;
+    }
+
+    private JWKSet getSharedJWKSet(XWikiDocument document, XWikiContext xcontext)
+    {
+        BaseObject keysObject = document.getXObject(KEYS_REFERENCE);
+        if (keysObject == null) {
+            return new JWKSet();
+        }
+
+        // Keys planted by someone else would allow them to forge tokens
+        if (!StoreUtils.isStoreAuthor(document, xcontext)) {
+            this.logger.warn("Ignoring the signing keys of document [{}] because it was not saved by the OIDC"
+                + " provider", document.getDocumentReference());
+
+            return new JWKSet();
+        }
+
+        String json = keysObject.getLargeStringValue(FIELD_KEYS);
+        if (StringUtils.isEmpty(json)) {
+            return new JWKSet();
+        }
+
+        try {
+            return JWKSet.parse(json);
+        } catch (java.text.ParseException e) {
+            this.logger.warn("Failed to parse the shared signing keys: {}", ExceptionUtils.getRootCauseMessage(e));
+
+            return new JWKSet();
+        }
+    }
+
+    private String serializeSharedKeys(List<OIDCSigningKey> keysToSerialize, Map<String, Long> retirements)
+    {
+        // Always serialize the keys in the same order to detect when they did not change
+        List<OIDCSigningKey> sortedKeys = new ArrayList<>(keysToSerialize);
+        sortedKeys.sort(
+            Comparator.comparingLong(OIDCSigningKey::getActivation).thenComparing(OIDCSigningKey::getKeyID));
+
+        List<JWK> jwks = new ArrayList<>(sortedKeys.size());
+        Map<String, Object> activations = new LinkedHashMap<>();
+        Map<String, Object> sortedRetirements = new LinkedHashMap<>();
+        for (OIDCSigningKey key : sortedKeys) {
+            // Never share the private part of the keys
+            jwks.add(key.getKey().toPublicJWK());
+            activations.put(key.getKeyID(), key.getActivation());
+            if (retirements.containsKey(key.getKeyID())) {
+                sortedRetirements.put(key.getKeyID(), retirements.get(key.getKeyID()));
+            }
+        }
+
+        Map<String, Object> members = new LinkedHashMap<>();
+        members.put(MEMBER_ACTIVATION, activations);
+        members.put(MEMBER_RETIREMENT, sortedRetirements);
+
+        return new JWKSet(jwks, members).toString();
+    }
+
+    private void saveSharedKeys(XWikiDocument document, String json, String newRevision, XWikiContext xcontext)
+        throws XWikiException
+    {
+        // Never endorse anything written by someone else
+        if (!StoreUtils.isStoreAuthor(document, xcontext)) {
+            StoreUtils.reset(document);
+        }
+        document.setContent("");
+
+        BaseObject keysObject = document.getXObject(KEYS_REFERENCE);
+        if (keysObject == null) {
+            keysObject = document.newXObject(KEYS_REFERENCE, xcontext);
+        }
+        keysObject.setLargeStringValue(FIELD_KEYS, json);
+        keysObject.setStringValue(FIELD_REVISION, newRevision);
+
+        // Whatever rights someone else added, only the administrators can modify the keys
+        document.removeXObjects(GLOBAL_RIGHTS_REFERENCE);
+        BaseObject rightsObject = null;
+        for (BaseObject xobject : new ArrayList<>(document.getXObjects(RIGHTS_REFERENCE))) {
+            if (xobject != null) {
+                if (rightsObject == null) {
+                    rightsObject = xobject;
+                } else {
+                    document.removeXObject(xobject);
+                }
+            }
+        }
+        if (rightsObject == null) {
+            rightsObject = document.newXObject(RIGHTS_REFERENCE, xcontext);
+        }
+        rightsObject.setLargeStringValue("users", "");
+        rightsObject.setLargeStringValue("groups", "XWiki.XWikiAdminGroup");
+        rightsObject.setLargeStringValue("levels", "edit,delete");
+        rightsObject.setIntValue("allow", 1);
+
+        document.setHidden(true);
+        StoreUtils.setStoreAuthor(document, xcontext);
+
+        // The removed keys are not worth keeping in the history
+        document.setMetaDataDirty(false);
+        document.setContentDirty(false);
+
+        xcontext.getWiki().saveDocument(document, "Update OIDC signing keys", true, xcontext);
+    }
+
+    private boolean isLocked(String currentRevision)
+    {
+        // Ignore the locks left by a member of the cluster which stopped in the middle of a modification
+        return currentRevision != null && currentRevision.startsWith(LOCK_PREFIX) && NumberUtils
+            .toLong(StringUtils.substringBetween(currentRevision, LOCK_PREFIX, ":")) > System.currentTimeMillis();
+    }
+
+    private long getRetention()
+    {
+        // Keep the key as long as a token it signed can still be valid
+        return TimeUnit.SECONDS.toMillis(
+            Math.max(this.configuration.getIDTokenLifespan(), this.configuration.getAccessTokenLifespan()));
+    }
+
+    private boolean purge(List<OIDCSigningKey> sortedKeys, long now)
+    {
+        long retention = getRetention();
+
+        boolean modified = false;
+
+        // A key stopped being used when the next one was activated
+        while (sortedKeys.size() > 1 && sortedKeys.get(1).getActivation() + retention < now) {
+            this.logger.info("Removing expired signing key [{}]", sortedKeys.get(0).getKeyID());
+
+            sortedKeys.remove(0);
+            modified = true;
+        }
+
+        return modified;
+    }
+
+    private Long getNextActivation(OIDCSigningKey lastKey, JWSAlgorithm algorithm, long now)
+    {
+        // No key to sign with in the meantime
+        if (lastKey == null) {
+            return now;
+        }
+
+        long activationDelay = TimeUnit.SECONDS.toMillis(this.configuration.getSigningActivationDelay());
+
+        // The configuration changed
+        if (!isCompatible(lastKey, algorithm)) {
+            return now + activationDelay;
+        }
+
+        long rotationPeriod = TimeUnit.SECONDS.toMillis(this.configuration.getSigningRotationPeriod());
+        if (rotationPeriod > 0) {
+            long nextActivation = lastKey.getActivation() + rotationPeriod;
+
+            if (now >= nextActivation - activationDelay) {
+                return Math.max(nextActivation, now + activationDelay);
+            }
+        }
+
+        return null;
+    }
+
+    private boolean isCompatible(OIDCSigningKey key, JWSAlgorithm algorithm)
+    {
+        if (!key.getAlgorithm().equals(algorithm)) {
+            return false;
+        }
+
+        return !(key.getKey() instanceof RSAKey)
+            || ((RSAKey) key.getKey()).size() >= this.configuration.getSigningRSAKeySize();
+    }
+
+    private JWSAlgorithm getConfiguredAlgorithm()
+    {
+        JWSAlgorithm algorithm = this.configuration.getSigningAlgorithm();
+
+        if (JWSAlgorithm.Family.RSA.contains(algorithm) || EC_ALGORITHMS.contains(algorithm)) {
+            return algorithm;
+        }
+
+        if (JWSAlgorithm.EdDSA.equals(algorithm)) {
+            // Ed25519 support in Nimbus relies on the optional Tink library
+            try {
+                Class.forName("com.google.crypto.tink.subtle.Ed25519Sign");
+
+                return algorithm;
+            } catch (ClassNotFoundException e) {
+                this.logger.warn("The [{}] algorithm requires the Google Tink library, falling back on [{}]",
+                    algorithm, JWSAlgorithm.RS256);
+
+                return JWSAlgorithm.RS256;
+            }
+        }
+
+        this.logger.warn("Unsupported signing algorithm [{}], falling back on [{}]", algorithm, JWSAlgorithm.RS256);
+
+        return JWSAlgorithm.RS256;
+    }
+
+    private JWK generateKey(JWSAlgorithm algorithm) throws JOSEException
+    {
+        // Derive the identifier from the key so that it does not depend on the member of the cluster generating it
+        if (JWSAlgorithm.Family.RSA.contains(algorithm)) {
+            RSAKey key = new RSAKeyGenerator(this.configuration.getSigningRSAKeySize()).keyUse(KeyUse.SIGNATURE)
+                .algorithm(algorithm).generate();
+
+            return new RSAKey.Builder(key).keyIDFromThumbprint().build();
+        } else if (JWSAlgorithm.EdDSA.equals(algorithm)) {
+            OctetKeyPair key =
+                new OctetKeyPairGenerator(Curve.Ed25519).keyUse(KeyUse.SIGNATURE).algorithm(algorithm).generate();
+
+            return new OctetKeyPair.Builder(key).keyIDFromThumbprint().build();
+        } else {
+            ECKey key = new ECKeyGenerator(Curve.forJWSAlgorithm(algorithm).iterator().next())
+                .keyUse(KeyUse.SIGNATURE).algorithm(algorithm).generate();
+
+            return new ECKey.Builder(key).keyIDFromThumbprint().build();
+        }
+    }
+
+    private OIDCSigningKey getActiveKey(long now)
+    {
+        List<OIDCSigningKey> currentKeys = this.keys;
+
+        for (int i = currentKeys.size() - 1; i >= 0; --i) {
+            OIDCSigningKey key = currentKeys.get(i);
+
+            if (key.getActivation() <= now) {
+                return key;
+            }
+        }
+
+        // Better sign with a key published a bit too recently than not at all
+        return currentKeys.isEmpty() ? null : currentKeys.get(0);
+    }
+
+    /**
+     * @return the key to sign new tokens with, or null if none is available
+     */
+    public OIDCSigningKey getSigningKey()
+    {
+        return getActiveKey(System.currentTimeMillis());
+    }
+
+    /**
+     * @param keyID the identifier of the key
+     * @return the published key with the passed identifier, or null if none could be found
+     */
+    public OIDCSigningKey getKey(String keyID)
+    {
+        OIDCSigningKey key = this.publishedKeys.get(keyID);
+        if (key != null) {
+            return key;
+        }
+
+        // The key might have just been generated by another member of the cluster (but don't let anyone trigger a
+        // reload with each request)
+        long now = System.currentTimeMillis();
+        if (now >= this.nextUnknownKeyReload) {
+            this.nextUnknownKeyReload = now + MIN_UNKNOWN_KEY_RELOAD_INTERVAL;
+
+            scheduleReload();
+        }
+
+        return null;
+    }
+
+    /**
+     * @return the public part of all the published keys, including the ones not yet used and the ones not used
+     *         anymore
+     */
+    public JWKSet getPublicJWKSet()
+    {
+        return this.publicJWKSet;
+    }
+
+    /**
+     * @return the algorithms of the published keys
+     */
+    public Set<JWSAlgorithm> getAlgorithms()
+    {
+        Set<JWSAlgorithm> algorithms = new LinkedHashSet<>();
+        for (OIDCSigningKey key : this.keys) {
+            algorithms.add(key.getAlgorithm());
+        }
+
+        return algorithms;
+    }
+}
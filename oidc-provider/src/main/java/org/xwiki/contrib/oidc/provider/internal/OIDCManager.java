@@ -19,15 +19,13 @@
  */
 package org.xwiki.contrib.oidc.provider.internal;
 
-import java.io.File;
-import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -35,33 +33,25 @@ import javax.inject.Provider;
 import javax.inject.Singleton;
 import javax.servlet.http.HttpServletResponse;
 
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.lang.RandomStringUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.joda.time.LocalDateTime;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
-import org.xwiki.component.phase.Initializable;
-import org.xwiki.component.phase.InitializationException;
 import org.xwiki.contrib.oidc.OIDCIdToken;
 import org.xwiki.contrib.oidc.provider.internal.OIDCProviderConfiguration.SubFormat;
+import org.xwiki.contrib.oidc.provider.internal.store.OIDCClientRegistry;
 import org.xwiki.contrib.oidc.provider.internal.util.ContentResponse;
-import org.xwiki.environment.Environment;
 import org.xwiki.instance.InstanceIdManager;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.template.TemplateManager;
 
 import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JOSEObjectType;
 import com.nimbusds.jose.JWSAlgorithm;
-import com.nimbusds.jose.JWSHeader;
-import com.nimbusds.jose.crypto.RSASSASigner;
-import com.nimbusds.jose.jwk.JWK;
 import com.nimbusds.jose.jwk.JWKSet;
-import com.nimbusds.jose.jwk.KeyUse;
-import com.nimbusds.jose.jwk.RSAKey;
-import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
 import com.nimbusds.jwt.JWT;
+import com.nimbusds.jwt.JWTClaimsSet;
 import com.nimbusds.jwt.PlainJWT;
 import com.nimbusds.jwt.SignedJWT;
 import com.nimbusds.oauth2.sdk.ParseException;
@@ -86,8 +76,15 @@ import com.xpn.xwiki.web.XWikiURLFactory;
  */
 @Component(roles = OIDCManager.class)
 @Singleton
-public class OIDCManager implements Initializable
+public class OIDCManager
 {
+    /**
+     * The type of the JWT access tokens (see RFC 9068).
+     * 
+     * @since 1.34.4
+     */
+    public static final JOSEObjectType ACCESSTOKEN_TYPE = new JOSEObjectType("at+jwt");
+
     @Inject
     private Provider<XWikiContext> xcontextProvider;
 
@@ -108,85 +105,13 @@ public class OIDCManager implements Initializable
     private OIDCProviderConfiguration configuration;
 
     @Inject
-    private Environment environment;
+    private OIDCKeyManager keyManager;
 
     @Inject
-    private Logger logger;
-
-    private RSASSASigner signer;
-
-    private JWKSet jwkSet;
-
-    private RSAKey rsaKey;
-
-    private JWSHeader header;
-
-    @Override
-    public void initialize() throws InitializationException
-    {
-        File permdir = this.environment.getPermanentDirectory();
-
-        if (permdir != null) {
-            File jwkSetFile = new File(permdir, "oidc/jwkSet.json");
-
-            if (jwkSetFile.exists()) {
-                try {
-                    loadKeys(jwkSetFile);
-                } catch (Exception e) {
-                    this.logger.warn("Failed to load key pair, generating a new one: {}",
-                        ExceptionUtils.getRootCauseMessage(e));
-                }
-            }
-
-            if (this.rsaKey == null) {
-                try {
-                    generateKeys(jwkSetFile);
-                } catch (Exception e) {
-                    this.logger.warn("Failed to generate a RSA key, tokens won't be signed: {}",
-                        ExceptionUtils.getRootCauseMessage(e));
-                }
-            }
+    private OIDCClientRegistry clientRegistry;
 
-            if (this.rsaKey != null) {
-                try {
-                    this.signer = new RSASSASigner(this.rsaKey);
-                    this.header = new JWSHeader(JWSAlgorithm.RS256, null, null, null, null, this.rsaKey,
-                        this.rsaKey.getX509CertURL(), this.rsaKey.getX509CertThumbprint(),
-                        this.rsaKey.getX509CertSHA256Thumbprint(), this.rsaKey.getX509CertChain(),
-                        this.rsaKey.getKeyID(), true, null, null);
-                } catch (JOSEException e) {
-                    this.logger.warn("Failed to generate a signer, tokens won't be signed: {}",
-                        ExceptionUtils.getRootCauseMessage(e));
-                }
-            }
-        }
-    }
-
-    private void loadKeys(File jwkSetFile) throws IOException, java.text.ParseException
-    {
-        this.jwkSet = JWKSet.load(jwkSetFile);
-
-        for (JWK key : this.jwkSet.getKeys()) {
-            if (key instanceof RSAKey) {
-                this.rsaKey = (RSAKey) key;
-            }
-        }
-    }
-
-    private void generateKeys(File jwkSetFile) throws JOSEException
-    {
-        this.rsaKey = new RSAKeyGenerator(2048).keyID(RandomStringUtils.randomAlphanumeric(4)).keyUse(KeyUse.SIGNATURE)
-            .generate();
-        this.jwkSet = new JWKSet(this.rsaKey);
-
-        String json = this.jwkSet.toString(false);
-        try {
-            FileUtils.write(jwkSetFile, json, StandardCharsets.UTF_8);
-        } catch (IOException e) {
-            this.logger.warn("Failed to save JWK set, it will be lost at next restart: {}",
-                ExceptionUtils.getRootCauseMessage(e));
-        }
-    }
+    @Inject
+    private Logger logger;
 
     /**
      * @return the JWKSet
@@ -194,7 +119,16 @@ public class OIDCManager implements Initializable
      */
     public JWKSet getJWKSet()
     {
-        return this.jwkSet;
+        return this.keyManager.getPublicJWKSet();
+    }
+
+    /**
+     * @return the algorithms used to sign the tokens
+     * @since 1.34.4
+     */
+    public Set<JWSAlgorithm> getSigningAlgorithms()
+    {
+        return this.keyManager.getAlgorithms();
     }
 
     /**
@@ -282,10 +216,10 @@ public class OIDCManager implements Initializable
             clientID != null ? Arrays.asList(new Audience(clientID)) : Collections.<Audience>emptyList();
 
         LocalDateTime now = LocalDateTime.now();
-        LocalDateTime now1year = now.plusYears(1);
+        LocalDateTime expiration = now.plusSeconds(this.clientRegistry.getIDTokenLifespan(clientID));
 
         IDTokenClaimsSet idTokenClaimSet =
-            new IDTokenClaimsSet(issuer, subject, audiences, now1year.toDate(), now.toDate());
+            new IDTokenClaimsSet(issuer, subject, audiences, expiration.toDate(), now.toDate());
 
         idTokenClaimSet.setNonce(nonce);
 
@@ -304,11 +238,12 @@ public class OIDCManager implements Initializable
         }
 
         // Convert to JWT
-        if (this.signer != null) {
-            SignedJWT signedJWT = new SignedJWT(this.header, idTokenClaimSet.toJWTClaimsSet());
+        OIDCSigningKey signingKey = this.keyManager.getSigningKey();
+        if (signingKey != null) {
+            SignedJWT signedJWT = new SignedJWT(signingKey.getHeader(), idTokenClaimSet.toJWTClaimsSet());
 
             try {
-                signedJWT.sign(this.signer);
+                signedJWT.sign(signingKey.getSigner());
 
                 return signedJWT;
             } catch (JOSEException e) {
@@ -321,6 +256,56 @@ public class OIDCManager implements Initializable
         return new PlainJWT(idTokenClaimSet.toJWTClaimsSet());
     }
 
+    /**
+     * Sign a self-contained access token with the same key as the ID tokens.
+     * 
+     * @param claims the claims of the access token
+     * @return the signed access token or null if it was not possible to sign it
+     * @since 1.34.4
+     */
+    public SignedJWT createAccessToken(JWTClaimsSet claims)
+    {
+        OIDCSigningKey signingKey = this.keyManager.getSigningKey();
+        if (signingKey != null) {
+            SignedJWT signedJWT = new SignedJWT(signingKey.getAccessTokenHeader(), claims);
+
+            try {
+                signedJWT.sign(signingKey.getSigner());
+
+                return signedJWT;
+            } catch (JOSEException e) {
+                this.logger.warn("Failed to sign the access token: {}", ExceptionUtils.getRootCauseMessage(e));
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @param accessToken the access token to check
+     * @return true if the passed token is an access token signed by this provider
+     * @since 1.34.4
+     */
+    public boolean verifyAccessToken(SignedJWT accessToken)
+    {
+        if (ACCESSTOKEN_TYPE.equals(accessToken.getHeader().getType())) {
+            OIDCSigningKey key = this.keyManager.getKey(accessToken.getHeader().getKeyID());
+
+            if (key == null || !key.getAlgorithm().equals(accessToken.getHeader().getAlgorithm())) {
+                return false;
+            }
+
+            try {
+                return accessToken.verify(key.getVerifier());
+            } catch (JOSEException e) {
+                this.logger.debug("Failed to verify the access token signature: {}",
+                    ExceptionUtils.getRootCauseMessage(e));
+            }
+        }
+
+        return false;
+    }
+
     /**
      * @param userReference the reference of the user
      * @return the OIDC subject
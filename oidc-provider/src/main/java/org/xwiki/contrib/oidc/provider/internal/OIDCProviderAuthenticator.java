@@ -23,14 +23,15 @@ import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
-import org.apache.commons.lang3.StringUtils;
 import org.xwiki.component.annotation.Component;
-import org.xwiki.contrib.oidc.provider.internal.store.OIDCConsent;
 import org.xwiki.contrib.oidc.provider.internal.store.OIDCStore;
+import org.xwiki.contrib.oidc.provider.internal.store.OIDCValidatedToken;
 import org.xwiki.contrib.oidc.provider.internal.store.XWikiBearerAccessToken;
+import org.xwiki.contrib.oidc.provider.internal.store.XWikiJWTAccessToken;
 import org.xwiki.model.reference.EntityReferenceSerializer;
 
 import com.nimbusds.oauth2.sdk.ParseException;
+import com.nimbusds.oauth2.sdk.token.BearerAccessToken;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.user.api.XWikiUser;
 
@@ -59,15 +60,15 @@ public class OIDCProviderAuthenticator
      */
     public XWikiUser checkAuth(String authorizationString) throws ParseException, XWikiException
     {
-        if (StringUtils.isNotEmpty(authorizationString)) {
-            XWikiBearerAccessToken xwikiAccessToken = XWikiBearerAccessToken.parse(authorizationString);
+        // Cheap check to quickly skip requests which don't contain a XWiki bearer token (anonymous, cookie based
+        // authentication, other authentication schemes, etc.)
+        if (XWikiBearerAccessToken.isXWikiBearerAuthorization(authorizationString)
+            || XWikiJWTAccessToken.isJWTBearerAuthorization(authorizationString)) {
+            OIDCValidatedToken validatedToken =
+                this.oidcStore.getValidatedToken(BearerAccessToken.parse(authorizationString));
 
-            if (xwikiAccessToken != null) {
-                OIDCConsent consent = this.oidcStore.getConsent(xwikiAccessToken);
-
-                if (consent != null) {
-                    return new XWikiUser(consent.getUserReference());
-                }
+            if (validatedToken != null) {
+                return new XWikiUser(validatedToken.getUserReference());
             }
         }
 
@@ -24,6 +24,8 @@ import javax.inject.Singleton;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.contrib.oidc.internal.OIDCConfiguration;
 
+import com.nimbusds.jose.JWSAlgorithm;
+
 /**
  * Various OpenID Connect authenticator configurations.
  * 
@@ -51,6 +53,267 @@ public class OIDCProviderConfiguration extends OIDCConfiguration
      */
     public static final String PROP_SUBFORMAT = PREFIX_PROP + "subFormat";
 
+    /**
+     * The name of the property containing the maximum number of validated access tokens to keep in memory.
+     * 
+     * @since 1.34.4
+     */
+    public static final String PROP_TOKENCACHE_SIZE = PREFIX_PROP + "tokenCache.size";
+
+    /**
+     * The name of the property containing the number of seconds a validated access token is kept in memory.
+     * 
+     * @since 1.34.4
+     */
+    public static final String PROP_TOKENCACHE_LIFESPAN = PREFIX_PROP + "tokenCache.lifespan";
+
+    /**
+     * The default maximum number of validated access tokens to keep in memory.
+     * 
+     * @since 1.34.4
+     */
+    public static final int DEFAULT_TOKENCACHE_SIZE = 1000;
+
+    /**
+     * The default number of seconds a validated access token is kept in memory.
+     * 
+     * @since 1.34.4
+     */
+    public static final int DEFAULT_TOKENCACHE_LIFESPAN = 300;
+
+    /**
+     * The name of the property containing the hint of the {@code AuthorizationCodeStore} component to use.
+     * 
+     * @since 1.34.4
+     */
+    public static final String PROP_AUTHORIZATIONCODE_STORE = PREFIX_PROP + "authorizationCode.store";
+
+    /**
+     * The name of the property containing the number of seconds an authorization code can be redeemed.
+     * 
+     * @since 1.34.4
+     */
+    public static final String PROP_AUTHORIZATIONCODE_LIFESPAN = PREFIX_PROP + "authorizationCode.lifespan";
+
+    /**
+     * The name of the property containing the maximum number of pending authorization codes kept in memory.
+     * 
+     * @since 1.34.4
+     */
+    public static final String PROP_AUTHORIZATIONCODE_MAXSIZE = PREFIX_PROP + "authorizationCode.maxSize";
+
+    /**
+     * The default {@code AuthorizationCodeStore} component hint.
+     * 
+     * @since 1.34.4
+     */
+    public static final String DEFAULT_AUTHORIZATIONCODE_STORE = "memory";
+
+    /**
+     * The default number of seconds an authorization code can be redeemed (the maximum recommended by the OAuth2
+     * specification).
+     * 
+     * @since 1.34.4
+     */
+    public static final int DEFAULT_AUTHORIZATIONCODE_LIFESPAN = 600;
+
+    /**
+     * The default maximum number of pending authorization codes kept in memory.
+     * 
+     * @since 1.34.4
+     */
+    public static final int DEFAULT_AUTHORIZATIONCODE_MAXSIZE = 10000;
+
+    /**
+     * The name of the property containing the format of the issued access tokens.
+     * 
+     * @since 1.34.4
+     */
+    public static final String PROP_ACCESSTOKEN_FORMAT = PREFIX_PROP + "accessToken.format";
+
+    /**
+     * The name of the property containing the number of seconds an access token is valid.
+     * 
+     * @since 1.34.4
+     */
+    public static final String PROP_ACCESSTOKEN_LIFESPAN = PREFIX_PROP + "accessToken.lifespan";
+
+    /**
+     * The default number of seconds an access token is valid.
+     * 
+     * @since 1.34.4
+     */
+    public static final int DEFAULT_ACCESSTOKEN_LIFESPAN = 3600;
+
+    /**
+     * The name of the property containing the maximum number of valid access tokens kept for each consent.
+     * 
+     * @since 1.34.4
+     */
+    public static final String PROP_ACCESSTOKEN_MAXPERCONSENT = PREFIX_PROP + "accessToken.maxPerConsent";
+
+    /**
+     * The default maximum number of valid access tokens kept for each consent.
+     * 
+     * @since 1.34.4
+     */
+    public static final int DEFAULT_ACCESSTOKEN_MAXPERCONSENT = 10;
+
+    /**
+     * The name of the property containing the number of seconds a refresh token can be redeemed.
+     * 
+     * @since 1.34.4
+     */
+    public static final String PROP_REFRESHTOKEN_LIFESPAN = PREFIX_PROP + "refreshToken.lifespan";
+
+    /**
+     * The default number of seconds a refresh token can be redeemed (30 days).
+     * 
+     * @since 1.34.4
+     */
+    public static final int DEFAULT_REFRESHTOKEN_LIFESPAN = 2592000;
+
+    /**
+     * The name of the property containing the number of seconds an ID token is valid.
+     * 
+     * @since 1.34.4
+     */
+    public static final String PROP_IDTOKEN_LIFESPAN = PREFIX_PROP + "idToken.lifespan";
+
+    /**
+     * The default number of seconds an ID token is valid (one year).
+     * 
+     * @since 1.34.4
+     */
+    public static final int DEFAULT_IDTOKEN_LIFESPAN = 31536000;
+
+    /**
+     * The name of the property containing the number of seconds between two purges of the expired grants.
+     * 
+     * @since 1.34.4
+     */
+    public static final String PROP_GRANTSWEEPER_INTERVAL = PREFIX_PROP + "grantSweeper.interval";
+
+    /**
+     * The name of the property containing the maximum number of grant documents handled by each query of the purge.
+     * 
+     * @since 1.34.4
+     */
+    public static final String PROP_GRANTSWEEPER_BATCHSIZE = PREFIX_PROP + "grantSweeper.batchSize";
+
+    /**
+     * The name of the property indicating if the purge of the expired grants also migrates the user profiles still
+     * holding an access token stored before 1.34.4.
+     * 
+     * @since 1.34.4
+     */
+    public static final String PROP_GRANTSWEEPER_LEGACYMIGRATION = PREFIX_PROP + "grantSweeper.legacyMigration";
+
+    /**
+     * The default number of seconds between two purges of the expired grants.
+     * 
+     * @since 1.34.4
+     */
+    public static final int DEFAULT_GRANTSWEEPER_INTERVAL = 3600;
+
+    /**
+     * The default maximum number of grant documents handled by each query of the purge.
+     * 
+     * @since 1.34.4
+     */
+    public static final int DEFAULT_GRANTSWEEPER_BATCHSIZE = 100;
+
+    /**
+     * The name of the property containing the algorithm used to sign the tokens.
+     * 
+     * @since 1.34.4
+     */
+    public static final String PROP_SIGNING_ALGORITHM = PREFIX_PROP + "signing.algorithm";
+
+    /**
+     * The name of the property containing the size of the generated RSA keys.
+     * 
+     * @since 1.34.4
+     */
+    public static final String PROP_SIGNING_RSAKEYSIZE = PREFIX_PROP + "signing.rsaKeySize";
+
+    /**
+     * The name of the property containing the number of seconds after which a new signing key is used.
+     * 
+     * @since 1.34.4
+     */
+    public static final String PROP_SIGNING_ROTATIONPERIOD = PREFIX_PROP + "signing.rotationPeriod";
+
+    /**
+     * The name of the property containing the number of seconds a new signing key is published before being used.
+     * 
+     * @since 1.34.4
+     */
+    public static final String PROP_SIGNING_ACTIVATIONDELAY = PREFIX_PROP + "signing.activationDelay";
+
+    /**
+     * The default algorithm used to sign the tokens.
+     * 
+     * @since 1.34.4
+     */
+    public static final String DEFAULT_SIGNING_ALGORITHM = JWSAlgorithm.RS256.getName();
+
+    /**
+     * The default size of the generated RSA keys.
+     * 
+     * @since 1.34.4
+     */
+    public static final int DEFAULT_SIGNING_RSAKEYSIZE = 2048;
+
+    /**
+     * The default number of seconds after which a new signing key is used (0 to never rotate the keys).
+     * 
+     * @since 1.34.4
+     */
+    public static final int DEFAULT_SIGNING_ROTATIONPERIOD = 0;
+
+    /**
+     * The default number of seconds a new signing key is published before being used (leaves a day to the clients
+     * for refreshing their copy of the JWK set).
+     * 
+     * @since 1.34.4
+     */
+    public static final int DEFAULT_SIGNING_ACTIVATIONDELAY = 86400;
+
+    /**
+     * The name of the property containing the number of seconds clients are allowed to cache the discovery metadata
+     * and the JWK set.
+     * 
+     * @since 1.34.4
+     */
+    public static final String PROP_METADATA_MAXAGE = PREFIX_PROP + "metadata.maxAge";
+
+    /**
+     * The default number of seconds clients are allowed to cache the discovery metadata and the JWK set.
+     * 
+     * @since 1.34.4
+     */
+    public static final int DEFAULT_METADATA_MAXAGE = 3600;
+
+    /**
+     * The format of the issued access tokens.
+     *
+     * @version $Id$
+     * @since 1.34.4
+     */
+    public enum AccessTokenFormat
+    {
+        /**
+         * An opaque token referencing the consent in which its hash is stored.
+         */
+        OPAQUE,
+
+        /**
+         * A self-contained JWT signed with the same key as the ID tokens, validated without accessing the store.
+         */
+        JWT
+    }
+
     /**
      * The format of the sub to return in the user info endpoint.
      *
@@ -86,4 +349,167 @@ public class OIDCProviderConfiguration extends OIDCConfiguration
     {
         return getProperty(PROP_SUBFORMAT, SubFormat.FULL);
     }
+
+    /**
+     * @return the maximum number of validated access tokens to keep in memory
+     * @since 1.34.4
+     */
+    public int getTokenCacheSize()
+    {
+        return getProperty(PROP_TOKENCACHE_SIZE, DEFAULT_TOKENCACHE_SIZE);
+    }
+
+    /**
+     * @return the number of seconds a validated access token is kept in memory
+     * @since 1.34.4
+     */
+    public int getTokenCacheLifespan()
+    {
+        return getProperty(PROP_TOKENCACHE_LIFESPAN, DEFAULT_TOKENCACHE_LIFESPAN);
+    }
+
+    /**
+     * @return the hint of the {@code AuthorizationCodeStore} component to use
+     * @since 1.34.4
+     */
+    public String getAuthorizationCodeStore()
+    {
+        return getProperty(PROP_AUTHORIZATIONCODE_STORE, DEFAULT_AUTHORIZATIONCODE_STORE);
+    }
+
+    /**
+     * @return the number of seconds an authorization code can be redeemed
+     * @since 1.34.4
+     */
+    public int getAuthorizationCodeLifespan()
+    {
+        return getProperty(PROP_AUTHORIZATIONCODE_LIFESPAN, DEFAULT_AUTHORIZATIONCODE_LIFESPAN);
+    }
+
+    /**
+     * @return the maximum number of pending authorization codes kept in memory
+     * @since 1.34.4
+     */
+    public int getAuthorizationCodeMaxSize()
+    {
+        return getProperty(PROP_AUTHORIZATIONCODE_MAXSIZE, DEFAULT_AUTHORIZATIONCODE_MAXSIZE);
+    }
+
+    /**
+     * @return the format of the issued access tokens
+     * @since 1.34.4
+     */
+    public AccessTokenFormat getAccessTokenFormat()
+    {
+        return getProperty(PROP_ACCESSTOKEN_FORMAT, AccessTokenFormat.OPAQUE);
+    }
+
+    /**
+     * @return the maximum number of seconds an access token is valid
+     * @since 1.34.4
+     */
+    public int getAccessTokenLifespan()
+    {
+        return getProperty(PROP_ACCESSTOKEN_LIFESPAN, DEFAULT_ACCESSTOKEN_LIFESPAN);
+    }
+
+    /**
+     * @return the maximum number of valid access tokens kept for each consent, the oldest ones being revoked first
+     * @since 1.34.4
+     */
+    public int getAccessTokenMaxPerConsent()
+    {
+        return getProperty(PROP_ACCESSTOKEN_MAXPERCONSENT, DEFAULT_ACCESSTOKEN_MAXPERCONSENT);
+    }
+
+    /**
+     * @return the maximum number of seconds a refresh token can be redeemed, 0 to not issue refresh tokens
+     * @since 1.34.4
+     */
+    public int getRefreshTokenLifespan()
+    {
+        return getProperty(PROP_REFRESHTOKEN_LIFESPAN, DEFAULT_REFRESHTOKEN_LIFESPAN);
+    }
+
+    /**
+     * @return the maximum number of seconds an ID token is valid
+     * @since 1.34.4
+     */
+    public int getIDTokenLifespan()
+    {
+        return getProperty(PROP_IDTOKEN_LIFESPAN, DEFAULT_IDTOKEN_LIFESPAN);
+    }
+
+    /**
+     * @return the number of seconds between two purges of the expired grants, 0 to never purge them
+     * @since 1.34.4
+     */
+    public int getGrantSweeperInterval()
+    {
+        return getProperty(PROP_GRANTSWEEPER_INTERVAL, DEFAULT_GRANTSWEEPER_INTERVAL);
+    }
+
+    /**
+     * @return the maximum number of grant documents handled by each query of the purge
+     * @since 1.34.4
+     */
+    public int getGrantSweeperBatchSize()
+    {
+        return getProperty(PROP_GRANTSWEEPER_BATCHSIZE, DEFAULT_GRANTSWEEPER_BATCHSIZE);
+    }
+
+    /**
+     * @return true if the purge of the expired grants should also remove the expired access tokens stored in the user
+     *         profiles before 1.34.4 (which saves each of these profiles)
+     * @since 1.34.4
+     */
+    public boolean isGrantSweeperLegacyMigration()
+    {
+        return getProperty(PROP_GRANTSWEEPER_LEGACYMIGRATION, false);
+    }
+
+    /**
+     * @return the algorithm used to sign the tokens
+     * @since 1.34.4
+     */
+    public JWSAlgorithm getSigningAlgorithm()
+    {
+        return JWSAlgorithm.parse(getProperty(PROP_SIGNING_ALGORITHM, DEFAULT_SIGNING_ALGORITHM));
+    }
+
+    /**
+     * @return the size of the generated RSA keys
+     * @since 1.34.4
+     */
+    public int getSigningRSAKeySize()
+    {
+        return getProperty(PROP_SIGNING_RSAKEYSIZE, DEFAULT_SIGNING_RSAKEYSIZE);
+    }
+
+    /**
+     * @return the number of seconds after which a new signing key is used, 0 to never rotate the keys
+     * @since 1.34.4
+     */
+    public int getSigningRotationPeriod()
+    {
+        return getProperty(PROP_SIGNING_ROTATIONPERIOD, DEFAULT_SIGNING_ROTATIONPERIOD);
+    }
+
+    /**
+     * @return the number of seconds a new signing key is published before being used
+     * @since 1.34.4
+     */
+    public int getSigningActivationDelay()
+    {
+        return getProperty(PROP_SIGNING_ACTIVATIONDELAY, DEFAULT_SIGNING_ACTIVATIONDELAY);
+    }
+
+    /**
+     * @return the number of seconds clients are allowed to cache the discovery metadata and the JWK set
+     * @since 1.34.4
+     */
+    public int getMetadataMaxAge()
+    {
+        return getProperty(PROP_METADATA_MAXAGE, DEFAULT_METADATA_MAXAGE);
+    }
 }
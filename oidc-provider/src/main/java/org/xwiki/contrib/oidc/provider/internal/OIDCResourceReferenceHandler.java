@@ -30,7 +30,6 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
-import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.container.Container;
 import org.xwiki.container.Request;
 import org.xwiki.container.servlet.ServletRequest;
@@ -69,10 +68,7 @@ public class OIDCResourceReferenceHandler extends AbstractResourceReferenceHandl
     private Container container;
 
     @Inject
-    private ComponentManager componentManager;
-
-    @Inject
-    private OIDCEndpoint unknown;
+    private OIDCEndpointRouter router;
 
     @Inject
     private Execution execution;
@@ -102,10 +98,12 @@ public class OIDCResourceReferenceHandler extends AbstractResourceReferenceHandl
         HttpServletResponse httpServletReponse =
             ((ServletResponse) this.container.getResponse()).getHttpServletResponse();
 
-        initializeXWikiContext(httpServletRequest, httpServletReponse);
+        OIDCEndpoint endpoint = this.router.getEndpoint(reference);
+
+        initializeXWikiContext(httpServletRequest, httpServletReponse, endpoint.isInteractive());
 
         try {
-            handle(reference, httpServletRequest, httpServletReponse);
+            handle(endpoint, reference, httpServletRequest, httpServletReponse);
         } catch (Exception e) {
             throw new ResourceReferenceHandlerException("Failed to handle http servlet request", e);
         }
@@ -115,26 +113,15 @@ public class OIDCResourceReferenceHandler extends AbstractResourceReferenceHandl
         chain.handleNext(reference);
     }
 
-    private void handle(OIDCResourceReference reference, HttpServletRequest httpServletRequest,
-        HttpServletResponse servletResponse) throws Exception
+    private void handle(OIDCEndpoint endpoint, OIDCResourceReference reference,
+        HttpServletRequest httpServletRequest, HttpServletResponse servletResponse) throws Exception
     {
         // Convert from Servlet http request to generic http request
         HTTPRequest httpRequest = ServletUtils.createHTTPRequest(httpServletRequest);
 
         this.logger.debug("OIDC: Reference: [{}]", reference);
 
-        Response response;
-        if (this.componentManager.hasComponent(OIDCEndpoint.class, reference.getEndpoint())) {
-            OIDCEndpoint endpoint = this.componentManager.getInstance(OIDCEndpoint.class, reference.getEndpoint());
-
-            response = endpoint.handle(httpRequest, reference);
-        } else if (this.componentManager.hasComponent(OIDCEndpoint.class, reference.getPath())) {
-            OIDCEndpoint endpoint = this.componentManager.getInstance(OIDCEndpoint.class, reference.getPath());
-
-            response = endpoint.handle(httpRequest, reference);
-        } else {
-            response = this.unknown.handle(httpRequest, reference);
-        }
+        Response response = endpoint.handle(httpRequest, reference);
 
         // response might be null if the handled already answered the client (for example a redirect to the login
         // screen)
@@ -149,6 +136,20 @@ public class OIDCResourceReferenceHandler extends AbstractResourceReferenceHandl
 
     protected void initializeXWikiContext(HttpServletRequest request, HttpServletResponse response)
         throws ResourceReferenceHandlerException
+    {
+        initializeXWikiContext(request, response, true);
+    }
+
+    /**
+     * @param request the servlet request
+     * @param response the servlet response
+     * @param interactive true if the context is going to be used to interact with a user, in which case the
+     *            localization and resources are also prepared
+     * @throws ResourceReferenceHandlerException when failing to initialize the context
+     * @since 1.34.4
+     */
+    protected void initializeXWikiContext(HttpServletRequest request, HttpServletResponse response,
+        boolean interactive) throws ResourceReferenceHandlerException
     {
         try {
             XWikiServletContext xwikiEngine = new XWikiServletContext(request.getServletContext());
@@ -164,8 +165,11 @@ public class OIDCResourceReferenceHandler extends AbstractResourceReferenceHandl
             // Initialize the URL factory.
             context.setURLFactory(xwiki.getURLFactoryService().createURLFactory(context.getMode(), context));
 
-            // Prepare the localized resources, according to the selected language.
-            xwiki.prepareResources(context);
+            // Prepare the localized resources, according to the selected language (only useful when producing content
+            // for a user).
+            if (interactive) {
+                xwiki.prepareResources(context);
+            }
 
             // Put the XWikiContext in the ExecutionContext
             context.declareInExecutionContext(this.execution.getContext());
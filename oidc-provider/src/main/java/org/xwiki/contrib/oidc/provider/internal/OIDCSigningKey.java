@@ -0,0 +1,155 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.crypto.ECDSAVerifier;
+import com.nimbusds.jose.crypto.Ed25519Signer;
+import com.nimbusds.jose.crypto.Ed25519Verifier;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.crypto.RSASSAVerifier;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.OctetKeyPair;
+import com.nimbusds.jose.jwk.RSAKey;
+
+/**
+ * A key used to sign the tokens, with everything needed to sign (only when the private part of the key is known) and
+ * verify them.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+public class OIDCSigningKey
+{
+    private final JWK key;
+
+    private final JWSAlgorithm algorithm;
+
+    private final long activation;
+
+    private final JWSSigner signer;
+
+    private final JWSVerifier verifier;
+
+    private final JWSHeader header;
+
+    private final JWSHeader accessTokenHeader;
+
+    /**
+     * @param key the private key, or only its public part for a key of another member of the cluster
+     * @param algorithm the algorithm to sign with
+     * @param activation the date (in milliseconds) from which the key should be used to sign the tokens
+     * @throws JOSEException when failing to create the signer or the verifier
+     */
+    public OIDCSigningKey(JWK key, JWSAlgorithm algorithm, long activation) throws JOSEException
+    {
+        this.key = key;
+        this.algorithm = algorithm;
+        this.activation = activation;
+
+        if (key instanceof RSAKey) {
+            this.signer = key.isPrivate() ? new RSASSASigner((RSAKey) key) : null;
+            this.verifier = new RSASSAVerifier((RSAKey) key);
+        } else if (key instanceof ECKey) {
+            this.signer = key.isPrivate() ? new ECDSASigner((ECKey) key) : null;
+            this.verifier = new ECDSAVerifier((ECKey) key);
+        } else {
+            this.signer = key.isPrivate() ? new Ed25519Signer((OctetKeyPair) key) : null;
+            this.verifier = new Ed25519Verifier(((OctetKeyPair) key).toPublicJWK());
+        }
+
+        // Make sure to never expose the private part of the key in the tokens
+        this.header = new JWSHeader.Builder(algorithm).jwk(key.toPublicJWK()).x509CertURL(key.getX509CertURL())
+            .x509CertThumbprint(key.getX509CertThumbprint())
+            .x509CertSHA256Thumbprint(key.getX509CertSHA256Thumbprint()).x509CertChain(key.getX509CertChain())
+            .keyID(key.getKeyID()).build();
+        this.accessTokenHeader = new JWSHeader.Builder(this.header).type(OIDCManager.ACCESSTOKEN_TYPE).build();
+    }
+
+    /**
+     * @return the private key, or only its public part for a key of another member of the cluster
+     */
+    public JWK getKey()
+    {
+        return this.key;
+    }
+
+    /**
+     * @return the identifier of the key
+     */
+    public String getKeyID()
+    {
+        return this.key.getKeyID();
+    }
+
+    /**
+     * @return the algorithm to sign with
+     */
+    public JWSAlgorithm getAlgorithm()
+    {
+        return this.algorithm;
+    }
+
+    /**
+     * @return the date (in milliseconds) from which the key should be used to sign the tokens
+     */
+    public long getActivation()
+    {
+        return this.activation;
+    }
+
+    /**
+     * @return the signer, null for a key of another member of the cluster
+     */
+    public JWSSigner getSigner()
+    {
+        return this.signer;
+    }
+
+    /**
+     * @return the verifier
+     */
+    public JWSVerifier getVerifier()
+    {
+        return this.verifier;
+    }
+
+    /**
+     * @return the header of the ID tokens
+     */
+    public JWSHeader getHeader()
+    {
+        return this.header;
+    }
+
+    /**
+     * @return the header of the self-contained access tokens
+     */
+    public JWSHeader getAccessTokenHeader()
+    {
+        return this.accessTokenHeader;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.contrib.oidc.provider.internal.util.InvalidationGenerations;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+/**
+ * Keep the serialized user info returned to the clients, per user and requested claims.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+@Component(roles = OIDCUserInfoCache.class)
+@Singleton
+public class OIDCUserInfoCache implements Initializable, Disposable
+{
+    private static final int CACHE_SIZE = 1000;
+
+    /**
+     * Make sure information not coming from the user profile (like the configuration) is eventually refreshed.
+     */
+    private static final int CACHE_LIFESPAN = 3600;
+
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    private Cache<Map<String, String>> cache;
+
+    private final InvalidationGenerations<String> generations = new InvalidationGenerations<>();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        LRUCacheConfiguration cacheConfiguration = new LRUCacheConfiguration("oidc.provider.userinfo", CACHE_SIZE);
+        cacheConfiguration.getLRUEvictionConfiguration().setLifespan(CACHE_LIFESPAN);
+
+        try {
+            this.cache = this.cacheManager.createNewLocalCache(cacheConfiguration);
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to create the OIDC user info cache", e);
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.cache.dispose();
+    }
+
+    /**
+     * @param userReference the reference of the user
+     * @param fingerprint identify the requested claims and anything else impacting the user info
+     * @return the serialized user info or null if it's not cached
+     */
+    public String get(DocumentReference userReference, String fingerprint)
+    {
+        Map<String, String> userInfos = this.cache.get(this.serializer.serialize(userReference));
+
+        return userInfos != null ? userInfos.get(fingerprint) : null;
+    }
+
+    /**
+     * @return the current generation, to pass to {@link #set(DocumentReference, String, String, long)}
+     */
+    public long getGeneration()
+    {
+        return this.generations.get();
+    }
+
+    /**
+     * @param userReference the reference of the user
+     * @param fingerprint identify the requested claims and anything else impacting the user info
+     * @param userInfo the serialized user info
+     * @param expectedGeneration the generation returned by {@link #getGeneration()} before computing the user info
+     */
+    public void set(DocumentReference userReference, String fingerprint, String userInfo, long expectedGeneration)
+    {
+        String userKey = this.serializer.serialize(userReference);
+
+        Map<String, String> userInfos = this.cache.get(userKey);
+        if (userInfos == null) {
+            userInfos = new ConcurrentHashMap<>();
+            this.cache.set(userKey, userInfos);
+        }
+
+        userInfos.put(fingerprint, userInfo);
+
+        // Make sure to not keep a value computed before a modification of the user
+        if (this.generations.isInvalidated(userKey, expectedGeneration)) {
+            this.cache.remove(userKey);
+        }
+    }
+
+    /**
+     * @param userReference the reference of the user whose profile changed
+     */
+    public void invalidate(DocumentReference userReference)
+    {
+        String userKey = this.serializer.serialize(userReference);
+
+        this.generations.invalidate(userKey);
+        this.cache.remove(userKey);
+    }
+
+    /**
+     * Forget the user info of all users.
+     */
+    public void invalidateAll()
+    {
+        this.generations.invalidateAll();
+        this.cache.removeAll();
+    }
+}
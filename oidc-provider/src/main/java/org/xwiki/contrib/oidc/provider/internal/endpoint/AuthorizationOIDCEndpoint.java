@@ -35,9 +35,7 @@ import org.xwiki.contrib.oidc.provider.internal.OIDCManager;
 import org.xwiki.contrib.oidc.provider.internal.OIDCResourceReference;
 import org.xwiki.contrib.oidc.provider.internal.store.OIDCConsent;
 import org.xwiki.contrib.oidc.provider.internal.store.OIDCStore;
-import org.xwiki.contrib.oidc.provider.internal.store.XWikiBearerAccessToken;
 import org.xwiki.csrf.CSRFToken;
-import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.script.ScriptContextManager;
 
 import com.nimbusds.jwt.JWT;
@@ -48,6 +46,7 @@ import com.nimbusds.oauth2.sdk.OAuth2Error;
 import com.nimbusds.oauth2.sdk.Response;
 import com.nimbusds.oauth2.sdk.http.HTTPRequest;
 import com.nimbusds.oauth2.sdk.id.ClientID;
+import com.nimbusds.oauth2.sdk.token.AccessToken;
 import com.nimbusds.openid.connect.sdk.AuthenticationErrorResponse;
 import com.nimbusds.openid.connect.sdk.AuthenticationRequest;
 import com.nimbusds.openid.connect.sdk.AuthenticationSuccessResponse;
@@ -89,9 +88,6 @@ public class AuthorizationOIDCEndpoint implements OIDCEndpoint
     @Inject
     private ScriptContextManager scripts;
 
-    @Inject
-    private EntityReferenceSerializer<String> defaultReferenceSerializer;
-
     @Inject
     private Logger logger;
 
@@ -114,7 +110,7 @@ public class AuthorizationOIDCEndpoint implements OIDCEndpoint
 
         XWikiContext xcontext = this.xcontextProvider.get();
 
-        XWikiBearerAccessToken accessToken = null;
+        AccessToken accessToken = null;
 
         ///////////////////////////////////////////////////////
         // Authentication
@@ -195,9 +191,7 @@ public class AuthorizationOIDCEndpoint implements OIDCEndpoint
 
             // Set access token if needed
             if (request.getResponseType().impliesImplicitFlow()) {
-                accessToken =
-                    XWikiBearerAccessToken.create(this.defaultReferenceSerializer.serialize(consent.getReference()));
-                this.store.setAccessToken(accessToken.getRandom(), consent);
+                accessToken = this.store.createAccessToken(consent);
             }
 
             // Save consent
@@ -215,9 +209,7 @@ public class AuthorizationOIDCEndpoint implements OIDCEndpoint
             authorizationCode = new AuthorizationCode();
         } else if (request.getResponseType().impliesImplicitFlow()) {
             if (accessToken == null) {
-                accessToken =
-                    XWikiBearerAccessToken.create(this.defaultReferenceSerializer.serialize(consent.getReference()));
-                this.store.saveAccessToken(accessToken.getRandom(), consent);
+                accessToken = this.store.createAccessToken(consent);
             }
             if (request instanceof AuthenticationRequest) {
                 idToken = this.manager.createdIdToken(clientID, consent.getUserReference(), nonce,
@@ -225,10 +217,12 @@ public class AuthorizationOIDCEndpoint implements OIDCEndpoint
             }
         }
 
-        this.logger.debug("Remember authorization code [{}]", authorizationCode);
+        if (authorizationCode != null) {
+            this.logger.debug("Remember authorization code [{}]", authorizationCode);
 
-        // Remember authorization code
-        this.store.setAuthorizationCode(authorizationCode, consent.getDocumentReference(), nonce);
+            // Remember authorization code
+            this.store.setAuthorizationCode(authorizationCode, consent, nonce);
+        }
 
         // Create response
         if (request.getResponseType().impliesCodeFlow()) {
@@ -19,22 +19,31 @@
  */
 package org.xwiki.contrib.oidc.provider.internal.endpoint;
 
+import java.net.MalformedURLException;
 import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.contrib.oidc.provider.internal.OIDCManager;
+import org.xwiki.contrib.oidc.provider.internal.OIDCProviderConfiguration;
 import org.xwiki.contrib.oidc.provider.internal.OIDCResourceReference;
-import org.xwiki.contrib.oidc.provider.internal.util.ContentResponse;
+import org.xwiki.contrib.oidc.provider.internal.util.PrecomputedContent;
 
 import com.nimbusds.common.contenttype.ContentType;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.oauth2.sdk.GrantType;
 import com.nimbusds.oauth2.sdk.Response;
+import com.nimbusds.oauth2.sdk.auth.ClientAuthenticationMethod;
 import com.nimbusds.oauth2.sdk.http.HTTPRequest;
-import com.nimbusds.oauth2.sdk.http.HTTPResponse;
 import com.nimbusds.oauth2.sdk.id.Issuer;
 import com.nimbusds.openid.connect.sdk.SubjectType;
 import com.nimbusds.openid.connect.sdk.op.OIDCProviderMetadata;
@@ -48,13 +57,48 @@ import com.nimbusds.openid.connect.sdk.op.OIDCProviderMetadata;
 @Singleton
 public class ConfigurationOIDCEndpoint implements OIDCEndpoint
 {
+    /**
+     * The maximum number of issuers (server URLs) for which the metadata is kept.
+     */
+    private static final int CACHE_SIZE = 100;
+
     @Inject
     private OIDCManager manager;
 
+    @Inject
+    private OIDCProviderConfiguration configuration;
+
+    private final Map<String, PrecomputedContent> cache = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean isInteractive()
+    {
+        return false;
+    }
+
     @Override
     public Response handle(HTTPRequest httpRequest, OIDCResourceReference reference) throws Exception
     {
         Issuer issuer = this.manager.getIssuer();
+
+        // The metadata only change with the server URL and the signing keys
+        JWKSet jwkSet = this.manager.getJWKSet();
+        PrecomputedContent content = this.cache.get(issuer.getValue());
+        if (content == null || !content.isUpToDate(jwkSet)) {
+            content = new PrecomputedContent(ContentType.APPLICATION_JSON,
+                createMetadata(issuer).toJSONObject().toString(), jwkSet);
+
+            if (this.cache.size() >= CACHE_SIZE) {
+                this.cache.clear();
+            }
+            this.cache.put(issuer.getValue(), content);
+        }
+
+        return content.toResponse(httpRequest, this.configuration.getMetadataMaxAge());
+    }
+
+    private OIDCProviderMetadata createMetadata(Issuer issuer) throws MalformedURLException, URISyntaxException
+    {
         List<SubjectType> subjectTypes = Arrays.asList(SubjectType.PUBLIC);
         URI jwkSetURI = this.manager.createEndPointURI(JWKOIDCEndpoint.HINT);
 
@@ -63,8 +107,24 @@ public class ConfigurationOIDCEndpoint implements OIDCEndpoint
         metadata.setAuthorizationEndpointURI(this.manager.createEndPointURI(AuthorizationOIDCEndpoint.HINT));
         metadata.setTokenEndpointURI(this.manager.createEndPointURI(TokenOIDCEndpoint.HINT));
         metadata.setUserInfoEndpointURI(this.manager.createEndPointURI(UserInfoOIDCEndpoint.HINT));
+        metadata.setIntrospectionEndpointURI(this.manager.createEndPointURI(IntrospectionOIDCEndpoint.HINT));
+        metadata.setRevocationEndpointURI(this.manager.createEndPointURI(RevocationOIDCEndpoint.HINT));
+        metadata.setIDTokenJWSAlgs(new ArrayList<>(this.manager.getSigningAlgorithms()));
+
+        List<GrantType> grantTypes = new ArrayList<>(Arrays.asList(GrantType.AUTHORIZATION_CODE, GrantType.IMPLICIT,
+            GrantType.CLIENT_CREDENTIALS, GrantType.JWT_BEARER));
+        if (this.configuration.getRefreshTokenLifespan() > 0) {
+            grantTypes.add(GrantType.REFRESH_TOKEN);
+        }
+        metadata.setGrantTypes(grantTypes);
+        metadata.setTokenEndpointAuthMethods(Arrays.asList(ClientAuthenticationMethod.CLIENT_SECRET_BASIC,
+            ClientAuthenticationMethod.CLIENT_SECRET_POST, ClientAuthenticationMethod.PRIVATE_KEY_JWT));
+        metadata.setTokenEndpointJWSAlgs(new ArrayList<>(JWSAlgorithm.Family.SIGNATURE));
+        metadata.setIntrospectionEndpointAuthMethods(metadata.getTokenEndpointAuthMethods());
+        metadata.setIntrospectionEndpointJWSAlgs(metadata.getTokenEndpointJWSAlgs());
+        metadata.setRevocationEndpointAuthMethods(metadata.getTokenEndpointAuthMethods());
+        metadata.setRevocationEndpointJWSAlgs(metadata.getTokenEndpointJWSAlgs());
 
-        return new ContentResponse(ContentType.APPLICATION_JSON, metadata.toJSONObject().toString(),
-            HTTPResponse.SC_OK);
+        return metadata;
     }
 }
@@ -0,0 +1,155 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.endpoint;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.oidc.provider.internal.OIDCClientAuthenticator;
+import org.xwiki.contrib.oidc.provider.internal.OIDCManager;
+import org.xwiki.contrib.oidc.provider.internal.OIDCProviderConfiguration;
+import org.xwiki.contrib.oidc.provider.internal.OIDCResourceReference;
+import org.xwiki.contrib.oidc.provider.internal.store.OIDCClientRegistry;
+import org.xwiki.contrib.oidc.provider.internal.store.OIDCRegisteredClient;
+import org.xwiki.contrib.oidc.provider.internal.store.OIDCStore;
+import org.xwiki.contrib.oidc.provider.internal.store.OIDCValidatedToken;
+import org.xwiki.contrib.oidc.provider.internal.util.ContentResponse;
+
+import com.nimbusds.common.contenttype.ContentType;
+import com.nimbusds.oauth2.sdk.OAuth2Error;
+import com.nimbusds.oauth2.sdk.Response;
+import com.nimbusds.oauth2.sdk.TokenIntrospectionErrorResponse;
+import com.nimbusds.oauth2.sdk.TokenIntrospectionRequest;
+import com.nimbusds.oauth2.sdk.TokenIntrospectionSuccessResponse;
+import com.nimbusds.oauth2.sdk.auth.ClientAuthentication;
+import com.nimbusds.oauth2.sdk.http.HTTPRequest;
+import com.nimbusds.oauth2.sdk.http.HTTPResponse;
+import com.nimbusds.oauth2.sdk.token.AccessTokenType;
+import com.nimbusds.oauth2.sdk.token.BearerAccessToken;
+
+/**
+ * Token introspection endpoint (RFC 7662), allowing registered clients (generally resource servers) to validate an
+ * access token issued by this provider.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+@Component
+@Named(IntrospectionOIDCEndpoint.HINT)
+@Singleton
+public class IntrospectionOIDCEndpoint implements OIDCEndpoint
+{
+    /**
+     * The endpoint name.
+     */
+    public static final String HINT = "introspect";
+
+    private static final String HEADER_CACHECONTROL = "Cache-Control";
+
+    @Inject
+    private OIDCStore store;
+
+    @Inject
+    private OIDCManager manager;
+
+    @Inject
+    private OIDCClientRegistry clientRegistry;
+
+    @Inject
+    private OIDCClientAuthenticator clientAuthenticator;
+
+    @Inject
+    private OIDCProviderConfiguration configuration;
+
+    @Inject
+    private Logger logger;
+
+    @Override
+    public boolean isInteractive()
+    {
+        return false;
+    }
+
+    @Override
+    public Response handle(HTTPRequest httpRequest, OIDCResourceReference reference) throws Exception
+    {
+        this.logger.debug("OIDC: Entering [introspect] endpoint");
+
+        // Parse the request
+        TokenIntrospectionRequest request = TokenIntrospectionRequest.parse(httpRequest);
+
+        // Only registered clients are allowed to introspect tokens
+        ClientAuthentication authentication = request.getClientAuthentication();
+        OIDCRegisteredClient client =
+            authentication != null ? this.clientRegistry.getClient(authentication.getClientID()) : null;
+        if (client == null || !this.clientAuthenticator.authenticate(client, authentication)) {
+            return new TokenIntrospectionErrorResponse(OAuth2Error.INVALID_CLIENT);
+        }
+
+        // Same validation as when the token is used to authenticate a request
+        OIDCValidatedToken validatedToken =
+            this.store.getValidatedToken(new BearerAccessToken(request.getToken().getValue()));
+
+        TokenIntrospectionSuccessResponse introspection;
+        if (validatedToken != null) {
+            introspection = new TokenIntrospectionSuccessResponse.Builder(true)
+                .issuer(this.manager.getIssuer())
+                .subject(this.manager.getSubject(validatedToken.getUserReference()))
+                .clientID(validatedToken.getClientID())
+                .tokenType(AccessTokenType.BEARER)
+                .expirationTime(validatedToken.getExpirationTime())
+                .build();
+        } else {
+            introspection = new TokenIntrospectionSuccessResponse.Builder(false).build();
+        }
+
+        this.logger.debug("OIDC.introspect: Introspection requested by client [{}]: [{}]", client.getClientID(),
+            introspection.isActive());
+
+        ContentResponse response = new ContentResponse(ContentType.APPLICATION_JSON,
+            introspection.toJSONObject().toJSONString(), HTTPResponse.SC_OK);
+        response.toHTTPResponse().setHeader(HEADER_CACHECONTROL,
+            "max-age=" + getMaxAge(validatedToken != null ? validatedToken.getExpirationTime() : null));
+
+        return response;
+    }
+
+    /**
+     * The result can be cached as long as the provider itself would keep it, without going beyond the expiration of
+     * the token.
+     */
+    private long getMaxAge(Date expirationTime)
+    {
+        long maxAge = this.configuration.getTokenCacheLifespan();
+
+        if (expirationTime != null) {
+            long remaining = TimeUnit.MILLISECONDS.toSeconds(expirationTime.getTime() - System.currentTimeMillis());
+            maxAge = Math.max(0, Math.min(maxAge, remaining));
+        }
+
+        return maxAge;
+    }
+}
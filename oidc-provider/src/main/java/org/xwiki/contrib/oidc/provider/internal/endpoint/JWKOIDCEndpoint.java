@@ -25,14 +25,14 @@ import javax.inject.Singleton;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.contrib.oidc.provider.internal.OIDCManager;
+import org.xwiki.contrib.oidc.provider.internal.OIDCProviderConfiguration;
 import org.xwiki.contrib.oidc.provider.internal.OIDCResourceReference;
-import org.xwiki.contrib.oidc.provider.internal.util.ContentResponse;
+import org.xwiki.contrib.oidc.provider.internal.util.PrecomputedContent;
 
 import com.nimbusds.common.contenttype.ContentType;
 import com.nimbusds.jose.jwk.JWKSet;
 import com.nimbusds.oauth2.sdk.Response;
 import com.nimbusds.oauth2.sdk.http.HTTPRequest;
-import com.nimbusds.oauth2.sdk.http.HTTPResponse;
 
 /**
  * Provider JWK set endpoint for OpenID Connect.
@@ -52,14 +52,29 @@ public class JWKOIDCEndpoint implements OIDCEndpoint
     @Inject
     private OIDCManager manager;
 
+    @Inject
+    private OIDCProviderConfiguration configuration;
+
+    private volatile PrecomputedContent content;
+
+    @Override
+    public boolean isInteractive()
+    {
+        return false;
+    }
+
     @Override
     public Response handle(HTTPRequest httpRequest, OIDCResourceReference reference) throws Exception
     {
+        // The JWK set only changes when the keys are rotated
         JWKSet jwk = this.manager.getJWKSet();
-        if (jwk == null) {
-            jwk = new JWKSet();
+        PrecomputedContent currentContent = this.content;
+        if (currentContent == null || !currentContent.isUpToDate(jwk)) {
+            currentContent = new PrecomputedContent(ContentType.APPLICATION_JSON,
+                jwk != null ? jwk.toString(true) : new JWKSet().toString(true), jwk);
+            this.content = currentContent;
         }
 
-        return new ContentResponse(ContentType.APPLICATION_JSON, jwk.toString(true), HTTPResponse.SC_OK);
+        return currentContent.toResponse(httpRequest, this.configuration.getMetadataMaxAge());
     }
 }
@@ -42,4 +42,16 @@ public interface OIDCEndpoint
      * @throws Exception when failing to handle the request
      */
     Response handle(HTTPRequest httpRequest, OIDCResourceReference reference) throws Exception;
+
+    /**
+     * Indicate if the endpoint interacts with a user through the browser and needs a fully prepared XWiki context
+     * (localization, resources, etc.). Machine to machine endpoints only get a minimal context.
+     * 
+     * @return true if the endpoint needs a fully prepared XWiki context
+     * @since 1.34.4
+     */
+    default boolean isInteractive()
+    {
+        return true;
+    }
 }
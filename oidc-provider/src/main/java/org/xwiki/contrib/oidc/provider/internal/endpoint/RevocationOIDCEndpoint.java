@@ -0,0 +1,110 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.endpoint;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.oidc.provider.internal.OIDCClientAuthenticator;
+import org.xwiki.contrib.oidc.provider.internal.OIDCResourceReference;
+import org.xwiki.contrib.oidc.provider.internal.store.OIDCClientRegistry;
+import org.xwiki.contrib.oidc.provider.internal.store.OIDCRegisteredClient;
+import org.xwiki.contrib.oidc.provider.internal.store.OIDCStore;
+import org.xwiki.contrib.oidc.provider.internal.util.ContentResponse;
+
+import com.nimbusds.oauth2.sdk.OAuth2Error;
+import com.nimbusds.oauth2.sdk.Response;
+import com.nimbusds.oauth2.sdk.TokenErrorResponse;
+import com.nimbusds.oauth2.sdk.TokenRevocationRequest;
+import com.nimbusds.oauth2.sdk.auth.ClientAuthentication;
+import com.nimbusds.oauth2.sdk.http.HTTPRequest;
+import com.nimbusds.oauth2.sdk.http.HTTPResponse;
+import com.nimbusds.oauth2.sdk.id.ClientID;
+
+/**
+ * Token revocation endpoint (RFC 7009), allowing a client to revoke an access or refresh token it was issued.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+@Component
+@Named(RevocationOIDCEndpoint.HINT)
+@Singleton
+public class RevocationOIDCEndpoint implements OIDCEndpoint
+{
+    /**
+     * The endpoint name.
+     */
+    public static final String HINT = "revocation";
+
+    @Inject
+    private OIDCStore store;
+
+    @Inject
+    private OIDCClientRegistry clientRegistry;
+
+    @Inject
+    private OIDCClientAuthenticator clientAuthenticator;
+
+    @Inject
+    private Logger logger;
+
+    @Override
+    public boolean isInteractive()
+    {
+        return false;
+    }
+
+    @Override
+    public Response handle(HTTPRequest httpRequest, OIDCResourceReference reference) throws Exception
+    {
+        this.logger.debug("OIDC: Entering [revocation] endpoint");
+
+        // Parse the request
+        TokenRevocationRequest request = TokenRevocationRequest.parse(httpRequest);
+
+        ClientID clientID = request.getClientID();
+
+        ClientAuthentication authentication = request.getClientAuthentication();
+        if (authentication != null) {
+            clientID = authentication.getClientID();
+        }
+
+        // Same rules as the token endpoint: registered clients must authenticate
+        OIDCRegisteredClient client = this.clientRegistry.getClient(clientID);
+        if (client != null && (authentication != null ? !this.clientAuthenticator.authenticate(client, authentication)
+            : client.hasCredentials())) {
+            return new TokenErrorResponse(OAuth2Error.INVALID_CLIENT);
+        }
+
+        this.logger.debug("OIDC.revocation: Revocation request: clientID={}", clientID);
+
+        // A client can only revoke its own tokens
+        if (!this.store.revoke(request.getToken().getValue(), clientID)) {
+            return new TokenErrorResponse(OAuth2Error.UNAUTHORIZED_CLIENT);
+        }
+
+        // Unknown and invalid tokens are considered as revoked
+        return new ContentResponse(ContentResponse.CONTENTTYPE_PLAIN, "", HTTPResponse.SC_OK);
+    }
+}
@@ -19,31 +19,43 @@
  */
 package org.xwiki.contrib.oidc.provider.internal.endpoint;
 
+import java.net.MalformedURLException;
+
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.oidc.provider.internal.OIDCClientAuthenticator;
 import org.xwiki.contrib.oidc.provider.internal.OIDCManager;
 import org.xwiki.contrib.oidc.provider.internal.OIDCResourceReference;
+import org.xwiki.contrib.oidc.provider.internal.store.AuthorizationSession;
+import org.xwiki.contrib.oidc.provider.internal.store.OIDCClientRegistry;
 import org.xwiki.contrib.oidc.provider.internal.store.OIDCConsent;
+import org.xwiki.contrib.oidc.provider.internal.store.OIDCRegisteredClient;
 import org.xwiki.contrib.oidc.provider.internal.store.OIDCStore;
-import org.xwiki.contrib.oidc.provider.internal.store.XWikiBearerAccessToken;
-import org.xwiki.model.reference.EntityReferenceSerializer;
 
 import com.nimbusds.jwt.JWT;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.nimbusds.oauth2.sdk.AccessTokenResponse;
 import com.nimbusds.oauth2.sdk.AuthorizationCodeGrant;
 import com.nimbusds.oauth2.sdk.AuthorizationGrant;
 import com.nimbusds.oauth2.sdk.GrantType;
+import com.nimbusds.oauth2.sdk.JWTBearerGrant;
 import com.nimbusds.oauth2.sdk.OAuth2Error;
+import com.nimbusds.oauth2.sdk.RefreshTokenGrant;
 import com.nimbusds.oauth2.sdk.Response;
 import com.nimbusds.oauth2.sdk.TokenErrorResponse;
 import com.nimbusds.oauth2.sdk.TokenRequest;
 import com.nimbusds.oauth2.sdk.auth.ClientAuthentication;
 import com.nimbusds.oauth2.sdk.http.HTTPRequest;
 import com.nimbusds.oauth2.sdk.id.ClientID;
-import com.nimbusds.openid.connect.sdk.Nonce;
+import com.nimbusds.oauth2.sdk.token.AccessToken;
+import com.nimbusds.oauth2.sdk.token.RefreshToken;
+import com.nimbusds.oauth2.sdk.token.Tokens;
 import com.nimbusds.openid.connect.sdk.OIDCTokenResponse;
 import com.nimbusds.openid.connect.sdk.token.OIDCTokens;
 
@@ -69,11 +81,20 @@ public class TokenOIDCEndpoint implements OIDCEndpoint
     private OIDCManager manager;
 
     @Inject
-    private EntityReferenceSerializer<String> defaultReferenceSerializer;
+    private OIDCClientRegistry clientRegistry;
+
+    @Inject
+    private OIDCClientAuthenticator clientAuthenticator;
 
     @Inject
     private Logger logger;
 
+    @Override
+    public boolean isInteractive()
+    {
+        return false;
+    }
+
     @Override
     public Response handle(HTTPRequest httpRequest, OIDCResourceReference reference) throws Exception
     {
@@ -91,41 +112,142 @@ public class TokenOIDCEndpoint implements OIDCEndpoint
             clientID = authentication.getClientID();
         }
 
-        if (authorizationGrant.getType().requiresClientAuthentication()) {
-            // TODO: authenticate the client if needed
+        GrantType grantType = authorizationGrant.getType();
+
+        OIDCRegisteredClient client = this.clientRegistry.getClient(clientID);
+
+        if (grantType == GrantType.JWT_BEARER) {
+            // The assertion itself authenticates the client, but a client authentication which fails is still rejected
+            if (authentication != null
+                && (client == null || !this.clientAuthenticator.authenticate(client, authentication))) {
+                return new TokenErrorResponse(OAuth2Error.INVALID_CLIENT);
+            }
+
+            return handleJWTBearer((JWTBearerGrant) authorizationGrant, clientID);
+        }
+
+        // Authenticate the client if it's registered (unregistered clients are allowed to use the authorization code
+        // flow without authentication)
+        if (client != null && (authentication != null ? !this.clientAuthenticator.authenticate(client, authentication)
+            : client.hasCredentials())) {
+            return new TokenErrorResponse(OAuth2Error.INVALID_CLIENT);
+        }
+
+        if (grantType == GrantType.AUTHORIZATION_CODE) {
+            return handleAuthorizationCode((AuthorizationCodeGrant) authorizationGrant, clientID);
+        } else if (grantType == GrantType.REFRESH_TOKEN) {
+            return handleRefreshToken((RefreshTokenGrant) authorizationGrant, clientID);
+        } else if (grantType == GrantType.CLIENT_CREDENTIALS) {
+            return handleClientCredentials(client, authentication);
         }
 
-        if (authorizationGrant.getType() == GrantType.AUTHORIZATION_CODE) {
-            AuthorizationCodeGrant grant = (AuthorizationCodeGrant) authorizationGrant;
+        return new TokenErrorResponse(OAuth2Error.UNSUPPORTED_GRANT_TYPE);
+    }
 
-            this.logger.debug("OIDC.token: Grant request: code={} redirectionURI={} clientID={}",
-                grant.getAuthorizationCode(), grant.getRedirectionURI(), clientID);
+    private Response handleAuthorizationCode(AuthorizationCodeGrant grant, ClientID clientID) throws Exception
+    {
+        this.logger.debug("OIDC.token: Grant request: code={} redirectionURI={} clientID={}",
+            grant.getAuthorizationCode(), grant.getRedirectionURI(), clientID);
 
-            OIDCConsent consent =
-                this.store.getConsent(clientID, grant.getRedirectionURI(), grant.getAuthorizationCode());
+        // Get rid of the temporary authorization code right away so that it cannot be redeemed twice
+        AuthorizationSession session = this.store.consumeAuthorizationCode(grant.getAuthorizationCode());
 
-            if (consent == null) {
-                return new TokenErrorResponse(OAuth2Error.INVALID_GRANT);
-            }
+        if (session == null) {
+            return new TokenErrorResponse(OAuth2Error.INVALID_GRANT);
+        }
+
+        OIDCConsent consent = this.store.getConsent(clientID, grant.getRedirectionURI(), session);
 
-            // Create and store a new token (impossible to reuse existing one if any)
-            XWikiBearerAccessToken accessToken =
-                XWikiBearerAccessToken.create(this.defaultReferenceSerializer.serialize(consent.getReference()));
-            // TODO: set a configurable lifespan ?
-            this.store.saveAccessToken(accessToken.getRandom(), consent);
+        if (consent == null) {
+            return new TokenErrorResponse(OAuth2Error.INVALID_GRANT);
+        }
+
+        AccessToken accessToken = this.store.createAccessToken(consent);
+        RefreshToken refreshToken = this.store.createRefreshToken(consent);
 
-            // Get the stored nonce
-            Nonce nonce = this.store.getNonce(grant.getAuthorizationCode());
+        JWT idToken = this.manager.createdIdToken(clientID, consent.getUserReference(), session.getNonce(),
+            consent.getClaims());
+        OIDCTokens tokens = new OIDCTokens(idToken, accessToken, refreshToken);
 
-            // Get rid of the temporary authorization code and associated metadata
-            this.store.removeAuthorizationCode(grant.getAuthorizationCode());
+        return new OIDCTokenResponse(tokens);
+    }
 
-            JWT idToken = this.manager.createdIdToken(clientID, consent.getUserReference(), nonce, consent.getClaims());
-            OIDCTokens tokens = new OIDCTokens(idToken, accessToken, null);
+    private Response handleRefreshToken(RefreshTokenGrant grant, ClientID clientID) throws Exception
+    {
+        this.logger.debug("OIDC.token: Refresh request: clientID={}", clientID);
 
-            return new OIDCTokenResponse(tokens);
+        // Redeem the refresh token and get a new one right away so that it cannot be redeemed twice
+        Pair<OIDCConsent, RefreshToken> refreshed = this.store.refresh(grant.getRefreshToken(), clientID);
+
+        if (refreshed == null) {
+            return new TokenErrorResponse(OAuth2Error.INVALID_GRANT);
         }
 
-        return new TokenErrorResponse(OAuth2Error.UNSUPPORTED_GRANT_TYPE);
+        OIDCConsent consent = refreshed.getLeft();
+
+        AccessToken accessToken = this.store.createAccessToken(consent);
+
+        JWT idToken = this.manager.createdIdToken(clientID, consent.getUserReference(), null, consent.getClaims());
+        OIDCTokens tokens = new OIDCTokens(idToken, accessToken, refreshed.getRight());
+
+        return new OIDCTokenResponse(tokens);
+    }
+
+    private Response handleClientCredentials(OIDCRegisteredClient client, ClientAuthentication authentication)
+        throws MalformedURLException
+    {
+        // Only authenticated registered clients can get a token for themselves
+        if (client == null || authentication == null) {
+            return new TokenErrorResponse(OAuth2Error.INVALID_CLIENT);
+        }
+
+        this.logger.debug("OIDC.token: Client credentials request: clientID={}", client.getClientID());
+
+        return createServiceAccountResponse(client);
+    }
+
+    private Response handleJWTBearer(JWTBearerGrant grant, ClientID clientID) throws Exception
+    {
+        if (!(grant.getJWTAssertion() instanceof SignedJWT)) {
+            return new TokenErrorResponse(OAuth2Error.INVALID_GRANT);
+        }
+        SignedJWT assertion = (SignedJWT) grant.getJWTAssertion();
+
+        // The assertion is issued by the client
+        String issuer = assertion.getJWTClaimsSet().getIssuer();
+        if (issuer == null || (clientID != null && !clientID.getValue().equals(issuer))) {
+            return new TokenErrorResponse(OAuth2Error.INVALID_GRANT);
+        }
+
+        this.logger.debug("OIDC.token: JWT bearer request: clientID={}", issuer);
+
+        OIDCRegisteredClient client = this.clientRegistry.getClient(new ClientID(issuer));
+        if (client == null || client.getServiceAccount() == null) {
+            return new TokenErrorResponse(OAuth2Error.INVALID_GRANT);
+        }
+
+        // The assertion must be about the service account of the client
+        JWTClaimsSet exactMatchClaims = new JWTClaimsSet.Builder().issuer(issuer)
+            .subject(this.manager.getSubject(client.getServiceAccount()).getValue()).build();
+        if (this.clientAuthenticator.verifyAssertion(client, assertion, exactMatchClaims) == null) {
+            return new TokenErrorResponse(OAuth2Error.INVALID_GRANT);
+        }
+
+        return createServiceAccountResponse(client);
+    }
+
+    private Response createServiceAccountResponse(OIDCRegisteredClient client) throws MalformedURLException
+    {
+        if (client.getServiceAccount() == null) {
+            return new TokenErrorResponse(OAuth2Error.UNAUTHORIZED_CLIENT);
+        }
+
+        AccessToken accessToken = this.store.createAccessToken(client);
+        if (accessToken == null) {
+            return new TokenErrorResponse(OAuth2Error.SERVER_ERROR);
+        }
+
+        // There is no end user involved so no ID token nor refresh token
+        return new AccessTokenResponse(new Tokens(accessToken, null));
     }
 }
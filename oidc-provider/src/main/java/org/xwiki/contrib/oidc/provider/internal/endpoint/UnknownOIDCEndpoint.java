@@ -37,6 +37,12 @@ import com.nimbusds.oauth2.sdk.http.HTTPRequest;
 @Singleton
 public class UnknownOIDCEndpoint implements OIDCEndpoint
 {
+    @Override
+    public boolean isInteractive()
+    {
+        return false;
+    }
+
     @Override
     public Response handle(HTTPRequest httpRequest, OIDCResourceReference reference) throws Exception
     {
@@ -19,10 +19,8 @@
  */
 package org.xwiki.contrib.oidc.provider.internal.endpoint;
 
-import java.net.URI;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
+import java.net.URISyntaxException;
+import java.util.Map;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -33,33 +31,29 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
-import org.xwiki.contrib.oidc.OIDCUserInfo;
-import org.xwiki.contrib.oidc.internal.OIDCConfiguration;
+import org.xwiki.contrib.oidc.provider.internal.OIDCClaimExtractor;
+import org.xwiki.contrib.oidc.provider.internal.OIDCClaimPlanCompiler;
 import org.xwiki.contrib.oidc.provider.internal.OIDCManager;
 import org.xwiki.contrib.oidc.provider.internal.OIDCResourceReference;
-import org.xwiki.contrib.oidc.provider.internal.store.OIDCConsent;
+import org.xwiki.contrib.oidc.provider.internal.OIDCUserInfoCache;
 import org.xwiki.contrib.oidc.provider.internal.store.OIDCStore;
-import org.xwiki.contrib.oidc.provider.internal.store.XWikiBearerAccessToken;
-import org.xwiki.localization.LocaleUtils;
+import org.xwiki.contrib.oidc.provider.internal.store.OIDCValidatedToken;
+import org.xwiki.contrib.oidc.provider.internal.util.ContentResponse;
 import org.xwiki.model.reference.DocumentReference;
-import org.xwiki.model.reference.WikiReference;
 
+import com.nimbusds.common.contenttype.ContentType;
 import com.nimbusds.oauth2.sdk.Response;
 import com.nimbusds.oauth2.sdk.http.HTTPRequest;
+import com.nimbusds.oauth2.sdk.http.HTTPResponse;
 import com.nimbusds.oauth2.sdk.token.BearerTokenError;
 import com.nimbusds.openid.connect.sdk.UserInfoErrorResponse;
 import com.nimbusds.openid.connect.sdk.UserInfoRequest;
-import com.nimbusds.openid.connect.sdk.UserInfoSuccessResponse;
-import com.nimbusds.openid.connect.sdk.claims.Address;
 import com.nimbusds.openid.connect.sdk.claims.ClaimsSetRequest;
-import com.nimbusds.openid.connect.sdk.claims.ClaimsSetRequest.Entry;
 import com.nimbusds.openid.connect.sdk.claims.UserInfo;
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.objects.BaseObject;
-import com.xpn.xwiki.objects.BaseProperty;
-import com.xpn.xwiki.objects.PropertyInterface;
 
 /**
  * UserInfo endpoint for OpenID Connect.
@@ -83,7 +77,10 @@ public class UserInfoOIDCEndpoint implements OIDCEndpoint
     private OIDCManager manager;
 
     @Inject
-    private OIDCConfiguration configuration;
+    private OIDCClaimPlanCompiler claimPlans;
+
+    @Inject
+    private OIDCUserInfoCache userInfoCache;
 
     @Inject
     private Provider<XWikiContext> xcontextProvider;
@@ -91,6 +88,12 @@ public class UserInfoOIDCEndpoint implements OIDCEndpoint
     @Inject
     private Logger logger;
 
+    @Override
+    public boolean isInteractive()
+    {
+        return false;
+    }
+
     @Override
     public Response handle(HTTPRequest httpRequest, OIDCResourceReference reference) throws Exception
     {
@@ -99,39 +102,68 @@ public class UserInfoOIDCEndpoint implements OIDCEndpoint
         // Parse the request
         UserInfoRequest request = UserInfoRequest.parse(httpRequest);
 
-        // Get the token associated to the user
-        XWikiBearerAccessToken xwikiAccessToken = XWikiBearerAccessToken.parse(request.getAccessToken());
-
-        if (xwikiAccessToken == null) {
-            return new UserInfoErrorResponse(BearerTokenError.INVALID_TOKEN);
-        }
+        // Get the consent associated to the token
+        OIDCValidatedToken validatedToken = this.store.getValidatedToken(request.getAccessToken());
 
-        OIDCConsent consent = this.store.getConsent(xwikiAccessToken);
-
-        if (consent == null) {
+        if (validatedToken == null) {
             return new UserInfoErrorResponse(BearerTokenError.INVALID_TOKEN);
         }
 
-        ClaimsSetRequest claims = consent.getClaims();
+        ClaimsSetRequest claims = validatedToken.getClaims();
 
         this.logger.debug("OIDC provider: found consent:");
-        this.logger.debug("OIDC provider:   reference: {}", consent.getReference());
-        this.logger.debug("OIDC provider:   client ID: {}", consent.getClientID());
-        this.logger.debug("OIDC provider:   redirect URI: {}", consent.getRedirectURI());
+        this.logger.debug("OIDC provider:   reference: {}", validatedToken.getConsentReference());
+        this.logger.debug("OIDC provider:   client ID: {}", validatedToken.getClientID());
         this.logger.debug("OIDC provider:   claims: {}", claims);
 
-        DocumentReference userReference = consent.getUserReference();
-
-        UserInfo userInfo = new UserInfo(this.manager.getSubject(userReference));
+        DocumentReference userReference = validatedToken.getUserReference();
 
         XWikiContext xcontext = this.xcontextProvider.get();
 
-        BaseObject userObject = this.store.getUserObject(consent);
+        // The URLs in the user info depend on the server URL
+        String fingerprint = xcontext.getURLFactory().getServerURL(xcontext).toString() + '\n'
+            + (claims != null ? claims.toJSONObject().toJSONString() : "");
+
+        String content = this.userInfoCache.get(userReference, fingerprint);
+
+        if (content == null) {
+            long generation = this.userInfoCache.getGeneration();
+
+            UserInfo userInfo = createUserInfo(userReference, claims, xcontext);
+            if (userInfo == null) {
+                return new UserInfoErrorResponse(BearerTokenError.INVALID_TOKEN);
+            }
+
+            content = userInfo.toJSONObject().toJSONString();
+
+            this.userInfoCache.set(userReference, fingerprint, content, generation);
+        }
+
+        this.logger.debug("OIDC.userinfo: User infos: [{}]", content);
+
+        return new ContentResponse(ContentType.APPLICATION_JSON, content, HTTPResponse.SC_OK);
+    }
+
+    private UserInfo createUserInfo(DocumentReference userReference, ClaimsSetRequest claims, XWikiContext xcontext)
+        throws XWikiException, URISyntaxException
+    {
+        UserInfo userInfo = new UserInfo(this.manager.getSubject(userReference));
+
+        BaseObject userObject = this.store.getUserObject(userReference);
+        if (userObject == null) {
+            return null;
+        }
         XWikiDocument userDocument = userObject.getOwnerDocument();
 
         if (claims != null) {
-            for (Entry claim : claims.getEntries()) {
-                setClaim(userInfo, claim, userReference, userDocument, userObject, xcontext);
+            for (Map.Entry<String, OIDCClaimExtractor> claim : this.claimPlans.getPlan(claims).entrySet()) {
+                try {
+                    claim.getValue().extract(userInfo, userReference, userDocument, userObject, xcontext);
+                } catch (Exception e) {
+                    // Failed to set one of the claims
+                    this.logger.warn("OIDC provider: Failed to get claim [{}] for user [{}]: {}", claim.getKey(),
+                        userReference, ExceptionUtils.getRootCauseMessage(e));
+                }
             }
         } else {
             // Most probably OpenID Connect
@@ -149,171 +181,6 @@ public class UserInfoOIDCEndpoint implements OIDCEndpoint
             userInfo.setProfile(this.store.getUserProfileURI(userDocument));
         }
 
-        if (this.logger.isDebugEnabled()) {
-            this.logger.debug("OIDC.userinfo: User infos: [{}]", userInfo.toJSONObject());
-        }
-
-        return new UserInfoSuccessResponse(userInfo);
-    }
-
-    private void setClaim(UserInfo userInfo, Entry claim, DocumentReference userReference, XWikiDocument userDocument,
-        BaseObject userObject, XWikiContext xcontext)
-    {
-        this.logger.debug("OIDC provider: handling claim [{}]", claim.getClaimName());
-
-        try {
-            switch (claim.getClaimName()) {
-                // OIDC core
-
-                case OIDCUserInfo.CLAIM_ADDRESS:
-                    String addressString = userObject.getLargeStringValue("address");
-                    if (StringUtils.isNotEmpty(addressString)) {
-                        Address address = new Address();
-                        address.setFormatted(addressString);
-                        userInfo.setAddress(address);
-                    }
-                    break;
-                case OIDCUserInfo.CLAIM_EMAIL:
-                    String email = userObject.getStringValue("email");
-                    if (StringUtils.isNotEmpty(email)) {
-                        userInfo.setEmailAddress(email);
-                    }
-                    break;
-                case OIDCUserInfo.CLAIM_EMAIL_VERIFIED:
-                    if (userInfo.getEmailAddress() != null) {
-                        userInfo.setEmailVerified(true);
-                    }
-                    break;
-                case OIDCUserInfo.CLAIM_FAMILY_NAME:
-                    userInfo.setFamilyName(getStringValue(userObject, "last_name"));
-                    break;
-                case OIDCUserInfo.CLAIM_GIVEN_NAME:
-                    userInfo.setGivenName(getStringValue(userObject, "first_name"));
-                    break;
-                case OIDCUserInfo.CLAIM_PHONE_NUMBER:
-                    userInfo.setPhoneNumber(getStringValue(userObject, "phone"));
-                    break;
-                case OIDCUserInfo.CLAIM_PHONE_NUMBER_VERIFIED:
-                    if (userInfo.getPhoneNumber() != null) {
-                        userInfo.setPhoneNumberVerified(true);
-                    }
-                    break;
-                case OIDCUserInfo.CLAIM_PICTURE:
-                    userInfo.setPicture(this.store.getUserAvatarURI(userDocument));
-                    break;
-                case OIDCUserInfo.CLAIM_PROFILE:
-                    userInfo.setProfile(this.store.getUserProfileURI(userDocument));
-                    break;
-                case OIDCUserInfo.CLAIM_UPDATED_AT:
-                    userInfo.setUpdatedTime(userDocument.getDate());
-                    break;
-                case OIDCUserInfo.CLAIM_WEBSITE:
-                    String blog = userObject.getStringValue("blog");
-                    if (StringUtils.isNotEmpty(blog)) {
-                        userInfo.setWebsite(new URI(blog));
-                    }
-                    break;
-                case OIDCUserInfo.CLAIM_NAME:
-                    userInfo.setName(xcontext.getWiki().getPlainUserName(userReference, xcontext));
-                    break;
-                case OIDCUserInfo.CLAIM_PREFERRED_NAME:
-                    userInfo.setPreferredUsername(userReference.getName());
-                    break;
-                case OIDCUserInfo.CLAIM_ZONEINFO:
-                    String timezone = userObject.getStringValue("timezone");
-                    if (StringUtils.isNotEmpty(timezone)) {
-                        userInfo.setZoneinfo(timezone);
-                    }
-                    break;
-                case OIDCUserInfo.CLAIM_LOCALE:
-                    String locale = userObject.getStringValue("default_language");
-                    if (StringUtils.isNotEmpty(locale)) {
-                        userInfo.setLocale(LocaleUtils.toLocale(locale).toLanguageTag());
-                    }
-                    break;
-                case OIDCUserInfo.CLAIM_MIDDLE_NAME:
-                case OIDCUserInfo.CLAIM_NICKNAME:
-                case OIDCUserInfo.CLAIM_GENDER:
-                case OIDCUserInfo.CLAIM_BIRTHDATE:
-                    // TODO
-                    break;
-
-                // XWiki core
-                // Note: most of the XWiki core fields are handled by #setCustomUserInfoClaim
-
-                default:
-                    setCustomUserInfoClaim(userInfo, claim, userObject, userDocument, xcontext);
-                    break;
-            }
-        } catch (Exception e) {
-            // Failed to set one of the claims
-            this.logger.warn("OIDC provider: Failed to get claim [{}] for user [{}]: {}", claim.getClaimName(),
-                userReference, ExceptionUtils.getRootCauseMessage(e));
-        }
-    }
-
-    private String getStringValue(BaseObject obj, String key)
-    {
-        String value = obj.getStringValue(key);
-
-        return StringUtils.isEmpty(value) ? null : value;
-    }
-
-    private Collection<String> getUserGroups(XWikiDocument userDocument, XWikiContext xcontext) throws XWikiException
-    {
-        WikiReference currentWikiReference = xcontext.getWikiReference();
-
-        try {
-            // Switch to user wiki
-            xcontext.setWikiReference(userDocument.getDocumentReference().getWikiReference());
-
-            // Get groups in user wiki
-            Collection<DocumentReference> references = xcontext.getWiki().getGroupService(xcontext)
-                .getAllGroupsReferencesForMember(userDocument.getDocumentReference(), -1, 0, xcontext);
-
-            // Convert reference into Strings
-            List<String> names = new ArrayList<>(references.size());
-            for (DocumentReference reference : references) {
-                // TODO: also search groups of group
-                names.add(reference.getName());
-            }
-
-            return names;
-        } finally {
-            xcontext.setWikiReference(currentWikiReference);
-        }
-    }
-
-    private void setCustomUserInfoClaim(UserInfo userInfo, Entry claim, BaseObject userObject,
-        XWikiDocument userDocument, XWikiContext xcontext) throws XWikiException
-    {
-        String groupClaim = this.configuration.getGroupClaim();
-
-        this.logger.debug("OIDC provider: Try custom claim [{}]", claim.getClaimName());
-        this.logger.debug("OIDC provider: Configured group claim is [{}]", groupClaim);
-
-        if (claim.getClaimName().equals(groupClaim)) {
-            userInfo.setClaim(groupClaim, getUserGroups(userDocument, xcontext));
-        } else if (claim.getClaimName().startsWith(OIDCUserInfo.CLAIMPREFIX_XWIKI_USER)) {
-            String userField = claim.getClaimName().substring(OIDCUserInfo.CLAIMPREFIX_XWIKI_USER.length());
-
-            // Try user object first
-            PropertyInterface property = userObject.safeget(userField);
-
-            if (property != null) {
-                userInfo.setClaim(claim.getClaimName(), ((BaseProperty) property).getValue());
-            } else {
-                // Try the whole document if not in user object
-                BaseObject obj = userDocument.getFirstObject(userField, xcontext);
-                if (obj != null) {
-                    property = obj.safeget(userField);
-                    if (property != null) {
-                        userInfo.setClaim(claim.getClaimName(), ((BaseProperty) property).getValue());
-                    }
-                }
-            }
-        } else {
-            this.logger.debug("OIDC provider: Unknown claim [{}]", claim.getClaimName());
-        }
+        return userInfo;
     }
 }
@@ -0,0 +1,64 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.store;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.contrib.oidc.provider.internal.OIDCException;
+
+import com.nimbusds.oauth2.sdk.AuthorizationCode;
+
+/**
+ * Store the authorization codes issued by the authorization endpoint until they are redeemed at the token endpoint.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+@Role
+public interface AuthorizationCodeStore
+{
+    /**
+     * @param code the authorization code
+     * @param session the information associated with the code
+     * @throws OIDCException when failing to store the code
+     */
+    void store(AuthorizationCode code, AuthorizationSession session) throws OIDCException;
+
+    /**
+     * @param code the authorization code
+     * @return the information associated with the code or null if the code is unknown or expired
+     * @throws OIDCException when failing to access the store
+     */
+    AuthorizationSession get(AuthorizationCode code) throws OIDCException;
+
+    /**
+     * Atomically get and remove the code so that it cannot be redeemed more than once.
+     * 
+     * @param code the authorization code
+     * @return the information associated with the code or null if the code is unknown, expired or already consumed
+     * @throws OIDCException when failing to access the store
+     */
+    AuthorizationSession consume(AuthorizationCode code) throws OIDCException;
+
+    /**
+     * @param code the authorization code to forget
+     * @throws OIDCException when failing to access the store
+     */
+    void remove(AuthorizationCode code) throws OIDCException;
+}
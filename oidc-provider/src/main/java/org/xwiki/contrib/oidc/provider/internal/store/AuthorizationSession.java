@@ -0,0 +1,106 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.store;
+
+import org.xwiki.model.reference.DocumentReference;
+
+import com.nimbusds.openid.connect.sdk.Nonce;
+
+/**
+ * The information associated with an authorization code until it's redeemed.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+public class AuthorizationSession
+{
+    private final DocumentReference userReference;
+
+    private final Nonce nonce;
+
+    private final long expiration;
+
+    private final Integer consentNumber;
+
+    /**
+     * @param userReference the reference of the user who authorized the client
+     * @param nonce the nonce sent by the client
+     * @param expiration the date (in milliseconds since epoch) after which the code cannot be redeemed anymore
+     */
+    public AuthorizationSession(DocumentReference userReference, Nonce nonce, long expiration)
+    {
+        this(userReference, null, nonce, expiration);
+    }
+
+    /**
+     * @param userReference the reference of the user who authorized the client
+     * @param consentNumber the number of the consent object in the user profile
+     * @param nonce the nonce sent by the client
+     * @param expiration the date (in milliseconds since epoch) after which the code cannot be redeemed anymore
+     */
+    public AuthorizationSession(DocumentReference userReference, Integer consentNumber, Nonce nonce, long expiration)
+    {
+        this.userReference = userReference;
+        this.consentNumber = consentNumber;
+        this.nonce = nonce;
+        this.expiration = expiration;
+    }
+
+    /**
+     * @return the reference of the user who authorized the client
+     */
+    public DocumentReference getUserReference()
+    {
+        return this.userReference;
+    }
+
+    /**
+     * @return the number of the consent object in the user profile, null if unknown
+     */
+    public Integer getConsentNumber()
+    {
+        return this.consentNumber;
+    }
+
+    /**
+     * @return the nonce sent by the client
+     */
+    public Nonce getNonce()
+    {
+        return this.nonce;
+    }
+
+    /**
+     * @return the date (in milliseconds since epoch) after which the code cannot be redeemed anymore
+     */
+    public long getExpiration()
+    {
+        return this.expiration;
+    }
+
+    /**
+     * @param now the current date in milliseconds since epoch
+     * @return true if the code cannot be redeemed anymore
+     */
+    public boolean isExpired(long now)
+    {
+        return now >= this.expiration;
+    }
+}
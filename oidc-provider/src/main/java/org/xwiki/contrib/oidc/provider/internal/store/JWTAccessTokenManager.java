@@ -0,0 +1,407 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.store;
+
+import java.net.MalformedURLException;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.oidc.provider.internal.OIDCManager;
+import org.xwiki.contrib.oidc.provider.internal.OIDCProviderConfiguration;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.ObjectReference;
+
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.nimbusds.oauth2.sdk.ParseException;
+import com.nimbusds.oauth2.sdk.id.ClientID;
+import com.nimbusds.oauth2.sdk.id.JWTID;
+import com.nimbusds.openid.connect.sdk.claims.ClaimsSetRequest;
+
+import net.minidev.json.JSONObject;
+
+/**
+ * Create and validate self-contained access tokens. The validation of such a token only requires checking its
+ * signature and an in-memory revocation list, no access to the store is needed. The revocation list is persisted so
+ * that it can be rebuilt after a restart.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+@Component(roles = JWTAccessTokenManager.class)
+@Singleton
+public class JWTAccessTokenManager
+{
+    /**
+     * The claim containing the identifier of the client to which the token was issued.
+     */
+    public static final String CLAIM_CLIENT_ID = "client_id";
+
+    /**
+     * The claim containing the complete reference of the user.
+     */
+    public static final String CLAIM_USER = "xwiki_user";
+
+    /**
+     * The claim containing the complete reference of the consent object.
+     */
+    public static final String CLAIM_CONSENT = "xwiki_consent";
+
+    /**
+     * The claim containing the claims the user consented to.
+     */
+    public static final String CLAIM_CLAIMS = "xwiki_claims";
+
+    /**
+     * The minimum time between two attempts to load the persisted revocations.
+     */
+    private static final long LOAD_RETRY_DELAY = TimeUnit.SECONDS.toMillis(10);
+
+    @Inject
+    private OIDCManager manager;
+
+    @Inject
+    private OIDCProviderConfiguration configuration;
+
+    @Inject
+    private OIDCClientRegistry clientRegistry;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    @Inject
+    private DocumentReferenceResolver<String> resolver;
+
+    @Inject
+    private EntityReferenceResolver<String> entityResolver;
+
+    @Inject
+    private OIDCRevocationStore revocationStore;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * The revoked tokens identifiers associated with the date after which they would have expired anyway.
+     */
+    private final Map<String, Long> revokedTokens = new ConcurrentHashMap<>();
+
+    /**
+     * The revoked consents associated with the date of the revocation: tokens issued before are not valid anymore.
+     */
+    private final Map<String, Long> revokedConsents = new ConcurrentHashMap<>();
+
+    /**
+     * True once the revocations persisted before the last restart have been loaded.
+     */
+    private volatile boolean revocationsLoaded;
+
+    /**
+     * The date from which loading the persisted revocations can be tried again after a failure.
+     */
+    private long nextLoadAttempt;
+
+    /**
+     * @param consent the consent to associate with the token
+     * @return the new access token or null if it was not possible to sign it
+     * @throws ParseException when failing to parse the consent claims
+     * @throws MalformedURLException when failing to get the issuer
+     */
+    public XWikiJWTAccessToken create(OIDCConsent consent) throws ParseException, MalformedURLException
+    {
+        return create(consent.getReference(), consent.getUserReference(), consent.getClientID(), consent.getClaims());
+    }
+
+    /**
+     * @param grantReference the reference of the object granting the token (the consent of the user or the registered
+     *            client acting as its service account), used to revoke the token
+     * @param userReference the reference of the user associated with the token
+     * @param clientID the client to which the token is issued
+     * @param claims the claims the user consented to
+     * @return the new access token or null if it was not possible to sign it
+     * @throws MalformedURLException when failing to get the issuer
+     * @since 1.34.4
+     */
+    public XWikiJWTAccessToken create(EntityReference grantReference, DocumentReference userReference,
+        ClientID clientID, ClaimsSetRequest claims) throws MalformedURLException
+    {
+        long now = System.currentTimeMillis();
+        int lifespan = this.clientRegistry.getAccessTokenLifespan(clientID);
+
+        JWTClaimsSet.Builder builder = new JWTClaimsSet.Builder();
+        builder.issuer(this.manager.getIssuer().getValue());
+        builder.subject(this.manager.getSubject(userReference).getValue());
+        builder.issueTime(new Date(now));
+        builder.expirationTime(new Date(now + TimeUnit.SECONDS.toMillis(lifespan)));
+        builder.jwtID(new JWTID().getValue());
+        builder.claim(CLAIM_USER, this.serializer.serialize(userReference));
+        builder.claim(CLAIM_CONSENT, this.serializer.serialize(grantReference));
+
+        if (clientID != null) {
+            builder.claim(CLAIM_CLIENT_ID, clientID.getValue());
+        }
+
+        if (claims != null) {
+            builder.claim(CLAIM_CLAIMS, claims.toJSONObject());
+        }
+
+        SignedJWT jwt = this.manager.createAccessToken(builder.build());
+
+        return jwt != null ? new XWikiJWTAccessToken(jwt, lifespan) : null;
+    }
+
+    /**
+     * @param tokenValue the complete access token value
+     * @return the validated token or null if the token is not a valid JWT access token issued by this provider
+     */
+    public OIDCValidatedToken validate(String tokenValue)
+    {
+        if (!XWikiJWTAccessToken.isJWT(tokenValue)) {
+            return null;
+        }
+
+        try {
+            SignedJWT jwt = SignedJWT.parse(tokenValue);
+
+            if (!this.manager.verifyAccessToken(jwt)) {
+                return null;
+            }
+
+            JWTClaimsSet claims = jwt.getJWTClaimsSet();
+
+            // The same keys sign the tokens issued by all the wikis of the instance
+            if (!this.manager.getIssuer().getValue().equals(claims.getIssuer())) {
+                return null;
+            }
+
+            if (isExpired(claims) || isRevoked(claims)) {
+                return null;
+            }
+
+            DocumentReference userReference = this.resolver.resolve(claims.getStringClaim(CLAIM_USER));
+            ObjectReference consentReference = new ObjectReference(
+                this.entityResolver.resolve(claims.getStringClaim(CLAIM_CONSENT), EntityType.OBJECT));
+            String clientID = claims.getStringClaim(CLAIM_CLIENT_ID);
+            Map<String, Object> consentClaims = claims.getJSONObjectClaim(CLAIM_CLAIMS);
+
+            return new OIDCValidatedToken(consentReference, userReference,
+                clientID != null ? new ClientID(clientID) : null,
+                consentClaims != null ? ClaimsSetRequest.parse(new JSONObject(consentClaims)) : null,
+                claims.getExpirationTime());
+        } catch (java.text.ParseException | ParseException | MalformedURLException e) {
+            this.logger.debug("Failed to validate the JWT access token: {}", ExceptionUtils.getRootCauseMessage(e));
+
+            return null;
+        }
+    }
+
+    private boolean isExpired(JWTClaimsSet claims)
+    {
+        Date expiration = claims.getExpirationTime();
+
+        return expiration == null || System.currentTimeMillis() >= expiration.getTime();
+    }
+
+    private boolean isRevoked(JWTClaimsSet claims) throws java.text.ParseException
+    {
+        // Without the persisted revocations, a revoked token cannot be told from a valid one
+        if (!loadRevocations()) {
+            return true;
+        }
+
+        if (claims.getJWTID() != null && this.revokedTokens.containsKey(claims.getJWTID())) {
+            return true;
+        }
+
+        String consent = claims.getStringClaim(CLAIM_CONSENT);
+        if (StringUtils.isEmpty(consent)) {
+            return true;
+        }
+
+        Long revocation = this.revokedConsents.get(consent);
+        if (revocation == null) {
+            return false;
+        }
+
+        // The issue time of the token only has a second precision: compare in seconds, rounding the revocation date
+        // up so that a token issued during the same second as the revocation is never accepted
+        Date issueTime = claims.getIssueTime();
+
+        return issueTime == null || TimeUnit.MILLISECONDS.toSeconds(issueTime.getTime()) <= TimeUnit.MILLISECONDS
+            .toSeconds(revocation + TimeUnit.SECONDS.toMillis(1) - 1);
+    }
+
+    /**
+     * Revoke the passed token if it's a valid JWT access token issued by this provider.
+     * 
+     * @param tokenValue the complete access token value
+     * @return true if the token was revoked
+     * @since 1.34.4
+     */
+    public boolean revoke(String tokenValue)
+    {
+        if (validate(tokenValue) == null) {
+            return false;
+        }
+
+        try {
+            JWTClaimsSet claims = SignedJWT.parse(tokenValue).getJWTClaimsSet();
+
+            if (claims.getJWTID() == null) {
+                return false;
+            }
+
+            revoke(claims.getJWTID(), claims.getExpirationTime());
+        } catch (java.text.ParseException e) {
+            // Cannot happen since the token was validated
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * @param jwtID the identifier of the token to revoke
+     * @param expiration the expiration date of the token
+     */
+    public void revoke(String jwtID, Date expiration)
+    {
+        loadRevocations();
+
+        long now = System.currentTimeMillis();
+
+        purge(now);
+
+        if (expiration == null || expiration.getTime() > now) {
+            long date = expiration != null ? expiration.getTime()
+                : now + TimeUnit.SECONDS.toMillis(this.configuration.getAccessTokenLifespan());
+
+            this.revokedTokens.merge(jwtID, date, Math::max);
+
+            saveRevocation(OIDCRevocationStore.TYPE_TOKEN, jwtID, date);
+        }
+    }
+
+    /**
+     * Revoke all the tokens issued until now for the passed consent.
+     * 
+     * @param consentReference the reference of the consent object
+     */
+    public void revokeConsent(EntityReference consentReference)
+    {
+        loadRevocations();
+
+        long now = System.currentTimeMillis();
+
+        purge(now);
+
+        String consent = this.serializer.serialize(consentReference);
+        this.revokedConsents.merge(consent, now, Math::max);
+
+        saveRevocation(OIDCRevocationStore.TYPE_CONSENT, consent, now);
+    }
+
+    /**
+     * Add revocations made by another member of the cluster.
+     * 
+     * @param tokens the revoked tokens identifiers associated with the date after which they would have expired anyway
+     * @param consents the revoked consents associated with the date of the revocation
+     */
+    public void merge(Map<String, Long> tokens, Map<String, Long> consents)
+    {
+        tokens.forEach((key, value) -> this.revokedTokens.merge(key, value, Math::max));
+        consents.forEach((key, value) -> this.revokedConsents.merge(key, value, Math::max));
+    }
+
+    /**
+     * @return true if the revocations persisted before the last restart are loaded
+     */
+    private boolean loadRevocations()
+    {
+        if (!this.revocationsLoaded) {
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+
+                // Don't try again on each request if the store is broken
+                if (!this.revocationsLoaded && now >= this.nextLoadAttempt) {
+                    try {
+                        merge(this.revocationStore.load(OIDCRevocationStore.TYPE_TOKEN),
+                            this.revocationStore.load(OIDCRevocationStore.TYPE_CONSENT));
+
+                        this.revocationsLoaded = true;
+                    } catch (Exception e) {
+                        this.nextLoadAttempt = now + LOAD_RETRY_DELAY;
+
+                        this.logger.warn("Failed to load the persisted revocations of JWT access tokens, rejecting"
+                            + " them until it succeeds: {}", ExceptionUtils.getRootCauseMessage(e));
+                    }
+                }
+            }
+        }
+
+        return this.revocationsLoaded;
+    }
+
+    private void saveRevocation(String type, String value, long date)
+    {
+        long now = System.currentTimeMillis();
+
+        try {
+            this.revocationStore.add(type, value, date,
+                (storedType, storedDate) -> isObsolete(storedType, storedDate, now));
+        } catch (Exception e) {
+            this.logger.warn("Failed to persist the revocations of JWT access tokens: {}",
+                ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
+
+    private void purge(long now)
+    {
+        this.revokedTokens.values()
+            .removeIf(expiration -> isObsolete(OIDCRevocationStore.TYPE_TOKEN, expiration, now));
+        this.revokedConsents.values()
+            .removeIf(revocation -> isObsolete(OIDCRevocationStore.TYPE_CONSENT, revocation, now));
+    }
+
+    private boolean isObsolete(String type, long date, long now)
+    {
+        if (OIDCRevocationStore.TYPE_TOKEN.equals(type)) {
+            // Forget about tokens which would be expired anyway
+            return date <= now;
+        }
+
+        // All the tokens issued before the consent revocation are expired
+        return date + TimeUnit.SECONDS.toMillis(this.configuration.getAccessTokenLifespan()) <= now;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.store;
+
+import java.util.List;
+import java.util.Objects;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Revoke the JWT access tokens associated with a consent when the consent is removed or denied, and the ones issued
+ * to a client for its service account when the client is removed or its service account changes.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+@Component
+@Named(JWTAccessTokenRevocationListener.NAME)
+@Singleton
+public class JWTAccessTokenRevocationListener extends AbstractEventListener
+{
+    /**
+     * The name of the listener.
+     */
+    public static final String NAME = "org.xwiki.contrib.oidc.provider.internal.store.JWTAccessTokenRevocationListener";
+
+    @Inject
+    private Provider<JWTAccessTokenManager> tokenManagerProvider;
+
+    /**
+     * Default constructor.
+     */
+    public JWTAccessTokenRevocationListener()
+    {
+        super(NAME, new DocumentUpdatedEvent(), new DocumentDeletedEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        XWikiDocument document = (XWikiDocument) source;
+        XWikiDocument originalDocument = document.getOriginalDocument();
+
+        if (originalDocument == null) {
+            return;
+        }
+
+        revokeConsents(document, originalDocument);
+        revokeClients(document, originalDocument);
+    }
+
+    private void revokeConsents(XWikiDocument document, XWikiDocument originalDocument)
+    {
+        List<BaseObject> originalConsents = originalDocument.getXObjects(OIDCConsent.REFERENCE);
+        if (originalConsents == null || originalConsents.isEmpty()) {
+            return;
+        }
+
+        for (BaseObject originalConsent : originalConsents) {
+            if (originalConsent != null) {
+                BaseObject consent = document.getXObject(OIDCConsent.REFERENCE, originalConsent.getNumber());
+
+                if (consent == null || (new OIDCConsent(originalConsent).isAllowed()
+                    && !new OIDCConsent(consent).isAllowed())) {
+                    this.tokenManagerProvider.get().revokeConsent(originalConsent.getReference());
+                }
+            }
+        }
+    }
+
+    private void revokeClients(XWikiDocument document, XWikiDocument originalDocument)
+    {
+        List<BaseObject> originalClients = originalDocument.getXObjects(OIDCClient.REFERENCE);
+        if (originalClients == null || originalClients.isEmpty()) {
+            return;
+        }
+
+        for (BaseObject originalClient : originalClients) {
+            if (originalClient != null) {
+                BaseObject client = document.getXObject(OIDCClient.REFERENCE, originalClient.getNumber());
+
+                // The tokens issued to a client for its service account are associated with the client object
+                if (client == null || !Objects.equals(new OIDCClient(originalClient).getServiceAccount(),
+                    new OIDCClient(client).getServiceAccount())) {
+                    this.tokenManagerProvider.get().revokeConsent(originalClient.getReference());
+                }
+            }
+        }
+    }
+}
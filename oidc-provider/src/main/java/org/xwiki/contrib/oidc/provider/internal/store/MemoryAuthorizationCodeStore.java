@@ -0,0 +1,196 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.store;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.contrib.oidc.provider.internal.OIDCProviderConfiguration;
+
+import com.nimbusds.oauth2.sdk.AuthorizationCode;
+
+/**
+ * Keep the authorization codes in memory.
+ * <p>
+ * Expired codes are removed by a background thread using a timer wheel: each code is added to the bucket matching the
+ * second it expires at and the buckets are drained one after the other. The number of pending codes is limited, the
+ * codes closest to expiration being dropped first when the limit is reached.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+@Component
+@Named(OIDCProviderConfiguration.DEFAULT_AUTHORIZATIONCODE_STORE)
+@Singleton
+public class MemoryAuthorizationCodeStore implements AuthorizationCodeStore, Initializable, Disposable
+{
+    private static final long TICK = 1000L;
+
+    @Inject
+    private OIDCProviderConfiguration configuration;
+
+    private final Map<AuthorizationCode, AuthorizationSession> sessions = new ConcurrentHashMap<>();
+
+    private Queue<AuthorizationCode>[] wheel;
+
+    private long lastTick;
+
+    private int maxSize;
+
+    private ScheduledExecutorService sweeper;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void initialize() throws InitializationException
+    {
+        this.maxSize = this.configuration.getAuthorizationCodeMaxSize();
+
+        // One bucket per tick for the whole lifespan of a code plus one to avoid draining the bucket currently filled
+        int wheelSize = (int) (TimeUnit.SECONDS.toMillis(this.configuration.getAuthorizationCodeLifespan()) / TICK) + 2;
+        this.wheel = new Queue[wheelSize];
+        for (int i = 0; i < wheelSize; ++i) {
+            this.wheel[i] = new ConcurrentLinkedQueue<>();
+        }
+
+        this.lastTick = System.currentTimeMillis() / TICK;
+
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "OIDC authorization code sweeper");
+            thread.setDaemon(true);
+
+            return thread;
+        });
+        this.sweeper.scheduleWithFixedDelay(this::sweep, TICK, TICK, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.sweeper.shutdownNow();
+    }
+
+    @Override
+    public void store(AuthorizationCode code, AuthorizationSession session)
+    {
+        if (this.sessions.size() >= this.maxSize) {
+            evict();
+        }
+
+        this.sessions.put(code, session);
+
+        // Register the code in the bucket drained right after its expiration
+        this.wheel[getBucket(session.getExpiration() / TICK + 1)].add(code);
+    }
+
+    @Override
+    public AuthorizationSession get(AuthorizationCode code)
+    {
+        AuthorizationSession session = this.sessions.get(code);
+
+        if (session != null && session.isExpired(System.currentTimeMillis())) {
+            this.sessions.remove(code, session);
+
+            return null;
+        }
+
+        return session;
+    }
+
+    @Override
+    public AuthorizationSession consume(AuthorizationCode code)
+    {
+        AuthorizationSession session = this.sessions.remove(code);
+
+        return session != null && !session.isExpired(System.currentTimeMillis()) ? session : null;
+    }
+
+    @Override
+    public void remove(AuthorizationCode code)
+    {
+        this.sessions.remove(code);
+    }
+
+    private int getBucket(long tick)
+    {
+        return (int) (tick % this.wheel.length);
+    }
+
+    private synchronized void sweep()
+    {
+        long now = System.currentTimeMillis();
+        long currentTick = now / TICK;
+
+        // Don't go around the wheel more than once if the sweeper was late
+        long firstTick = Math.max(this.lastTick + 1, currentTick - this.wheel.length + 1);
+
+        for (long tick = firstTick; tick <= currentTick; ++tick) {
+            Queue<AuthorizationCode> bucket = this.wheel[getBucket(tick)];
+
+            List<AuthorizationCode> pending = new ArrayList<>();
+            for (AuthorizationCode code = bucket.poll(); code != null; code = bucket.poll()) {
+                AuthorizationSession session = this.sessions.get(code);
+
+                if (session != null) {
+                    if (session.isExpired(now)) {
+                        this.sessions.remove(code, session);
+                    } else {
+                        // Can only happen if the clock was moved back
+                        pending.add(code);
+                    }
+                }
+            }
+            bucket.addAll(pending);
+        }
+
+        this.lastTick = currentTick;
+    }
+
+    private synchronized void evict()
+    {
+        // Drop the codes closest to their expiration first
+        for (int i = 1; i <= this.wheel.length && this.sessions.size() >= this.maxSize; ++i) {
+            Queue<AuthorizationCode> bucket = this.wheel[getBucket(this.lastTick + i)];
+
+            while (this.sessions.size() >= this.maxSize) {
+                AuthorizationCode code = bucket.poll();
+                if (code == null) {
+                    break;
+                }
+                this.sessions.remove(code);
+            }
+        }
+    }
+}
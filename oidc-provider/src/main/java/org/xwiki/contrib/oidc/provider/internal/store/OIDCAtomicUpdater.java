@@ -0,0 +1,206 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.store;
+
+import java.util.function.Consumer;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.oidc.provider.internal.util.StoreUtils;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.LocalDocumentReference;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Read and update object properties directly in the database, whatever the content of the document cache, so that
+ * when several cluster members try to update the same value at the same time only one of them succeeds.
+ * <p>
+ * The document cache is not updated: the caller is expected to save (or delete) the document through the usual API
+ * right after, which also notifies the other cluster members.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+@Component(roles = OIDCAtomicUpdater.class)
+@Singleton
+public class OIDCAtomicUpdater
+{
+    private static final String STATEMENT = "update StringProperty set value = :value"
+        + " where id.id = :objectId and id.name = :field and value = :expected";
+
+    private static final String READ_STATEMENT =
+        "select value from StringProperty where id.id = :objectId and id.name = :field";
+
+    private static final String PARAMETER_OBJECTID = "objectId";
+
+    private static final String PARAMETER_FIELD = "field";
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * Read the value of a string property directly from the database, whatever the content of the document cache.
+     * 
+     * @param xobject the object holding the property
+     * @param field the name of the property
+     * @return the value of the property in the database, null if it does not exist
+     * @throws XWikiException when failing to read the database
+     */
+    public String getStringValue(BaseObject xobject, String field) throws XWikiException
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+
+        String currentWiki = xcontext.getWikiId();
+        xcontext.setWikiId(xobject.getDocumentReference().getWikiReference().getName());
+
+        try {
+            return xcontext.getWiki().getHibernateStore().executeRead(xcontext,
+                session -> (String) session.createQuery(READ_STATEMENT)
+                    .setParameter(PARAMETER_OBJECTID, xobject.getId()).setParameter(PARAMETER_FIELD, field)
+                    .uniqueResult());
+        } finally {
+            xcontext.setWikiId(currentWiki);
+        }
+    }
+
+    /**
+     * Replace the value of a string property only if its value in the database is the expected one.
+     * 
+     * @param xobject the object holding the property
+     * @param field the name of the property
+     * @param expected the value the property must have in the database
+     * @param value the new value
+     * @return true if the property was updated, false if it did not have the expected value anymore
+     * @throws XWikiException when failing to update the database
+     */
+    public boolean compareAndSet(BaseObject xobject, String field, String expected, String value)
+        throws XWikiException
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+
+        String currentWiki = xcontext.getWikiId();
+        xcontext.setWikiId(xobject.getDocumentReference().getWikiReference().getName());
+
+        try {
+            Integer updated = xcontext.getWiki().getHibernateStore().executeWrite(xcontext,
+                session -> session.createQuery(STATEMENT).setParameter("value", value)
+                    .setParameter(PARAMETER_OBJECTID, xobject.getId()).setParameter(PARAMETER_FIELD, field)
+                    .setParameter("expected", expected).executeUpdate());
+
+            return updated != null && updated > 0;
+        } finally {
+            xcontext.setWikiId(currentWiki);
+        }
+    }
+
+    /**
+     * Load a document directly from the database, whatever the content of the document cache.
+     * 
+     * @param documentReference the reference of the document to load
+     * @return the document as currently stored in the database
+     * @throws XWikiException when failing to load the document
+     */
+    public XWikiDocument loadDocument(DocumentReference documentReference) throws XWikiException
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+
+        return xcontext.getWiki().getHibernateStore().loadXWikiDoc(new XWikiDocument(documentReference), xcontext);
+    }
+
+    /**
+     * Make sure the passed document exists in the database with an object of the passed class, so that this object can
+     * then be modified with {@link #compareAndSet(BaseObject, String, String, String)} like any other.
+     * <p>
+     * A missing document is created (as the superadmin) with only this object, holding the passed initial value. A
+     * document already stored at this location without this object, or not saved by the superadmin, was not created by
+     * a store, so it is completely reset (see {@link StoreUtils#reset(XWikiDocument)}) before being saved as the
+     * superadmin with only this object. The database is checked
+     * right before, and a creation failing because another member of the cluster created the same document at the same
+     * time is ignored: in both cases the document as stored in the database is returned.
+     * 
+     * @param documentReference the reference of the document
+     * @param classReference the reference of the class of the object to modify atomically
+     * @param field the name of the property to modify atomically
+     * @param value the initial value of the property
+     * @param comment the comment of the creation
+     * @return the document as currently stored in the database
+     * @throws XWikiException when failing to load the document
+     */
+    public XWikiDocument create(DocumentReference documentReference, LocalDocumentReference classReference,
+        String field, String value, String comment) throws XWikiException
+    {
+        return create(documentReference, classReference, xobject -> xobject.setStringValue(field, value), comment);
+    }
+
+    /**
+     * Same as {@link #create(DocumentReference, LocalDocumentReference, String, String, String)} but with an object
+     * initialized by the passed function (when the document is created).
+     * 
+     * @param documentReference the reference of the document
+     * @param classReference the reference of the class of the object to modify atomically
+     * @param initializer set the initial values of the object
+     * @param comment the comment of the creation
+     * @return the document as currently stored in the database
+     * @throws XWikiException when failing to load the document
+     */
+    public XWikiDocument create(DocumentReference documentReference, LocalDocumentReference classReference,
+        Consumer<BaseObject> initializer, String comment) throws XWikiException
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+
+        XWikiDocument document = loadDocument(documentReference);
+
+        if (document.getXObject(classReference) == null || !StoreUtils.isStoreAuthor(document, xcontext)) {
+            // Never endorse a document written by someone else at this location
+            if (!document.isNew()) {
+                this.logger.warn("Resetting document [{}] which was not created by the OIDC provider",
+                    documentReference);
+
+                StoreUtils.reset(document);
+            }
+
+            initializer.accept(document.newXObject(classReference, xcontext));
+            document.setHidden(true);
+            StoreUtils.setStoreAuthor(document, xcontext);
+
+            try {
+                xcontext.getWiki().saveDocument(document, comment, true, xcontext);
+            } catch (XWikiException e) {
+                this.logger.debug("Failed to create document [{}], it was probably created by another member of the"
+                    + " cluster in the meantime", documentReference, e);
+            }
+
+            document = loadDocument(documentReference);
+        }
+
+        return document;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.store;
+
+import java.util.Arrays;
+
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.model.reference.LocalDocumentReference;
+
+import com.nimbusds.oauth2.sdk.id.ClientID;
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.BaseObjectReference;
+
+/**
+ * A client registered in the provider, allowed to authenticate on the token endpoint and to get access tokens for a
+ * service account.
+ * <p>
+ * The clients are located in the main wiki.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+public class OIDCClient
+{
+    /**
+     * The reference of the class as String.
+     */
+    public static final String REFERENCE_STRING = "XWiki.OIDC.ClientClass";
+
+    /**
+     * The reference of the class.
+     */
+    public static final LocalDocumentReference REFERENCE =
+        new LocalDocumentReference(Arrays.asList(XWiki.SYSTEM_SPACE, "OIDC"), "ClientClass");
+
+    /**
+     * The name of the field containing the identifier of the client.
+     */
+    public static final String FIELD_CLIENTID = "clientId";
+
+    /**
+     * The name of the field containing the hash of the client secret.
+     */
+    public static final String FIELD_SECRET = "secret";
+
+    /**
+     * The name of the field containing the JSON JWK set holding the public keys of the client.
+     */
+    public static final String FIELD_JWKS = "jwks";
+
+    /**
+     * The name of the field containing the reference of the user the client acts as.
+     */
+    public static final String FIELD_SERVICEACCOUNT = "serviceAccount";
+
+    /**
+     * The name of the field containing the number of seconds the access tokens issued to the client are valid.
+     */
+    public static final String FIELD_ACCESSTOKENLIFESPAN = "accessTokenLifespan";
+
+    /**
+     * The name of the field containing the number of seconds the ID tokens issued to the client are valid.
+     */
+    public static final String FIELD_IDTOKENLIFESPAN = "idTokenLifespan";
+
+    /**
+     * The name of the field containing the number of seconds the refresh tokens issued to the client can be redeemed.
+     */
+    public static final String FIELD_REFRESHTOKENLIFESPAN = "refreshTokenLifespan";
+
+    private final BaseObject xobject;
+
+    /**
+     * @param xobject the actual XWiki object
+     */
+    public OIDCClient(BaseObject xobject)
+    {
+        this.xobject = xobject;
+    }
+
+    /**
+     * @return the reference of the object
+     */
+    public BaseObjectReference getReference()
+    {
+        return this.xobject.getReference();
+    }
+
+    /**
+     * @return the identifier of the client
+     */
+    public ClientID getClientID()
+    {
+        String str = this.xobject.getStringValue(FIELD_CLIENTID);
+
+        return StringUtils.isNotEmpty(str) ? new ClientID(str) : null;
+    }
+
+    /**
+     * @return the hash of the client secret
+     */
+    public String getSecret()
+    {
+        return this.xobject.getStringValue(FIELD_SECRET);
+    }
+
+    /**
+     * @return the JSON JWK set holding the public keys of the client
+     */
+    public String getJWKSet()
+    {
+        return this.xobject.getLargeStringValue(FIELD_JWKS);
+    }
+
+    /**
+     * @return the reference of the user the client acts as
+     */
+    public String getServiceAccount()
+    {
+        return this.xobject.getStringValue(FIELD_SERVICEACCOUNT);
+    }
+
+    /**
+     * @return the number of seconds the access tokens issued to the client are valid, null to use the default
+     */
+    public Integer getAccessTokenLifespan()
+    {
+        return getLifespan(FIELD_ACCESSTOKENLIFESPAN);
+    }
+
+    /**
+     * @return the number of seconds the ID tokens issued to the client are valid, null to use the default
+     */
+    public Integer getIDTokenLifespan()
+    {
+        return getLifespan(FIELD_IDTOKENLIFESPAN);
+    }
+
+    /**
+     * @return the number of seconds the refresh tokens issued to the client can be redeemed, null to use the default
+     */
+    public Integer getRefreshTokenLifespan()
+    {
+        return getLifespan(FIELD_REFRESHTOKENLIFESPAN);
+    }
+
+    private Integer getLifespan(String field)
+    {
+        int lifespan = this.xobject.getIntValue(field, 0);
+
+        return lifespan > 0 ? lifespan : null;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.store;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+
+import com.xpn.xwiki.doc.AbstractMandatoryClassInitializer;
+import com.xpn.xwiki.objects.classes.BaseClass;
+
+/**
+ * Initialize OIDC client class.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+@Component
+@Named(OIDCClient.REFERENCE_STRING)
+@Singleton
+public class OIDCClientClassDocumentInitializer extends AbstractMandatoryClassInitializer
+{
+    /**
+     * Default constructor.
+     */
+    public OIDCClientClassDocumentInitializer()
+    {
+        super(OIDCClient.REFERENCE, "XWiki OIDC Client Class");
+    }
+
+    @Override
+    protected void createClass(BaseClass xclass)
+    {
+        xclass.addTextField(OIDCClient.FIELD_CLIENTID, "Client ID", 30);
+        xclass.addPasswordField(OIDCClient.FIELD_SECRET, "Secret", 30);
+        xclass.addTextAreaField(OIDCClient.FIELD_JWKS, "Public keys (JWK set)", 60, 10);
+        xclass.addUsersField(OIDCClient.FIELD_SERVICEACCOUNT, "Service account", false);
+        xclass.addNumberField(OIDCClient.FIELD_ACCESSTOKENLIFESPAN, "Access token lifespan (seconds)", 10, "integer");
+        xclass.addNumberField(OIDCClient.FIELD_IDTOKENLIFESPAN, "ID token lifespan (seconds)", 10, "integer");
+        xclass.addNumberField(OIDCClient.FIELD_REFRESHTOKENLIFESPAN, "Refresh token lifespan (seconds)", 10,
+            "integer");
+    }
+}
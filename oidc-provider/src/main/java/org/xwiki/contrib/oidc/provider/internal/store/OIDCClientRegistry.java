@@ -0,0 +1,292 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.store;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.contrib.oidc.provider.internal.OIDCProviderConfiguration;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+import org.xwiki.security.authorization.AuthorizationManager;
+import org.xwiki.security.authorization.Right;
+
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.oauth2.sdk.id.ClientID;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Find the clients registered in the main wiki and keep their configuration in memory.
+ * <p>
+ * A client acts on behalf of its service account, so only the clients saved by an administrator of the main wiki who
+ * is also allowed to act as the service account are trusted.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+@Component(roles = OIDCClientRegistry.class)
+@Singleton
+public class OIDCClientRegistry implements Initializable, Disposable
+{
+    private static final int CACHE_SIZE = 1000;
+
+    /**
+     * Remember that a client is not registered without keeping any configuration.
+     */
+    private static final OIDCRegisteredClient UNREGISTERED = new OIDCRegisteredClient(null, null, null, null, null);
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    private DocumentReferenceResolver<String> resolver;
+
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    private OIDCProviderConfiguration configuration;
+
+    @Inject
+    private AuthorizationManager authorization;
+
+    @Inject
+    private Logger logger;
+
+    private Cache<OIDCRegisteredClient> cache;
+
+    private final AtomicLong generation = new AtomicLong();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            this.cache =
+                this.cacheManager.createNewLocalCache(new LRUCacheConfiguration("oidc.provider.clients", CACHE_SIZE));
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to create the OIDC client cache", e);
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.cache.dispose();
+    }
+
+    /**
+     * @param clientID the identifier of the client
+     * @return the configuration of the client or null if the client is not registered
+     * @throws XWikiException when failing to load the client
+     * @throws QueryException when failing to search the client
+     */
+    public OIDCRegisteredClient getClient(ClientID clientID) throws XWikiException, QueryException
+    {
+        if (clientID == null) {
+            return null;
+        }
+
+        OIDCRegisteredClient client = this.cache.get(clientID.getValue());
+
+        if (client == null) {
+            long expectedGeneration = this.generation.get();
+
+            client = load(clientID);
+            if (client == null) {
+                client = UNREGISTERED;
+            }
+
+            this.cache.set(clientID.getValue(), client);
+
+            // Make sure to not keep a value computed before a modification
+            if (this.generation.get() != expectedGeneration) {
+                this.cache.remove(clientID.getValue());
+            }
+        }
+
+        return client != UNREGISTERED ? client : null;
+    }
+
+    private OIDCRegisteredClient load(ClientID clientID) throws XWikiException, QueryException
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+
+        Query query = this.queryManager.createQuery(
+            "from doc.object(" + OIDCClient.REFERENCE_STRING + ") as client where client.clientId = :clientId",
+            Query.XWQL);
+        query.bindValue("clientId", clientID.getValue());
+        query.setWiki(xcontext.getMainXWiki());
+
+        List<String> documents = query.execute();
+
+        WikiReference wikiReference = new WikiReference(xcontext.getMainXWiki());
+        for (String documentName : documents) {
+            XWikiDocument document =
+                xcontext.getWiki().getDocument(this.resolver.resolve(documentName, wikiReference), xcontext);
+
+            BaseObject clientObject =
+                document.getXObject(OIDCClient.REFERENCE, OIDCClient.FIELD_CLIENTID, clientID.getValue(), false);
+            if (clientObject != null) {
+                OIDCRegisteredClient client =
+                    toRegisteredClient(new OIDCClient(clientObject), document.getDocumentReference());
+                if (isTrusted(client, document, wikiReference)) {
+                    return client;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private boolean isTrusted(OIDCRegisteredClient client, XWikiDocument document, WikiReference mainWikiReference)
+    {
+        DocumentReference author = document.getContentAuthorReference();
+
+        if (!this.authorization.hasAccess(Right.ADMIN, author, mainWikiReference)) {
+            this.logger.warn("Ignoring the OIDC client [{}] in document [{}] because its author [{}] is not an"
+                + " administrator of the main wiki", client.getClientID(), document.getDocumentReference(), author);
+
+            return false;
+        }
+
+        DocumentReference serviceAccount = client.getServiceAccount();
+        if (serviceAccount != null && !serviceAccount.equals(author)) {
+            // Make sure the author cannot gain more rights through the service account
+            WikiReference serviceAccountWiki = serviceAccount.getWikiReference();
+            if (!this.authorization.hasAccess(Right.ADMIN, author, serviceAccount)
+                || (this.authorization.hasAccess(Right.PROGRAM, serviceAccount, serviceAccountWiki)
+                    && !this.authorization.hasAccess(Right.PROGRAM, author, serviceAccountWiki))) {
+                this.logger.warn("Ignoring the OIDC client [{}] in document [{}] because its author [{}] is not allowed"
+                    + " to act as the service account [{}]", client.getClientID(), document.getDocumentReference(),
+                    author, serviceAccount);
+
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private OIDCRegisteredClient toRegisteredClient(OIDCClient client, DocumentReference documentReference)
+    {
+        JWKSet jwkSet = null;
+        String jwks = client.getJWKSet();
+        if (StringUtils.isNotBlank(jwks)) {
+            try {
+                // Make sure to never use anything else than public keys
+                jwkSet = JWKSet.parse(jwks).toPublicJWKSet();
+            } catch (java.text.ParseException e) {
+                this.logger.warn("Failed to parse the public keys of OIDC client [{}]: {}", client.getClientID(),
+                    ExceptionUtils.getRootCauseMessage(e));
+            }
+        }
+
+        String serviceAccount = client.getServiceAccount();
+        DocumentReference serviceAccountReference =
+            StringUtils.isNotEmpty(serviceAccount) ? this.resolver.resolve(serviceAccount, documentReference) : null;
+
+        return new OIDCRegisteredClient(client, jwkSet, serviceAccountReference);
+    }
+
+    /**
+     * The lifespan configured on a client can only make its tokens expire sooner than the global one, which is what
+     * the revocation and the signing key rotation rely on.
+     * 
+     * @param clientID the identifier of the client
+     * @return the number of seconds the access tokens issued to the passed client are valid
+     */
+    public int getAccessTokenLifespan(ClientID clientID)
+    {
+        return getLifespan(clientID, OIDCRegisteredClient::getAccessTokenLifespan,
+            this.configuration.getAccessTokenLifespan());
+    }
+
+    /**
+     * @param clientID the identifier of the client
+     * @return the number of seconds the ID tokens issued to the passed client are valid
+     */
+    public int getIDTokenLifespan(ClientID clientID)
+    {
+        return getLifespan(clientID, OIDCRegisteredClient::getIDTokenLifespan, this.configuration.getIDTokenLifespan());
+    }
+
+    /**
+     * @param clientID the identifier of the client
+     * @return the number of seconds the refresh tokens issued to the passed client can be redeemed, 0 to not issue
+     *         refresh tokens
+     */
+    public int getRefreshTokenLifespan(ClientID clientID)
+    {
+        return getLifespan(clientID, OIDCRegisteredClient::getRefreshTokenLifespan,
+            this.configuration.getRefreshTokenLifespan());
+    }
+
+    private int getLifespan(ClientID clientID, Function<OIDCRegisteredClient, Integer> getter, int defaultLifespan)
+    {
+        try {
+            OIDCRegisteredClient client = getClient(clientID);
+            Integer lifespan = client != null ? getter.apply(client) : null;
+            if (lifespan != null) {
+                return Math.min(lifespan, defaultLifespan);
+            }
+        } catch (Exception e) {
+            this.logger.warn("Failed to get the token lifespan of OIDC client [{}], using the default one: {}",
+                clientID, ExceptionUtils.getRootCauseMessage(e));
+        }
+
+        return defaultLifespan;
+    }
+
+    /**
+     * Forget the configuration of all clients.
+     */
+    public void invalidateAll()
+    {
+        this.generation.incrementAndGet();
+        this.cache.removeAll();
+    }
+}
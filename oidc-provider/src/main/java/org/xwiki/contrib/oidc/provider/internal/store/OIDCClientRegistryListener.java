@@ -0,0 +1,101 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.store;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Invalidate the registered clients configuration when a client or the rights of its author are modified.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+@Component
+@Named(OIDCClientRegistryListener.NAME)
+@Singleton
+public class OIDCClientRegistryListener extends AbstractEventListener
+{
+    /**
+     * The name of the listener.
+     */
+    public static final String NAME = "org.xwiki.contrib.oidc.provider.internal.store.OIDCClientRegistryListener";
+
+    private static final List<LocalDocumentReference> RIGHTS_CLASSES =
+        Arrays.asList(new LocalDocumentReference(XWiki.SYSTEM_SPACE, "XWikiGlobalRights"),
+            new LocalDocumentReference(XWiki.SYSTEM_SPACE, "XWikiRights"),
+            new LocalDocumentReference(XWiki.SYSTEM_SPACE, "XWikiGroups"));
+
+    @Inject
+    private OIDCClientRegistry clientRegistry;
+
+    /**
+     * Default constructor.
+     */
+    public OIDCClientRegistryListener()
+    {
+        super(NAME, new DocumentCreatedEvent(), new DocumentUpdatedEvent(), new DocumentDeletedEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        XWikiDocument document = (XWikiDocument) source;
+
+        if (isClient(document) || isClient(document.getOriginalDocument()) || hasRights(document)
+            || hasRights(document.getOriginalDocument())) {
+            // The client identifier itself or the rights of the clients authors might have been modified
+            this.clientRegistry.invalidateAll();
+        }
+    }
+
+    private boolean isClient(XWikiDocument document)
+    {
+        return document != null && document.getXObject(OIDCClient.REFERENCE) != null;
+    }
+
+    private boolean hasRights(XWikiDocument document)
+    {
+        if (document != null) {
+            for (LocalDocumentReference rightsClass : RIGHTS_CLASSES) {
+                if (document.getXObject(rightsClass) != null) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+}
@@ -98,6 +98,15 @@ public class OIDCConsent
         return this.xobject.getReference();
     }
 
+    /**
+     * @return the number of the object in the user document
+     * @since 1.34.4
+     */
+    public int getNumber()
+    {
+        return this.xobject.getNumber();
+    }
+
     public ClientID getClientID()
     {
         String str = this.xobject.getStringValue(FIELD_CLIENTID);
@@ -0,0 +1,126 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.store;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+/**
+ * Index the consents objects of the users by client identifier and redirect URI to avoid going through all the
+ * consents of a user each time one is needed.
+ * <p>
+ * The index is only a hint: the object it points to must always be checked by the caller.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+@Component(roles = OIDCConsentIndex.class)
+@Singleton
+public class OIDCConsentIndex implements Initializable, Disposable
+{
+    private static final int CACHE_SIZE = 1000;
+
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    private Cache<Map<String, Integer>> cache;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            this.cache = this.cacheManager.createNewLocalCache(new LRUCacheConfiguration("oidc.provider.consents",
+                CACHE_SIZE));
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to create the OIDC consent index", e);
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.cache.dispose();
+    }
+
+    /**
+     * @param userReference the reference of the user
+     * @param clientID the identifier of the client
+     * @param redirectURI the redirect URI
+     * @return the number of the matching consent object or null if it's not indexed
+     */
+    public Integer get(DocumentReference userReference, String clientID, URI redirectURI)
+    {
+        Map<String, Integer> consents = this.cache.get(this.serializer.serialize(userReference));
+
+        return consents != null ? consents.get(toKey(clientID, redirectURI.toString())) : null;
+    }
+
+    /**
+     * @param userReference the reference of the user
+     * @param clientID the identifier of the client
+     * @param redirectURI the redirect URI
+     * @param number the number of the consent object
+     */
+    public void put(DocumentReference userReference, String clientID, String redirectURI, int number)
+    {
+        String userKey = this.serializer.serialize(userReference);
+
+        Map<String, Integer> consents = this.cache.get(userKey);
+        if (consents == null) {
+            consents = new ConcurrentHashMap<>();
+            this.cache.set(userKey, consents);
+        }
+
+        consents.put(toKey(clientID, redirectURI), number);
+    }
+
+    /**
+     * @param userReference the reference of the user whose consents changed
+     */
+    public void invalidate(DocumentReference userReference)
+    {
+        this.cache.remove(this.serializer.serialize(userReference));
+    }
+
+    private String toKey(String clientID, String redirectURI)
+    {
+        // Prefix with the length of the client identifier to make sure the key is not ambiguous
+        return clientID.length() + ":" + clientID + redirectURI;
+    }
+}
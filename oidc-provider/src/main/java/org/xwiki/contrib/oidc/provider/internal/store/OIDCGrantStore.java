@@ -0,0 +1,723 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.oidc.provider.internal.OIDCProviderConfiguration;
+import org.xwiki.contrib.oidc.provider.internal.util.StoreUtils;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.model.reference.ObjectReference;
+
+import com.nimbusds.jwt.proc.DefaultJWTClaimsVerifier;
+import com.nimbusds.oauth2.sdk.id.ClientID;
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Store the access tokens in dedicated hidden documents (one per user and client) instead of the user profile, so that
+ * issuing a token only writes a small document without creating a new revision.
+ * <p>
+ * The grant documents are located in the wiki of the user, in the space {@code XWiki.OIDC.Grants.<client digest>} and
+ * named after a digest of the user reference. Since anyone can compute this location, the grant documents are saved by
+ * the superadmin and any other document found there is ignored (and completely reset before being replaced).
+ * <p>
+ * The client assertions already used are remembered in the main wiki, each in its own document (in the space
+ * {@code XWiki.OIDC.Assertions.<client digest>} and named after a digest of the assertion identifier) so that
+ * checking an assertion never waits for the other token requests of the same client.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+@Component(roles = OIDCGrantStore.class)
+@Singleton
+public class OIDCGrantStore
+{
+    /**
+     * The String reference of the class holding the revision of a grant document.
+     */
+    public static final String GRANT_REFERENCE_STRING = "XWiki.OIDC.GrantClass";
+
+    /**
+     * The local reference of the class holding the revision of a grant document.
+     */
+    public static final LocalDocumentReference GRANT_REFERENCE =
+        new LocalDocumentReference(Arrays.asList(XWiki.SYSTEM_SPACE, "OIDC"), "GrantClass");
+
+    /**
+     * The name of the field holding the revision of the grant document (or the lock of a member of the cluster
+     * currently modifying it).
+     */
+    public static final String FIELD_REVISION = "revision";
+
+    /**
+     * The String reference of the class holding a client assertion.
+     */
+    public static final String ASSERTION_REFERENCE_STRING = "XWiki.OIDC.AssertionClass";
+
+    /**
+     * The local reference of the class holding a client assertion.
+     */
+    public static final LocalDocumentReference ASSERTION_REFERENCE =
+        new LocalDocumentReference(Arrays.asList(XWiki.SYSTEM_SPACE, "OIDC"), "AssertionClass");
+
+    /**
+     * The name of the field holding the state of the assertion ({@value #ASSERTION_UNUSED} or
+     * {@value #ASSERTION_USED}).
+     */
+    public static final String FIELD_ASSERTION = "assertion";
+
+    /**
+     * The state of an assertion which is being checked for the first time.
+     */
+    public static final String ASSERTION_UNUSED = "unused";
+
+    /**
+     * The state of an assertion which was already used.
+     */
+    public static final String ASSERTION_USED = "used";
+
+    private static final List<String> SPACE = Arrays.asList(XWiki.SYSTEM_SPACE, "OIDC", "Grants");
+
+    private static final List<String> ASSERTION_SPACE = Arrays.asList(XWiki.SYSTEM_SPACE, "OIDC", "Assertions");
+
+    private static final List<LocalDocumentReference> GRANT_CLASSES =
+        Arrays.asList(OIDCToken.REFERENCE, OIDCRefreshToken.REFERENCE);
+
+    /**
+     * How long an expired assertion is still accepted (and so must be remembered) to compensate for the clock skew
+     * between the client and the provider.
+     */
+    private static final long ASSERTION_CLOCK_SKEW =
+        TimeUnit.SECONDS.toMillis(DefaultJWTClaimsVerifier.DEFAULT_MAX_CLOCK_SKEW_SECONDS);
+
+    private static final String LOCK_PREFIX = "lock:";
+
+    private static final long LOCK_TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+
+    private static final long LOCK_WAIT = 100;
+
+    private static final int LOCK_ATTEMPTS = 10;
+
+    private static final int LOCK_STRIPES = 64;
+
+    @FunctionalInterface
+    private interface GrantModifier<T>
+    {
+        /**
+         * @param document the copy of the grant document to modify
+         * @return the result of the modification, {@code null} when the document was not modified
+         * @throws XWikiException when failing to modify the document
+         */
+        T modify(XWikiDocument document) throws XWikiException;
+    }
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    @Inject
+    private OIDCProviderConfiguration configuration;
+
+    @Inject
+    private OIDCAtomicUpdater atomicUpdater;
+
+    private final Object[] locks = Stream.generate(Object::new).limit(LOCK_STRIPES).toArray();
+
+    /**
+     * @param userReference the reference of the user
+     * @param clientID the identifier of the client
+     * @return the reference of the document holding the grants of the passed user for the passed client
+     */
+    public DocumentReference getGrantDocumentReference(DocumentReference userReference, ClientID clientID)
+    {
+        List<String> spaces = new ArrayList<>(SPACE);
+        spaces.add(StoreUtils.digest(clientID != null ? clientID.getValue() : ""));
+
+        return new DocumentReference(userReference.getWikiReference().getName(), spaces,
+            StoreUtils.digest(this.serializer.serialize(userReference)));
+    }
+
+    /**
+     * @param clientID the identifier of the client
+     * @param assertionID the identifier of the assertion
+     * @return the reference of the document remembering whether the passed assertion of the passed client was used
+     */
+    public DocumentReference getAssertionDocumentReference(ClientID clientID, String assertionID)
+    {
+        List<String> spaces = new ArrayList<>(ASSERTION_SPACE);
+        spaces.add(StoreUtils.digest(clientID.getValue()));
+
+        return new DocumentReference(this.xcontextProvider.get().getMainXWiki(), spaces,
+            StoreUtils.digest(assertionID));
+    }
+
+    /**
+     * Remember that the passed client assertion was used, unless it was already used before (possibly on another
+     * member of the cluster).
+     * <p>
+     * The document of the assertion is created first, and its state is then switched from {@value #ASSERTION_UNUSED}
+     * to {@value #ASSERTION_USED} directly in the database so that only one member of the cluster can accept it.
+     * 
+     * @param clientID the client which signed the assertion
+     * @param assertionID the identifier of the assertion
+     * @param expiration the date after which the assertion is not valid anymore
+     * @return true if the assertion was not used before
+     * @throws XWikiException when failing to store the assertion
+     */
+    public boolean useAssertion(ClientID clientID, String assertionID, Date expiration) throws XWikiException
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+
+        DocumentReference documentReference = getAssertionDocumentReference(clientID, assertionID);
+
+        XWikiDocument document = xcontext.getWiki().getDocument(documentReference, xcontext);
+        if (document.getXObject(ASSERTION_REFERENCE) == null || !StoreUtils.isStoreAuthor(document, xcontext)) {
+            document = this.atomicUpdater.create(documentReference, ASSERTION_REFERENCE, assertionObject -> {
+                assertionObject.setStringValue(FIELD_ASSERTION, ASSERTION_UNUSED);
+                assertionObject.setDateValue(OIDCToken.FIELD_EXPIRATIONDATE, expiration);
+            }, "Create OIDC client assertion");
+        }
+
+        // The cached document might not be up to date: the database decides which use wins
+        BaseObject assertionObject = document.getXObject(ASSERTION_REFERENCE);
+        if (assertionObject == null || !ASSERTION_UNUSED.equals(assertionObject.getStringValue(FIELD_ASSERTION))
+            || !this.atomicUpdater.compareAndSet(assertionObject, FIELD_ASSERTION, ASSERTION_UNUSED, ASSERTION_USED)) {
+            return false;
+        }
+
+        // Update the document cache of all the members of the cluster
+        XWikiDocument modifiedDocument = document.clone();
+        modifiedDocument.getXObject(ASSERTION_REFERENCE).setStringValue(FIELD_ASSERTION, ASSERTION_USED);
+        save(modifiedDocument, "Use OIDC client assertion", xcontext);
+
+        return true;
+    }
+
+    /**
+     * Delete the passed assertion document if the assertion expired.
+     * 
+     * @param documentReference the reference of the assertion document
+     * @return true if the document was deleted
+     * @throws XWikiException when failing to delete the document
+     */
+    public boolean purgeAssertion(DocumentReference documentReference) throws XWikiException
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+
+        XWikiDocument document = xcontext.getWiki().getDocument(documentReference, xcontext);
+
+        // Never delete a document written by someone else
+        BaseObject assertionObject = document.getXObject(ASSERTION_REFERENCE);
+        if (assertionObject == null || !StoreUtils.isStoreAuthor(document, xcontext)) {
+            return false;
+        }
+
+        // Remember the assertion as long as it can be accepted
+        Date expiration = assertionObject.getDateValue(OIDCToken.FIELD_EXPIRATIONDATE);
+        if (expiration != null && expiration.getTime() + ASSERTION_CLOCK_SKEW >= System.currentTimeMillis()) {
+            return false;
+        }
+
+        xcontext.getWiki().deleteDocument(document, false, xcontext);
+
+        return true;
+    }
+
+    /**
+     * @param document the document holding tokens
+     * @param userReference the reference of the user the tokens are supposed to be issued for
+     * @param clientID the identifier of the client the tokens are supposed to be issued to
+     * @return true if the passed document is the grant document of the passed user and client, as saved by this store
+     */
+    public boolean isGrantDocument(XWikiDocument document, DocumentReference userReference, ClientID clientID)
+    {
+        return document.getDocumentReference().equals(getGrantDocumentReference(userReference, clientID))
+            && StoreUtils.isStoreAuthor(document, this.xcontextProvider.get());
+    }
+
+    /**
+     * Store a new access token for the passed consent.
+     * <p>
+     * The tokens previously issued for the same consent stay valid (several instances of the same client can hold a
+     * token at the same time), except the expired ones and the ones closest to expiration beyond the configured
+     * maximum.
+     * 
+     * @param consent the consent associated with the token
+     * @param token the random part of the token
+     * @param expiration the date after which the token is not valid anymore
+     * @return the stored token
+     * @throws XWikiException when failing to store the token
+     */
+    public OIDCToken storeAccessToken(OIDCConsent consent, String token, Date expiration) throws XWikiException
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+
+        String consentReference = this.serializer.serialize(consent.getReference());
+
+        return update(getGrantDocumentReference(consent.getUserReference(), consent.getClientID()),
+            "Store new OIDC access token", document -> {
+                removeExtraAccessTokens(document, consentReference,
+                    this.configuration.getAccessTokenMaxPerConsent() - 1);
+
+                OIDCToken oidcToken = new OIDCToken(document.newXObject(OIDCToken.REFERENCE, xcontext));
+                oidcToken.setConsent(consentReference);
+                oidcToken.setClientID(consent.getClientID());
+                oidcToken.setToken(token, xcontext);
+                oidcToken.setCreationDate(new Date());
+                oidcToken.setExpirationDate(expiration);
+
+                return oidcToken;
+            });
+    }
+
+    /**
+     * Remove the expired tokens of the passed consent and then the ones closest to expiration until only the passed
+     * number is left.
+     */
+    private void removeExtraAccessTokens(XWikiDocument document, String consentReference, int max)
+    {
+        List<BaseObject> tokenObjects = document.getXObjects(OIDCToken.REFERENCE);
+        if (tokenObjects == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+
+        List<OIDCToken> tokens = new ArrayList<>();
+        for (BaseObject tokenObject : new ArrayList<>(tokenObjects)) {
+            if (tokenObject != null && consentReference.equals(tokenObject.getStringValue(OIDCToken.FIELD_CONSENT))) {
+                OIDCToken token = new OIDCToken(tokenObject);
+                if (getExpirationDate(token).getTime() <= now) {
+                    document.removeXObject(tokenObject);
+                } else {
+                    tokens.add(token);
+                }
+            }
+        }
+
+        if (tokens.size() > max) {
+            tokens.sort(Comparator.comparing(this::getExpirationDate));
+
+            for (OIDCToken token : tokens.subList(0, tokens.size() - Math.max(max, 0))) {
+                document.removeXObject(token.getXObject());
+            }
+        }
+    }
+
+    /**
+     * @param userReference the reference of the user
+     * @param clientID the identifier of the client
+     * @return the access tokens issued to the passed client for the passed user
+     * @throws XWikiException when failing to load the tokens
+     */
+    public List<OIDCToken> getAccessTokens(DocumentReference userReference, ClientID clientID) throws XWikiException
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+
+        XWikiDocument document =
+            xcontext.getWiki().getDocument(getGrantDocumentReference(userReference, clientID), xcontext);
+
+        List<BaseObject> tokenObjects = document.getXObjects(OIDCToken.REFERENCE);
+        if (tokenObjects == null || tokenObjects.isEmpty() || !StoreUtils.isStoreAuthor(document, xcontext)) {
+            return Collections.emptyList();
+        }
+
+        List<OIDCToken> tokens = new ArrayList<>(tokenObjects.size());
+        for (BaseObject tokenObject : tokenObjects) {
+            if (tokenObject != null) {
+                tokens.add(new OIDCToken(tokenObject));
+            }
+        }
+
+        return tokens;
+    }
+
+    /**
+     * Remove all the access tokens associated with the passed consent.
+     * 
+     * @param consent the consent
+     * @throws XWikiException when failing to remove the tokens
+     */
+    public void removeAccessTokens(OIDCConsent consent) throws XWikiException
+    {
+        String consentReference = this.serializer.serialize(consent.getReference());
+
+        update(getGrantDocumentReference(consent.getUserReference(), consent.getClientID()),
+            "Remove OIDC access tokens", document -> removeAccessTokens(document, consentReference));
+    }
+
+    private Boolean removeAccessTokens(XWikiDocument document, String consentReference)
+    {
+        Boolean modified = null;
+
+        List<BaseObject> tokenObjects = document.getXObjects(OIDCToken.REFERENCE);
+        if (tokenObjects != null) {
+            for (BaseObject tokenObject : new ArrayList<>(tokenObjects)) {
+                if (tokenObject != null
+                    && consentReference.equals(tokenObject.getStringValue(OIDCToken.FIELD_CONSENT))) {
+                    document.removeXObject(tokenObject);
+                    modified = Boolean.TRUE;
+                }
+            }
+        }
+
+        return modified;
+    }
+
+    /**
+     * Remove the passed access token.
+     * 
+     * @param tokenReference the reference of the object holding the token
+     * @throws XWikiException when failing to remove the token
+     */
+    public void removeAccessToken(ObjectReference tokenReference) throws XWikiException
+    {
+        update(tokenReference.getDocumentReference(), "Remove OIDC access token", document -> {
+            BaseObject tokenObject = document.getXObject(tokenReference);
+
+            return tokenObject != null && document.removeXObject(tokenObject) ? Boolean.TRUE : null;
+        });
+    }
+
+    /**
+     * Store a new refresh token for the passed consent, replacing the previous one if any.
+     * 
+     * @param consent the consent associated with the token
+     * @param token the random part of the token
+     * @param expiration the date after which the token cannot be redeemed anymore
+     * @return the stored token
+     * @throws XWikiException when failing to store the token
+     */
+    public OIDCRefreshToken storeRefreshToken(OIDCConsent consent, String token, Date expiration)
+        throws XWikiException
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+
+        String consentReference = this.serializer.serialize(consent.getReference());
+
+        return update(getGrantDocumentReference(consent.getUserReference(), consent.getClientID()),
+            "Store new OIDC refresh token", document -> {
+                BaseObject tokenObject = document.getXObject(OIDCRefreshToken.REFERENCE,
+                    OIDCRefreshToken.FIELD_CONSENT, consentReference, false);
+                OIDCRefreshToken refreshToken;
+                if (tokenObject != null) {
+                    refreshToken = new OIDCRefreshToken(tokenObject);
+                } else {
+                    refreshToken = new OIDCRefreshToken(document.newXObject(OIDCRefreshToken.REFERENCE, xcontext));
+                    refreshToken.setConsent(consentReference);
+                    refreshToken.setClientID(consent.getClientID());
+                }
+                refreshToken.setToken(token);
+                refreshToken.setExpirationDate(expiration);
+
+                return refreshToken;
+            });
+    }
+
+    /**
+     * Replace the current value of the passed refresh token, unless it was already replaced in the meantime (possibly
+     * by another member of the cluster).
+     * 
+     * @param refreshToken the refresh token to rotate
+     * @param token the random part of the new token
+     * @param expiration the date after which the new token cannot be redeemed anymore
+     * @return true if the token was rotated, false if it was already redeemed
+     * @throws XWikiException when failing to store the token
+     */
+    public boolean rotateRefreshToken(OIDCRefreshToken refreshToken, String token, Date expiration)
+        throws XWikiException
+    {
+        int number = refreshToken.getXObject().getNumber();
+
+        return update(refreshToken.getXObject().getDocumentReference(), "Rotate OIDC refresh token", document -> {
+            BaseObject tokenObject = document.getXObject(OIDCRefreshToken.REFERENCE, number);
+            if (tokenObject == null) {
+                return null;
+            }
+
+            // The token must not have been redeemed in the meantime (possibly by another member of the cluster)
+            OIDCRefreshToken storedToken = new OIDCRefreshToken(tokenObject);
+            if (!Objects.equals(storedToken.getTokenHash(), refreshToken.getTokenHash())) {
+                return null;
+            }
+
+            storedToken.rotate(token);
+            storedToken.setExpirationDate(expiration);
+
+            return Boolean.TRUE;
+        }) != null;
+    }
+
+    /**
+     * Remove the passed refresh token and all the access tokens associated with the same consent.
+     * 
+     * @param refreshToken the refresh token to remove
+     * @throws XWikiException when failing to remove the tokens
+     */
+    public void removeRefreshToken(OIDCRefreshToken refreshToken) throws XWikiException
+    {
+        int number = refreshToken.getXObject().getNumber();
+
+        update(refreshToken.getXObject().getDocumentReference(), "Remove OIDC refresh token", document -> {
+            BaseObject tokenObject = document.getXObject(OIDCRefreshToken.REFERENCE, number);
+            boolean removed = tokenObject != null && document.removeXObject(tokenObject);
+
+            return removeAccessTokens(document, refreshToken.getConsent()) != null || removed ? Boolean.TRUE : null;
+        });
+    }
+
+    /**
+     * @param token the access token
+     * @return the date after which the passed token is not valid anymore
+     */
+    public Date getExpirationDate(OIDCToken token)
+    {
+        Date expiration = token.getExpirationDate();
+
+        // Tokens stored without expiration date are valid for the default lifespan
+        if (expiration == null) {
+            Date creation = token.getCreationDate();
+            expiration = new Date((creation != null ? creation.getTime() : 0L)
+                + TimeUnit.SECONDS.toMillis(this.configuration.getAccessTokenLifespan()));
+        }
+
+        return expiration;
+    }
+
+    /**
+     * Remove the expired access and refresh tokens from the passed grant document, and delete it if nothing is left.
+     * 
+     * @param documentReference the reference of the grant document
+     * @return true if the document was modified
+     * @throws XWikiException when failing to update the document
+     */
+    public boolean purge(DocumentReference documentReference) throws XWikiException
+    {
+        return update(documentReference, "Remove expired OIDC tokens", this::purge) != null;
+    }
+
+    private Boolean purge(XWikiDocument document)
+    {
+        long now = System.currentTimeMillis();
+
+        Boolean modified = null;
+        List<BaseObject> tokenObjects = document.getXObjects(OIDCToken.REFERENCE);
+        if (tokenObjects != null) {
+            for (BaseObject tokenObject : new ArrayList<>(tokenObjects)) {
+                if (tokenObject != null && getExpirationDate(new OIDCToken(tokenObject)).getTime() <= now) {
+                    document.removeXObject(tokenObject);
+                    modified = Boolean.TRUE;
+                }
+            }
+        }
+        List<BaseObject> refreshTokenObjects = document.getXObjects(OIDCRefreshToken.REFERENCE);
+        if (refreshTokenObjects != null) {
+            for (BaseObject refreshTokenObject : new ArrayList<>(refreshTokenObjects)) {
+                if (refreshTokenObject != null && new OIDCRefreshToken(refreshTokenObject).isExpired()) {
+                    document.removeXObject(refreshTokenObject);
+                    modified = Boolean.TRUE;
+                }
+            }
+        }
+        return modified;
+    }
+
+    /**
+     * Apply a modification to a grant document.
+     * <p>
+     * The modifications of the same document are serialized on this member of the cluster and the cached document is
+     * never modified directly. Across the cluster, the revision stored in the document is replaced by a lock (directly
+     * in the database) before the modification, the save of the document with a new revision releasing it. When the
+     * cached document is not up to date, the modification is applied again on the document stored in the database.
+     */
+    private <T> T update(DocumentReference documentReference, String comment, GrantModifier<T> modifier)
+        throws XWikiException
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+
+        synchronized (this.locks[Math.floorMod(documentReference.hashCode(), this.locks.length)]) {
+            XWikiDocument document = xcontext.getWiki().getDocument(documentReference, xcontext);
+
+            for (int attempt = 0; attempt < LOCK_ATTEMPTS; ++attempt) {
+                BaseObject grantObject = document.getXObject(GRANT_REFERENCE);
+
+                if (grantObject == null) {
+                    // Don't create a document for a modification which does not change anything
+                    if (modifier.modify(copy(document, xcontext)) == null) {
+                        return null;
+                    }
+
+                    // Create the document first so that its modification is protected like any other, even when
+                    // another member of the cluster creates it at the same time
+                    document = this.atomicUpdater.create(documentReference, GRANT_REFERENCE, FIELD_REVISION,
+                        UUID.randomUUID().toString(), "Create OIDC grant");
+                    grantObject = document.getXObject(GRANT_REFERENCE);
+                    if (grantObject == null) {
+                        throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                            XWikiException.ERROR_XWIKI_UNKNOWN,
+                            String.format("Failed to create the OIDC grant document [%s]", documentReference));
+                    }
+                }
+
+                String revision = grantObject.getStringValue(FIELD_REVISION);
+                String lock = LOCK_PREFIX + (System.currentTimeMillis() + LOCK_TIMEOUT) + ':' + UUID.randomUUID();
+                if (!isLocked(revision)
+                    && this.atomicUpdater.compareAndSet(grantObject, FIELD_REVISION, revision, lock)) {
+                    return update(document, grantObject, revision, lock, comment, modifier, xcontext);
+                }
+
+                // Give some time to the other member of the cluster to release the document
+                if (attempt > 0) {
+                    waitForLock();
+                }
+
+                document = this.atomicUpdater.loadDocument(documentReference);
+            }
+        }
+
+        throw new XWikiException(XWikiException.MODULE_XWIKI_STORE, XWikiException.ERROR_XWIKI_UNKNOWN,
+            String.format("Timed out waiting for the OIDC grant document [%s] to be released", documentReference));
+    }
+
+    private <T> T update(XWikiDocument document, BaseObject lockedObject, String revision, String lock,
+        String comment, GrantModifier<T> modifier, XWikiContext xcontext) throws XWikiException
+    {
+        boolean saved = false;
+
+        try {
+            XWikiDocument modifiedDocument = copy(document, xcontext);
+
+            T result = modifier.modify(modifiedDocument);
+
+            if (result != null) {
+                if (isEmpty(modifiedDocument)) {
+                    if (!modifiedDocument.isNew()) {
+                        xcontext.getWiki().deleteDocument(modifiedDocument, false, xcontext);
+                    }
+                } else {
+                    BaseObject grantObject = modifiedDocument.getXObject(GRANT_REFERENCE);
+                    if (grantObject == null) {
+                        grantObject = modifiedDocument.newXObject(GRANT_REFERENCE, xcontext);
+                    }
+                    grantObject.setStringValue(FIELD_REVISION, UUID.randomUUID().toString());
+
+                    save(modifiedDocument, comment, xcontext);
+                }
+
+                saved = true;
+            }
+
+            return result;
+        } finally {
+            if (!saved && lockedObject != null) {
+                // Release the document
+                this.atomicUpdater.compareAndSet(lockedObject, FIELD_REVISION, lock, revision);
+            }
+        }
+    }
+
+    private XWikiDocument copy(XWikiDocument document, XWikiContext xcontext)
+    {
+        XWikiDocument copy = document.clone();
+
+        // Don't endorse anything from a document written by someone else at the location of the grant document
+        if (!copy.isNew() && !StoreUtils.isStoreAuthor(copy, xcontext)) {
+            StoreUtils.reset(copy);
+        }
+
+        return copy;
+    }
+
+    private boolean isLocked(String revision)
+    {
+        // Ignore the locks left by a member of the cluster which stopped in the middle of a modification
+        return revision != null && revision.startsWith(LOCK_PREFIX) && NumberUtils
+            .toLong(StringUtils.substringBetween(revision, LOCK_PREFIX, ":")) > System.currentTimeMillis();
+    }
+
+    private void waitForLock() throws XWikiException
+    {
+        try {
+            // Add some jitter so that the members of the cluster waiting for the same document don't retry together
+            Thread.sleep(LOCK_WAIT / 2 + ThreadLocalRandom.current().nextLong(LOCK_WAIT));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new XWikiException("Interrupted while waiting for an OIDC grant document to be released", e);
+        }
+    }
+
+    private boolean isEmpty(XWikiDocument document)
+    {
+        for (LocalDocumentReference tokenClass : GRANT_CLASSES) {
+            List<BaseObject> xobjects = document.getXObjects(tokenClass);
+            if (xobjects != null) {
+                for (BaseObject xobject : xobjects) {
+                    if (xobject != null) {
+                        return false;
+                    }
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private void save(XWikiDocument document, String comment, XWikiContext xcontext) throws XWikiException
+    {
+        document.setHidden(true);
+
+        // Only the documents written by the superadmin are trusted
+        StoreUtils.setStoreAuthor(document, xcontext);
+
+        if (!document.isNew()) {
+            // Tokens are not worth keeping any history: save the document without creating a new revision
+            document.setMetaDataDirty(false);
+            document.setContentDirty(false);
+        }
+
+        xcontext.getWiki().saveDocument(document, comment, true, xcontext);
+    }
+}
@@ -0,0 +1,394 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.store;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.context.concurrent.ExecutionContextRunnable;
+import org.xwiki.contrib.oidc.provider.internal.OIDCProviderConfiguration;
+import org.xwiki.contrib.oidc.provider.internal.util.StoreUtils;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+import org.xwiki.wiki.descriptor.WikiDescriptorManager;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Regularly remove the expired access and refresh tokens from the grant documents of all the wikis, so that the grant
+ * store does not grow with tokens nobody can use anymore. Only the documents of the grant space are searched, and the
+ * grant store ignores the ones it did not save.
+ * <p>
+ * The access tokens stored in the consents (in the user profiles) before 1.34.4 are rejected once expired but are only
+ * removed when the legacy migration is explicitly enabled (see
+ * {@link OIDCProviderConfiguration#PROP_GRANTSWEEPER_LEGACYMIGRATION}), since each user profile holding one has to be
+ * saved again.
+ * <p>
+ * The documents are handled in batches (ordered by identifier) to never load too many documents at once, and a lease
+ * stored in the main wiki makes sure only one member of the cluster purges the grants during each interval. A lease
+ * document which was not saved by the superadmin is replaced, and a lease longer than the interval is ignored, so that
+ * nobody else can disable the purge.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+@Component(roles = OIDCGrantSweeper.class)
+@Singleton
+public class OIDCGrantSweeper implements Disposable
+{
+    /**
+     * The reference of the lease class as String.
+     */
+    public static final String LEASE_REFERENCE_STRING = "XWiki.OIDC.GrantSweeperLeaseClass";
+
+    /**
+     * The reference of the lease class.
+     */
+    public static final LocalDocumentReference LEASE_REFERENCE =
+        new LocalDocumentReference(Arrays.asList(XWiki.SYSTEM_SPACE, "OIDC"), "GrantSweeperLeaseClass");
+
+    /**
+     * The name of the field containing the time (in milliseconds) until which a member of the cluster is in charge of
+     * purging the grants.
+     */
+    public static final String FIELD_LEASE = "lease";
+
+    private static final LocalDocumentReference LEASE_DOCUMENT =
+        new LocalDocumentReference(Arrays.asList(XWiki.SYSTEM_SPACE, "OIDC"), "GrantSweeperLease");
+
+    private static final String EXPIRED_GRANTS_QUERY = "select doc.id, doc.fullName from XWikiDocument doc "
+        + "where doc.id > :lastId and doc.space like :space and exists (select obj.id from BaseObject obj, "
+        + "DateProperty exp where obj.name = doc.fullName and obj.className in (:tokenClass, :refreshTokenClass) "
+        + "and exp.id.id = obj.id and exp.id.name = :expirationField and exp.value < :now) order by doc.id";
+
+    private static final String GRANTS_SPACE = "XWiki.OIDC.Grants.%";
+
+    private static final String EXPIRED_ASSERTIONS_QUERY = "select doc.id, doc.fullName from XWikiDocument doc "
+        + "where doc.id > :lastId and doc.space like :space and exists (select obj.id from BaseObject obj, "
+        + "DateProperty exp where obj.name = doc.fullName and obj.className = :assertionClass "
+        + "and exp.id.id = obj.id and exp.id.name = :expirationField and exp.value < :now) order by doc.id";
+
+    private static final String ASSERTIONS_SPACE = "XWiki.OIDC.Assertions.%";
+
+    private static final String EXPIRED_LEGACY_TOKENS_QUERY = "select doc.id, doc.fullName from XWikiDocument doc "
+        + "where doc.id > :lastId and doc.date < :limit and exists (select obj.id from BaseObject obj, "
+        + "StringProperty token where obj.name = doc.fullName and obj.className = :consentClass "
+        + "and token.id.id = obj.id and token.id.name = :tokenField and token.value <> '') order by doc.id";
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private OIDCGrantStore grantStore;
+
+    @Inject
+    private OIDCAtomicUpdater atomicUpdater;
+
+    @Inject
+    private OIDCProviderConfiguration configuration;
+
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    private WikiDescriptorManager wikis;
+
+    @Inject
+    private DocumentReferenceResolver<String> resolver;
+
+    @Inject
+    private ComponentManager componentManager;
+
+    @Inject
+    private Logger logger;
+
+    private ScheduledExecutorService sweeper;
+
+    /**
+     * Remove the expired tokens from a document.
+     */
+    @FunctionalInterface
+    private interface DocumentPurger
+    {
+        void purge(DocumentReference documentReference) throws Exception;
+    }
+
+    /**
+     * Start purging the expired grants regularly, unless it's disabled or already started.
+     */
+    public synchronized void start()
+    {
+        int interval = this.configuration.getGrantSweeperInterval();
+
+        if (this.sweeper == null && interval > 0) {
+            this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "OIDC grant sweeper");
+                thread.setDaemon(true);
+
+                return thread;
+            });
+            this.sweeper.scheduleWithFixedDelay(this::run, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public synchronized void dispose() throws ComponentLifecycleException
+    {
+        if (this.sweeper != null) {
+            this.sweeper.shutdownNow();
+        }
+    }
+
+    private void run()
+    {
+        // An exception would cancel the next executions
+        try {
+            new ExecutionContextRunnable(this::sweepIfLeased, this.componentManager).run();
+        } catch (Exception e) {
+            this.logger.error("Failed to purge the expired OIDC grants", e);
+        }
+    }
+
+    /**
+     * Remove the expired tokens unless another member of the cluster is in charge of it for the current interval.
+     * 
+     * @return true if the expired tokens were removed
+     */
+    public boolean sweepIfLeased()
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+        if (xcontext == null || xcontext.getWiki() == null) {
+            // XWiki is not ready yet, try again next time
+            return false;
+        }
+
+        try {
+            if (!acquireLease(xcontext)) {
+                // Another member of the cluster is in charge
+                return false;
+            }
+        } catch (XWikiException e) {
+            this.logger.warn("Failed to acquire the lease of the OIDC grant sweeper: {}",
+                ExceptionUtils.getRootCauseMessage(e));
+
+            return false;
+        }
+
+        sweep();
+
+        return true;
+    }
+
+    private boolean acquireLease(XWikiContext xcontext) throws XWikiException
+    {
+        DocumentReference documentReference =
+            new DocumentReference(LEASE_DOCUMENT, new WikiReference(xcontext.getMainXWiki()));
+        XWikiDocument document = xcontext.getWiki().getDocument(documentReference, xcontext);
+
+        // Never trust a lease taken by someone else
+        if (document.getXObject(LEASE_REFERENCE) == null || !StoreUtils.isStoreAuthor(document, xcontext)) {
+            document = this.atomicUpdater.create(documentReference, LEASE_REFERENCE, FIELD_LEASE, "0",
+                "Create OIDC grant sweeper lease");
+        }
+
+        BaseObject leaseObject = document.getXObject(LEASE_REFERENCE);
+        if (leaseObject == null || !StoreUtils.isStoreAuthor(document, xcontext)) {
+            return false;
+        }
+
+        // The document cache does not know about the leases taken by the other members of the cluster
+        String lease = this.atomicUpdater.getStringValue(leaseObject, FIELD_LEASE);
+        if (lease == null) {
+            return false;
+        }
+
+        long now = System.currentTimeMillis();
+        long expiration = now + TimeUnit.SECONDS.toMillis(this.configuration.getGrantSweeperInterval());
+
+        // A lease is never taken for more than one interval
+        long leaseExpiration = NumberUtils.toLong(lease);
+        if (leaseExpiration > now && leaseExpiration <= expiration) {
+            return false;
+        }
+
+        return this.atomicUpdater.compareAndSet(leaseObject, FIELD_LEASE, lease, String.valueOf(expiration));
+    }
+
+    /**
+     * Remove the expired tokens from the grant documents and the consents of all the wikis.
+     */
+    public void sweep()
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+        if (xcontext == null || xcontext.getWiki() == null) {
+            // XWiki is not ready yet, try again next time
+            return;
+        }
+
+        Collection<String> wikiIds;
+        try {
+            wikiIds = this.wikis.getAllIds();
+        } catch (Exception e) {
+            this.logger.warn("Failed to get the list of wikis in which to purge the expired OIDC grants: {}",
+                ExceptionUtils.getRootCauseMessage(e));
+
+            return;
+        }
+
+        for (String wiki : wikiIds) {
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+
+            try {
+                sweep(wiki);
+            } catch (QueryException e) {
+                this.logger.warn("Failed to search the expired OIDC grants of wiki [{}]: {}", wiki,
+                    ExceptionUtils.getRootCauseMessage(e));
+            }
+        }
+    }
+
+    private void sweep(String wiki) throws QueryException
+    {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("space", GRANTS_SPACE);
+        parameters.put("tokenClass", OIDCToken.REFERENCE_STRING);
+        parameters.put("refreshTokenClass", OIDCRefreshToken.REFERENCE_STRING);
+        parameters.put("expirationField", OIDCToken.FIELD_EXPIRATIONDATE);
+        parameters.put("now", new Date());
+        sweep(wiki, EXPIRED_GRANTS_QUERY, parameters, this.grantStore::purge);
+
+        // The client assertions are only remembered in the main wiki
+        if (wiki.equals(this.wikis.getMainWikiId())) {
+            parameters = new HashMap<>();
+            parameters.put("space", ASSERTIONS_SPACE);
+            parameters.put("assertionClass", OIDCGrantStore.ASSERTION_REFERENCE_STRING);
+            parameters.put("expirationField", OIDCToken.FIELD_EXPIRATIONDATE);
+            parameters.put("now", new Date());
+            sweep(wiki, EXPIRED_ASSERTIONS_QUERY, parameters, this.grantStore::purgeAssertion);
+        }
+
+        if (this.configuration.isGrantSweeperLegacyMigration()) {
+            migrateLegacyAccessTokens(wiki);
+        }
+    }
+
+    private void migrateLegacyAccessTokens(String wiki) throws QueryException
+    {
+        // The access tokens issued before 1.34.4 were issued at the latest when the consent was last saved (they don't
+        // have their own issue date, so the ones still stored at upgrade time all expire one lifespan after the last
+        // modification of the user profile)
+        long limit = System.currentTimeMillis()
+            - TimeUnit.SECONDS.toMillis(this.configuration.getAccessTokenLifespan());
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("limit", new Date(limit));
+        parameters.put("consentClass", OIDCConsent.REFERENCE_STRING);
+        parameters.put("tokenField", OIDCConsent.FIELD_ACCESSTOKEN);
+        sweep(wiki, EXPIRED_LEGACY_TOKENS_QUERY, parameters,
+            documentReference -> purgeLegacyAccessTokens(documentReference, limit));
+    }
+
+    private void sweep(String wiki, String statement, Map<String, Object> parameters, DocumentPurger purger)
+        throws QueryException
+    {
+        int batchSize = this.configuration.getGrantSweeperBatchSize();
+        WikiReference wikiReference = new WikiReference(wiki);
+
+        // Go through the documents by identifier so that the documents which could not be purged are not found again
+        long lastId = Long.MIN_VALUE;
+
+        List<Object[]> documents;
+        do {
+            Query query = this.queryManager.createQuery(statement, Query.HQL);
+            parameters.forEach(query::bindValue);
+            documents = query.bindValue("lastId", lastId).setWiki(wiki).setLimit(batchSize).execute();
+
+            for (Object[] document : documents) {
+                lastId = ((Number) document[0]).longValue();
+
+                try {
+                    purger.purge(this.resolver.resolve((String) document[1], wikiReference));
+                } catch (Exception e) {
+                    this.logger.warn("Failed to purge the expired OIDC grants of document [{}] in wiki [{}]: {}",
+                        document[1], wiki, ExceptionUtils.getRootCauseMessage(e));
+                }
+            }
+        } while (documents.size() == batchSize && !Thread.currentThread().isInterrupted());
+    }
+
+    private void purgeLegacyAccessTokens(DocumentReference documentReference, long limit) throws XWikiException
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+
+        XWikiDocument document = xcontext.getWiki().getDocument(documentReference, xcontext);
+        if (document.getDate().getTime() >= limit) {
+            // Modified in the meantime
+            return;
+        }
+
+        document = document.clone();
+
+        boolean modified = false;
+        List<BaseObject> consentObjects = document.getXObjects(OIDCConsent.REFERENCE);
+        if (consentObjects != null) {
+            for (BaseObject consentObject : consentObjects) {
+                if (consentObject != null) {
+                    OIDCConsent consent = new OIDCConsent(consentObject);
+                    if (consent.getAccessToken() != null) {
+                        consent.setAccessToken(null, xcontext);
+                        modified = true;
+                    }
+                }
+            }
+        }
+
+        if (modified) {
+            xcontext.getWiki().saveDocument(document, "Migrate expired OIDC access tokens", true, xcontext);
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.store;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.model.reference.LocalDocumentReference;
+
+import com.nimbusds.oauth2.sdk.id.ClientID;
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.BaseObjectReference;
+import com.xpn.xwiki.objects.classes.PasswordClass;
+
+/**
+ * A refresh token stored in the grant store, next to the access tokens of the same consent.
+ * <p>
+ * Only salted hashes of the random part of the tokens are stored. The hashes of the tokens replaced by a rotation are
+ * remembered so that the redemption of an already used token can be detected.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+public class OIDCRefreshToken
+{
+    /**
+     * The reference of the class as String.
+     */
+    public static final String REFERENCE_STRING = "XWiki.OIDC.RefreshTokenClass";
+
+    /**
+     * The reference of the class.
+     */
+    public static final LocalDocumentReference REFERENCE =
+        new LocalDocumentReference(Arrays.asList(XWiki.SYSTEM_SPACE, "OIDC"), "RefreshTokenClass");
+
+    /**
+     * The name of the field containing the reference of the consent object.
+     */
+    public static final String FIELD_CONSENT = "consent";
+
+    /**
+     * The name of the field containing the identifier of the client.
+     */
+    public static final String FIELD_CLIENTID = "clientId";
+
+    /**
+     * The name of the field containing the salted hash of the current token.
+     */
+    public static final String FIELD_TOKEN = "token";
+
+    /**
+     * The name of the field containing the salted hashes of the tokens replaced by a rotation.
+     */
+    public static final String FIELD_PREVIOUSTOKENS = "previousTokens";
+
+    /**
+     * The name of the field containing the date after which the token cannot be redeemed anymore.
+     */
+    public static final String FIELD_EXPIRATIONDATE = "expirationDate";
+
+    /**
+     * The maximum number of replaced tokens to remember.
+     */
+    private static final int PREVIOUSTOKENS_MAX = 10;
+
+    private static final char PREVIOUSTOKENS_SEPARATOR = '\n';
+
+    private final BaseObject xobject;
+
+    /**
+     * @param xobject the actual XWiki object
+     */
+    public OIDCRefreshToken(BaseObject xobject)
+    {
+        this.xobject = xobject;
+    }
+
+    /**
+     * @param xobject the XWiki object
+     * @return true if the passed object is a refresh token
+     */
+    public static boolean isRefreshToken(BaseObject xobject)
+    {
+        return xobject.getXClassReference() != null
+            && REFERENCE.equals(new LocalDocumentReference(xobject.getXClassReference()));
+    }
+
+    /**
+     * @return the XWiki object
+     */
+    public BaseObject getXObject()
+    {
+        return this.xobject;
+    }
+
+    /**
+     * @return the reference of the object
+     */
+    public BaseObjectReference getReference()
+    {
+        return this.xobject.getReference();
+    }
+
+    /**
+     * @return the serialized reference of the consent object
+     */
+    public String getConsent()
+    {
+        return this.xobject.getStringValue(FIELD_CONSENT);
+    }
+
+    /**
+     * @param consent the serialized reference of the consent object
+     */
+    public void setConsent(String consent)
+    {
+        this.xobject.setStringValue(FIELD_CONSENT, consent);
+    }
+
+    /**
+     * @return the client to which the token was issued
+     */
+    public ClientID getClientID()
+    {
+        String str = this.xobject.getStringValue(FIELD_CLIENTID);
+
+        return StringUtils.isNotEmpty(str) ? new ClientID(str) : null;
+    }
+
+    /**
+     * @param clientID the client to which the token was issued
+     */
+    public void setClientID(ClientID clientID)
+    {
+        this.xobject.setStringValue(FIELD_CLIENTID, clientID != null ? clientID.getValue() : "");
+    }
+
+    /**
+     * Replace the current token and forget the previous ones, when a new grant is issued to the client.
+     * 
+     * @param token the random part of the new token
+     */
+    public void setToken(String token)
+    {
+        this.xobject.setStringValue(FIELD_TOKEN, hash(token));
+        this.xobject.setLargeStringValue(FIELD_PREVIOUSTOKENS, "");
+    }
+
+    /**
+     * Replace the current token and remember it as already used.
+     * 
+     * @param token the random part of the new token
+     */
+    public void rotate(String token)
+    {
+        List<String> previousTokens = new ArrayList<>(getPreviousTokens());
+        previousTokens.add(this.xobject.getStringValue(FIELD_TOKEN));
+        if (previousTokens.size() > PREVIOUSTOKENS_MAX) {
+            previousTokens = previousTokens.subList(previousTokens.size() - PREVIOUSTOKENS_MAX, previousTokens.size());
+        }
+
+        this.xobject.setStringValue(FIELD_TOKEN, hash(token));
+        this.xobject.setLargeStringValue(FIELD_PREVIOUSTOKENS,
+            StringUtils.join(previousTokens, PREVIOUSTOKENS_SEPARATOR));
+    }
+
+    /**
+     * @return the salted hash of the current token
+     * @since 1.34.4
+     */
+    public String getTokenHash()
+    {
+        return this.xobject.getStringValue(FIELD_TOKEN);
+    }
+
+    private List<String> getPreviousTokens()
+    {
+        String str = this.xobject.getLargeStringValue(FIELD_PREVIOUSTOKENS);
+
+        return StringUtils.isEmpty(str) ? Collections.emptyList()
+            : Arrays.asList(StringUtils.split(str, PREVIOUSTOKENS_SEPARATOR));
+    }
+
+    /**
+     * @param token the random part of the token
+     * @return true if the passed value is the current token
+     */
+    public boolean matches(String token)
+    {
+        return equals(this.xobject.getStringValue(FIELD_TOKEN), token);
+    }
+
+    /**
+     * @param token the random part of the token
+     * @return true if the passed value is a token which was already replaced by a rotation
+     */
+    public boolean isReused(String token)
+    {
+        boolean reused = false;
+        for (String previousToken : getPreviousTokens()) {
+            // Don't stop at the first match to not leak anything through timing
+            reused |= equals(previousToken, token);
+        }
+
+        return reused;
+    }
+
+    private static String hash(String token)
+    {
+        // Salted, like the access tokens stored in password fields
+        return new PasswordClass().getProcessedPassword(token);
+    }
+
+    private static boolean equals(String stored, String token)
+    {
+        if (StringUtils.isEmpty(stored)) {
+            return false;
+        }
+
+        String hash = new PasswordClass().getEquivalentPassword(stored, token);
+
+        return MessageDigest.isEqual(stored.getBytes(StandardCharsets.UTF_8), hash.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the date after which the token cannot be redeemed anymore
+     */
+    public Date getExpirationDate()
+    {
+        return this.xobject.getDateValue(FIELD_EXPIRATIONDATE);
+    }
+
+    /**
+     * @param date the date after which the token cannot be redeemed anymore
+     */
+    public void setExpirationDate(Date date)
+    {
+        this.xobject.setDateValue(FIELD_EXPIRATIONDATE, date);
+    }
+
+    /**
+     * @return true if the token cannot be redeemed anymore
+     */
+    public boolean isExpired()
+    {
+        Date expiration = getExpirationDate();
+
+        return expiration != null && expiration.getTime() <= System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.store;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+
+import com.xpn.xwiki.doc.AbstractMandatoryClassInitializer;
+import com.xpn.xwiki.objects.classes.BaseClass;
+
+/**
+ * Initialize OIDC refresh token class.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+@Component
+@Named(OIDCRefreshToken.REFERENCE_STRING)
+@Singleton
+public class OIDCRefreshTokenClassDocumentInitializer extends AbstractMandatoryClassInitializer
+{
+    /**
+     * Default constructor.
+     */
+    public OIDCRefreshTokenClassDocumentInitializer()
+    {
+        super(OIDCRefreshToken.REFERENCE, "XWiki OIDC Refresh Token Class");
+    }
+
+    @Override
+    protected void createClass(BaseClass xclass)
+    {
+        xclass.addTextField(OIDCRefreshToken.FIELD_CONSENT, "Consent", 30);
+        xclass.addTextField(OIDCRefreshToken.FIELD_CLIENTID, "Client ID", 30);
+        xclass.addTextField(OIDCRefreshToken.FIELD_TOKEN, "Token", 30);
+        xclass.addTextAreaField(OIDCRefreshToken.FIELD_PREVIOUSTOKENS, "Previous tokens", 60, 10);
+        xclass.addDateField(OIDCRefreshToken.FIELD_EXPIRATIONDATE, "Expiration date");
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.store;
+
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.ObjectReference;
+
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.oauth2.sdk.auth.Secret;
+import com.nimbusds.oauth2.sdk.id.ClientID;
+import com.xpn.xwiki.objects.classes.PasswordClass;
+
+/**
+ * The configuration of a registered client, detached from the document it was extracted from so that it can be safely
+ * kept in memory.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+public class OIDCRegisteredClient
+{
+    private final ClientID clientID;
+
+    private final ObjectReference reference;
+
+    private final String secret;
+
+    private final JWKSet jwkSet;
+
+    private final DocumentReference serviceAccount;
+
+    private final Integer accessTokenLifespan;
+
+    private final Integer idTokenLifespan;
+
+    private final Integer refreshTokenLifespan;
+
+    /**
+     * @param clientID the identifier of the client
+     * @param reference the reference of the object holding the client configuration
+     * @param secret the hash of the client secret
+     * @param jwkSet the public keys of the client
+     * @param serviceAccount the reference of the user the client acts as
+     */
+    public OIDCRegisteredClient(ClientID clientID, ObjectReference reference, String secret, JWKSet jwkSet,
+        DocumentReference serviceAccount)
+    {
+        this.clientID = clientID;
+        this.reference = reference;
+        this.secret = StringUtils.defaultIfEmpty(secret, null);
+        this.jwkSet = jwkSet != null && !jwkSet.getKeys().isEmpty() ? jwkSet : null;
+        this.serviceAccount = serviceAccount;
+        this.accessTokenLifespan = null;
+        this.idTokenLifespan = null;
+        this.refreshTokenLifespan = null;
+    }
+
+    /**
+     * @param client the client configuration
+     * @param jwkSet the public keys of the client
+     * @param serviceAccount the reference of the user the client acts as
+     */
+    public OIDCRegisteredClient(OIDCClient client, JWKSet jwkSet, DocumentReference serviceAccount)
+    {
+        this.clientID = client.getClientID();
+        this.reference = client.getReference();
+        this.secret = StringUtils.defaultIfEmpty(client.getSecret(), null);
+        this.jwkSet = jwkSet != null && !jwkSet.getKeys().isEmpty() ? jwkSet : null;
+        this.serviceAccount = serviceAccount;
+        this.accessTokenLifespan = client.getAccessTokenLifespan();
+        this.idTokenLifespan = client.getIDTokenLifespan();
+        this.refreshTokenLifespan = client.getRefreshTokenLifespan();
+    }
+
+    /**
+     * @return the identifier of the client
+     */
+    public ClientID getClientID()
+    {
+        return this.clientID;
+    }
+
+    /**
+     * @return the reference of the object holding the client configuration
+     */
+    public ObjectReference getReference()
+    {
+        return this.reference;
+    }
+
+    /**
+     * @return the public keys of the client, null if the client cannot authenticate with a signed assertion
+     */
+    public JWKSet getJWKSet()
+    {
+        return this.jwkSet;
+    }
+
+    /**
+     * @return the reference of the user the client acts as, null if the client is not allowed to get tokens for itself
+     */
+    public DocumentReference getServiceAccount()
+    {
+        return this.serviceAccount;
+    }
+
+    /**
+     * @return the number of seconds the access tokens issued to the client are valid, null to use the default
+     */
+    public Integer getAccessTokenLifespan()
+    {
+        return this.accessTokenLifespan;
+    }
+
+    /**
+     * @return the number of seconds the ID tokens issued to the client are valid, null to use the default
+     */
+    public Integer getIDTokenLifespan()
+    {
+        return this.idTokenLifespan;
+    }
+
+    /**
+     * @return the number of seconds the refresh tokens issued to the client can be redeemed, null to use the default
+     */
+    public Integer getRefreshTokenLifespan()
+    {
+        return this.refreshTokenLifespan;
+    }
+
+    /**
+     * @return true if the client is expected to authenticate itself on the token endpoint
+     */
+    public boolean hasCredentials()
+    {
+        return this.secret != null || this.jwkSet != null;
+    }
+
+    /**
+     * @param secret the secret sent by the client
+     * @return true if the passed secret matches the client secret
+     */
+    public boolean matches(Secret secret)
+    {
+        return this.secret != null && secret != null
+            && new PasswordClass().getEquivalentPassword(this.secret, secret.getValue()).equals(this.secret);
+    }
+}
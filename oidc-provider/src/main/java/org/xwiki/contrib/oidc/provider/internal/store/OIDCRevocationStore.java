@@ -0,0 +1,222 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiPredicate;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.model.reference.WikiReference;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Persist the revoked self-contained access tokens in a hidden document of the main wiki so that the revocations
+ * survive a restart and are shared with the other members of the cluster.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+@Component(roles = OIDCRevocationStore.class)
+@Singleton
+public class OIDCRevocationStore
+{
+    /**
+     * The reference of the class as String.
+     */
+    public static final String REFERENCE_STRING = "XWiki.OIDC.RevocationClass";
+
+    /**
+     * The reference of the class.
+     */
+    public static final LocalDocumentReference REFERENCE =
+        new LocalDocumentReference(Arrays.asList(XWiki.SYSTEM_SPACE, "OIDC"), "RevocationClass");
+
+    /**
+     * The name of the field containing the type of the revoked entity.
+     */
+    public static final String FIELD_TYPE = "type";
+
+    /**
+     * The name of the field containing the identifier of the revoked entity.
+     */
+    public static final String FIELD_VALUE = "value";
+
+    /**
+     * The name of the field containing the date associated with the revocation.
+     */
+    public static final String FIELD_DATE = "date";
+
+    /**
+     * The type of the revocations of a single token, associated with the date after which the token would have
+     * expired anyway.
+     */
+    public static final String TYPE_TOKEN = "token";
+
+    /**
+     * The type of the revocations of all the tokens issued for a consent, associated with the date of the revocation.
+     */
+    public static final String TYPE_CONSENT = "consent";
+
+    private static final LocalDocumentReference DOCUMENT =
+        new LocalDocumentReference(Arrays.asList(XWiki.SYSTEM_SPACE, "OIDC"), "Revocations");
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    /**
+     * @param type the type of revocations to load
+     * @return the stored revocations of the passed type
+     * @throws XWikiException when failing to load the revocations
+     */
+    public Map<String, Long> load(String type) throws XWikiException
+    {
+        return load(getDocument(), type);
+    }
+
+    /**
+     * @param document the revocations document
+     * @param type the type of revocations to load
+     * @return the revocations of the passed type stored in the passed document
+     */
+    public Map<String, Long> load(XWikiDocument document, String type)
+    {
+        Map<String, Long> revocations = new HashMap<>();
+
+        for (BaseObject revocation : getRevocations(document)) {
+            Date date = revocation.getDateValue(FIELD_DATE);
+            if (type.equals(revocation.getStringValue(FIELD_TYPE)) && date != null) {
+                revocations.merge(revocation.getStringValue(FIELD_VALUE), date.getTime(), Math::max);
+            }
+        }
+
+        return revocations;
+    }
+
+    /**
+     * @param document the document to check
+     * @return true if the passed document is the one holding the revocations
+     */
+    public boolean isRevocationsDocument(XWikiDocument document)
+    {
+        DocumentReference reference = document.getDocumentReference();
+
+        return reference.getWikiReference().getName().equals(this.xcontextProvider.get().getMainXWiki())
+            && DOCUMENT.equals(new LocalDocumentReference(reference));
+    }
+
+    /**
+     * Store a new revocation and forget the ones which are not needed anymore.
+     * <p>
+     * The other stored revocations are left untouched so that the ones added in the meantime by other members of the
+     * cluster are not lost.
+     * 
+     * @param type the type of the revocation
+     * @param value the identifier of the revoked entity
+     * @param date the date associated with the revocation
+     * @param obsolete indicate if a stored revocation (type and date) is not needed anymore
+     * @throws XWikiException when failing to save the revocation
+     */
+    public synchronized void add(String type, String value, long date, BiPredicate<String, Long> obsolete)
+        throws XWikiException
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+
+        // Work on a copy to not expose a partially modified document to the other threads
+        XWikiDocument document = getDocument().clone();
+
+        BaseObject revocation = null;
+        for (BaseObject storedRevocation : getRevocations(document)) {
+            Long storedDate = getTime(storedRevocation.getDateValue(FIELD_DATE));
+            String storedType = storedRevocation.getStringValue(FIELD_TYPE);
+
+            if (type.equals(storedType) && value.equals(storedRevocation.getStringValue(FIELD_VALUE))) {
+                revocation = storedRevocation;
+                if (storedDate != null && storedDate >= date) {
+                    // Already revoked
+                    return;
+                }
+            } else if (storedDate == null || obsolete.test(storedType, storedDate)) {
+                document.removeXObject(storedRevocation);
+            }
+        }
+
+        if (revocation == null) {
+            revocation = document.newXObject(REFERENCE, xcontext);
+            revocation.setStringValue(FIELD_TYPE, type);
+            revocation.setStringValue(FIELD_VALUE, value);
+        }
+        revocation.setDateValue(FIELD_DATE, new Date(date));
+
+        document.setHidden(true);
+
+        if (!document.isNew()) {
+            // Revocations are not worth keeping any history
+            document.setMetaDataDirty(false);
+            document.setContentDirty(false);
+        }
+
+        xcontext.getWiki().saveDocument(document, "Update OIDC revocations", true, xcontext);
+    }
+
+    private Long getTime(Date date)
+    {
+        return date != null ? date.getTime() : null;
+    }
+
+    private XWikiDocument getDocument() throws XWikiException
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+
+        return xcontext.getWiki()
+            .getDocument(new DocumentReference(DOCUMENT, new WikiReference(xcontext.getMainXWiki())), xcontext);
+    }
+
+    private List<BaseObject> getRevocations(XWikiDocument document)
+    {
+        List<BaseObject> revocations = new ArrayList<>();
+
+        List<BaseObject> xobjects = document.getXObjects(REFERENCE);
+        if (xobjects != null) {
+            for (BaseObject xobject : xobjects) {
+                if (xobject != null) {
+                    revocations.add(xobject);
+                }
+            }
+        }
+
+        return revocations;
+    }
+}
@@ -19,11 +19,13 @@
  */
 package org.xwiki.contrib.oidc.provider.internal.store;
 
+import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Date;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -31,16 +33,29 @@ import javax.inject.Provider;
 import javax.inject.Singleton;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.contrib.oidc.provider.internal.OIDCException;
+import org.xwiki.contrib.oidc.provider.internal.OIDCProviderConfiguration;
+import org.xwiki.contrib.oidc.provider.internal.OIDCProviderConfiguration.AccessTokenFormat;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.model.reference.ObjectReference;
 
 import com.nimbusds.oauth2.sdk.AuthorizationCode;
+import com.nimbusds.oauth2.sdk.ParseException;
 import com.nimbusds.oauth2.sdk.id.ClientID;
+import com.nimbusds.oauth2.sdk.token.AccessToken;
+import com.nimbusds.oauth2.sdk.token.BearerAccessToken;
+import com.nimbusds.oauth2.sdk.token.RefreshToken;
 import com.nimbusds.openid.connect.sdk.Nonce;
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
@@ -62,51 +77,172 @@ public class OIDCStore
     @Inject
     private EntityReferenceResolver<String> entityResolver;
 
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    @Inject
+    private OIDCTokenCache tokenCache;
+
+    @Inject
+    private JWTAccessTokenManager jwtManager;
+
+    @Inject
+    private OIDCConsentIndex consentIndex;
+
+    @Inject
+    private OIDCGrantStore grantStore;
+
+    @Inject
+    private OIDCClientRegistry clientRegistry;
+
     @Inject
     private Logger logger;
 
-    private Map<AuthorizationCode, AuthorizationSession> sessionMap = new ConcurrentHashMap<>();
+    @Inject
+    private OIDCProviderConfiguration configuration;
+
+    @Inject
+    @Named("context")
+    private Provider<ComponentManager> componentManagerProvider;
+
+    @Inject
+    @Named(OIDCProviderConfiguration.DEFAULT_AUTHORIZATIONCODE_STORE)
+    private AuthorizationCodeStore defaultCodeStore;
 
-    private class AuthorizationSession
+    private AuthorizationCodeStore codeStore;
+
+    /**
+     * @since 1.34.4
+     */
+    public OIDCValidatedToken getValidatedToken(AccessToken accessToken) throws XWikiException, ParseException
     {
-        final DocumentReference userReference;
+        if (XWikiJWTAccessToken.isJWT(accessToken.getValue())) {
+            return this.jwtManager.validate(accessToken.getValue());
+        }
+
+        XWikiBearerAccessToken xwikiAccessToken = XWikiBearerAccessToken.parse(accessToken);
 
-        final Nonce nonce;
+        return xwikiAccessToken != null ? getValidatedToken(xwikiAccessToken) : null;
+    }
 
-        AuthorizationSession(DocumentReference userReference, Nonce nonce)
-        {
-            this.userReference = userReference;
-            this.nonce = nonce;
+    /**
+     * @since 1.34.4
+     */
+    public OIDCValidatedToken getValidatedToken(XWikiBearerAccessToken xwikiAccessToken)
+        throws XWikiException, ParseException
+    {
+        OIDCValidatedToken validatedToken = this.tokenCache.get(xwikiAccessToken.getValue());
+
+        // The cache entry can outlive the token
+        if (validatedToken != null && validatedToken.isExpired(System.currentTimeMillis())) {
+            return null;
+        }
+
+        if (validatedToken == null && !this.tokenCache.isRejected(xwikiAccessToken.getValue())) {
+            long generation = this.tokenCache.getGeneration();
+
+            validatedToken = validate(xwikiAccessToken);
+
+            if (validatedToken != null) {
+                this.tokenCache.set(xwikiAccessToken.getValue(), validatedToken, generation);
+            } else {
+                this.tokenCache.reject(xwikiAccessToken.getValue());
+            }
         }
+
+        return validatedToken;
     }
 
-    public OIDCConsent getConsent(XWikiBearerAccessToken xwikiAccessToken) throws XWikiException
+    private OIDCValidatedToken validate(XWikiBearerAccessToken xwikiAccessToken) throws XWikiException, ParseException
     {
         EntityReference reference =
             this.entityResolver.resolve(xwikiAccessToken.getObjectReference(), EntityType.OBJECT);
 
         XWikiContext xcontext = this.xcontextProvider.get();
 
-        // Get the document containing the consent
-        XWikiDocument consentDocument = xcontext.getWiki().getDocument(reference, xcontext);
+        // Get the document containing the token
+        XWikiDocument document = xcontext.getWiki().getDocument(reference, xcontext);
 
-        // Get the consent
-        BaseObject consentObject = consentDocument.getXObject(reference);
-        if (consentObject == null) {
+        BaseObject xobject = document.getXObject(reference);
+        if (xobject == null) {
             return null;
         }
-        OIDCConsent consent = new OIDCConsent(consentObject);
+
+        if (OIDCToken.isToken(xobject)) {
+            // Token stored in the grant store
+            OIDCToken token = new OIDCToken(xobject);
+            if (!token.matches(xwikiAccessToken.getRandom())) {
+                return null;
+            }
+
+            Date expiration = this.grantStore.getExpirationDate(token);
+            if (expiration.getTime() <= System.currentTimeMillis()) {
+                return null;
+            }
+
+            // Get the associated consent
+            OIDCConsent consent = getConsent(token.getConsent(), xcontext);
+            if (consent == null || !isGrantOf(document, token.getClientID(), consent)) {
+                return null;
+            }
+
+            return new OIDCValidatedToken(consent, token.getReference(), expiration);
+        }
+
+        // Token stored in the consent (before 1.34.4)
+        OIDCConsent consent = new OIDCConsent(xobject);
 
         // Compare token values
         final String stored = consent.getAccessToken();
-        if (new PasswordClass().getEquivalentPassword(stored, xwikiAccessToken.getRandom()).equals(stored)) {
-            return consent;
+        if (stored != null
+            && new PasswordClass().getEquivalentPassword(stored, xwikiAccessToken.getRandom()).equals(stored)) {
+            // The token was issued at the latest when the consent was last saved
+            Date expiration = getLegacyExpirationDate(consent);
+            if (expiration.getTime() <= System.currentTimeMillis()) {
+                return null;
+            }
+
+            return new OIDCValidatedToken(consent, consent.getReference(), expiration);
         }
 
         return null;
     }
 
-    public OIDCConsent getConsent(ClientID clientID, URI redirectURI, AuthorizationCode code) throws XWikiException
+    /**
+     * @param consent the consent holding an access token issued before 1.34.4
+     * @return the date after which the access token stored in the consent is not valid anymore
+     * @since 1.34.4
+     */
+    public Date getLegacyExpirationDate(OIDCConsent consent)
+    {
+        return new Date(consent.getOwnerDocument().getDate().getTime()
+            + TimeUnit.SECONDS.toMillis(this.clientRegistry.getAccessTokenLifespan(consent.getClientID())));
+    }
+
+    private OIDCConsent getConsent(String consentReferenceString, XWikiContext xcontext) throws XWikiException
+    {
+        EntityReference consentReference = this.entityResolver.resolve(consentReferenceString, EntityType.OBJECT);
+        BaseObject consentObject =
+            xcontext.getWiki().getDocument(consentReference, xcontext).getXObject(consentReference);
+
+        return consentObject != null && consentObject.getXClassReference() != null
+            && OIDCConsent.REFERENCE.equals(new LocalDocumentReference(consentObject.getXClassReference()))
+                ? new OIDCConsent(consentObject) : null;
+    }
+
+    /**
+     * The objects holding the tokens only indicate the consent they belong to: make sure they are located in the grant
+     * document of this consent, as saved by the grant store, and were issued to the same client, otherwise anyone able
+     * to create a page could forge a token for someone else's consent.
+     */
+    private boolean isGrantOf(XWikiDocument document, ClientID clientID, OIDCConsent consent)
+    {
+        return Objects.equals(clientID, consent.getClientID())
+            && this.grantStore.isGrantDocument(document, consent.getUserReference(), consent.getClientID());
+    }
+
+    public OIDCConsent getConsent(ClientID clientID, URI redirectURI, AuthorizationCode code)
+        throws XWikiException, OIDCException
     {
         DocumentReference userReference = getUserReference(code);
 
@@ -127,36 +263,83 @@ public class OIDCStore
         return getConsent(clientID, redirectURI, userDocument);
     }
 
-    public OIDCConsent getConsent(ClientID clientID, URI redirectURI, XWikiDocument userDocument)
+    /**
+     * @since 1.34.4
+     */
+    public OIDCConsent getConsent(ClientID clientID, URI redirectURI, AuthorizationSession session)
+        throws XWikiException
     {
-        this.logger.debug("Get consent USER: reference={}", userDocument.getDocumentReference());
+        XWikiContext xcontext = this.xcontextProvider.get();
 
+        XWikiDocument userDocument = xcontext.getWiki().getDocument(session.getUserReference(), xcontext);
+
+        // The authorization code remembers which consent was used when it was issued
+        if (session.getConsentNumber() != null) {
+            OIDCConsent consent = getConsent(clientID, redirectURI, userDocument, session.getConsentNumber());
+            if (consent != null) {
+                return consent;
+            }
+        }
+
+        return getConsent(clientID, redirectURI, userDocument);
+    }
+
+    public OIDCConsent getConsent(ClientID clientID, URI redirectURI, XWikiDocument userDocument)
+    {
         if (userDocument.isNew()) {
             return null;
         }
 
         String clientIDString = clientID != null ? clientID.getValue() : "";
+
+        // Try the index first
+        Integer number = this.consentIndex.get(userDocument.getDocumentReference(), clientIDString, redirectURI);
+        if (number != null) {
+            OIDCConsent consent = getConsent(clientID, redirectURI, userDocument, number);
+            if (consent != null) {
+                return consent;
+            }
+        }
+
         String redirectURIString = redirectURI.toString();
 
-        this.logger.debug("Get consent OIDC: clientIDString={} redirectURIString={}", clientIDString,
-            redirectURIString);
+        this.logger.debug("Searching consent for client [{}] and redirect URI [{}] in user [{}]", clientIDString,
+            redirectURIString, userDocument.getDocumentReference());
 
+        // Go through all the consents and index them on the way
+        OIDCConsent result = null;
         List<BaseObject> consents = userDocument.getXObjects(OIDCConsent.REFERENCE);
         if (consents != null) {
             for (BaseObject consent : consents) {
                 if (consent != null) {
-                    this.logger.debug("Get consent STORED: clientIDString={} redirectURIString={}",
-                        consent.getStringValue(OIDCConsent.FIELD_CLIENTID),
-                        consent.getStringValue(OIDCConsent.FIELD_REDIRECTURI));
+                    String consentClientID = consent.getStringValue(OIDCConsent.FIELD_CLIENTID);
+                    String consentRedirectURI = consent.getStringValue(OIDCConsent.FIELD_REDIRECTURI);
 
-                    if (clientIDString.equals(consent.getStringValue(OIDCConsent.FIELD_CLIENTID))
-                        && redirectURIString.equals(consent.getStringValue(OIDCConsent.FIELD_REDIRECTURI))) {
-                        return new OIDCConsent(consent);
+                    this.consentIndex.put(userDocument.getDocumentReference(), consentClientID, consentRedirectURI,
+                        consent.getNumber());
+
+                    if (result == null && clientIDString.equals(consentClientID)
+                        && redirectURIString.equals(consentRedirectURI)) {
+                        result = new OIDCConsent(consent);
                     }
                 }
             }
         }
 
+        return result;
+    }
+
+    private OIDCConsent getConsent(ClientID clientID, URI redirectURI, XWikiDocument userDocument, int number)
+    {
+        BaseObject consent = userDocument.getXObject(OIDCConsent.REFERENCE, number);
+
+        // Make sure the object still matches
+        if (consent != null
+            && (clientID != null ? clientID.getValue() : "").equals(consent.getStringValue(OIDCConsent.FIELD_CLIENTID))
+            && redirectURI.toString().equals(consent.getStringValue(OIDCConsent.FIELD_REDIRECTURI))) {
+            return new OIDCConsent(consent);
+        }
+
         return null;
     }
 
@@ -167,6 +350,226 @@ public class OIDCStore
         return xcontext.getWiki().getDocument(xcontext.getUserReference(), xcontext);
     }
 
+    /**
+     * Create a new access token associated with the passed consent, in the configured format.
+     * 
+     * @param consent the consent to associate with the token
+     * @return the new access token
+     * @since 1.34.4
+     */
+    public AccessToken createAccessToken(OIDCConsent consent)
+        throws XWikiException, ParseException, MalformedURLException
+    {
+        if (this.configuration.getAccessTokenFormat() == AccessTokenFormat.JWT) {
+            AccessToken accessToken = this.jwtManager.create(consent);
+
+            if (accessToken != null) {
+                return accessToken;
+            }
+
+            this.logger.warn("Failed to create a JWT access token, falling back to an opaque access token");
+        }
+
+        // Create and store a new token (impossible to reuse existing one if any)
+        String random = XWikiBearerAccessToken.createRandom();
+        OIDCToken token = this.grantStore.storeAccessToken(consent, random, new Date(System.currentTimeMillis()
+            + TimeUnit.SECONDS.toMillis(this.clientRegistry.getAccessTokenLifespan(consent.getClientID()))));
+
+        // Get rid of the token stored in the consent by previous versions
+        if (consent.getAccessToken() != null) {
+            saveAccessToken(null, consent);
+        }
+
+        return new XWikiBearerAccessToken(this.serializer.serialize(token.getReference()), random);
+    }
+
+    /**
+     * Create a new access token for the service account of the passed client.
+     * <p>
+     * Such tokens are always self-contained so that a machine client getting a token does not write anything in the
+     * wiki. They are revoked when the client is removed or its service account changes.
+     * 
+     * @param client the client to which the token is issued
+     * @return the new access token or null if it was not possible to sign it
+     * @throws MalformedURLException when failing to get the issuer
+     * @since 1.34.4
+     */
+    public AccessToken createAccessToken(OIDCRegisteredClient client) throws MalformedURLException
+    {
+        return this.jwtManager.create(client.getReference(), client.getServiceAccount(), client.getClientID(), null);
+    }
+
+    /**
+     * Create a new refresh token associated with the passed consent, replacing the previous one if any.
+     * 
+     * @param consent the consent to associate with the token
+     * @return the new refresh token or null if refresh tokens are disabled
+     * @throws XWikiException when failing to store the token
+     * @since 1.34.4
+     */
+    public RefreshToken createRefreshToken(OIDCConsent consent) throws XWikiException
+    {
+        Date expiration = getRefreshTokenExpiration(consent.getClientID());
+        if (expiration == null) {
+            return null;
+        }
+
+        String random = XWikiBearerAccessToken.createRandom();
+        OIDCRefreshToken token = this.grantStore.storeRefreshToken(consent, random, expiration);
+
+        return new XWikiRefreshToken(this.serializer.serialize(token.getReference()), random).toRefreshToken();
+    }
+
+    /**
+     * Redeem the passed refresh token and replace it with a new one.
+     * <p>
+     * A refresh token can only be redeemed once: presenting a token which was already replaced by a rotation means that
+     * it leaked, in which case the refresh token and all the access tokens of the same consent are revoked.
+     * 
+     * @param refreshToken the refresh token sent by the client
+     * @param clientID the client redeeming the token
+     * @return the consent associated with the token and the new refresh token, or null if the token cannot be
+     *         redeemed
+     * @throws XWikiException when failing to load or store the token
+     * @since 1.34.4
+     */
+    public Pair<OIDCConsent, RefreshToken> refresh(RefreshToken refreshToken, ClientID clientID)
+        throws XWikiException
+    {
+        Date expiration = getRefreshTokenExpiration(clientID);
+        XWikiRefreshToken xwikiRefreshToken = XWikiRefreshToken.parse(refreshToken);
+        if (expiration == null || xwikiRefreshToken == null) {
+            return null;
+        }
+
+        OIDCRefreshToken token = getRefreshToken(xwikiRefreshToken);
+        if (token == null || !Objects.equals(token.getClientID(), clientID)) {
+            return null;
+        }
+
+        if (!token.matches(xwikiRefreshToken.getRandom())) {
+            if (token.isReused(xwikiRefreshToken.getRandom())) {
+                this.logger.warn("The OIDC refresh token [{}] issued to client [{}] was redeemed twice, revoking it"
+                    + " with all the access tokens of the consent [{}]", token.getReference(), clientID,
+                    token.getConsent());
+
+                revokeRefreshToken(token);
+            }
+
+            return null;
+        }
+
+        if (token.isExpired()) {
+            return null;
+        }
+
+        // Get the associated consent
+        OIDCConsent consent = getConsent(token.getConsent(), this.xcontextProvider.get());
+        if (consent == null || !consent.isAllowed()) {
+            return null;
+        }
+
+        String random = XWikiBearerAccessToken.createRandom();
+        if (!this.grantStore.rotateRefreshToken(token, random, expiration)) {
+            // Another request (possibly on another member of the cluster) redeemed the same token first
+            return null;
+        }
+
+        return Pair.of(consent, new XWikiRefreshToken(xwikiRefreshToken.getObjectReference(), random).toRefreshToken());
+    }
+
+    /**
+     * Revoke the passed token (RFC 7009).
+     * <p>
+     * Revoking a refresh token also revokes all the access tokens of the same consent.
+     * 
+     * @param tokenValue the value of the access or refresh token to revoke
+     * @param clientID the client asking for the revocation
+     * @return false if the token was issued to another client, true otherwise (including when the token is unknown)
+     * @throws XWikiException when failing to remove the token
+     * @throws ParseException when failing to validate the token
+     * @since 1.34.4
+     */
+    public synchronized boolean revoke(String tokenValue, ClientID clientID) throws XWikiException, ParseException
+    {
+        // Refresh token
+        XWikiRefreshToken xwikiRefreshToken = XWikiRefreshToken.parse(new RefreshToken(tokenValue));
+        OIDCRefreshToken refreshToken = xwikiRefreshToken != null ? getRefreshToken(xwikiRefreshToken) : null;
+        if (refreshToken != null && refreshToken.matches(xwikiRefreshToken.getRandom())) {
+            if (!Objects.equals(refreshToken.getClientID(), clientID)) {
+                return false;
+            }
+
+            revokeRefreshToken(refreshToken);
+
+            return true;
+        }
+
+        // Access token
+        OIDCValidatedToken validatedToken = getValidatedToken(new BearerAccessToken(tokenValue));
+        if (validatedToken == null) {
+            // Nothing to revoke
+            return true;
+        }
+        if (!Objects.equals(validatedToken.getClientID(), clientID)) {
+            return false;
+        }
+
+        if (XWikiJWTAccessToken.isJWT(tokenValue)) {
+            this.jwtManager.revoke(tokenValue);
+        } else if (!validatedToken.getTokenReference().equals(validatedToken.getConsentReference())) {
+            // Token stored in the grant store (the token cache is invalidated when the grant document is saved)
+            this.grantStore.removeAccessToken(validatedToken.getTokenReference());
+        } else {
+            // Token stored in the consent (before 1.34.4)
+            XWikiContext xcontext = this.xcontextProvider.get();
+            ObjectReference consentReference = validatedToken.getConsentReference();
+            BaseObject consentObject = xcontext.getWiki().getDocument(consentReference.getDocumentReference(), xcontext)
+                .getXObject(consentReference);
+            if (consentObject != null) {
+                saveAccessToken(null, new OIDCConsent(consentObject));
+            }
+        }
+
+        return true;
+    }
+
+    private void revokeRefreshToken(OIDCRefreshToken refreshToken) throws XWikiException
+    {
+        this.grantStore.removeRefreshToken(refreshToken);
+        this.jwtManager.revokeConsent(this.entityResolver.resolve(refreshToken.getConsent(), EntityType.OBJECT));
+    }
+
+    private OIDCRefreshToken getRefreshToken(XWikiRefreshToken xwikiRefreshToken) throws XWikiException
+    {
+        EntityReference reference =
+            this.entityResolver.resolve(xwikiRefreshToken.getObjectReference(), EntityType.OBJECT);
+
+        XWikiContext xcontext = this.xcontextProvider.get();
+
+        XWikiDocument document = xcontext.getWiki().getDocument(reference, xcontext);
+        BaseObject xobject = document.getXObject(reference);
+        if (xobject == null || !OIDCRefreshToken.isRefreshToken(xobject)) {
+            return null;
+        }
+
+        // Only accept the tokens stored by the grant store for their consent
+        OIDCRefreshToken token = new OIDCRefreshToken(xobject);
+        OIDCConsent consent = getConsent(token.getConsent(), xcontext);
+        if (consent == null || !isGrantOf(document, token.getClientID(), consent)) {
+            return null;
+        }
+
+        return token;
+    }
+
+    private Date getRefreshTokenExpiration(ClientID clientID)
+    {
+        int lifespan = this.clientRegistry.getRefreshTokenLifespan(clientID);
+
+        return lifespan > 0 ? new Date(System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(lifespan)) : null;
+    }
+
     public void saveAccessToken(String accessToken, OIDCConsent consent) throws XWikiException
     {
         setAccessToken(accessToken, consent);
@@ -189,6 +592,18 @@ public class OIDCStore
         return consent;
     }
 
+    /**
+     * @since 1.34.4
+     */
+    public BaseObject getUserObject(DocumentReference userReference) throws XWikiException
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+
+        XWikiDocument userDocument = xcontext.getWiki().getDocument(userReference, xcontext);
+
+        return userDocument.getXObject(xcontext.getWiki().getUserClass(xcontext).getDocumentReference());
+    }
+
     public BaseObject getUserObject(OIDCConsent consent) throws XWikiException
     {
         XWikiContext xcontext = this.xcontextProvider.get();
@@ -211,33 +626,79 @@ public class OIDCStore
         return new URI(userDocument.getExternalURL("view", this.xcontextProvider.get()));
     }
 
-    public DocumentReference getUserReference(AuthorizationCode code)
+    private AuthorizationCodeStore getAuthorizationCodeStore()
+    {
+        if (this.codeStore == null) {
+            String hint = this.configuration.getAuthorizationCodeStore();
+
+            try {
+                this.codeStore = this.componentManagerProvider.get().getInstance(AuthorizationCodeStore.class, hint);
+            } catch (ComponentLookupException e) {
+                this.logger.error("Failed to lookup authorization code store with hint [{}], using the default one",
+                    hint, e);
+
+                this.codeStore = this.defaultCodeStore;
+            }
+        }
+
+        return this.codeStore;
+    }
+
+    public DocumentReference getUserReference(AuthorizationCode code) throws OIDCException
     {
-        AuthorizationSession session = this.sessionMap.get(code);
+        AuthorizationSession session = getAuthorizationCodeStore().get(code);
 
-        return session != null ? session.userReference : null;
+        return session != null ? session.getUserReference() : null;
     }
 
     /**
      * @since 1.24
      */
-    public Nonce getNonce(AuthorizationCode code)
+    public Nonce getNonce(AuthorizationCode code) throws OIDCException
     {
-        AuthorizationSession session = this.sessionMap.get(code);
+        AuthorizationSession session = getAuthorizationCodeStore().get(code);
 
-        return session != null ? session.nonce : null;
+        return session != null ? session.getNonce() : null;
     }
 
     /**
      * @since 1.24
      */
     public void setAuthorizationCode(AuthorizationCode code, DocumentReference userReference, Nonce nonce)
+        throws OIDCException
+    {
+        long expiration =
+            System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(this.configuration.getAuthorizationCodeLifespan());
+
+        getAuthorizationCodeStore().store(code, new AuthorizationSession(userReference, nonce, expiration));
+    }
+
+    /**
+     * Remember the authorization code along with the consent it was issued for.
+     * 
+     * @since 1.34.4
+     */
+    public void setAuthorizationCode(AuthorizationCode code, OIDCConsent consent, Nonce nonce) throws OIDCException
+    {
+        long expiration =
+            System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(this.configuration.getAuthorizationCodeLifespan());
+
+        getAuthorizationCodeStore().store(code,
+            new AuthorizationSession(consent.getDocumentReference(), consent.getNumber(), nonce, expiration));
+    }
+
+    /**
+     * Get and invalidate the authorization code so that it cannot be redeemed twice.
+     * 
+     * @since 1.34.4
+     */
+    public AuthorizationSession consumeAuthorizationCode(AuthorizationCode code) throws OIDCException
     {
-        this.sessionMap.put(code, new AuthorizationSession(userReference, nonce));
+        return getAuthorizationCodeStore().consume(code);
     }
 
-    public void removeAuthorizationCode(AuthorizationCode code)
+    public void removeAuthorizationCode(AuthorizationCode code) throws OIDCException
     {
-        this.sessionMap.remove(code);
+        getAuthorizationCodeStore().remove(code);
     }
 }
@@ -0,0 +1,104 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.store;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.oidc.provider.internal.OIDCUserInfoCache;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Invalidate the validated access tokens, the consent index entries and the user info associated with a document when
+ * it is modified.
+ * <p>
+ * Documents which don't contain (and didn't contain) any consent or token don't impact the cached access tokens, and
+ * only user profiles impact the cached user info.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+@Component
+@Named(OIDCStoreInvalidationListener.NAME)
+@Singleton
+public class OIDCStoreInvalidationListener extends AbstractEventListener
+{
+    /**
+     * The name of the listener.
+     */
+    public static final String NAME = "org.xwiki.contrib.oidc.provider.internal.store.OIDCStoreInvalidationListener";
+
+    private static final LocalDocumentReference USER_CLASS =
+        new LocalDocumentReference(XWiki.SYSTEM_SPACE, "XWikiUsers");
+
+    @Inject
+    private OIDCTokenCache tokenCache;
+
+    @Inject
+    private OIDCConsentIndex consentIndex;
+
+    @Inject
+    private OIDCUserInfoCache userInfoCache;
+
+    /**
+     * Default constructor.
+     */
+    public OIDCStoreInvalidationListener()
+    {
+        super(NAME, new DocumentUpdatedEvent(), new DocumentDeletedEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        XWikiDocument document = (XWikiDocument) source;
+        DocumentReference documentReference = document.getDocumentReference();
+
+        boolean consents = hasXObject(document, OIDCConsent.REFERENCE);
+
+        if (consents || hasXObject(document, OIDCToken.REFERENCE)) {
+            this.tokenCache.invalidate(documentReference);
+        }
+        if (consents) {
+            this.consentIndex.invalidate(documentReference);
+        }
+        if (hasXObject(document, USER_CLASS)) {
+            this.userInfoCache.invalidate(documentReference);
+        }
+    }
+
+    private boolean hasXObject(XWikiDocument document, EntityReference classReference)
+    {
+        // The objects might have been removed (or the document deleted)
+        return document.getXObject(classReference) != null || (document.getOriginalDocument() != null
+            && document.getOriginalDocument().getXObject(classReference) != null);
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.store;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.LocalDocumentReference;
+
+import com.nimbusds.oauth2.sdk.id.ClientID;
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.BaseObjectReference;
+import com.xpn.xwiki.objects.classes.PasswordClass;
+
+/**
+ * An access token stored in the grant store.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+public class OIDCToken
+{
+    /**
+     * The reference of the class as String.
+     */
+    public static final String REFERENCE_STRING = "XWiki.OIDC.TokenClass";
+
+    /**
+     * The reference of the class.
+     */
+    public static final LocalDocumentReference REFERENCE =
+        new LocalDocumentReference(Arrays.asList(XWiki.SYSTEM_SPACE, "OIDC"), "TokenClass");
+
+    /**
+     * The name of the field containing the reference of the consent object.
+     */
+    public static final String FIELD_CONSENT = "consent";
+
+    /**
+     * The name of the field containing the identifier of the client.
+     */
+    public static final String FIELD_CLIENTID = "clientId";
+
+    /**
+     * The name of the field containing the hash of the token.
+     */
+    public static final String FIELD_TOKEN = "token";
+
+    /**
+     * The name of the field containing the date when the token was issued.
+     */
+    public static final String FIELD_CREATIONDATE = "creationDate";
+
+    /**
+     * The name of the field containing the date after which the token is not valid anymore.
+     */
+    public static final String FIELD_EXPIRATIONDATE = "expirationDate";
+
+    private final BaseObject xobject;
+
+    /**
+     * @param xobject the actual XWiki object
+     */
+    public OIDCToken(BaseObject xobject)
+    {
+        this.xobject = xobject;
+    }
+
+    /**
+     * @param xobject the XWiki object
+     * @return true if the passed object is a token
+     */
+    public static boolean isToken(BaseObject xobject)
+    {
+        return xobject.getXClassReference() != null
+            && REFERENCE.equals(new LocalDocumentReference(xobject.getXClassReference()));
+    }
+
+    /**
+     * @return the XWiki object
+     */
+    public BaseObject getXObject()
+    {
+        return this.xobject;
+    }
+
+    /**
+     * @return the reference of the object
+     */
+    public BaseObjectReference getReference()
+    {
+        return this.xobject.getReference();
+    }
+
+    /**
+     * @return the reference of the document containing the token
+     */
+    public DocumentReference getDocumentReference()
+    {
+        return this.xobject.getDocumentReference();
+    }
+
+    /**
+     * @return the serialized reference of the consent object
+     */
+    public String getConsent()
+    {
+        return this.xobject.getStringValue(FIELD_CONSENT);
+    }
+
+    /**
+     * @param consent the serialized reference of the consent object
+     */
+    public void setConsent(String consent)
+    {
+        this.xobject.setStringValue(FIELD_CONSENT, consent);
+    }
+
+    /**
+     * @return the client to which the token was issued
+     */
+    public ClientID getClientID()
+    {
+        String str = this.xobject.getStringValue(FIELD_CLIENTID);
+
+        return StringUtils.isNotEmpty(str) ? new ClientID(str) : null;
+    }
+
+    /**
+     * @param clientID the client to which the token was issued
+     */
+    public void setClientID(ClientID clientID)
+    {
+        this.xobject.setStringValue(FIELD_CLIENTID, clientID != null ? clientID.getValue() : "");
+    }
+
+    /**
+     * @param token the random part of the token
+     * @param xcontext the XWiki context
+     */
+    public void setToken(String token, XWikiContext xcontext)
+    {
+        this.xobject.set(FIELD_TOKEN, token, xcontext);
+    }
+
+    /**
+     * @param token the random part of the token
+     * @return true if the passed value matches the stored hash
+     */
+    public boolean matches(String token)
+    {
+        String stored = this.xobject.getStringValue(FIELD_TOKEN);
+
+        return StringUtils.isNotEmpty(stored)
+            && new PasswordClass().getEquivalentPassword(stored, token).equals(stored);
+    }
+
+    /**
+     * @return the date when the token was issued
+     */
+    public Date getCreationDate()
+    {
+        return this.xobject.getDateValue(FIELD_CREATIONDATE);
+    }
+
+    /**
+     * @param date the date when the token was issued
+     */
+    public void setCreationDate(Date date)
+    {
+        this.xobject.setDateValue(FIELD_CREATIONDATE, date);
+    }
+
+    /**
+     * @return the date after which the token is not valid anymore
+     */
+    public Date getExpirationDate()
+    {
+        return this.xobject.getDateValue(FIELD_EXPIRATIONDATE);
+    }
+
+    /**
+     * @param date the date after which the token is not valid anymore
+     */
+    public void setExpirationDate(Date date)
+    {
+        this.xobject.setDateValue(FIELD_EXPIRATIONDATE, date);
+    }
+}
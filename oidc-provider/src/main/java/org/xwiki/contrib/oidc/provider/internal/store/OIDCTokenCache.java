@@ -0,0 +1,257 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.store;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.cache.event.AbstractCacheEntryListener;
+import org.xwiki.cache.event.CacheEntryEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.contrib.oidc.provider.internal.OIDCProviderConfiguration;
+import org.xwiki.contrib.oidc.provider.internal.util.InvalidationGenerations;
+import org.xwiki.contrib.oidc.provider.internal.util.StoreUtils;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Keep in memory the access tokens which were already validated against the store to avoid loading the consent
+ * document and hashing the token for each request.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+@Component(roles = OIDCTokenCache.class)
+@Singleton
+public class OIDCTokenCache implements Initializable, Disposable
+{
+    private static final int REJECTED_SIZE = 500;
+
+    private static final int REJECTED_LIFESPAN = 60;
+
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    private OIDCProviderConfiguration configuration;
+
+    private Cache<OIDCValidatedToken> cache;
+
+    private Cache<Boolean> rejectedCache;
+
+    /**
+     * The keys of the cached tokens indexed by the reference of the documents holding the consent and the token hash.
+     */
+    private final Map<DocumentReference, Set<String>> documentIndex = new ConcurrentHashMap<>();
+
+    private final InvalidationGenerations<DocumentReference> generations = new InvalidationGenerations<>();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        LRUCacheConfiguration cacheConfiguration =
+            new LRUCacheConfiguration("oidc.provider.tokens", this.configuration.getTokenCacheSize());
+        cacheConfiguration.getLRUEvictionConfiguration().setLifespan(this.configuration.getTokenCacheLifespan());
+
+        try {
+            this.cache = this.cacheManager.createNewLocalCache(cacheConfiguration);
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to create the OIDC access token cache", e);
+        }
+
+        LRUCacheConfiguration rejectedConfiguration =
+            new LRUCacheConfiguration("oidc.provider.rejectedTokens", REJECTED_SIZE);
+        rejectedConfiguration.getLRUEvictionConfiguration().setLifespan(REJECTED_LIFESPAN);
+
+        try {
+            this.rejectedCache = this.cacheManager.createNewLocalCache(rejectedConfiguration);
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to create the OIDC rejected access token cache", e);
+        }
+
+        this.cache.addCacheEntryListener(new AbstractCacheEntryListener<OIDCValidatedToken>()
+        {
+            @Override
+            public void cacheEntryRemoved(CacheEntryEvent<OIDCValidatedToken> event)
+            {
+                OIDCValidatedToken token = event.getEntry().getValue();
+                if (token != null) {
+                    unindex(token.getConsentReference().getDocumentReference(), event.getEntry().getKey());
+                    if (token.getTokenReference() != null) {
+                        unindex(token.getTokenReference().getDocumentReference(), event.getEntry().getKey());
+                    }
+                }
+            }
+        });
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.cache.dispose();
+        this.rejectedCache.dispose();
+    }
+
+    /**
+     * @param token the complete access token value
+     * @return the validated token or null if it's not in the cache
+     */
+    public OIDCValidatedToken get(String token)
+    {
+        OIDCValidatedToken validatedToken = this.cache.get(StoreUtils.digest(token));
+
+        if (validatedToken != null) {
+            this.hits.incrementAndGet();
+        } else {
+            this.misses.incrementAndGet();
+        }
+
+        return validatedToken;
+    }
+
+    /**
+     * The generation is incremented each time a document is invalidated. It should be read before validating a token
+     * against the store and passed to {@link #set(String, OIDCValidatedToken, long)} so that a token validated against
+     * a consent or a token document which has been modified in the meantime is not cached.
+     * 
+     * @return the current generation of the cache
+     */
+    public long getGeneration()
+    {
+        return this.generations.get();
+    }
+
+    /**
+     * @param token the complete access token value
+     * @param validatedToken the result of the validation of the token
+     * @param expectedGeneration the value returned by {@link #getGeneration()} before validating the token
+     */
+    public void set(String token, OIDCValidatedToken validatedToken, long expectedGeneration)
+    {
+        String key = StoreUtils.digest(token);
+
+        index(validatedToken.getConsentReference().getDocumentReference(), key);
+        if (validatedToken.getTokenReference() != null) {
+            index(validatedToken.getTokenReference().getDocumentReference(), key);
+        }
+        this.cache.set(key, validatedToken);
+
+        // Forget the token if the consent or the token was modified while it was being validated
+        if (this.generations.isInvalidated(validatedToken.getConsentReference().getDocumentReference(),
+            expectedGeneration)
+            || (validatedToken.getTokenReference() != null && this.generations
+                .isInvalidated(validatedToken.getTokenReference().getDocumentReference(), expectedGeneration))) {
+            this.cache.remove(key);
+        }
+    }
+
+    /**
+     * @param token the complete access token value
+     * @return true if the token was recently rejected by the store
+     */
+    public boolean isRejected(String token)
+    {
+        return this.rejectedCache.get(StoreUtils.digest(token)) != null;
+    }
+
+    /**
+     * Remember for a short time that the passed token is not valid to avoid looking it up again in the store.
+     * 
+     * @param token the complete access token value
+     */
+    public void reject(String token)
+    {
+        this.rejectedCache.set(StoreUtils.digest(token), Boolean.TRUE);
+    }
+
+    /**
+     * Remove from the cache all the tokens associated with consents or token hashes stored in the passed document.
+     * 
+     * @param documentReference the reference of the modified document
+     */
+    public void invalidate(DocumentReference documentReference)
+    {
+        this.generations.invalidate(documentReference);
+
+        Set<String> keys = this.documentIndex.remove(documentReference);
+
+        if (keys != null) {
+            keys.forEach(this.cache::remove);
+        }
+    }
+
+    /**
+     * Remove all entries from the cache.
+     */
+    public void invalidateAll()
+    {
+        this.generations.invalidateAll();
+
+        this.documentIndex.clear();
+        this.cache.removeAll();
+        this.rejectedCache.removeAll();
+    }
+
+    /**
+     * @return the number of times a token was found in the cache
+     */
+    public long getHitCount()
+    {
+        return this.hits.get();
+    }
+
+    /**
+     * @return the number of times a token was not found in the cache
+     */
+    public long getMissCount()
+    {
+        return this.misses.get();
+    }
+
+    private void index(DocumentReference documentReference, String key)
+    {
+        this.documentIndex.computeIfAbsent(documentReference, k -> ConcurrentHashMap.newKeySet()).add(key);
+    }
+
+    private void unindex(DocumentReference documentReference, String key)
+    {
+        this.documentIndex.computeIfPresent(documentReference, (k, keys) -> {
+            keys.remove(key);
+
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+}
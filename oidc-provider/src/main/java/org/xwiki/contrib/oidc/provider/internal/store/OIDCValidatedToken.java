@@ -0,0 +1,175 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.store;
+
+import java.util.Date;
+
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.ObjectReference;
+
+import com.nimbusds.oauth2.sdk.ParseException;
+import com.nimbusds.oauth2.sdk.id.ClientID;
+import com.nimbusds.openid.connect.sdk.claims.ClaimsSetRequest;
+
+/**
+ * The result of the validation of an access token, detached from the document it was extracted from so that it can be
+ * safely kept in memory.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+public class OIDCValidatedToken
+{
+    private final ObjectReference consentReference;
+
+    private final ObjectReference tokenReference;
+
+    private final DocumentReference userReference;
+
+    private final ClientID clientID;
+
+    private final ClaimsSetRequest claims;
+
+    private final Date expirationTime;
+
+    /**
+     * @param consent the consent associated with the token
+     * @throws ParseException when failing to parse the claims stored in the consent
+     */
+    public OIDCValidatedToken(OIDCConsent consent) throws ParseException
+    {
+        this(consent, consent.getReference());
+    }
+
+    /**
+     * @param consent the consent associated with the token
+     * @param tokenReference the reference of the object in which the token hash is stored
+     * @throws ParseException when failing to parse the claims stored in the consent
+     */
+    public OIDCValidatedToken(OIDCConsent consent, ObjectReference tokenReference) throws ParseException
+    {
+        this(consent, tokenReference, null);
+    }
+
+    /**
+     * @param consent the consent associated with the token
+     * @param tokenReference the reference of the object in which the token hash is stored
+     * @param expirationTime the date after which the token is not valid anymore, null if it does not expire
+     * @throws ParseException when failing to parse the claims stored in the consent
+     */
+    public OIDCValidatedToken(OIDCConsent consent, ObjectReference tokenReference, Date expirationTime)
+        throws ParseException
+    {
+        this.consentReference = consent.getReference();
+        this.tokenReference = tokenReference;
+        this.userReference = consent.getUserReference();
+        this.clientID = consent.getClientID();
+        this.claims = consent.getClaims();
+        this.expirationTime = expirationTime;
+    }
+
+    /**
+     * @param consentReference the reference of the consent object
+     * @param userReference the reference of the user associated with the token
+     * @param clientID the client to which the token was issued
+     * @param claims the claims the user consented to
+     */
+    public OIDCValidatedToken(ObjectReference consentReference, DocumentReference userReference, ClientID clientID,
+        ClaimsSetRequest claims)
+    {
+        this(consentReference, userReference, clientID, claims, null);
+    }
+
+    /**
+     * @param consentReference the reference of the consent object
+     * @param userReference the reference of the user associated with the token
+     * @param clientID the client to which the token was issued
+     * @param claims the claims the user consented to
+     * @param expirationTime the date after which the token is not valid anymore, null if it does not expire
+     * @since 1.34.4
+     */
+    public OIDCValidatedToken(ObjectReference consentReference, DocumentReference userReference, ClientID clientID,
+        ClaimsSetRequest claims, Date expirationTime)
+    {
+        this.consentReference = consentReference;
+        this.tokenReference = null;
+        this.userReference = userReference;
+        this.clientID = clientID;
+        this.claims = claims;
+        this.expirationTime = expirationTime;
+    }
+
+    /**
+     * @return the reference of the consent object
+     */
+    public ObjectReference getConsentReference()
+    {
+        return this.consentReference;
+    }
+
+    /**
+     * @return the reference of the object in which the token hash is stored, null for self-contained tokens
+     */
+    public ObjectReference getTokenReference()
+    {
+        return this.tokenReference;
+    }
+
+    /**
+     * @return the reference of the user associated with the token
+     */
+    public DocumentReference getUserReference()
+    {
+        return this.userReference;
+    }
+
+    /**
+     * @return the client to which the token was issued
+     */
+    public ClientID getClientID()
+    {
+        return this.clientID;
+    }
+
+    /**
+     * @return the claims the user consented to
+     */
+    public ClaimsSetRequest getClaims()
+    {
+        return this.claims;
+    }
+
+    /**
+     * @return the date after which the token is not valid anymore, null if it does not expire
+     */
+    public Date getExpirationTime()
+    {
+        return this.expirationTime;
+    }
+
+    /**
+     * @param now the current time in milliseconds
+     * @return true if the token expired
+     */
+    public boolean isExpired(long now)
+    {
+        return this.expirationTime != null && this.expirationTime.getTime() <= now;
+    }
+}
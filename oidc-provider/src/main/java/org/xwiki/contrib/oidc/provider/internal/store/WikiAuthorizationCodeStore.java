@@ -0,0 +1,300 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.store;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.oidc.provider.internal.OIDCException;
+import org.xwiki.contrib.oidc.provider.internal.util.StoreUtils;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+
+import com.nimbusds.oauth2.sdk.AuthorizationCode;
+import com.nimbusds.openid.connect.sdk.Nonce;
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.doc.XWikiDocumentArchive;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Store the authorization codes in hidden documents of the main wiki so that a code issued by a cluster member can be
+ * redeemed on another one.
+ * <p>
+ * The name of the document is derived from a digest of the code so that the code itself is never stored. The
+ * documents are short lived, so no history is kept for them. Since anyone knowing a code can compute the location of
+ * its document, the documents are saved by the superadmin and any other document found there is ignored (never
+ * deleted, and completely reset before being replaced).
+ * <p>
+ * A code is consumed by clearing its user directly in the database before deleting the document, so that only one
+ * cluster member can redeem it even when several try at the same time.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+@Component
+@Named("wiki")
+@Singleton
+public class WikiAuthorizationCodeStore implements AuthorizationCodeStore
+{
+    /**
+     * The reference of the class as String.
+     */
+    public static final String REFERENCE_STRING = "XWiki.OIDC.AuthorizationCodeClass";
+
+    /**
+     * The reference of the class.
+     */
+    public static final LocalDocumentReference REFERENCE =
+        new LocalDocumentReference(Arrays.asList(XWiki.SYSTEM_SPACE, "OIDC"), "AuthorizationCodeClass");
+
+    /**
+     * The name of the field containing the reference of the user.
+     */
+    public static final String FIELD_USER = "user";
+
+    /**
+     * The name of the field containing the number of the consent object.
+     */
+    public static final String FIELD_CONSENT = "consent";
+
+    /**
+     * The name of the field containing the nonce.
+     */
+    public static final String FIELD_NONCE = "nonce";
+
+    /**
+     * The name of the field containing the expiration date of the code.
+     */
+    public static final String FIELD_EXPIRATION = "expiration";
+
+    private static final List<String> SPACE = Arrays.asList(XWiki.SYSTEM_SPACE, "OIDC", "AuthorizationCodes");
+
+    private static final String SPACE_STRING = StringUtils.join(SPACE, '.');
+
+    private static final long SWEEP_INTERVAL = 60000L;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private DocumentReferenceResolver<String> resolver;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    private OIDCAtomicUpdater atomicUpdater;
+
+    @Inject
+    private Logger logger;
+
+    private volatile long lastSweep;
+
+    @Override
+    public void store(AuthorizationCode code, AuthorizationSession session) throws OIDCException
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+
+        try {
+            XWikiDocument document =
+                xcontext.getWiki().getDocument(getDocumentReference(code, xcontext), xcontext).clone();
+
+            // Don't keep anything from a document written by someone else at the same location
+            if (!document.isNew() && !StoreUtils.isStoreAuthor(document, xcontext)) {
+                StoreUtils.reset(document);
+            }
+
+            document.setHidden(true);
+            StoreUtils.setStoreAuthor(document, xcontext);
+
+            document.removeXObjects(REFERENCE);
+            BaseObject codeObject = document.getXObject(REFERENCE, true, xcontext);
+            codeObject.setStringValue(FIELD_USER, this.serializer.serialize(session.getUserReference()));
+            if (session.getConsentNumber() != null) {
+                codeObject.setIntValue(FIELD_CONSENT, session.getConsentNumber());
+            }
+            codeObject.setStringValue(FIELD_NONCE, session.getNonce() != null ? session.getNonce().getValue() : "");
+            codeObject.setDateValue(FIELD_EXPIRATION, new Date(session.getExpiration()));
+
+            // Don't create any revision: provide an empty history and tell the store that nothing changed
+            document.setDocumentArchive(new XWikiDocumentArchive(document.getId()));
+            document.setMetaDataDirty(false);
+            document.setContentDirty(false);
+
+            xcontext.getWiki().saveDocument(document, "Store OIDC authorization code", true, xcontext);
+        } catch (XWikiException e) {
+            throw new OIDCException("Failed to store the authorization code", e);
+        }
+
+        sweep(xcontext);
+    }
+
+    @Override
+    public AuthorizationSession get(AuthorizationCode code) throws OIDCException
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+
+        try {
+            XWikiDocument document = xcontext.getWiki().getDocument(getDocumentReference(code, xcontext), xcontext);
+
+            AuthorizationSession session = getSession(document, xcontext);
+
+            if (session != null && session.isExpired(System.currentTimeMillis())) {
+                delete(document, xcontext);
+
+                return null;
+            }
+
+            return session;
+        } catch (XWikiException e) {
+            throw new OIDCException("Failed to get the authorization code", e);
+        }
+    }
+
+    @Override
+    public AuthorizationSession consume(AuthorizationCode code) throws OIDCException
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+
+        try {
+            XWikiDocument document = xcontext.getWiki().getDocument(getDocumentReference(code, xcontext), xcontext);
+
+            AuthorizationSession session = getSession(document, xcontext);
+
+            if (session != null) {
+                // The cached document might not be up to date: the database decides which redemption wins
+                BaseObject codeObject = document.getXObject(REFERENCE);
+                String user = codeObject.getStringValue(FIELD_USER);
+                if (StringUtils.isEmpty(user) || !this.atomicUpdater.compareAndSet(codeObject, FIELD_USER, user, "")) {
+                    return null;
+                }
+
+                delete(document, xcontext);
+
+                if (session.isExpired(System.currentTimeMillis())) {
+                    return null;
+                }
+            }
+
+            return session;
+        } catch (XWikiException e) {
+            throw new OIDCException("Failed to consume the authorization code", e);
+        }
+    }
+
+    @Override
+    public void remove(AuthorizationCode code) throws OIDCException
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+
+        try {
+            XWikiDocument document = xcontext.getWiki().getDocument(getDocumentReference(code, xcontext), xcontext);
+
+            delete(document, xcontext);
+        } catch (XWikiException e) {
+            throw new OIDCException("Failed to remove the authorization code", e);
+        }
+    }
+
+    private void delete(XWikiDocument document, XWikiContext xcontext) throws XWikiException
+    {
+        // Never delete a document written by someone else (the codes are short lived, no need for the recycle bin)
+        if (StoreUtils.isStoreAuthor(document, xcontext)) {
+            xcontext.getWiki().deleteDocument(document, false, xcontext);
+        }
+    }
+
+    private AuthorizationSession getSession(XWikiDocument document, XWikiContext xcontext)
+    {
+        // Only trust the codes stored by this store
+        if (!StoreUtils.isStoreAuthor(document, xcontext)) {
+            return null;
+        }
+
+        BaseObject codeObject = document.getXObject(REFERENCE);
+        if (codeObject == null) {
+            return null;
+        }
+
+        DocumentReference userReference = this.resolver.resolve(codeObject.getStringValue(FIELD_USER));
+        int consentNumber = codeObject.getIntValue(FIELD_CONSENT, -1);
+        String nonce = codeObject.getStringValue(FIELD_NONCE);
+        Date expiration = codeObject.getDateValue(FIELD_EXPIRATION);
+
+        return new AuthorizationSession(userReference, consentNumber >= 0 ? consentNumber : null,
+            StringUtils.isNotEmpty(nonce) ? new Nonce(nonce) : null, expiration != null ? expiration.getTime() : 0);
+    }
+
+    private DocumentReference getDocumentReference(AuthorizationCode code, XWikiContext xcontext)
+    {
+        return new DocumentReference(xcontext.getMainXWiki(), SPACE, StoreUtils.digest(code.getValue()));
+    }
+
+    /**
+     * Remove the codes which expired without being redeemed.
+     */
+    private void sweep(XWikiContext xcontext)
+    {
+        long now = System.currentTimeMillis();
+
+        if (now - this.lastSweep < SWEEP_INTERVAL) {
+            return;
+        }
+        this.lastSweep = now;
+
+        try {
+            List<String> documents = this.queryManager
+                .createQuery("select distinct doc.fullName from XWikiDocument doc, BaseObject obj, DateProperty exp "
+                    + "where doc.space = :space and obj.name = doc.fullName and obj.className = :className "
+                    + "and exp.id.id = obj.id and exp.id.name = :expirationField and exp.value < :now", Query.HQL)
+                .bindValue("space", SPACE_STRING).bindValue("className", REFERENCE_STRING)
+                .bindValue("expirationField", FIELD_EXPIRATION).bindValue("now", new Date(now))
+                .setWiki(xcontext.getMainXWiki()).execute();
+
+            WikiReference wikiReference = new WikiReference(xcontext.getMainXWiki());
+            for (String document : documents) {
+                delete(xcontext.getWiki().getDocument(this.resolver.resolve(document, wikiReference), xcontext),
+                    xcontext);
+            }
+        } catch (Exception e) {
+            this.logger.warn("Failed to remove expired authorization codes", e);
+        }
+    }
+}
@@ -36,13 +36,22 @@ public class XWikiBearerAccessToken extends BearerAccessToken
 {
     private static final SecureRandom SECURERANDOM = new SecureRandom();
 
+    private static final String SCHEME_PREFIX = "Bearer ";
+
+    private static final char SEPARATOR = '/';
+
     private final String objectReference;
 
     private final String random;
 
-    protected XWikiBearerAccessToken(String objectReference, String random)
+    /**
+     * @param objectReference the reference of the object containing the token hash
+     * @param random the random value
+     * @since 1.34.4
+     */
+    public XWikiBearerAccessToken(String objectReference, String random)
     {
-        super(objectReference + '/' + random);
+        super(objectReference + SEPARATOR + random);
 
         this.objectReference = objectReference;
         this.random = random;
@@ -53,11 +62,20 @@ public class XWikiBearerAccessToken extends BearerAccessToken
      * @return the new {@link XWikiBearerAccessToken} instance
      */
     public static XWikiBearerAccessToken create(String objectReference)
+    {
+        return new XWikiBearerAccessToken(objectReference, createRandom());
+    }
+
+    /**
+     * @return a new random value to use as the secret part of a token
+     * @since 1.34.4
+     */
+    public static String createRandom()
     {
         byte[] n = new byte[32];
         SECURERANDOM.nextBytes(n);
 
-        return new XWikiBearerAccessToken(objectReference, Base64URL.encode(n).toString());
+        return Base64URL.encode(n).toString();
     }
 
     /**
@@ -79,7 +97,7 @@ public class XWikiBearerAccessToken extends BearerAccessToken
     public static XWikiBearerAccessToken parse(AccessToken token)
     {
         String tokenValue = token.getValue();
-        int index = tokenValue.lastIndexOf('/');
+        int index = tokenValue.lastIndexOf(SEPARATOR);
 
         if (index == -1) {
             return null;
@@ -91,6 +109,41 @@ public class XWikiBearerAccessToken extends BearerAccessToken
         return new XWikiBearerAccessToken(objectReference, random);
     }
 
+    /**
+     * Check, without allocating anything, if the passed HTTP {@code Authorization} header value looks like a XWiki
+     * bearer access token (a {@code Bearer} scheme followed by an object reference and a Base64URL random part
+     * separated by a {@code /}). Used to quickly skip requests which can't contain a XWiki bearer access token without
+     * going through exception based parsing.
+     * 
+     * @param authorization the value of the {@code Authorization} HTTP header
+     * @return true if the header might contain a XWiki bearer access token
+     * @since 1.34.4
+     */
+    public static boolean isXWikiBearerAuthorization(String authorization)
+    {
+        // Same constraints as BearerAccessToken#parse(String): case sensitive scheme followed by a single space
+        if (authorization == null || !authorization.startsWith(SCHEME_PREFIX)) {
+            return false;
+        }
+
+        int start = SCHEME_PREFIX.length();
+        int end = authorization.length();
+
+        // The random part must be a non empty Base64URL string
+        int index = end - 1;
+        while (index >= start && isBase64URL(authorization.charAt(index))) {
+            --index;
+        }
+
+        // The random part must be preceded by a separator and a non empty object reference
+        return index != end - 1 && index > start && authorization.charAt(index) == SEPARATOR;
+    }
+
+    private static boolean isBase64URL(char c)
+    {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-' || c == '_';
+    }
+
     /**
      * @return the reference of the object containing the consent
      */
@@ -0,0 +1,105 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.store;
+
+import com.nimbusds.jwt.SignedJWT;
+import com.nimbusds.oauth2.sdk.token.BearerAccessToken;
+
+/**
+ * A self-contained access token in the form of a signed JWT.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+public class XWikiJWTAccessToken extends BearerAccessToken
+{
+    private static final String SCHEME_PREFIX = "Bearer ";
+
+    private static final char SEPARATOR = '.';
+
+    private static final int SEGMENTS = 3;
+
+    private final transient SignedJWT jwt;
+
+    /**
+     * @param jwt the signed JWT
+     * @param lifetime the lifetime of the token in seconds
+     */
+    public XWikiJWTAccessToken(SignedJWT jwt, long lifetime)
+    {
+        super(jwt.serialize(), lifetime, null);
+
+        this.jwt = jwt;
+    }
+
+    /**
+     * @return the signed JWT
+     */
+    public SignedJWT getJWT()
+    {
+        return this.jwt;
+    }
+
+    /**
+     * Check, without allocating anything, if the passed HTTP {@code Authorization} header value looks like a bearer
+     * signed JWT access token.
+     * 
+     * @param authorization the value of the {@code Authorization} HTTP header
+     * @return true if the header might contain a JWT access token
+     */
+    public static boolean isJWTBearerAuthorization(String authorization)
+    {
+        return authorization != null && authorization.startsWith(SCHEME_PREFIX)
+            && isJWT(authorization, SCHEME_PREFIX.length());
+    }
+
+    /**
+     * @param tokenValue the value of the token
+     * @return true if the token looks like a signed JWT
+     */
+    public static boolean isJWT(String tokenValue)
+    {
+        return tokenValue != null && isJWT(tokenValue, 0);
+    }
+
+    private static boolean isJWT(String value, int start)
+    {
+        int segments = 1;
+        int segmentLength = 0;
+
+        for (int i = start; i < value.length(); ++i) {
+            char c = value.charAt(i);
+
+            if (c == SEPARATOR) {
+                if (segmentLength == 0 || ++segments > SEGMENTS) {
+                    return false;
+                }
+                segmentLength = 0;
+            } else if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-'
+                || c == '_') {
+                ++segmentLength;
+            } else {
+                return false;
+            }
+        }
+
+        return segments == SEGMENTS && segmentLength > 0;
+    }
+}
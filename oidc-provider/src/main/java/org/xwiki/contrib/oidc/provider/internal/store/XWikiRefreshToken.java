@@ -0,0 +1,88 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.store;
+
+import com.nimbusds.oauth2.sdk.token.RefreshToken;
+
+/**
+ * A refresh token made of the reference of the object containing the token digest and a random value ({@link
+ * RefreshToken} cannot be extended).
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+public class XWikiRefreshToken
+{
+    private static final char SEPARATOR = '/';
+
+    private final String objectReference;
+
+    private final String random;
+
+    /**
+     * @param objectReference the reference of the object containing the token digest
+     * @param random the random value
+     */
+    public XWikiRefreshToken(String objectReference, String random)
+    {
+        this.objectReference = objectReference;
+        this.random = random;
+    }
+
+    /**
+     * @param token the complete token
+     * @return the parsed {@link XWikiRefreshToken} instance or null if the token was not issued by this provider
+     */
+    public static XWikiRefreshToken parse(RefreshToken token)
+    {
+        String tokenValue = token.getValue();
+        int index = tokenValue.lastIndexOf(SEPARATOR);
+
+        if (index <= 0 || index == tokenValue.length() - 1) {
+            return null;
+        }
+
+        return new XWikiRefreshToken(tokenValue.substring(0, index), tokenValue.substring(index + 1));
+    }
+
+    /**
+     * @return the reference of the object containing the token digest
+     */
+    public String getObjectReference()
+    {
+        return this.objectReference;
+    }
+
+    /**
+     * @return the random value
+     */
+    public String getRandom()
+    {
+        return this.random;
+    }
+
+    /**
+     * @return the token to send to the client
+     */
+    public RefreshToken toRefreshToken()
+    {
+        return new RefreshToken(this.objectReference + SEPARATOR + this.random);
+    }
+}
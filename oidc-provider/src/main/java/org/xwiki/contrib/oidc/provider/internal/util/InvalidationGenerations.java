@@ -0,0 +1,120 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remember when keys were last invalidated so that a cache can find out if a value it computed became stale in the
+ * meantime, without being impacted by the invalidation of unrelated keys.
+ * <p>
+ * Only the most recent invalidations are remembered: when too many keys were invalidated, all the values whose
+ * computation started before are considered stale.
+ * 
+ * @param <K> the type of the keys
+ * @version $Id$
+ * @since 1.34.4
+ */
+public class InvalidationGenerations<K>
+{
+    private static final int DEFAULT_MAX = 1000;
+
+    private final int max;
+
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong floor = new AtomicLong();
+
+    private final Map<K, Long> invalidations = new ConcurrentHashMap<>();
+
+    /**
+     * Remember up to 1000 invalidated keys.
+     */
+    public InvalidationGenerations()
+    {
+        this(DEFAULT_MAX);
+    }
+
+    /**
+     * @param max the maximum number of invalidated keys to remember
+     */
+    public InvalidationGenerations(int max)
+    {
+        this.max = max;
+    }
+
+    /**
+     * @return the current generation, to read before computing a value and pass to
+     *         {@link #isInvalidated(Object, long)} before caching it
+     */
+    public long get()
+    {
+        return this.generation.get();
+    }
+
+    /**
+     * @param key the invalidated key
+     */
+    public void invalidate(K key)
+    {
+        long current = this.generation.incrementAndGet();
+
+        if (this.invalidations.size() >= this.max) {
+            forgetUntil(current);
+        }
+
+        this.invalidations.put(key, current);
+    }
+
+    /**
+     * Invalidate all the keys.
+     */
+    public void invalidateAll()
+    {
+        forgetUntil(this.generation.incrementAndGet());
+    }
+
+    /**
+     * @param key the key of the computed value
+     * @param since the generation returned by {@link #get()} before computing the value
+     * @return true if the key was invalidated after the passed generation
+     */
+    public boolean isInvalidated(K key, long since)
+    {
+        if (since < this.floor.get()) {
+            return true;
+        }
+
+        Long invalidation = this.invalidations.get(key);
+
+        return invalidation != null && invalidation > since;
+    }
+
+    private void forgetUntil(long current)
+    {
+        // Set the floor before forgetting the details so that no invalidation is missed
+        long newFloor = this.floor.accumulateAndGet(current, Math::max);
+
+        // Only forget what the floor covers, a concurrent invalidation might have been recorded in the meantime
+        this.invalidations.values().removeIf(invalidation -> invalidation <= newFloor);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.util;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.nimbusds.common.contenttype.ContentType;
+import com.nimbusds.oauth2.sdk.Response;
+import com.nimbusds.oauth2.sdk.http.HTTPRequest;
+import com.nimbusds.oauth2.sdk.http.HTTPResponse;
+
+/**
+ * A content computed once and served many times, with support for conditional requests.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+public class PrecomputedContent
+{
+    private static final String HEADER_ETAG = "ETag";
+
+    private static final String HEADER_IFNONEMATCH = "If-None-Match";
+
+    private static final String HEADER_CACHECONTROL = "Cache-Control";
+
+    private static final String WEAK_PREFIX = "W/";
+
+    private final ContentType type;
+
+    private final String content;
+
+    private final String etag;
+
+    private final Object source;
+
+    /**
+     * @param type the type of the content
+     * @param content the content to return
+     * @param source the object the content was computed from, used to check if the content is outdated
+     */
+    public PrecomputedContent(ContentType type, String content, Object source)
+    {
+        this.type = type;
+        this.content = content;
+        this.etag = '"' + StoreUtils.digest(content) + '"';
+        this.source = source;
+    }
+
+    /**
+     * @param currentSource the current version of the object the content is computed from
+     * @return true if the content was computed from the passed object
+     */
+    public boolean isUpToDate(Object currentSource)
+    {
+        return this.source == currentSource;
+    }
+
+    /**
+     * @return the strong entity tag of the content
+     */
+    public String getETag()
+    {
+        return this.etag;
+    }
+
+    /**
+     * @param httpRequest the request
+     * @param maxAge the number of seconds the client is allowed to cache the content
+     * @return the response with the content, or an empty 304 response if the client already has it
+     */
+    public Response toResponse(HTTPRequest httpRequest, int maxAge)
+    {
+        ContentResponse response;
+        if (matches(httpRequest.getHeaderValue(HEADER_IFNONEMATCH))) {
+            response = new ContentResponse(this.type, null, HttpServletResponse.SC_NOT_MODIFIED);
+        } else {
+            response = new ContentResponse(this.type, this.content, HTTPResponse.SC_OK);
+        }
+
+        HTTPResponse httpResponse = response.toHTTPResponse();
+        httpResponse.setHeader(HEADER_ETAG, this.etag);
+        httpResponse.setHeader(HEADER_CACHECONTROL, "public, max-age=" + maxAge);
+
+        return response;
+    }
+
+    private boolean matches(String ifNoneMatch)
+    {
+        if (StringUtils.isNotEmpty(ifNoneMatch)) {
+            for (String tag : StringUtils.split(ifNoneMatch, ',')) {
+                String trimmed = tag.trim();
+                // GET requests use the weak comparison
+                if (trimmed.startsWith(WEAK_PREFIX)) {
+                    trimmed = trimmed.substring(WEAK_PREFIX.length());
+                }
+
+                if (trimmed.equals("*") || trimmed.equals(this.etag)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+}
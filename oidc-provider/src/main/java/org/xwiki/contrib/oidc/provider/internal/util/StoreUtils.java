@@ -0,0 +1,141 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.rendering.syntax.Syntax;
+
+import com.nimbusds.jose.util.Base64URL;
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.classes.BaseClass;
+import com.xpn.xwiki.user.api.XWikiRightService;
+
+/**
+ * Various store related helpers.
+ * 
+ * @version $Id$
+ * @since 1.34.4
+ */
+public final class StoreUtils
+{
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private StoreUtils()
+    {
+        // Utility class
+    }
+
+    /**
+     * Hash the passed value to use it as a key or a document name without exposing it.
+     * 
+     * @param value the value to hash
+     * @return the Base64URL encoded SHA-256 digest of the value
+     */
+    public static String digest(String value)
+    {
+        try {
+            MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+
+            return Base64URL.encode(digest.digest(value.getBytes(StandardCharsets.UTF_8))).toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Should never happen since SHA-256 is required by the JVM specification
+            throw new IllegalStateException("Failed to get a " + DIGEST_ALGORITHM + " digest", e);
+        }
+    }
+
+    /**
+     * @param xcontext the XWiki context
+     * @return the reference of the author of the documents written by the stores (the superadmin of the main wiki)
+     */
+    public static DocumentReference getStoreAuthorReference(XWikiContext xcontext)
+    {
+        return new DocumentReference(xcontext.getMainXWiki(), XWiki.SYSTEM_SPACE, XWikiRightService.SUPERADMIN_USER);
+    }
+
+    /**
+     * Mark the passed document as written by the stores, which nobody else can do without programming right.
+     * 
+     * @param document the document about to be saved
+     * @param xcontext the XWiki context
+     */
+    public static void setStoreAuthor(XWikiDocument document, XWikiContext xcontext)
+    {
+        DocumentReference author = getStoreAuthorReference(xcontext);
+
+        if (document.isNew()) {
+            document.setCreatorReference(author);
+        }
+        document.setAuthorReference(author);
+        document.setContentAuthorReference(author);
+    }
+
+    /**
+     * The stores derive the location of their documents from public values: a document found at the expected location
+     * can only be trusted if it was also written by the stores.
+     * 
+     * @param document the document to check
+     * @param xcontext the XWiki context
+     * @return true if the passed document was written by the stores
+     */
+    public static boolean isStoreAuthor(XWikiDocument document, XWikiContext xcontext)
+    {
+        return !document.isNew() && getStoreAuthorReference(xcontext).equals(document.getContentAuthorReference());
+    }
+
+    /**
+     * Remove everything from a document written by someone else at the location of a store document (content, title,
+     * class, objects, attachments, etc.), so that saving it as the stores does not endorse any of it.
+     * 
+     * @param document the document to reset
+     */
+    public static void reset(XWikiDocument document)
+    {
+        // Plain text is never executed
+        document.setSyntax(Syntax.PLAIN_1_0);
+        document.setContent("");
+        document.setTitle("");
+        document.setParentReference((EntityReference) null);
+        document.setDefaultTemplate("");
+        document.setValidationScript("");
+        document.setCustomClass("");
+
+        BaseClass xclass = new BaseClass();
+        xclass.setDocumentReference(document.getDocumentReference());
+        document.setXClass(xclass);
+        document.setXClassXML("");
+
+        for (DocumentReference classReference : new ArrayList<>(document.getXObjects().keySet())) {
+            document.removeXObjects(classReference);
+        }
+
+        for (XWikiAttachment attachment : new ArrayList<>(document.getAttachmentList())) {
+            document.removeAttachment(attachment);
+        }
+    }
+}
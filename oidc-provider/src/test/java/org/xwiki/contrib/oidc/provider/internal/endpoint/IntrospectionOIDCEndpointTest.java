@@ -0,0 +1,179 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.endpoint;
+
+import java.net.URI;
+import java.util.Date;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.contrib.oidc.provider.internal.OIDCClientAuthenticator;
+import org.xwiki.contrib.oidc.provider.internal.OIDCManager;
+import org.xwiki.contrib.oidc.provider.internal.OIDCProviderConfiguration;
+import org.xwiki.contrib.oidc.provider.internal.store.OIDCClientRegistry;
+import org.xwiki.contrib.oidc.provider.internal.store.OIDCRegisteredClient;
+import org.xwiki.contrib.oidc.provider.internal.store.OIDCStore;
+import org.xwiki.contrib.oidc.provider.internal.store.OIDCValidatedToken;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.nimbusds.oauth2.sdk.OAuth2Error;
+import com.nimbusds.oauth2.sdk.Response;
+import com.nimbusds.oauth2.sdk.TokenIntrospectionErrorResponse;
+import com.nimbusds.oauth2.sdk.TokenIntrospectionRequest;
+import com.nimbusds.oauth2.sdk.TokenIntrospectionResponse;
+import com.nimbusds.oauth2.sdk.TokenIntrospectionSuccessResponse;
+import com.nimbusds.oauth2.sdk.auth.ClientSecretBasic;
+import com.nimbusds.oauth2.sdk.auth.Secret;
+import com.nimbusds.oauth2.sdk.http.HTTPRequest;
+import com.nimbusds.oauth2.sdk.id.ClientID;
+import com.nimbusds.oauth2.sdk.id.Issuer;
+import com.nimbusds.oauth2.sdk.id.Subject;
+import com.nimbusds.oauth2.sdk.token.BearerAccessToken;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate {@link IntrospectionOIDCEndpoint}.
+ * 
+ * @version $Id$
+ */
+@ComponentTest
+class IntrospectionOIDCEndpointTest
+{
+    private static final ClientID CLIENT = new ClientID("client");
+
+    private static final DocumentReference USER = new DocumentReference("wiki", "XWiki", "User");
+
+    @MockComponent
+    OIDCStore store;
+
+    @MockComponent
+    OIDCManager manager;
+
+    @MockComponent
+    OIDCClientRegistry clientRegistry;
+
+    @MockComponent
+    OIDCClientAuthenticator clientAuthenticator;
+
+    @MockComponent
+    OIDCProviderConfiguration configuration;
+
+    @InjectMockComponents
+    IntrospectionOIDCEndpoint endpoint;
+
+    private OIDCRegisteredClient client;
+
+    @BeforeEach
+    void beforeEach() throws Exception
+    {
+        this.client = new OIDCRegisteredClient(CLIENT, null, null, null, null);
+        when(this.clientRegistry.getClient(CLIENT)).thenReturn(this.client);
+        when(this.clientAuthenticator.authenticate(any(), any())).thenReturn(true);
+
+        when(this.manager.getIssuer()).thenReturn(new Issuer("http://issuer"));
+        when(this.manager.getSubject(USER)).thenReturn(new Subject("user"));
+        when(this.configuration.getTokenCacheLifespan()).thenReturn(300);
+    }
+
+    private Response introspect(String token) throws Exception
+    {
+        HTTPRequest httpRequest = new TokenIntrospectionRequest(new URI("http://localhost/introspect"),
+            new ClientSecretBasic(CLIENT, new Secret("secret")), new BearerAccessToken(token)).toHTTPRequest();
+
+        return this.endpoint.handle(httpRequest, null);
+    }
+
+    private long getMaxAge(Response response)
+    {
+        String cacheControl = response.toHTTPResponse().getHeaderValue("Cache-Control");
+
+        return Long.parseLong(cacheControl.substring("max-age=".length()));
+    }
+
+    @Test
+    void introspectActiveToken() throws Exception
+    {
+        when(this.store.getValidatedToken(new BearerAccessToken("token"))).thenReturn(
+            new OIDCValidatedToken(null, USER, CLIENT, null, new Date(System.currentTimeMillis() + 60000)));
+
+        Response response = introspect("token");
+
+        TokenIntrospectionSuccessResponse introspection =
+            TokenIntrospectionResponse.parse(response.toHTTPResponse()).toSuccessResponse();
+        assertTrue(introspection.isActive());
+        assertEquals(new Subject("user"), introspection.getSubject());
+        assertEquals(CLIENT, introspection.getClientID());
+
+        // The result cannot be cached beyond the expiration of the token
+        long maxAge = getMaxAge(response);
+        assertTrue(maxAge > 0 && maxAge <= 60);
+    }
+
+    @Test
+    void introspectExpiredToken() throws Exception
+    {
+        when(this.store.getValidatedToken(new BearerAccessToken("token"))).thenReturn(
+            new OIDCValidatedToken(null, USER, CLIENT, null, new Date(System.currentTimeMillis() - 60000)));
+
+        assertEquals(0, getMaxAge(introspect("token")));
+    }
+
+    @Test
+    void introspectUnknownToken() throws Exception
+    {
+        Response response = introspect("unknown");
+
+        assertFalse(TokenIntrospectionResponse.parse(response.toHTTPResponse()).toSuccessResponse().isActive());
+        assertEquals(300, getMaxAge(response));
+    }
+
+    @Test
+    void introspectWithUnregisteredClient() throws Exception
+    {
+        when(this.clientRegistry.getClient(CLIENT)).thenReturn(null);
+
+        Response response = introspect("token");
+
+        assertFalse(response.indicatesSuccess());
+        assertEquals(OAuth2Error.INVALID_CLIENT, ((TokenIntrospectionErrorResponse) response).getErrorObject());
+        verify(this.store, never()).getValidatedToken(any());
+    }
+
+    @Test
+    void introspectWithWrongCredentials() throws Exception
+    {
+        when(this.clientAuthenticator.authenticate(any(), any())).thenReturn(false);
+
+        Response response = introspect("token");
+
+        assertFalse(response.indicatesSuccess());
+        verify(this.store, never()).getValidatedToken(any());
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.store;
+
+import java.util.Collections;
+import java.util.Date;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.contrib.oidc.provider.internal.OIDCManager;
+import org.xwiki.contrib.oidc.provider.internal.OIDCProviderConfiguration;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.ObjectReference;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.nimbusds.jose.JOSEObjectType;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.MACSigner;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.nimbusds.oauth2.sdk.id.Issuer;
+import com.xpn.xwiki.XWikiException;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate {@link JWTAccessTokenManager}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+class JWTAccessTokenManagerTest
+{
+    private static final long HOUR = 3600000;
+
+    private static final DocumentReference USER = new DocumentReference("wiki", "XWiki", "User");
+
+    private static final String CONSENT = "wiki:XWiki.User^XWiki.OIDC.ConsentClass[0]";
+
+    @MockComponent
+    OIDCManager manager;
+
+    @MockComponent
+    OIDCProviderConfiguration configuration;
+
+    @MockComponent
+    OIDCClientRegistry clientRegistry;
+
+    @MockComponent
+    EntityReferenceSerializer<String> serializer;
+
+    @MockComponent
+    DocumentReferenceResolver<String> resolver;
+
+    @MockComponent
+    EntityReferenceResolver<String> entityResolver;
+
+    @MockComponent
+    OIDCRevocationStore revocationStore;
+
+    @InjectMockComponents
+    JWTAccessTokenManager tokenManager;
+
+    @BeforeEach
+    void beforeEach() throws Exception
+    {
+        when(this.manager.getIssuer()).thenReturn(new Issuer("http://issuer"));
+        when(this.manager.verifyAccessToken(any())).thenReturn(true);
+
+        when(this.resolver.resolve("wiki:XWiki.User")).thenReturn(USER);
+        when(this.entityResolver.resolve(CONSENT, EntityType.OBJECT))
+            .thenReturn(new ObjectReference("XWiki.OIDC.ConsentClass[0]", USER));
+
+        when(this.revocationStore.load(OIDCRevocationStore.TYPE_TOKEN)).thenReturn(Collections.emptyMap());
+        when(this.revocationStore.load(OIDCRevocationStore.TYPE_CONSENT)).thenReturn(Collections.emptyMap());
+    }
+
+    private String createToken(String jwtID) throws Exception
+    {
+        return createToken(jwtID, "http://issuer");
+    }
+
+    private String createToken(String jwtID, String issuer) throws Exception
+    {
+        long now = System.currentTimeMillis();
+
+        JWTClaimsSet claims = new JWTClaimsSet.Builder().issuer(issuer).subject("user")
+            .issueTime(new Date(now)).expirationTime(new Date(now + HOUR)).jwtID(jwtID)
+            .claim(JWTAccessTokenManager.CLAIM_USER, "wiki:XWiki.User")
+            .claim(JWTAccessTokenManager.CLAIM_CONSENT, CONSENT).build();
+
+        SignedJWT jwt =
+            new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.HS256).type(new JOSEObjectType("at+jwt")).build(), claims);
+        jwt.sign(new MACSigner(new byte[32]));
+
+        return jwt.serialize();
+    }
+
+    @Test
+    void validate() throws Exception
+    {
+        OIDCValidatedToken token = this.tokenManager.validate(createToken("id"));
+
+        assertNotNull(token);
+        assertNotNull(token.getUserReference());
+    }
+
+    @Test
+    void validateTokenOfAnotherIssuer() throws Exception
+    {
+        assertNull(this.tokenManager.validate(createToken("id", "http://otherwiki")));
+        assertNull(this.tokenManager.validate(createToken("id", null)));
+    }
+
+    @Test
+    void validateTokenRevokedBeforeRestart() throws Exception
+    {
+        when(this.revocationStore.load(OIDCRevocationStore.TYPE_TOKEN))
+            .thenReturn(Collections.singletonMap("revoked", System.currentTimeMillis() + HOUR));
+
+        assertNull(this.tokenManager.validate(createToken("revoked")));
+        assertNotNull(this.tokenManager.validate(createToken("id")));
+    }
+
+    @Test
+    void validateWhileRevocationsCannotBeLoaded() throws Exception
+    {
+        when(this.revocationStore.load(OIDCRevocationStore.TYPE_TOKEN)).thenThrow(new XWikiException());
+
+        // A revoked token cannot be told from a valid one
+        assertNull(this.tokenManager.validate(createToken("id")));
+        assertNull(this.tokenManager.validate(createToken("id")));
+
+        // Don't hammer a broken store with each request
+        verify(this.revocationStore, times(1)).load(OIDCRevocationStore.TYPE_TOKEN);
+
+        // Try again once the store is back
+        when(this.revocationStore.load(OIDCRevocationStore.TYPE_TOKEN)).thenReturn(Collections.emptyMap());
+        ReflectionUtils.setFieldValue(this.tokenManager, "nextLoadAttempt", 0L);
+
+        assertNotNull(this.tokenManager.validate(createToken("id")));
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.store;
+
+import java.util.Arrays;
+
+import javax.inject.Named;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.contrib.oidc.provider.internal.OIDCProviderConfiguration;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+import org.xwiki.security.authorization.AuthorizationManager;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.nimbusds.oauth2.sdk.auth.Secret;
+import com.nimbusds.oauth2.sdk.id.ClientID;
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.MandatoryDocumentInitializer;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.test.MockitoOldcore;
+import com.xpn.xwiki.test.junit5.mockito.InjectMockitoOldcore;
+import com.xpn.xwiki.test.junit5.mockito.OldcoreTest;
+import com.xpn.xwiki.test.reference.ReferenceComponentList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate {@link OIDCClientRegistry}.
+ * 
+ * @version $Id$
+ */
+@OldcoreTest
+@ReferenceComponentList
+class OIDCClientRegistryTest
+{
+    private static final ClientID CLIENT = new ClientID("client");
+
+    @MockComponent
+    CacheManager cacheManager;
+
+    @MockComponent
+    QueryManager queryManager;
+
+    @MockComponent
+    AuthorizationManager authorization;
+
+    @MockComponent
+    OIDCProviderConfiguration configuration;
+
+    @MockComponent
+    @Named("XWiki.XWikiRights")
+    MandatoryDocumentInitializer rightsInitializer;
+
+    @InjectMockComponents
+    OIDCClientClassDocumentInitializer clientClassInitializer;
+
+    @InjectMockComponents
+    OIDCClientRegistry registry;
+
+    @InjectMockitoOldcore
+    MockitoOldcore oldcore;
+
+    private Query query;
+
+    private WikiReference mainWikiReference;
+
+    private DocumentReference adminReference;
+
+    private DocumentReference serviceAccountReference;
+
+    @BeforeComponent
+    void beforeComponent() throws Exception
+    {
+        // Always load the clients
+        when(this.cacheManager.createNewLocalCache(any())).thenReturn(mock(Cache.class));
+    }
+
+    @BeforeEach
+    void beforeEach() throws Exception
+    {
+        XWikiContext xcontext = this.oldcore.getXWikiContext();
+        XWiki xwiki = this.oldcore.getSpyXWiki();
+
+        this.mainWikiReference = new WikiReference(xcontext.getMainXWiki());
+        this.adminReference = new DocumentReference(xcontext.getMainXWiki(), XWiki.SYSTEM_SPACE, "Admin");
+        this.serviceAccountReference = new DocumentReference(xcontext.getMainXWiki(), XWiki.SYSTEM_SPACE, "Service");
+
+        XWikiDocument classDocument =
+            xwiki.getDocument(new DocumentReference(OIDCClient.REFERENCE, this.mainWikiReference), xcontext);
+        this.clientClassInitializer.updateDocument(classDocument);
+        xwiki.saveDocument(classDocument, xcontext);
+
+        this.query = mock(Query.class);
+        when(this.queryManager.createQuery(anyString(), eq(Query.XWQL))).thenReturn(this.query);
+
+        when(this.configuration.getAccessTokenLifespan()).thenReturn(3600);
+
+        when(this.authorization.hasAccess(Right.ADMIN, this.adminReference, this.mainWikiReference)).thenReturn(true);
+        when(this.authorization.hasAccess(Right.ADMIN, this.adminReference, this.serviceAccountReference))
+            .thenReturn(true);
+    }
+
+    private void addClient(String page, DocumentReference author, String serviceAccount) throws Exception
+    {
+        XWikiContext xcontext = this.oldcore.getXWikiContext();
+
+        DocumentReference reference = new DocumentReference(xcontext.getMainXWiki(), "Clients", page);
+        XWikiDocument document = this.oldcore.getSpyXWiki().getDocument(reference, xcontext);
+        BaseObject clientObject = document.newXObject(OIDCClient.REFERENCE, xcontext);
+        clientObject.setStringValue(OIDCClient.FIELD_CLIENTID, CLIENT.getValue());
+        clientObject.set(OIDCClient.FIELD_SECRET, "secret", xcontext);
+        clientObject.setIntValue(OIDCClient.FIELD_ACCESSTOKENLIFESPAN, 60);
+        if (serviceAccount != null) {
+            clientObject.setStringValue(OIDCClient.FIELD_SERVICEACCOUNT, serviceAccount);
+        }
+        document.setContentAuthorReference(author);
+        this.oldcore.getSpyXWiki().saveDocument(document, xcontext);
+
+        when(this.query.execute()).thenReturn(Arrays.asList("Clients." + page));
+    }
+
+    @Test
+    void getClient() throws Exception
+    {
+        addClient("Client", this.adminReference, "XWiki.Service");
+
+        OIDCRegisteredClient client = this.registry.getClient(CLIENT);
+
+        assertNotNull(client);
+        assertEquals(CLIENT, client.getClientID());
+        assertEquals(this.serviceAccountReference, client.getServiceAccount());
+        assertEquals(60, this.registry.getAccessTokenLifespan(CLIENT));
+    }
+
+    @Test
+    void getClientNotRegistered() throws Exception
+    {
+        when(this.query.execute()).thenReturn(Arrays.asList());
+
+        assertNull(this.registry.getClient(CLIENT));
+        assertEquals(3600, this.registry.getAccessTokenLifespan(CLIENT));
+    }
+
+    @Test
+    void getClientSavedByNonAdministrator() throws Exception
+    {
+        addClient("Client", new DocumentReference(this.oldcore.getXWikiContext().getMainXWiki(), "XWiki", "User"),
+            null);
+
+        assertNull(this.registry.getClient(CLIENT));
+    }
+
+    @Test
+    void getClientWithForeignServiceAccount() throws Exception
+    {
+        addClient("Client", this.adminReference, "XWiki.Other");
+
+        assertNull(this.registry.getClient(CLIENT));
+    }
+
+    @Test
+    void getClientWithMorePrivilegedServiceAccount() throws Exception
+    {
+        addClient("Client", this.adminReference, "XWiki.Service");
+        when(this.authorization.hasAccess(Right.PROGRAM, this.serviceAccountReference, this.mainWikiReference))
+            .thenReturn(true);
+
+        assertNull(this.registry.getClient(CLIENT));
+
+        when(this.authorization.hasAccess(Right.PROGRAM, this.adminReference, this.mainWikiReference))
+            .thenReturn(true);
+
+        assertNotNull(this.registry.getClient(CLIENT));
+    }
+
+    @Test
+    void authenticate() throws Exception
+    {
+        addClient("Client", this.adminReference, null);
+
+        OIDCRegisteredClient client = this.registry.getClient(CLIENT);
+
+        assertTrue(client.hasCredentials());
+        assertTrue(client.matches(new Secret("secret")));
+        assertFalse(client.matches(new Secret("wrong")));
+        assertFalse(client.matches(null));
+    }
+}
@@ -0,0 +1,409 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.store;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Consumer;
+
+import javax.inject.Named;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.contrib.oidc.provider.internal.OIDCProviderConfiguration;
+import org.xwiki.contrib.oidc.provider.internal.util.StoreUtils;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.nimbusds.oauth2.sdk.id.ClientID;
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.MandatoryDocumentInitializer;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.test.MockitoOldcore;
+import com.xpn.xwiki.test.junit5.mockito.InjectMockitoOldcore;
+import com.xpn.xwiki.test.junit5.mockito.OldcoreTest;
+import com.xpn.xwiki.test.reference.ReferenceComponentList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate {@link OIDCGrantStore}.
+ * 
+ * @version $Id$
+ */
+@OldcoreTest
+@ReferenceComponentList
+class OIDCGrantStoreTest
+{
+    private static final ClientID CLIENT = new ClientID("client");
+
+    private static final long HOUR = 3600000;
+
+    @MockComponent
+    OIDCProviderConfiguration configuration;
+
+    @MockComponent
+    OIDCAtomicUpdater atomicUpdater;
+
+    @MockComponent
+    @Named("XWiki.XWikiRights")
+    MandatoryDocumentInitializer rightsInitializer;
+
+    @InjectMockComponents
+    OIDCTokenClassDocumentInitializer tokenClassInitializer;
+
+    @InjectMockComponents
+    OIDCConsentClassDocumentInitializer consentClassInitializer;
+
+    @InjectMockComponents
+    OIDCGrantStore store;
+
+    @InjectMockitoOldcore
+    MockitoOldcore oldcore;
+
+    private DocumentReference userReference;
+
+    private DocumentReference grantReference;
+
+    private OIDCConsent consent;
+
+    @BeforeEach
+    void beforeEach() throws Exception
+    {
+        when(this.configuration.getAccessTokenMaxPerConsent()).thenReturn(10);
+        when(this.configuration.getAccessTokenLifespan()).thenReturn(3600);
+        // Behave like a database where nobody else is modifying the grant document
+        when(this.atomicUpdater.compareAndSet(any(), any(), any(), any())).thenReturn(true);
+        when(this.atomicUpdater.create(any(), any(), any(), any(), any()))
+            .thenAnswer(invocation -> createDocument(invocation.getArgument(0), invocation.getArgument(1),
+                invocation.getArgument(2), invocation.getArgument(3)));
+        when(this.atomicUpdater.create(any(), any(), any(Consumer.class), any()))
+            .thenAnswer(invocation -> createDocument(invocation.getArgument(0), invocation.getArgument(1),
+                invocation.<Consumer<BaseObject>>getArgument(2)));
+
+        XWikiContext xcontext = this.oldcore.getXWikiContext();
+        XWiki xwiki = this.oldcore.getSpyXWiki();
+
+        XWikiDocument classDocument =
+            xwiki.getDocument(new DocumentReference(OIDCToken.REFERENCE, xcontext.getWikiReference()), xcontext);
+        this.tokenClassInitializer.updateDocument(classDocument);
+        xwiki.saveDocument(classDocument, xcontext);
+
+        classDocument =
+            xwiki.getDocument(new DocumentReference(OIDCConsent.REFERENCE, xcontext.getWikiReference()), xcontext);
+        this.consentClassInitializer.updateDocument(classDocument);
+        xwiki.saveDocument(classDocument, xcontext);
+
+        this.userReference = new DocumentReference(xcontext.getWikiId(), XWiki.SYSTEM_SPACE, "User");
+        this.grantReference = this.store.getGrantDocumentReference(this.userReference, CLIENT);
+
+        XWikiDocument userDocument = xwiki.getDocument(this.userReference, xcontext);
+        this.consent = new OIDCConsent(userDocument.newXObject(OIDCConsent.REFERENCE, xcontext));
+        this.consent.setClientID(CLIENT);
+        this.consent.setRedirectURI(new URI("http://client/callback"));
+        this.consent.setAllowed(true);
+        xwiki.saveDocument(userDocument, xcontext);
+    }
+
+    private XWikiDocument createDocument(DocumentReference documentReference, LocalDocumentReference classReference,
+        String field, String value) throws Exception
+    {
+        return createDocument(documentReference, classReference, xobject -> xobject.setStringValue(field, value));
+    }
+
+    private XWikiDocument createDocument(DocumentReference documentReference, LocalDocumentReference classReference,
+        Consumer<BaseObject> initializer) throws Exception
+    {
+        XWikiContext xcontext = this.oldcore.getXWikiContext();
+
+        XWikiDocument document = new XWikiDocument(documentReference);
+        initializer.accept(document.newXObject(classReference, xcontext));
+        StoreUtils.setStoreAuthor(document, xcontext);
+        this.oldcore.getSpyXWiki().saveDocument(document, xcontext);
+
+        return this.oldcore.getSpyXWiki().getDocument(documentReference, xcontext);
+    }
+
+    private OIDCToken storeAccessToken(String token, long lifespan) throws Exception
+    {
+        return this.store.storeAccessToken(this.consent, token, new Date(System.currentTimeMillis() + lifespan));
+    }
+
+    private XWikiDocument getGrantDocument() throws Exception
+    {
+        XWikiContext xcontext = this.oldcore.getXWikiContext();
+
+        return this.oldcore.getSpyXWiki().getDocument(this.grantReference, xcontext);
+    }
+
+    @Test
+    void storeAccessTokenMaxPerConsent() throws Exception
+    {
+        when(this.configuration.getAccessTokenMaxPerConsent()).thenReturn(2);
+
+        storeAccessToken("first", HOUR);
+        storeAccessToken("second", 3 * HOUR);
+        storeAccessToken("third", HOUR + HOUR / 2);
+
+        // The token closest to expiration is the one dropped
+        List<OIDCToken> tokens = this.store.getAccessTokens(this.userReference, CLIENT);
+        assertEquals(2, tokens.size());
+        assertFalse(tokens.stream().anyMatch(token -> token.matches("first")));
+        assertTrue(tokens.stream().anyMatch(token -> token.matches("second")));
+        assertTrue(tokens.stream().anyMatch(token -> token.matches("third")));
+    }
+
+    @Test
+    void storeAccessTokenRemovesExpired() throws Exception
+    {
+        storeAccessToken("expired", -HOUR);
+        storeAccessToken("valid", HOUR);
+
+        List<OIDCToken> tokens = this.store.getAccessTokens(this.userReference, CLIENT);
+        assertEquals(1, tokens.size());
+        assertTrue(tokens.get(0).matches("valid"));
+    }
+
+    @Test
+    void storeAccessTokenModifiedByAnotherMember() throws Exception
+    {
+        storeAccessToken("first", HOUR);
+
+        // Another member of the cluster stored a token the local cache does not know about yet
+        XWikiContext xcontext = this.oldcore.getXWikiContext();
+        XWikiDocument storedDocument = getGrantDocument().clone();
+        OIDCToken otherToken = new OIDCToken(storedDocument.newXObject(OIDCToken.REFERENCE, xcontext));
+        otherToken.setConsent(storedDocument.getXObject(OIDCToken.REFERENCE).getStringValue(OIDCToken.FIELD_CONSENT));
+        otherToken.setClientID(CLIENT);
+        otherToken.setToken("other", xcontext);
+        otherToken.setExpirationDate(new Date(System.currentTimeMillis() + HOUR));
+        when(this.atomicUpdater.compareAndSet(any(), eq(OIDCGrantStore.FIELD_REVISION), any(), any()))
+            .thenReturn(false, true);
+        when(this.atomicUpdater.loadDocument(this.grantReference)).thenReturn(storedDocument);
+
+        storeAccessToken("second", HOUR);
+
+        List<OIDCToken> tokens = this.store.getAccessTokens(this.userReference, CLIENT);
+        assertEquals(3, tokens.size());
+        for (String token : Arrays.asList("first", "other", "second")) {
+            assertTrue(tokens.stream().anyMatch(oidcToken -> oidcToken.matches(token)), token);
+        }
+    }
+
+    @Test
+    void storeAccessTokenCreatedByAnotherMember() throws Exception
+    {
+        // Another member of the cluster created the grant document right before this one
+        when(this.atomicUpdater.create(eq(this.grantReference), any(), any(), any(), any())).thenAnswer(invocation -> {
+            XWikiContext xcontext = this.oldcore.getXWikiContext();
+            XWikiDocument document = createDocument(invocation.getArgument(0), invocation.getArgument(1),
+                invocation.getArgument(2), invocation.getArgument(3)).clone();
+            OIDCToken otherToken = new OIDCToken(document.newXObject(OIDCToken.REFERENCE, xcontext));
+            otherToken.setClientID(CLIENT);
+            otherToken.setToken("other", xcontext);
+            otherToken.setExpirationDate(new Date(System.currentTimeMillis() + HOUR));
+            this.oldcore.getSpyXWiki().saveDocument(document, xcontext);
+
+            return this.oldcore.getSpyXWiki().getDocument(this.grantReference, xcontext);
+        });
+
+        storeAccessToken("first", HOUR);
+
+        List<OIDCToken> tokens = this.store.getAccessTokens(this.userReference, CLIENT);
+        assertEquals(2, tokens.size());
+        for (String token : Arrays.asList("first", "other")) {
+            assertTrue(tokens.stream().anyMatch(oidcToken -> oidcToken.matches(token)), token);
+        }
+        // The creation of the document does not bypass the lock
+        verify(this.atomicUpdater).compareAndSet(any(), eq(OIDCGrantStore.FIELD_REVISION), any(), contains("lock:"));
+    }
+
+    @Test
+    void storeAccessTokenInDocumentWrittenByAnotherAuthor() throws Exception
+    {
+        // Anyone able to create a page can compute the location of the grant document
+        XWikiContext xcontext = this.oldcore.getXWikiContext();
+        LocalDocumentReference rightsReference = new LocalDocumentReference(XWiki.SYSTEM_SPACE, "XWikiRights");
+        XWikiDocument document = getGrantDocument().clone();
+        document.setContent("{{groovy}}println 'executed'{{/groovy}}");
+        document.newXObject(OIDCGrantStore.GRANT_REFERENCE, xcontext).setStringValue(OIDCGrantStore.FIELD_REVISION,
+            "revision");
+        document.newXObject(rightsReference, xcontext).setLargeStringValue("groups", "XWiki.XWikiAllGroup");
+        document.setContentAuthorReference(new DocumentReference(xcontext.getWikiId(), XWiki.SYSTEM_SPACE, "Attacker"));
+        this.oldcore.getSpyXWiki().saveDocument(document, xcontext);
+
+        storeAccessToken("first", HOUR);
+
+        // Nothing written by someone else is saved by the superadmin
+        document = getGrantDocument();
+        assertTrue(StoreUtils.isStoreAuthor(document, xcontext));
+        assertEquals("", document.getContent());
+        assertNull(document.getXObject(rightsReference));
+        assertEquals(1, this.store.getAccessTokens(this.userReference, CLIENT).size());
+    }
+
+    @Test
+    void storeAccessTokenIgnoresStaleLock() throws Exception
+    {
+        storeAccessToken("first", HOUR);
+
+        // A member of the cluster stopped in the middle of a modification a long time ago
+        XWikiDocument document = getGrantDocument();
+        document.getXObject(OIDCGrantStore.GRANT_REFERENCE).setStringValue(OIDCGrantStore.FIELD_REVISION,
+            "lock:1:stale");
+        this.oldcore.getSpyXWiki().saveDocument(document, this.oldcore.getXWikiContext());
+
+        assertNotNull(storeAccessToken("second", HOUR));
+        assertEquals(2, this.store.getAccessTokens(this.userReference, CLIENT).size());
+    }
+
+    @Test
+    void removeUnknownAccessTokenReleasesDocument() throws Exception
+    {
+        OIDCToken token = storeAccessToken("first", HOUR);
+        storeAccessToken("second", HOUR);
+        this.store.removeAccessToken(token.getReference());
+        String revision = getGrantDocument().getXObject(OIDCGrantStore.GRANT_REFERENCE)
+            .getStringValue(OIDCGrantStore.FIELD_REVISION);
+
+        this.store.removeAccessToken(token.getReference());
+
+        // Nothing to save: the lock is replaced back by the current revision
+        verify(this.atomicUpdater).compareAndSet(any(), eq(OIDCGrantStore.FIELD_REVISION), contains("lock:"),
+            eq(revision));
+        assertEquals(1, this.store.getAccessTokens(this.userReference, CLIENT).size());
+    }
+
+    @Test
+    void rotateRefreshTokenOnce() throws Exception
+    {
+        OIDCRefreshToken refreshToken =
+            this.store.storeRefreshToken(this.consent, "first", new Date(System.currentTimeMillis() + HOUR));
+        OIDCRefreshToken staleToken = new OIDCRefreshToken(getGrantDocument().getXObject(OIDCRefreshToken.REFERENCE));
+
+        Date expiration = new Date(System.currentTimeMillis() + HOUR);
+
+        assertTrue(this.store.rotateRefreshToken(refreshToken, "second", expiration));
+        // The same token cannot be redeemed twice, even from an outdated copy of the grant document
+        assertFalse(this.store.rotateRefreshToken(staleToken, "third", expiration));
+    }
+
+    @Test
+    void purgeDeletesEmptyDocument() throws Exception
+    {
+        storeAccessToken("expired", -HOUR);
+
+        assertTrue(this.store.purge(this.grantReference));
+        assertTrue(getGrantDocument().isNew());
+        assertFalse(this.store.purge(this.grantReference));
+    }
+
+    @Test
+    void useAssertionOnce() throws Exception
+    {
+        Date expiration = new Date(System.currentTimeMillis() + HOUR);
+
+        assertTrue(this.store.useAssertion(CLIENT, "first", expiration));
+        assertFalse(this.store.useAssertion(CLIENT, "first", expiration));
+        assertTrue(this.store.useAssertion(CLIENT, "second", expiration));
+    }
+
+    @Test
+    void useAssertionUsedByAnotherMember() throws Exception
+    {
+        Date expiration = new Date(System.currentTimeMillis() + HOUR);
+
+        // Another member of the cluster accepted the assertion but the local cache does not know about it yet
+        when(this.atomicUpdater.compareAndSet(any(), eq(OIDCGrantStore.FIELD_ASSERTION), any(), any()))
+            .thenReturn(false);
+
+        assertFalse(this.store.useAssertion(CLIENT, "replayed", expiration));
+        verify(this.atomicUpdater).compareAndSet(any(), eq(OIDCGrantStore.FIELD_ASSERTION),
+            eq(OIDCGrantStore.ASSERTION_UNUSED), eq(OIDCGrantStore.ASSERTION_USED));
+    }
+
+    @Test
+    void useAssertionInDocumentWrittenByAnotherAuthor() throws Exception
+    {
+        XWikiContext xcontext = this.oldcore.getXWikiContext();
+        Date expiration = new Date(System.currentTimeMillis() + HOUR);
+
+        // Someone marked the assertion as used in advance to prevent the client from using it
+        DocumentReference assertionReference = this.store.getAssertionDocumentReference(CLIENT, "planted");
+        XWikiDocument document = this.oldcore.getSpyXWiki().getDocument(assertionReference, xcontext);
+        document.newXObject(OIDCGrantStore.ASSERTION_REFERENCE, xcontext)
+            .setStringValue(OIDCGrantStore.FIELD_ASSERTION, OIDCGrantStore.ASSERTION_USED);
+        document.setContentAuthorReference(
+            new DocumentReference(xcontext.getWikiId(), XWiki.SYSTEM_SPACE, "Attacker"));
+        this.oldcore.getSpyXWiki().saveDocument(document, xcontext);
+
+        assertTrue(this.store.useAssertion(CLIENT, "planted", expiration));
+        assertTrue(StoreUtils.isStoreAuthor(
+            this.oldcore.getSpyXWiki().getDocument(assertionReference, xcontext), xcontext));
+    }
+
+    @Test
+    void purgeAssertion() throws Exception
+    {
+        XWikiContext xcontext = this.oldcore.getXWikiContext();
+
+        this.store.useAssertion(CLIENT, "valid", new Date(System.currentTimeMillis() + HOUR));
+        this.store.useAssertion(CLIENT, "expired", new Date(System.currentTimeMillis() - HOUR));
+        DocumentReference validReference = this.store.getAssertionDocumentReference(CLIENT, "valid");
+        DocumentReference expiredReference = this.store.getAssertionDocumentReference(CLIENT, "expired");
+
+        assertFalse(this.store.purgeAssertion(validReference));
+        assertTrue(this.store.purgeAssertion(expiredReference));
+        assertFalse(this.oldcore.getSpyXWiki().getDocument(validReference, xcontext).isNew());
+        assertTrue(this.oldcore.getSpyXWiki().getDocument(expiredReference, xcontext).isNew());
+    }
+
+    @Test
+    void purgeAssertionWrittenByAnotherAuthor() throws Exception
+    {
+        XWikiContext xcontext = this.oldcore.getXWikiContext();
+
+        DocumentReference assertionReference = this.store.getAssertionDocumentReference(CLIENT, "planted");
+        XWikiDocument document = this.oldcore.getSpyXWiki().getDocument(assertionReference, xcontext);
+        document.newXObject(OIDCGrantStore.ASSERTION_REFERENCE, xcontext)
+            .setDateValue(OIDCToken.FIELD_EXPIRATIONDATE, new Date(System.currentTimeMillis() - HOUR));
+        document.setContentAuthorReference(
+            new DocumentReference(xcontext.getWikiId(), XWiki.SYSTEM_SPACE, "Attacker"));
+        this.oldcore.getSpyXWiki().saveDocument(document, xcontext);
+
+        assertFalse(this.store.purgeAssertion(assertionReference));
+        assertFalse(this.oldcore.getSpyXWiki().getDocument(assertionReference, xcontext).isNew());
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.store;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import javax.inject.Named;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.contrib.oidc.provider.internal.OIDCProviderConfiguration;
+import org.xwiki.contrib.oidc.provider.internal.util.StoreUtils;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+import org.xwiki.wiki.descriptor.WikiDescriptorManager;
+
+import com.nimbusds.oauth2.sdk.id.ClientID;
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.MandatoryDocumentInitializer;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.test.MockitoOldcore;
+import com.xpn.xwiki.test.junit5.mockito.InjectMockitoOldcore;
+import com.xpn.xwiki.test.junit5.mockito.OldcoreTest;
+import com.xpn.xwiki.test.reference.ReferenceComponentList;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate {@link OIDCGrantSweeper}.
+ * 
+ * @version $Id$
+ */
+@OldcoreTest
+@ReferenceComponentList
+class OIDCGrantSweeperTest
+{
+    private static final long HOUR = 3600000;
+
+    @MockComponent
+    OIDCGrantStore grantStore;
+
+    @MockComponent
+    OIDCAtomicUpdater atomicUpdater;
+
+    @MockComponent
+    OIDCProviderConfiguration configuration;
+
+    @MockComponent
+    QueryManager queryManager;
+
+    @MockComponent
+    WikiDescriptorManager wikis;
+
+    @MockComponent
+    @Named("XWiki.XWikiRights")
+    MandatoryDocumentInitializer rightsInitializer;
+
+    @InjectMockComponents
+    OIDCConsentClassDocumentInitializer consentClassInitializer;
+
+    @InjectMockComponents
+    OIDCGrantSweeper sweeper;
+
+    @InjectMockitoOldcore
+    MockitoOldcore oldcore;
+
+    private Query grantsQuery;
+
+    private Query legacyQuery;
+
+    private Query assertionsQuery;
+
+    private String wiki;
+
+    @BeforeEach
+    void beforeEach() throws Exception
+    {
+        XWikiContext xcontext = this.oldcore.getXWikiContext();
+        XWiki xwiki = this.oldcore.getSpyXWiki();
+
+        this.wiki = xcontext.getWikiId();
+        when(this.wikis.getAllIds()).thenReturn(Arrays.asList(this.wiki));
+
+        when(this.configuration.getGrantSweeperInterval()).thenReturn(3600);
+        when(this.configuration.getGrantSweeperBatchSize()).thenReturn(2);
+        when(this.configuration.getAccessTokenLifespan()).thenReturn(3600);
+
+        when(this.atomicUpdater.create(any(), any(), any(), any(), any()))
+            .thenAnswer(invocation -> createDocument(invocation.getArgument(0), invocation.getArgument(1),
+                invocation.getArgument(2), invocation.getArgument(3)));
+
+        this.grantsQuery = mockQuery("DateProperty");
+        this.legacyQuery = mockQuery("StringProperty");
+        when(this.legacyQuery.execute()).thenReturn(Collections.emptyList());
+        this.assertionsQuery = mockQuery(":assertionClass");
+        when(this.assertionsQuery.execute()).thenReturn(Collections.emptyList());
+
+        XWikiDocument classDocument =
+            xwiki.getDocument(new DocumentReference(OIDCConsent.REFERENCE, xcontext.getWikiReference()), xcontext);
+        this.consentClassInitializer.updateDocument(classDocument);
+        xwiki.saveDocument(classDocument, xcontext);
+    }
+
+    private Query mockQuery(String statementPart) throws Exception
+    {
+        Query query = mock(Query.class);
+        when(query.bindValue(anyString(), any())).thenReturn(query);
+        when(query.setWiki(anyString())).thenReturn(query);
+        when(query.setLimit(anyInt())).thenReturn(query);
+        when(this.queryManager.createQuery(contains(statementPart), eq(Query.HQL))).thenReturn(query);
+
+        return query;
+    }
+
+    private XWikiDocument createDocument(DocumentReference documentReference, LocalDocumentReference classReference,
+        String field, String value) throws Exception
+    {
+        XWikiContext xcontext = this.oldcore.getXWikiContext();
+
+        XWikiDocument document = new XWikiDocument(documentReference);
+        document.newXObject(classReference, xcontext).setStringValue(field, value);
+        StoreUtils.setStoreAuthor(document, xcontext);
+        this.oldcore.getSpyXWiki().saveDocument(document, xcontext);
+
+        return this.oldcore.getSpyXWiki().getDocument(documentReference, xcontext);
+    }
+
+    private OIDCConsent createLegacyConsent(String user, long date) throws Exception
+    {
+        XWikiContext xcontext = this.oldcore.getXWikiContext();
+
+        XWikiDocument userDocument = this.oldcore.getSpyXWiki()
+            .getDocument(new DocumentReference(this.wiki, XWiki.SYSTEM_SPACE, user), xcontext);
+        OIDCConsent consent = new OIDCConsent(userDocument.newXObject(OIDCConsent.REFERENCE, xcontext));
+        consent.setClientID(new ClientID("client"));
+        consent.setRedirectURI(new URI("http://client/callback"));
+        consent.setAccessToken("random", xcontext);
+        userDocument.setDate(new Date(date));
+        this.oldcore.getSpyXWiki().saveDocument(userDocument, xcontext);
+
+        return consent;
+    }
+
+    private OIDCConsent getConsent(String user) throws Exception
+    {
+        XWikiContext xcontext = this.oldcore.getXWikiContext();
+
+        return new OIDCConsent(this.oldcore.getSpyXWiki()
+            .getDocument(new DocumentReference(this.wiki, XWiki.SYSTEM_SPACE, user), xcontext)
+            .getXObject(OIDCConsent.REFERENCE));
+    }
+
+    @Test
+    void sweepInBatches() throws Exception
+    {
+        when(this.grantsQuery.execute()).thenReturn(
+            Arrays.<Object>asList(new Object[] {1L, "Grants.A"}, new Object[] {2L, "Grants.B"}),
+            Arrays.<Object>asList(new Object[] {3L, "Grants.C"}));
+
+        this.sweeper.sweep();
+
+        // Only the grant documents are searched
+        verify(this.grantsQuery).bindValue("space", "XWiki.OIDC.Grants.%");
+
+        verify(this.grantStore).purge(new DocumentReference(this.wiki, "Grants", "A"));
+        verify(this.grantStore).purge(new DocumentReference(this.wiki, "Grants", "B"));
+        verify(this.grantStore).purge(new DocumentReference(this.wiki, "Grants", "C"));
+
+        // The next batch starts after the last handled document, whether it was purged or not
+        verify(this.grantsQuery).bindValue("lastId", Long.MIN_VALUE);
+        verify(this.grantsQuery).bindValue("lastId", 2L);
+    }
+
+    @Test
+    void sweepExpiredAssertions() throws Exception
+    {
+        when(this.wikis.getMainWikiId()).thenReturn(this.wiki);
+        when(this.grantsQuery.execute()).thenReturn(Collections.emptyList());
+        when(this.assertionsQuery.execute())
+            .thenReturn(Arrays.<Object>asList(new Object[] {1L, "XWiki.OIDC.Assertions.Client.Assertion"}));
+
+        this.sweeper.sweep();
+
+        // Only the assertion documents are searched
+        verify(this.assertionsQuery).bindValue("space", "XWiki.OIDC.Assertions.%");
+        verify(this.grantStore).purgeAssertion(
+            new DocumentReference(this.wiki, Arrays.asList("XWiki", "OIDC", "Assertions", "Client"), "Assertion"));
+        verify(this.grantStore, never()).purge(any());
+    }
+
+    @Test
+    void sweepExpiredLegacyTokens() throws Exception
+    {
+        when(this.configuration.isGrantSweeperLegacyMigration()).thenReturn(true);
+        when(this.grantsQuery.execute()).thenReturn(Collections.emptyList());
+
+        createLegacyConsent("Old", System.currentTimeMillis() - 2 * HOUR);
+        createLegacyConsent("Recent", System.currentTimeMillis());
+        when(this.legacyQuery.execute()).thenReturn(Arrays.<Object>asList(new Object[] {1L, "XWiki.Old"},
+            new Object[] {2L, "XWiki.Recent"}), Collections.emptyList());
+
+        this.sweeper.sweep();
+
+        assertNull(getConsent("Old").getAccessToken());
+        // Modified since the search
+        assertNotNull(getConsent("Recent").getAccessToken());
+    }
+
+    @Test
+    void sweepWithoutLegacyMigration() throws Exception
+    {
+        when(this.grantsQuery.execute()).thenReturn(Collections.emptyList());
+
+        createLegacyConsent("Old", System.currentTimeMillis() - 2 * HOUR);
+
+        this.sweeper.sweep();
+
+        // The user profiles are only saved again when the migration is explicitly enabled
+        verify(this.legacyQuery, never()).execute();
+        assertNotNull(getConsent("Old").getAccessToken());
+    }
+
+    @Test
+    void sweepIfLeased() throws Exception
+    {
+        when(this.grantsQuery.execute()).thenReturn(Collections.emptyList());
+
+        when(this.atomicUpdater.getStringValue(any(), eq(OIDCGrantSweeper.FIELD_LEASE))).thenReturn("0");
+        when(this.atomicUpdater.compareAndSet(any(), eq(OIDCGrantSweeper.FIELD_LEASE), eq("0"), anyString()))
+            .thenReturn(true);
+
+        assertTrue(this.sweeper.sweepIfLeased());
+        verify(this.grantsQuery).execute();
+    }
+
+    @Test
+    void sweepIfLeasedByAnotherMember() throws Exception
+    {
+        String lease = String.valueOf(System.currentTimeMillis() + HOUR);
+        when(this.atomicUpdater.getStringValue(any(), eq(OIDCGrantSweeper.FIELD_LEASE))).thenReturn(lease);
+
+        assertFalse(this.sweeper.sweepIfLeased());
+        verify(this.atomicUpdater, never()).compareAndSet(any(), any(), any(), any());
+        verify(this.grantsQuery, never()).execute();
+    }
+
+    @Test
+    void sweepIfLeaseTakenConcurrently() throws Exception
+    {
+        when(this.atomicUpdater.getStringValue(any(), eq(OIDCGrantSweeper.FIELD_LEASE))).thenReturn("0");
+
+        assertFalse(this.sweeper.sweepIfLeased());
+        verify(this.grantsQuery, never()).execute();
+    }
+
+    @Test
+    void sweepIfLeaseWrittenByAnotherAuthor() throws Exception
+    {
+        XWikiContext xcontext = this.oldcore.getXWikiContext();
+        when(this.grantsQuery.execute()).thenReturn(Collections.emptyList());
+
+        // A lease planted by someone else to disable the purge for good
+        DocumentReference leaseReference = new DocumentReference(xcontext.getMainXWiki(),
+            Arrays.asList(XWiki.SYSTEM_SPACE, "OIDC"), "GrantSweeperLease");
+        XWikiDocument document = this.oldcore.getSpyXWiki().getDocument(leaseReference, xcontext);
+        document.newXObject(OIDCGrantSweeper.LEASE_REFERENCE, xcontext).setStringValue(OIDCGrantSweeper.FIELD_LEASE,
+            String.valueOf(Long.MAX_VALUE));
+        document.setContentAuthorReference(
+            new DocumentReference(xcontext.getWikiId(), XWiki.SYSTEM_SPACE, "Attacker"));
+        this.oldcore.getSpyXWiki().saveDocument(document, xcontext);
+
+        when(this.atomicUpdater.getStringValue(any(), eq(OIDCGrantSweeper.FIELD_LEASE))).thenReturn("0");
+        when(this.atomicUpdater.compareAndSet(any(), eq(OIDCGrantSweeper.FIELD_LEASE), eq("0"), anyString()))
+            .thenReturn(true);
+
+        assertTrue(this.sweeper.sweepIfLeased());
+        verify(this.atomicUpdater).create(eq(leaseReference), eq(OIDCGrantSweeper.LEASE_REFERENCE),
+            eq(OIDCGrantSweeper.FIELD_LEASE), eq("0"), anyString());
+        verify(this.grantsQuery).execute();
+    }
+
+    @Test
+    void sweepIfLeasedForMoreThanOneInterval() throws Exception
+    {
+        when(this.grantsQuery.execute()).thenReturn(Collections.emptyList());
+
+        String lease = String.valueOf(System.currentTimeMillis() + 10 * HOUR);
+        when(this.atomicUpdater.getStringValue(any(), eq(OIDCGrantSweeper.FIELD_LEASE))).thenReturn(lease);
+        when(this.atomicUpdater.compareAndSet(any(), eq(OIDCGrantSweeper.FIELD_LEASE), eq(lease), anyString()))
+            .thenReturn(true);
+
+        assertTrue(this.sweeper.sweepIfLeased());
+        verify(this.grantsQuery).execute();
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.store;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+
+import javax.inject.Named;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.test.annotation.ComponentList;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.MandatoryDocumentInitializer;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.test.MockitoOldcore;
+import com.xpn.xwiki.test.junit5.mockito.InjectMockitoOldcore;
+import com.xpn.xwiki.test.junit5.mockito.OldcoreTest;
+import com.xpn.xwiki.test.reference.ReferenceComponentList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Validate {@link OIDCRevocationStore} and {@link OIDCRevocationStoreListener}.
+ * 
+ * @version $Id$
+ */
+@OldcoreTest
+@ComponentList({OIDCRevocationStore.class, OIDCRevocationStoreListener.class})
+@ReferenceComponentList
+class OIDCRevocationStoreTest
+{
+    private static final long FUTURE = System.currentTimeMillis() + 3600000;
+
+    private static final long PAST = System.currentTimeMillis() - 3600000;
+
+    @MockComponent
+    JWTAccessTokenManager tokenManager;
+
+    @MockComponent
+    @Named("XWiki.XWikiRights")
+    MandatoryDocumentInitializer rightsInitializer;
+
+    @InjectMockitoOldcore
+    MockitoOldcore oldcore;
+
+    private OIDCRevocationStore store;
+
+    private DocumentReference documentReference;
+
+    @BeforeEach
+    void beforeEach() throws Exception
+    {
+        this.store = this.oldcore.getMocker().getInstance(OIDCRevocationStore.class);
+
+        this.documentReference = new DocumentReference(this.oldcore.getXWikiContext().getMainXWiki(),
+            Arrays.asList(XWiki.SYSTEM_SPACE, "OIDC"), "Revocations");
+    }
+
+    private XWikiDocument getDocument() throws Exception
+    {
+        XWikiContext xcontext = this.oldcore.getXWikiContext();
+
+        return this.oldcore.getSpyXWiki().getDocument(this.documentReference, xcontext);
+    }
+
+    private void addStoredRevocation(String type, String value, long date) throws Exception
+    {
+        XWikiContext xcontext = this.oldcore.getXWikiContext();
+
+        // Simulate a revocation saved by another member of the cluster
+        XWikiDocument document = getDocument();
+        BaseObject revocation = document.newXObject(OIDCRevocationStore.REFERENCE, xcontext);
+        revocation.setStringValue(OIDCRevocationStore.FIELD_TYPE, type);
+        revocation.setStringValue(OIDCRevocationStore.FIELD_VALUE, value);
+        revocation.setDateValue(OIDCRevocationStore.FIELD_DATE, new Date(date));
+        this.oldcore.getSpyXWiki().saveDocument(document, xcontext);
+    }
+
+    @Test
+    void addKeepsOtherRevocations() throws Exception
+    {
+        addStoredRevocation(OIDCRevocationStore.TYPE_TOKEN, "remote", FUTURE);
+        addStoredRevocation(OIDCRevocationStore.TYPE_CONSENT, "consent", PAST);
+
+        this.store.add(OIDCRevocationStore.TYPE_TOKEN, "local", FUTURE, (type, date) -> false);
+
+        Map<String, Long> tokens = this.store.load(OIDCRevocationStore.TYPE_TOKEN);
+        assertEquals(2, tokens.size());
+        assertEquals(FUTURE, tokens.get("remote").longValue());
+        assertEquals(FUTURE, tokens.get("local").longValue());
+        assertEquals(Collections.singletonMap("consent", PAST), this.store.load(OIDCRevocationStore.TYPE_CONSENT));
+    }
+
+    @Test
+    void addPurgesObsoleteRevocations() throws Exception
+    {
+        addStoredRevocation(OIDCRevocationStore.TYPE_TOKEN, "expired", PAST);
+        addStoredRevocation(OIDCRevocationStore.TYPE_TOKEN, "valid", FUTURE);
+
+        this.store.add(OIDCRevocationStore.TYPE_TOKEN, "local", FUTURE,
+            (type, date) -> date <= System.currentTimeMillis());
+
+        Map<String, Long> tokens = this.store.load(OIDCRevocationStore.TYPE_TOKEN);
+        assertEquals(2, tokens.size());
+        assertFalse(tokens.containsKey("expired"));
+        assertTrue(tokens.containsKey("valid"));
+        assertTrue(tokens.containsKey("local"));
+    }
+
+    @Test
+    void addKeepsLatestDate() throws Exception
+    {
+        this.store.add(OIDCRevocationStore.TYPE_CONSENT, "consent", FUTURE, (type, date) -> false);
+        this.store.add(OIDCRevocationStore.TYPE_CONSENT, "consent", PAST, (type, date) -> false);
+
+        assertEquals(Collections.singletonMap("consent", FUTURE), this.store.load(OIDCRevocationStore.TYPE_CONSENT));
+        assertEquals(1, getDocument().getXObjects(OIDCRevocationStore.REFERENCE).size());
+    }
+
+    @Test
+    void mergeRemoteRevocations() throws Exception
+    {
+        addStoredRevocation(OIDCRevocationStore.TYPE_TOKEN, "remote", FUTURE);
+        addStoredRevocation(OIDCRevocationStore.TYPE_CONSENT, "consent", PAST);
+
+        XWikiDocument document = getDocument();
+        assertTrue(this.store.isRevocationsDocument(document));
+
+        EventListener listener =
+            this.oldcore.getMocker().getInstance(EventListener.class, OIDCRevocationStoreListener.NAME);
+        listener.onEvent(new DocumentUpdatedEvent(), document, null);
+
+        verify(this.tokenManager).merge(Collections.singletonMap("remote", FUTURE),
+            Collections.singletonMap("consent", PAST));
+    }
+}
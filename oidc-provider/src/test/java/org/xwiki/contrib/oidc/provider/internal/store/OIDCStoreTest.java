@@ -0,0 +1,397 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.store;
+
+import java.net.URI;
+import java.util.Date;
+
+import javax.inject.Named;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.contrib.oidc.provider.internal.OIDCProviderConfiguration;
+import org.xwiki.contrib.oidc.provider.internal.util.StoreUtils;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.test.annotation.ComponentList;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.nimbusds.oauth2.sdk.id.ClientID;
+import com.nimbusds.oauth2.sdk.token.RefreshToken;
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.MandatoryDocumentInitializer;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.test.MockitoOldcore;
+import com.xpn.xwiki.test.junit5.mockito.InjectMockitoOldcore;
+import com.xpn.xwiki.test.junit5.mockito.OldcoreTest;
+import com.xpn.xwiki.test.reference.ReferenceComponentList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate {@link OIDCStore}.
+ * 
+ * @version $Id$
+ */
+@OldcoreTest
+@ComponentList(OIDCGrantStore.class)
+@ReferenceComponentList
+class OIDCStoreTest
+{
+    private static final ClientID CLIENT = new ClientID("client");
+
+    private static final ClientID OTHER_CLIENT = new ClientID("other");
+
+    @MockComponent
+    OIDCProviderConfiguration configuration;
+
+    @MockComponent
+    OIDCTokenCache tokenCache;
+
+    @MockComponent
+    OIDCClientRegistry clientRegistry;
+
+    @MockComponent
+    JWTAccessTokenManager jwtManager;
+
+    @MockComponent
+    OIDCAtomicUpdater atomicUpdater;
+
+    @MockComponent
+    @Named("XWiki.XWikiRights")
+    MandatoryDocumentInitializer rightsInitializer;
+
+    @InjectMockComponents
+    OIDCTokenClassDocumentInitializer tokenClassInitializer;
+
+    @InjectMockComponents
+    OIDCConsentClassDocumentInitializer consentClassInitializer;
+
+    @InjectMockComponents
+    OIDCStore store;
+
+    @InjectMockitoOldcore
+    MockitoOldcore oldcore;
+
+    private OIDCGrantStore grantStore;
+
+    private EntityReferenceSerializer<String> serializer;
+
+    private DocumentReference adminReference;
+
+    private DocumentReference attackerReference;
+
+    private OIDCConsent adminConsent;
+
+    @BeforeEach
+    void beforeEach() throws Exception
+    {
+        this.grantStore = this.oldcore.getMocker().getInstance(OIDCGrantStore.class);
+        this.serializer = this.oldcore.getMocker().getInstance(EntityReferenceSerializer.TYPE_STRING);
+
+        when(this.configuration.getAccessTokenMaxPerConsent()).thenReturn(10);
+        when(this.clientRegistry.getRefreshTokenLifespan(any())).thenReturn(3600);
+        when(this.clientRegistry.getAccessTokenLifespan(any())).thenReturn(3600);
+        // Behave like a database where nobody else redeemed the token
+        when(this.atomicUpdater.compareAndSet(any(), any(), any(), any())).thenReturn(true);
+        when(this.atomicUpdater.create(any(), any(), any(), any(), any()))
+            .thenAnswer(invocation -> createDocument(invocation.getArgument(0), invocation.getArgument(1),
+                invocation.getArgument(2), invocation.getArgument(3)));
+
+        XWikiContext xcontext = this.oldcore.getXWikiContext();
+        XWiki xwiki = this.oldcore.getSpyXWiki();
+
+        XWikiDocument classDocument =
+            xwiki.getDocument(new DocumentReference(OIDCToken.REFERENCE, xcontext.getWikiReference()), xcontext);
+        this.tokenClassInitializer.updateDocument(classDocument);
+        xwiki.saveDocument(classDocument, xcontext);
+
+        classDocument =
+            xwiki.getDocument(new DocumentReference(OIDCConsent.REFERENCE, xcontext.getWikiReference()), xcontext);
+        this.consentClassInitializer.updateDocument(classDocument);
+        xwiki.saveDocument(classDocument, xcontext);
+
+        this.adminReference = new DocumentReference(xcontext.getWikiId(), XWiki.SYSTEM_SPACE, "Admin");
+        this.adminConsent = createConsent(this.adminReference, CLIENT);
+        this.attackerReference = new DocumentReference(xcontext.getWikiId(), XWiki.SYSTEM_SPACE, "Attacker");
+    }
+
+    private OIDCConsent createConsent(DocumentReference userReference, ClientID clientID) throws Exception
+    {
+        XWikiContext xcontext = this.oldcore.getXWikiContext();
+
+        XWikiDocument userDocument = this.oldcore.getSpyXWiki().getDocument(userReference, xcontext);
+        OIDCConsent consent = new OIDCConsent(userDocument.newXObject(OIDCConsent.REFERENCE, xcontext));
+        consent.setClientID(clientID);
+        consent.setRedirectURI(new URI("http://client/callback"));
+        consent.setAllowed(true);
+        this.oldcore.getSpyXWiki().saveDocument(userDocument, xcontext);
+
+        return consent;
+    }
+
+    private XWikiDocument createDocument(DocumentReference documentReference, LocalDocumentReference classReference,
+        String field, String value) throws Exception
+    {
+        XWikiContext xcontext = this.oldcore.getXWikiContext();
+
+        // Like the database, nothing is kept from a document which was not created by a store
+        XWikiDocument document = new XWikiDocument(documentReference);
+        document.newXObject(classReference, xcontext).setStringValue(field, value);
+        StoreUtils.setStoreAuthor(document, xcontext);
+        this.oldcore.getSpyXWiki().saveDocument(document, xcontext);
+
+        return this.oldcore.getSpyXWiki().getDocument(documentReference, xcontext);
+    }
+
+    private OIDCToken addToken(DocumentReference documentReference, OIDCConsent consent, ClientID clientID,
+        String random) throws Exception
+    {
+        XWikiContext xcontext = this.oldcore.getXWikiContext();
+
+        XWikiDocument document = this.oldcore.getSpyXWiki().getDocument(documentReference, xcontext);
+        OIDCToken token = new OIDCToken(document.newXObject(OIDCToken.REFERENCE, xcontext));
+        document.setContentAuthorReference(this.attackerReference);
+        token.setConsent(this.serializer.serialize(consent.getReference()));
+        token.setClientID(clientID);
+        token.setToken(random, xcontext);
+        token.setExpirationDate(new Date(System.currentTimeMillis() + 60000));
+        this.oldcore.getSpyXWiki().saveDocument(document, xcontext);
+
+        return token;
+    }
+
+    private OIDCRefreshToken addRefreshToken(DocumentReference documentReference, OIDCConsent consent,
+        ClientID clientID, String random) throws Exception
+    {
+        XWikiContext xcontext = this.oldcore.getXWikiContext();
+
+        XWikiDocument document = this.oldcore.getSpyXWiki().getDocument(documentReference, xcontext);
+        OIDCRefreshToken token = new OIDCRefreshToken(document.newXObject(OIDCRefreshToken.REFERENCE, xcontext));
+        document.setContentAuthorReference(this.attackerReference);
+        token.setConsent(this.serializer.serialize(consent.getReference()));
+        token.setClientID(clientID);
+        token.setToken(random);
+        token.setExpirationDate(new Date(System.currentTimeMillis() + 60000));
+        this.oldcore.getSpyXWiki().saveDocument(document, xcontext);
+
+        return token;
+    }
+
+    private RefreshToken toRefreshToken(OIDCRefreshToken token, String random)
+    {
+        return new XWikiRefreshToken(this.serializer.serialize(token.getReference()), random).toRefreshToken();
+    }
+
+    private OIDCValidatedToken validate(OIDCToken token, String random) throws Exception
+    {
+        return this.store
+            .getValidatedToken(new XWikiBearerAccessToken(this.serializer.serialize(token.getReference()), random));
+    }
+
+    @Test
+    void getValidatedToken() throws Exception
+    {
+        OIDCToken token = this.grantStore.storeAccessToken(this.adminConsent, "random",
+            new Date(System.currentTimeMillis() + 60000));
+
+        OIDCValidatedToken validatedToken = validate(token, "random");
+
+        assertNotNull(validatedToken);
+        assertEquals(this.adminReference, validatedToken.getUserReference());
+        assertEquals(CLIENT, validatedToken.getClientID());
+
+        assertNull(validate(token, "wrong"));
+    }
+
+    @Test
+    void getValidatedTokenOutsideGrantDocument() throws Exception
+    {
+        // Anyone able to edit a page can add a token object pointing to someone else's consent
+        DocumentReference pageReference =
+            new DocumentReference(this.oldcore.getXWikiContext().getWikiId(), "Main", "Page");
+        OIDCToken token = addToken(pageReference, this.adminConsent, CLIENT, "forged");
+
+        assertNull(validate(token, "forged"));
+    }
+
+    @Test
+    void getValidatedTokenWrittenByAnotherAuthor() throws Exception
+    {
+        // Anyone able to create a page can compute the location of the grant document
+        DocumentReference grantReference = this.grantStore.getGrantDocumentReference(this.adminReference, CLIENT);
+        OIDCToken token = addToken(grantReference, this.adminConsent, CLIENT, "forged");
+
+        assertNull(validate(token, "forged"));
+
+        // The grant store does not endorse the forged token when it updates the document
+        this.grantStore.storeAccessToken(this.adminConsent, "random", new Date(System.currentTimeMillis() + 60000));
+
+        assertNull(validate(token, "forged"));
+    }
+
+    @Test
+    void getValidatedTokenForAnotherClient() throws Exception
+    {
+        DocumentReference grantReference = this.grantStore.getGrantDocumentReference(this.adminReference, CLIENT);
+        OIDCToken token = addToken(grantReference, this.adminConsent, OTHER_CLIENT, "random");
+
+        assertNull(validate(token, "random"));
+    }
+
+    @Test
+    void getValidatedTokenPointingToAnotherConsent() throws Exception
+    {
+        // A token stored in the grant document of a client cannot be used with the consent of another client
+        OIDCConsent otherConsent = createConsent(this.adminReference, OTHER_CLIENT);
+        DocumentReference grantReference = this.grantStore.getGrantDocumentReference(this.adminReference, CLIENT);
+        OIDCToken token = addToken(grantReference, otherConsent, OTHER_CLIENT, "random");
+
+        assertNull(validate(token, "random"));
+    }
+
+    @Test
+    void refresh() throws Exception
+    {
+        RefreshToken refreshToken = this.store.createRefreshToken(this.adminConsent);
+
+        Pair<OIDCConsent, RefreshToken> result = this.store.refresh(refreshToken, CLIENT);
+
+        assertNotNull(result);
+        assertEquals(this.adminConsent.getReference(), result.getLeft().getReference());
+        assertNotEquals(refreshToken, result.getRight());
+
+        // The rotated token can be redeemed once
+        assertNotNull(this.store.refresh(result.getRight(), CLIENT));
+    }
+
+    @Test
+    void refreshWithAnotherClient() throws Exception
+    {
+        RefreshToken refreshToken = this.store.createRefreshToken(this.adminConsent);
+
+        assertNull(this.store.refresh(refreshToken, OTHER_CLIENT));
+        assertNotNull(this.store.refresh(refreshToken, CLIENT));
+    }
+
+    @Test
+    void refreshReplay() throws Exception
+    {
+        RefreshToken refreshToken = this.store.createRefreshToken(this.adminConsent);
+        RefreshToken rotatedToken = this.store.refresh(refreshToken, CLIENT).getRight();
+
+        // Redeeming a token twice means it leaked: the whole grant is revoked
+        assertNull(this.store.refresh(refreshToken, CLIENT));
+        verify(this.jwtManager).revokeConsent(this.adminConsent.getReference());
+        assertNull(this.store.refresh(rotatedToken, CLIENT));
+    }
+
+    @Test
+    void refreshRedeemedConcurrently() throws Exception
+    {
+        RefreshToken refreshToken = this.store.createRefreshToken(this.adminConsent);
+
+        // Another member of the cluster rotated the token first
+        XWikiContext xcontext = this.oldcore.getXWikiContext();
+        DocumentReference grantReference = this.grantStore.getGrantDocumentReference(this.adminReference, CLIENT);
+        XWikiDocument storedDocument = this.oldcore.getSpyXWiki().getDocument(grantReference, xcontext).clone();
+        new OIDCRefreshToken(storedDocument.getXObject(OIDCRefreshToken.REFERENCE)).rotate("other");
+        when(this.atomicUpdater.compareAndSet(any(), eq(OIDCGrantStore.FIELD_REVISION), any(), any()))
+            .thenReturn(false, true);
+        when(this.atomicUpdater.loadDocument(grantReference)).thenReturn(storedDocument);
+
+        assertNull(this.store.refresh(refreshToken, CLIENT));
+    }
+
+    @Test
+    void refreshOutsideGrantDocument() throws Exception
+    {
+        DocumentReference pageReference =
+            new DocumentReference(this.oldcore.getXWikiContext().getWikiId(), "Main", "Page");
+        OIDCRefreshToken token = addRefreshToken(pageReference, this.adminConsent, CLIENT, "forged");
+
+        assertNull(this.store.refresh(toRefreshToken(token, "forged"), CLIENT));
+        // A forged token cannot be used to revoke someone else's grant either
+        assertNull(this.store.refresh(toRefreshToken(token, "reused"), CLIENT));
+        verify(this.jwtManager, never()).revokeConsent(any());
+    }
+
+    @Test
+    void refreshWrittenByAnotherAuthor() throws Exception
+    {
+        DocumentReference grantReference = this.grantStore.getGrantDocumentReference(this.adminReference, CLIENT);
+        OIDCRefreshToken token = addRefreshToken(grantReference, this.adminConsent, CLIENT, "forged");
+
+        assertNull(this.store.refresh(toRefreshToken(token, "forged"), CLIENT));
+    }
+
+    @Test
+    void refreshPointingToAnotherConsent() throws Exception
+    {
+        OIDCConsent otherConsent = createConsent(this.adminReference, OTHER_CLIENT);
+        DocumentReference grantReference = this.grantStore.getGrantDocumentReference(this.adminReference, CLIENT);
+        OIDCRefreshToken token = addRefreshToken(grantReference, otherConsent, OTHER_CLIENT, "forged");
+
+        assertNull(this.store.refresh(toRefreshToken(token, "forged"), OTHER_CLIENT));
+    }
+
+    private XWikiBearerAccessToken addLegacyToken(String user, long date) throws Exception
+    {
+        XWikiContext xcontext = this.oldcore.getXWikiContext();
+
+        OIDCConsent consent = createConsent(new DocumentReference(xcontext.getWikiId(), "XWiki", user), CLIENT);
+        XWikiDocument userDocument = consent.getOwnerDocument();
+        consent.setAccessToken("random", xcontext);
+        userDocument.setDate(new Date(date));
+        this.oldcore.getSpyXWiki().saveDocument(userDocument, xcontext);
+
+        return new XWikiBearerAccessToken(this.serializer.serialize(consent.getReference()), "random");
+    }
+
+    @Test
+    void getValidatedLegacyToken() throws Exception
+    {
+        OIDCValidatedToken validatedToken =
+            this.store.getValidatedToken(addLegacyToken("User", System.currentTimeMillis()));
+
+        assertNotNull(validatedToken);
+        assertNotNull(validatedToken.getExpirationTime());
+    }
+
+    @Test
+    void getValidatedExpiredLegacyToken() throws Exception
+    {
+        // Tokens stored in the consents before 1.34.4 expire like the others
+        assertNull(this.store.getValidatedToken(addLegacyToken("User", System.currentTimeMillis() - 7200000)));
+    }
+}
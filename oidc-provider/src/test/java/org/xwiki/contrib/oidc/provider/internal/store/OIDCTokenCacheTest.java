@@ -0,0 +1,197 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.store;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.contrib.oidc.provider.internal.OIDCProviderConfiguration;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.ObjectReference;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate {@link OIDCTokenCache}.
+ * 
+ * @version $Id$
+ */
+@ComponentTest
+class OIDCTokenCacheTest
+{
+    private static final DocumentReference USER = new DocumentReference("wiki", "XWiki", "User");
+
+    private static final DocumentReference GRANT = new DocumentReference("wiki", "XWiki.OIDC.Grants", "Grant");
+
+    @MockComponent
+    CacheManager cacheManager;
+
+    @MockComponent
+    OIDCProviderConfiguration configuration;
+
+    @InjectMockComponents
+    OIDCTokenCache cache;
+
+    @BeforeComponent
+    void beforeComponent() throws Exception
+    {
+        when(this.cacheManager.createNewLocalCache(any())).then(invocation -> createCache());
+    }
+
+    private <T> Cache<T> createCache()
+    {
+        Map<String, T> entries = new ConcurrentHashMap<>();
+        Cache<T> cache = mock(Cache.class);
+        when(cache.get(any())).then(invocation -> entries.get(invocation.<String>getArgument(0)));
+        doAnswer(invocation -> entries.put(invocation.getArgument(0), invocation.getArgument(1))).when(cache)
+            .set(any(), any());
+        doAnswer(invocation -> entries.remove(invocation.<String>getArgument(0))).when(cache).remove(any());
+        doAnswer(invocation -> {
+            entries.clear();
+            return null;
+        }).when(cache).removeAll();
+
+        return cache;
+    }
+
+    private OIDCValidatedToken validatedToken()
+    {
+        OIDCValidatedToken token = mock(OIDCValidatedToken.class);
+        when(token.getConsentReference()).thenReturn(new ObjectReference("XWiki.OIDC.ConsentClass[0]", USER));
+        when(token.getTokenReference()).thenReturn(new ObjectReference("XWiki.OIDC.AccessTokenClass[0]", GRANT));
+
+        return token;
+    }
+
+    @Test
+    void get()
+    {
+        OIDCValidatedToken token = validatedToken();
+
+        assertNull(this.cache.get("token"));
+
+        this.cache.set("token", token, this.cache.getGeneration());
+
+        assertSame(token, this.cache.get("token"));
+        assertNull(this.cache.get("other"));
+        assertEquals(1, this.cache.getHitCount());
+        assertEquals(2, this.cache.getMissCount());
+    }
+
+    @Test
+    void invalidateConsentDocument()
+    {
+        this.cache.set("token", validatedToken(), this.cache.getGeneration());
+
+        this.cache.invalidate(USER);
+
+        assertNull(this.cache.get("token"));
+    }
+
+    @Test
+    void invalidateTokenDocument()
+    {
+        this.cache.set("token", validatedToken(), this.cache.getGeneration());
+
+        this.cache.invalidate(GRANT);
+
+        assertNull(this.cache.get("token"));
+    }
+
+    @Test
+    void invalidateAnotherDocument()
+    {
+        OIDCValidatedToken token = validatedToken();
+        this.cache.set("token", token, this.cache.getGeneration());
+
+        this.cache.invalidate(new DocumentReference("wiki", "XWiki", "Other"));
+
+        assertSame(token, this.cache.get("token"));
+    }
+
+    @Test
+    void setAfterInvalidationDuringValidation()
+    {
+        long generation = this.cache.getGeneration();
+
+        // The grant document is modified while the token is validated against its previous version
+        this.cache.invalidate(GRANT);
+
+        this.cache.set("token", validatedToken(), generation);
+
+        assertNull(this.cache.get("token"));
+    }
+
+    @Test
+    void setAfterUnrelatedInvalidationDuringValidation()
+    {
+        OIDCValidatedToken token = validatedToken();
+        long generation = this.cache.getGeneration();
+
+        this.cache.invalidate(new DocumentReference("wiki", "XWiki", "Other"));
+
+        this.cache.set("token", token, generation);
+
+        assertSame(token, this.cache.get("token"));
+    }
+
+    @Test
+    void reject()
+    {
+        assertFalse(this.cache.isRejected("token"));
+
+        this.cache.reject("token");
+
+        assertTrue(this.cache.isRejected("token"));
+        assertFalse(this.cache.isRejected("other"));
+    }
+
+    @Test
+    void invalidateAll()
+    {
+        this.cache.set("token", validatedToken(), this.cache.getGeneration());
+        this.cache.reject("rejected");
+
+        long generation = this.cache.getGeneration();
+        this.cache.invalidateAll();
+
+        assertNull(this.cache.get("token"));
+        assertFalse(this.cache.isRejected("rejected"));
+
+        this.cache.set("token", validatedToken(), generation);
+
+        assertNull(this.cache.get("token"));
+    }
+}
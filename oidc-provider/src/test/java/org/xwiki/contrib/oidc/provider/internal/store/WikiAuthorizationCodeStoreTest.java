@@ -0,0 +1,236 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.store;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import javax.inject.Named;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.contrib.oidc.provider.internal.util.StoreUtils;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.nimbusds.oauth2.sdk.AuthorizationCode;
+import com.nimbusds.openid.connect.sdk.Nonce;
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.MandatoryDocumentInitializer;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.test.MockitoOldcore;
+import com.xpn.xwiki.test.junit5.mockito.InjectMockitoOldcore;
+import com.xpn.xwiki.test.junit5.mockito.OldcoreTest;
+import com.xpn.xwiki.test.reference.ReferenceComponentList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate {@link WikiAuthorizationCodeStore}.
+ *
+ * @version $Id$
+ */
+@OldcoreTest
+@ReferenceComponentList
+class WikiAuthorizationCodeStoreTest
+{
+    private static final long HOUR = 3600000;
+
+    @MockComponent
+    OIDCAtomicUpdater atomicUpdater;
+
+    @MockComponent
+    QueryManager queryManager;
+
+    @MockComponent
+    @Named("XWiki.XWikiRights")
+    MandatoryDocumentInitializer rightsInitializer;
+
+    @InjectMockComponents
+    OIDCAuthorizationCodeClassDocumentInitializer codeClassInitializer;
+
+    @InjectMockComponents
+    WikiAuthorizationCodeStore store;
+
+    @InjectMockitoOldcore
+    MockitoOldcore oldcore;
+
+    private DocumentReference adminReference;
+
+    private Query query;
+
+    @BeforeEach
+    void beforeEach() throws Exception
+    {
+        // Behave like a database where nobody else redeemed the code
+        when(this.atomicUpdater.compareAndSet(any(), any(), any(), any())).thenReturn(true);
+
+        this.query = mock(Query.class);
+        when(this.query.bindValue(anyString(), any())).thenReturn(this.query);
+        when(this.query.setWiki(anyString())).thenReturn(this.query);
+        when(this.query.execute()).thenReturn(Collections.emptyList());
+        when(this.queryManager.createQuery(anyString(), any())).thenReturn(this.query);
+
+        XWikiContext xcontext = this.oldcore.getXWikiContext();
+        XWiki xwiki = this.oldcore.getSpyXWiki();
+
+        XWikiDocument classDocument = xwiki.getDocument(
+            new DocumentReference(WikiAuthorizationCodeStore.REFERENCE, xcontext.getWikiReference()), xcontext);
+        this.codeClassInitializer.updateDocument(classDocument);
+        xwiki.saveDocument(classDocument, xcontext);
+
+        this.adminReference = new DocumentReference(xcontext.getWikiId(), XWiki.SYSTEM_SPACE, "Admin");
+    }
+
+    @Test
+    void consume() throws Exception
+    {
+        AuthorizationCode code = new AuthorizationCode();
+        this.store.store(code,
+            new AuthorizationSession(this.adminReference, 0, new Nonce("nonce"), System.currentTimeMillis() + HOUR));
+
+        AuthorizationSession session = this.store.consume(code);
+
+        assertNotNull(session);
+        assertEquals(this.adminReference, session.getUserReference());
+        assertEquals(Integer.valueOf(0), session.getConsentNumber());
+        assertEquals(new Nonce("nonce"), session.getNonce());
+
+        // A code cannot be redeemed twice
+        assertNull(this.store.consume(code));
+    }
+
+    @Test
+    void consumeCodeWrittenByAnotherAuthor() throws Exception
+    {
+        // Anyone knowing a code (or choosing one) can compute the location of its document
+        AuthorizationCode code = new AuthorizationCode("forged");
+        plantDocument(code, System.currentTimeMillis() + HOUR);
+
+        assertNull(this.store.get(code));
+        assertNull(this.store.consume(code));
+        verify(this.atomicUpdater, never()).compareAndSet(any(), any(), any(), any());
+    }
+
+    @Test
+    void storeCodeInDocumentWrittenByAnotherAuthor() throws Exception
+    {
+        XWikiContext xcontext = this.oldcore.getXWikiContext();
+        LocalDocumentReference rightsReference = new LocalDocumentReference(XWiki.SYSTEM_SPACE, "XWikiRights");
+
+        AuthorizationCode code = new AuthorizationCode("chosen");
+        XWikiDocument planted = plantDocument(code, System.currentTimeMillis() + HOUR);
+        planted.setContent("{{groovy}}println 'executed'{{/groovy}}");
+        planted.newXObject(rightsReference, xcontext).setLargeStringValue("groups", "XWiki.XWikiAllGroup");
+        this.oldcore.getSpyXWiki().saveDocument(planted, xcontext);
+
+        this.store.store(code,
+            new AuthorizationSession(this.adminReference, 0, new Nonce("nonce"), System.currentTimeMillis() + HOUR));
+
+        // Nothing written by someone else is saved by the superadmin
+        XWikiDocument document =
+            this.oldcore.getSpyXWiki().getDocument(planted.getDocumentReference(), xcontext);
+        assertTrue(StoreUtils.isStoreAuthor(document, xcontext));
+        assertEquals("", document.getContent());
+        assertNull(document.getXObject(rightsReference));
+
+        assertNotNull(this.store.consume(code));
+    }
+
+    @Test
+    void removeCodeWrittenByAnotherAuthor() throws Exception
+    {
+        AuthorizationCode code = new AuthorizationCode("forged");
+        XWikiDocument planted = plantDocument(code, System.currentTimeMillis() + HOUR);
+
+        this.store.remove(code);
+
+        verify(this.oldcore.getSpyXWiki(), never()).deleteDocument(any(), anyBoolean(), any());
+        assertFalse(this.oldcore.getSpyXWiki()
+            .getDocument(planted.getDocumentReference(), this.oldcore.getXWikiContext()).isNew());
+    }
+
+    @Test
+    void sweepOnlyCodesOfTheStore() throws Exception
+    {
+        XWikiContext xcontext = this.oldcore.getXWikiContext();
+
+        // An expired code stored by the store
+        AuthorizationCode expiredCode = new AuthorizationCode();
+        this.store.store(expiredCode,
+            new AuthorizationSession(this.adminReference, 0, null, System.currentTimeMillis() - HOUR));
+        DocumentReference expiredReference = new DocumentReference(xcontext.getMainXWiki(),
+            Arrays.asList(XWiki.SYSTEM_SPACE, "OIDC", "AuthorizationCodes"), StoreUtils.digest(expiredCode.getValue()));
+
+        // An expired code written by someone else
+        XWikiDocument planted = plantDocument(new AuthorizationCode("forged"), System.currentTimeMillis() - HOUR);
+
+        when(this.query.execute())
+            .thenReturn(Arrays.asList("XWiki.OIDC.AuthorizationCodes." + expiredReference.getName(),
+                "XWiki.OIDC.AuthorizationCodes." + planted.getDocumentReference().getName()));
+        ReflectionUtils.setFieldValue(this.store, "lastSweep", 0L);
+
+        this.store.store(new AuthorizationCode(),
+            new AuthorizationSession(this.adminReference, 0, null, System.currentTimeMillis() + HOUR));
+
+        // The sweep is limited to the space of the codes
+        verify(this.query).bindValue("space", "XWiki.OIDC.AuthorizationCodes");
+
+        assertTrue(this.oldcore.getSpyXWiki().getDocument(expiredReference, xcontext).isNew());
+        assertFalse(this.oldcore.getSpyXWiki().getDocument(planted.getDocumentReference(), xcontext).isNew());
+    }
+
+    private XWikiDocument plantDocument(AuthorizationCode code, long expiration) throws Exception
+    {
+        XWikiContext xcontext = this.oldcore.getXWikiContext();
+
+        XWikiDocument document = this.oldcore.getSpyXWiki()
+            .getDocument(new DocumentReference(xcontext.getMainXWiki(),
+                Arrays.asList(XWiki.SYSTEM_SPACE, "OIDC", "AuthorizationCodes"), StoreUtils.digest(code.getValue())),
+                xcontext);
+        BaseObject codeObject = document.newXObject(WikiAuthorizationCodeStore.REFERENCE, xcontext);
+        codeObject.setStringValue(WikiAuthorizationCodeStore.FIELD_USER, "XWiki.Admin");
+        codeObject.setDateValue(WikiAuthorizationCodeStore.FIELD_EXPIRATION, new Date(expiration));
+        document.setContentAuthorReference(
+            new DocumentReference(xcontext.getWikiId(), XWiki.SYSTEM_SPACE, "Attacker"));
+        this.oldcore.getSpyXWiki().saveDocument(document, xcontext);
+
+        return this.oldcore.getSpyXWiki().getDocument(document.getDocumentReference(), xcontext);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.util;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.component.util.ReflectionUtils;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Validate {@link InvalidationGenerations}.
+ * 
+ * @version $Id$
+ */
+class InvalidationGenerationsTest
+{
+    private final InvalidationGenerations<String> generations = new InvalidationGenerations<>(2);
+
+    @Test
+    void invalidate()
+    {
+        long generation = this.generations.get();
+
+        assertFalse(this.generations.isInvalidated("key", generation));
+
+        this.generations.invalidate("other");
+
+        assertFalse(this.generations.isInvalidated("key", generation));
+        assertTrue(this.generations.isInvalidated("other", generation));
+
+        this.generations.invalidate("key");
+
+        assertTrue(this.generations.isInvalidated("key", generation));
+        assertFalse(this.generations.isInvalidated("key", this.generations.get()));
+    }
+
+    @Test
+    void invalidateAll()
+    {
+        long generation = this.generations.get();
+
+        this.generations.invalidateAll();
+
+        assertTrue(this.generations.isInvalidated("key", generation));
+        assertFalse(this.generations.isInvalidated("key", this.generations.get()));
+    }
+
+    @Test
+    void invalidateMoreThanMax()
+    {
+        long generation = this.generations.get();
+
+        this.generations.invalidate("key1");
+        this.generations.invalidate("key2");
+
+        long afterKey2 = this.generations.get();
+
+        // Forget about key1 and key2
+        this.generations.invalidate("key3");
+
+        assertTrue(this.generations.isInvalidated("key1", generation));
+        assertTrue(this.generations.isInvalidated("other", afterKey2));
+        assertTrue(this.generations.isInvalidated("key3", afterKey2));
+        assertFalse(this.generations.isInvalidated("other", this.generations.get()));
+    }
+
+    @Test
+    void invalidateWhileForgetting()
+    {
+        // Invalidate a key between the moment the floor is raised and the moment the details are forgotten
+        ReflectionUtils.setFieldValue(this.generations, "invalidations", new ConcurrentHashMap<String, Long>()
+        {
+            private boolean invalidating;
+
+            @Override
+            public Collection<Long> values()
+            {
+                if (!this.invalidating) {
+                    this.invalidating = true;
+                    generations.invalidate("key");
+                }
+
+                return super.values();
+            }
+        });
+
+        long generation = this.generations.get();
+
+        this.generations.invalidateAll();
+
+        long afterAll = generation + 1;
+
+        assertTrue(this.generations.isInvalidated("key", generation));
+        assertFalse(this.generations.isInvalidated("other", afterAll));
+        assertTrue(this.generations.isInvalidated("key", afterAll));
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.oidc.provider.internal.util;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.rendering.syntax.Syntax;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.test.MockitoOldcore;
+import com.xpn.xwiki.test.junit5.mockito.InjectMockitoOldcore;
+import com.xpn.xwiki.test.junit5.mockito.OldcoreTest;
+import com.xpn.xwiki.test.reference.ReferenceComponentList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Validate {@link StoreUtils}.
+ *
+ * @version $Id$
+ */
+@OldcoreTest
+@ReferenceComponentList
+class StoreUtilsTest
+{
+    @InjectMockitoOldcore
+    MockitoOldcore oldcore;
+
+    @Test
+    void reset() throws Exception
+    {
+        XWikiContext xcontext = this.oldcore.getXWikiContext();
+        LocalDocumentReference rightsReference = new LocalDocumentReference(XWiki.SYSTEM_SPACE, "XWikiRights");
+        LocalDocumentReference globalRightsReference =
+            new LocalDocumentReference(XWiki.SYSTEM_SPACE, "XWikiGlobalRights");
+
+        // What someone could plant at the location of a store document
+        XWikiDocument document =
+            new XWikiDocument(new DocumentReference(xcontext.getWikiId(), XWiki.SYSTEM_SPACE, "Planted"));
+        document.setSyntax(Syntax.XWIKI_2_1);
+        document.setContent("{{groovy}}println 'executed'{{/groovy}}");
+        document.setTitle("$xcontext.user");
+        document.newXObject(rightsReference, xcontext).setLargeStringValue("groups", "XWiki.XWikiAllGroup");
+        document.newXObject(globalRightsReference, xcontext);
+        document.getXClass().addTextField("field", "Field", 30);
+        document.setAttachment(new XWikiAttachment(document, "script.vm"));
+
+        StoreUtils.reset(document);
+
+        assertEquals(Syntax.PLAIN_1_0, document.getSyntax());
+        assertEquals("", document.getContent());
+        assertEquals("", document.getTitle());
+        assertNull(document.getXObject(rightsReference));
+        assertNull(document.getXObject(globalRightsReference));
+        assertTrue(document.getXClass().getFieldList().isEmpty());
+        assertTrue(document.getAttachmentList().isEmpty());
+    }
+}